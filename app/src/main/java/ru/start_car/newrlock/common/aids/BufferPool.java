@@ -0,0 +1,293 @@
+package ru.start_car.newrlock.common.aids;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * Pool of byte buffers grouped by size classes (powers of 2 from MINIMUM_BUFFER_SIZE to MAXIMUM_BUFFER_SIZE).
+ * Buffers are taken by acquire and must be given back by release when they are not used anymore.
+ * Buffers bigger than MAXIMUM_BUFFER_SIZE are allocated every time and aren't kept by the pool.
+ * In leak detection mode the pool remembers where every buffer was taken and logs buffers
+ * collected by GC without release (it is slow, so use it for debugging only)
+ */
+public final class BufferPool {
+	/**
+	 * Size of the smallest size class
+	 */
+	public static final int MINIMUM_BUFFER_SIZE = 64;
+	/**
+	 * Size of the biggest size class
+	 */
+	public static final int MAXIMUM_BUFFER_SIZE = 64 * 1024;
+	/**
+	 * Count of free buffers kept for every size class by default
+	 */
+	public static final int DEFAULT_BUFFERS_PER_CLASS = 16;
+
+	private static final int MINIMUM_SIZE_SHIFT = Integer.numberOfTrailingZeros(MINIMUM_BUFFER_SIZE);
+	private static final int CLASS_COUNT = Integer.numberOfTrailingZeros(MAXIMUM_BUFFER_SIZE) - MINIMUM_SIZE_SHIFT + 1;
+
+	private static final BufferPool s_Heap = new BufferPool(false, DEFAULT_BUFFERS_PER_CLASS);
+	private static final BufferPool s_Direct = new BufferPool(true, DEFAULT_BUFFERS_PER_CLASS);
+
+	/**
+	 * Shared pool of heap buffers (buffers have accessible array)
+	 * @return Pool instance
+	 */
+	public static BufferPool getHeap() {
+		return s_Heap;
+	}
+
+	/**
+	 * Shared pool of direct buffers (for channel I/O)
+	 * @return Pool instance
+	 */
+	public static BufferPool getDirect() {
+		return s_Direct;
+	}
+
+	/**
+	 * Information about taken buffer to find leaks
+	 */
+	private static final class Allocation extends WeakReference<ByteBuffer> {
+		public final Exception trace;
+
+		public Allocation(ByteBuffer buffer, ReferenceQueue<ByteBuffer> queue) {
+			super(buffer, queue);
+			trace = new Exception("Buffer of " + buffer.capacity() + " bytes is acquired here");
+		}
+	}
+
+	private final boolean m_IsDirect;
+	private final int m_BuffersPerClass;
+	private final ArrayList<ArrayDeque<ByteBuffer>> m_Classes;
+
+	private volatile boolean m_IsLeakDetection;
+	private final ArrayList<Allocation> m_Allocations = new ArrayList<Allocation>();
+	private final ReferenceQueue<ByteBuffer> m_Collected = new ReferenceQueue<ByteBuffer>();
+
+	private long m_AcquiredCount;
+	private long m_AllocatedCount;
+	private long m_ReleasedCount;
+	private long m_DroppedCount;
+	private long m_LeakedCount;
+
+	/**
+	 * Create pool
+	 * @param isDirect True to allocate direct buffers, false for heap ones
+	 * @param buffersPerClass Count of free buffers kept for every size class
+	 */
+	public BufferPool(boolean isDirect, int buffersPerClass) {
+		m_IsDirect = isDirect;
+		m_BuffersPerClass = Math.max(buffersPerClass, 0);
+		m_Classes = new ArrayList<ArrayDeque<ByteBuffer>>(CLASS_COUNT);
+		for (int i = 0; i < CLASS_COUNT; i++) {
+			m_Classes.add(new ArrayDeque<ByteBuffer>());
+		}
+	}
+
+	public boolean getIsDirect() {
+		return m_IsDirect;
+	}
+
+	public synchronized boolean getLeakDetection() {
+		return m_IsLeakDetection;
+	}
+
+	/**
+	 * Turn on/off detection of buffers which are not released. Turn it on before buffers are taken,
+	 * otherwise release of earlier taken buffers is reported as wrong
+	 * @param value True to turn on
+	 */
+	public synchronized void setLeakDetection(boolean value) {
+		m_IsLeakDetection = value;
+		if (!value) {
+			m_Allocations.clear();
+		}
+	}
+
+	/**
+	 * Take buffer from the pool
+	 * @param size Required size
+	 * @return Buffer with position 0 and limit equal to size. Its capacity can be bigger
+	 */
+	public ByteBuffer acquire(int size) {
+		if (size < 0) {
+			throw new IllegalArgumentException("Buffer size is negative");
+		}
+		int index = getClassIndex(size);
+		ByteBuffer buffer = null;
+		synchronized (this) {
+			m_AcquiredCount++;
+			if (index >= 0) {
+				buffer = m_Classes.get(index).pollFirst();
+			}
+			if (buffer == null) {
+				m_AllocatedCount++;
+			}
+		}
+		if (buffer == null) {
+			int capacity = index >= 0 ? MINIMUM_BUFFER_SIZE << index : size;
+			buffer = m_IsDirect ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+		}
+		buffer.clear();
+		buffer.limit(size);
+		if (m_IsLeakDetection) {
+			track(buffer);
+		}
+		return buffer;
+	}
+
+	/**
+	 * Give buffer back to the pool. The buffer must not be used after this call
+	 * @param buffer Buffer taken by acquire (null is ignored)
+	 */
+	public void release(ByteBuffer buffer) {
+		if (buffer == null) {
+			return;
+		}
+		int capacity = buffer.capacity();
+		int index = getClassIndex(capacity);
+		synchronized (this) {
+			m_ReleasedCount++;
+			if (m_IsLeakDetection && !untrack(buffer)) {
+				PlatformTools.logWarning(Tools.getMethodName() + ": buffer is released twice or it isn't from the pool");
+				return;
+			}
+			if (index >= 0 && (MINIMUM_BUFFER_SIZE << index) == capacity && buffer.isDirect() == m_IsDirect) {
+				ArrayDeque<ByteBuffer> free = m_Classes.get(index);
+				if (free.size() < m_BuffersPerClass) {
+					free.addFirst(buffer);
+					return;
+				}
+			}
+			m_DroppedCount++;
+		}
+	}
+
+	/**
+	 * Remove all free buffers from the pool
+	 */
+	public synchronized void trim() {
+		for (ArrayDeque<ByteBuffer> free : m_Classes) {
+			free.clear();
+		}
+	}
+
+	/**
+	 * Count of acquire calls
+	 */
+	public synchronized long getAcquiredCount() {
+		return m_AcquiredCount;
+	}
+
+	/**
+	 * Count of buffers allocated because the pool had no free buffer of required size
+	 */
+	public synchronized long getAllocatedCount() {
+		return m_AllocatedCount;
+	}
+
+	/**
+	 * Count of acquire calls served by free buffers
+	 */
+	public synchronized long getReusedCount() {
+		return m_AcquiredCount - m_AllocatedCount;
+	}
+
+	/**
+	 * Count of release calls
+	 */
+	public synchronized long getReleasedCount() {
+		return m_ReleasedCount;
+	}
+
+	/**
+	 * Count of released buffers which were not kept by the pool (it was full or size was not suitable)
+	 */
+	public synchronized long getDroppedCount() {
+		return m_DroppedCount;
+	}
+
+	/**
+	 * Count of taken buffers which were not released yet
+	 */
+	public synchronized long getOutstandingCount() {
+		return m_AcquiredCount - m_ReleasedCount;
+	}
+
+	/**
+	 * Count of buffers collected by GC without release (only in leak detection mode)
+	 */
+	public synchronized long getLeakedCount() {
+		checkLeaks();
+		return m_LeakedCount;
+	}
+
+	/**
+	 * Count of free buffers in the pool
+	 */
+	public synchronized int getFreeCount() {
+		int count = 0;
+		for (ArrayDeque<ByteBuffer> free : m_Classes) {
+			count += free.size();
+		}
+		return count;
+	}
+
+	/**
+	 * Statistics of the pool as text to log
+	 */
+	public synchronized String getStatistics() {
+		return (m_IsDirect ? "direct" : "heap") + " acquired:" + m_AcquiredCount + " allocated:" + m_AllocatedCount +
+			" released:" + m_ReleasedCount + " dropped:" + m_DroppedCount + " outstanding:" + getOutstandingCount() +
+			" free:" + getFreeCount() + " leaked:" + getLeakedCount();
+	}
+
+	/**
+	 * Get size class for the size
+	 * @param size Size of buffer
+	 * @return Index of size class or -1 if the size is too big
+	 */
+	private static int getClassIndex(int size) {
+		if (size <= MINIMUM_BUFFER_SIZE) {
+			return 0;
+		}
+		if (size > MAXIMUM_BUFFER_SIZE) {
+			return -1;
+		}
+		return 32 - Integer.numberOfLeadingZeros(size - 1) - MINIMUM_SIZE_SHIFT;
+	}
+
+	private synchronized void track(ByteBuffer buffer) {
+		checkLeaks();
+		m_Allocations.add(new Allocation(buffer, m_Collected));
+	}
+
+	private boolean untrack(ByteBuffer buffer) {
+		checkLeaks();
+		for (int i = m_Allocations.size() - 1; i >= 0; i--) {
+			if (m_Allocations.get(i).get() == buffer) {
+				m_Allocations.remove(i);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Log buffers which were collected by GC while they were taken
+	 */
+	private void checkLeaks() {
+		Allocation allocation;
+		while ((allocation = (Allocation)m_Collected.poll()) != null) {
+			if (m_Allocations.remove(allocation)) {
+				m_LeakedCount++;
+				PlatformTools.logError(Tools.getMethodName() + ": buffer is not released to the pool\n" + Tools.getExceptionInfo(allocation.trace));
+			}
+		}
+	}
+}
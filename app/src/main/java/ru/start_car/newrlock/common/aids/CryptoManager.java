@@ -1,30 +1,37 @@
 package ru.start_car.newrlock.common.aids;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
-import java.security.InvalidAlgorithmParameterException;
+import java.security.GeneralSecurityException;
 import java.security.InvalidKeyException;
 import java.security.KeyFactory;
 import java.security.KeyPair;
-import java.security.KeyPairGenerator;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
 import java.security.PublicKey;
 import java.security.SecureRandom;
+import java.security.Security;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECFieldFp;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.ECPublicKeySpec;
+import java.security.spec.EllipticCurve;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.RSAPublicKeySpec;
 import java.util.Arrays;
 
-import javax.crypto.BadPaddingException;
+import javax.crypto.AEADBadTagException;
 import javax.crypto.Cipher;
-import javax.crypto.CipherInputStream;
-import javax.crypto.CipherOutputStream;
-import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.KeyAgreement;
 import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
@@ -52,7 +59,9 @@ import javax.crypto.spec.SecretKeySpec;
  * 3. CreateOpenKeyAndGetItEncrypted()
  * 4. SetOtherOpenKeyFromDecrypted()
  * 5. EncryptData() / DecryptData()
- * If you need to reuse object call Reset() for it
+ * If you need to reuse object call Reset() for it.
+ * Symmetric keys are encrypted with RSA keys or wrapped with ECDH agreed key (see KeyExchange, setKeyExchange).
+ * Other side finds out the mode by received public key (see getKeyExchange(KeyInfo))
  */
 public final class CryptoManager {
 	public static final class KeyInfo {
@@ -72,6 +81,10 @@ public final class CryptoManager {
 	private static final class AsymmetricData {
 		public KeyPair keysCreated;
 		public KeyInfo publicKeyReceived;
+		/**
+		 * Key to wrap symmetric keys agreed by ECDH (created on step 3)
+		 */
+		public byte[] wrappingKey;
 	}
 
 	/**
@@ -80,6 +93,54 @@ public final class CryptoManager {
 	private static final class SymmetricData {
 		public final KeyInfo keysCreated = new KeyInfo();
 		public final KeyInfo keysReceived = new KeyInfo();
+		/**
+		 * Ciphers of the session created on first use. doFinal resets them to initialized state, so they are reused for every message
+		 */
+		public Cipher encryptCipher;
+		public Cipher decryptCipher;
+		/**
+		 * Keys of authenticated encryption of packets created on first use
+		 */
+		public PacketKey sealKey;
+		public PacketKey openKey;
+	}
+
+	/**
+	 * Key of authenticated encryption of packets derived from symmetric key and IV of one side
+	 */
+	private static final class PacketKey {
+		public final Cipher cipher;
+		public final SecretKeySpec key;
+		/**
+		 * Salt derived from IV followed by packet Id
+		 */
+		public final byte[] nonce = new byte[AEAD_NONCE_SIZE];
+
+		public PacketKey(final KeyInfo info, final byte[] salt) throws GeneralSecurityException {
+			cipher = Cipher.getInstance(ALGORITHM_AEAD);
+			key = new SecretKeySpec(hashData(AEAD_KEY_LABEL, info.modulusOrKey), ALGORITHM_SYMMETRIC);
+			final byte[] bb = new byte[info.exponentOrIV.length + salt.length];
+			System.arraycopy(info.exponentOrIV, 0, bb, 0, info.exponentOrIV.length);
+			System.arraycopy(salt, 0, bb, info.exponentOrIV.length, salt.length);
+			System.arraycopy(hashData(AEAD_SALT_LABEL, bb), 0, nonce, 0, AEAD_NONCE_SIZE - 4);
+		}
+
+		/**
+		 * Initialize cipher for the packet. Packet fields must be passed to updateAAD after it
+		 * @param mode Cipher.ENCRYPT_MODE or Cipher.DECRYPT_MODE
+		 * @param packetId Packet Id
+		 */
+		public void init(int mode, int packetId) throws GeneralSecurityException {
+			putInt(nonce, AEAD_NONCE_SIZE - 4, packetId);
+			cipher.init(mode, key, new GCMParameterSpec(AEAD_TAG_SIZE * 8, nonce));
+		}
+
+		private static void putInt(final byte[] target, int index, int value) {
+			target[index] = (byte)(value & 0xFF);
+			target[index + 1] = (byte)((value >> 8) & 0xFF);
+			target[index + 2] = (byte)((value >> 16) & 0xFF);
+			target[index + 3] = (byte)((value >> 24) & 0xFF);
+		}
 	}
 	
 	/**
@@ -97,6 +158,27 @@ public final class CryptoManager {
 	 */
 	private int m_InitialStep;
 
+	/**
+	 * Salt of connection mixed into nonces of sealed packets
+	 */
+	private byte[] m_PacketSalt;
+
+	/**
+	 * Lockers of cached ciphers (data is encrypted and decrypted in different threads)
+	 */
+	private final Object m_EncryptLocker = new Object();
+	private final Object m_DecryptLocker = new Object();
+
+	/**
+	 * Name of provider of symmetric ciphers or null to use the default one (see selectFastestProvider)
+	 */
+	private static volatile String s_SymmetricProvider;
+	/**
+	 * Size of data and count of rounds to measure speed of provider
+	 */
+	private static final int PROVIDER_BENCHMARK_SIZE = 1024;
+	private static final int PROVIDER_BENCHMARK_ROUNDS = 200;
+
 	private static final String HASH_ALGORITHM = "SHA-256";
 
 	private static final String ALGORITHM_ASYMMETRIC = "RSA";
@@ -106,12 +188,87 @@ public final class CryptoManager {
 	private static final String ALGORITHM_SYMMETRIC = "AES";
 	private static final String ALGORITHM_SYMMETRIC_PARAM = "AES/CBC/ISO10126Padding";
 	private static final int SYMMETRIC_KEY_SIZE = 256;
+	private static final int SYMMETRIC_BLOCK_SIZE = 16;
+
+	private static final String ALGORITHM_AEAD = "AES/GCM/NoPadding";
+	/**
+	 * Size of authentication tag of sealed packet
+	 */
+	public static final int AEAD_TAG_SIZE = 16;
+	private static final int AEAD_NONCE_SIZE = 12;
+	private static final byte[] AEAD_KEY_LABEL = { 'a', 'e', 'a', 'd', '-', 'k', 'e', 'y' };
+	private static final byte[] AEAD_SALT_LABEL = { 'a', 'e', 'a', 'd', '-', 's', 'a', 'l', 't' };
+
+	private static final String ALGORITHM_AGREEMENT_KEY = "EC";
+	private static final String ALGORITHM_AGREEMENT = "ECDH";
+	private static final String AGREEMENT_CURVE = "secp256r1";
+	private static final int AGREEMENT_FIELD_SIZE = 32;
+	private static final String ALGORITHM_WRAP = "AES/ECB/NoPadding";
+	/**
+	 * Value sent instead of exponent of public key in ECDH mode
+	 */
+	private static final byte[] ECDH_P256_MARKER = { 'E', 'C', 'D', 'H', '-', 'P', '2', '5', '6' };
+	private static final byte[] ECDH_KEY_LABEL = { 'e', 'c', 'd', 'h', '-', 'w', 'r', 'a', 'p' };
+
+	private static final String ALGORITHM_MAC = "HmacSHA256";
+	private static final int MAC_SIZE = 32;
+	/**
+	 * Labels to derive different keys of sealed data from one secret
+	 */
+	private static final byte[] SEAL_KEY_LABEL = { 's', 'e', 'a', 'l', '-', 'k', 'e', 'y' };
+	private static final byte[] SEAL_MAC_LABEL = { 's', 'e', 'a', 'l', '-', 'm', 'a', 'c' };
 
 	private static final Charset UTF8_CHARSET = Charset.forName("UTF-8");
 	
 	static {
 		PRNGFixes.apply();
 	}
+
+	/**
+	 * Key pairs generated in background for step 1
+	 */
+	private static final KeyPairPool s_KeyPairPool = new KeyPairPool(ALGORITHM_ASYMMETRIC, ASYMMETRIC_KEY_SIZE, KeyPairPool.DEFAULT_CAPACITY);
+	/**
+	 * EC key pairs are generated fast, so one ready pair is enough
+	 */
+	private static final KeyPairPool s_AgreementKeyPairPool = new KeyPairPool(ALGORITHM_AGREEMENT_KEY, new ECGenParameterSpec(AGREEMENT_CURVE), 1);
+
+	/**
+	 * Get pool of key pairs for step 1 (to prepare keys before connection or to change its capacity)
+	 * @param mode Key exchange mode
+	 * @return Pool of key pairs
+	 */
+	public static KeyPairPool getKeyPairPool(KeyExchange mode) {
+		return mode == KeyExchange.EcdhP256 ? s_AgreementKeyPairPool : s_KeyPairPool;
+	}
+
+	private KeyExchange m_KeyExchange = KeyExchange.Rsa;
+	/**
+	 * Get key exchange mode
+	 */
+	public KeyExchange getKeyExchange() {
+		return m_KeyExchange;
+	}
+	/**
+	 * Set key exchange mode before step 1. It is not changed by reset
+	 * @param value Key exchange mode
+	 */
+	public void setKeyExchange(KeyExchange value) {
+		if (m_InitialStep == 0) {
+			m_KeyExchange = value;
+			return;
+		}
+		PlatformTools.logError(Tools.getMethodName() + ": keys are being exchanged");
+	}
+
+	/**
+	 * Find out key exchange mode of other side by its public key (to answer in the same mode)
+	 * @param key Public key got by createPublicKeyAndGetItPlain
+	 * @return Key exchange mode
+	 */
+	public static KeyExchange getKeyExchange(final KeyInfo key) {
+		return key != null && Arrays.equals(key.exponentOrIV, ECDH_P256_MARKER) ? KeyExchange.EcdhP256 : KeyExchange.Rsa;
+	}
 	
 	/**
 	 * Create Hash from password and salt
@@ -190,6 +347,7 @@ public final class CryptoManager {
 	 */
 	public void reset() {
 		m_InitialStep = 0;
+		m_PacketSalt = null;
 		m_AsymmetricData = null;
 		m_SymmetricData = null;
 	}
@@ -204,6 +362,13 @@ public final class CryptoManager {
 				m_AsymmetricData = createAsymmetricData();
 				m_InitialStep++;
 
+				if (m_KeyExchange == KeyExchange.EcdhP256) {
+					final KeyInfo res = new KeyInfo();
+					res.modulusOrKey = encodePoint(((ECPublicKey)m_AsymmetricData.keysCreated.getPublic()).getW());
+					res.exponentOrIV = ECDH_P256_MARKER.clone();
+					return res;
+				}
+
 				final KeyFactory fact = KeyFactory.getInstance(ALGORITHM_ASYMMETRIC);
 				final RSAPublicKeySpec pub = fact.getKeySpec(m_AsymmetricData.keysCreated.getPublic(), RSAPublicKeySpec.class);
 
@@ -230,7 +395,7 @@ public final class CryptoManager {
 	 */
 	public void setOtherPublicKeyFromPlain(final KeyInfo key) {
 		if (m_InitialStep == 1 && key != null && key.modulusOrKey != null && key.modulusOrKey.length > 0 &&
-			key.exponentOrIV != null && key.exponentOrIV.length > 0) {
+			key.exponentOrIV != null && key.exponentOrIV.length > 0 && getKeyExchange(key) == m_KeyExchange) {
 			m_AsymmetricData.publicKeyReceived = key;
 			m_InitialStep++;
 			return;
@@ -272,6 +437,9 @@ public final class CryptoManager {
 					m_SymmetricData.keysReceived.exponentOrIV = decryptWithAsymmetric(encryptedData.exponentOrIV);
 					if (m_SymmetricData.keysReceived.modulusOrKey != null && m_SymmetricData.keysReceived.exponentOrIV != null) {
 						m_InitialStep++;
+						if (m_AsymmetricData.wrappingKey != null) {
+							Arrays.fill(m_AsymmetricData.wrappingKey, (byte) 0);
+						}
 						m_AsymmetricData = null;
 						return;
 					}
@@ -284,6 +452,105 @@ public final class CryptoManager {
 		PlatformTools.logError(Tools.getMethodName() + ": Error on step 4");
 	}
 
+	/**
+	 * Get own symmetric key of established session (to resume the session later)
+	 * @return Copy of the key or null if keys are not exchanged
+	 */
+	public KeyInfo getOwnOpenKey() {
+		return m_InitialStep == 4 ? copyKey(m_SymmetricData.keysCreated) : null;
+	}
+
+	/**
+	 * Get symmetric key of other side of established session (to resume the session later)
+	 * @return Copy of the key or null if keys are not exchanged
+	 */
+	public KeyInfo getOtherOpenKey() {
+		return m_InitialStep == 4 ? copyKey(m_SymmetricData.keysReceived) : null;
+	}
+
+	/**
+	 * Restore symmetric keys of previous session instead of steps 1-4
+	 * @param ownKey Own key got by getOwnOpenKey
+	 * @param otherKey Other side key got by getOtherOpenKey
+	 */
+	public void restoreOpenKeys(final KeyInfo ownKey, final KeyInfo otherKey) {
+		if (ownKey != null && otherKey != null) {
+			m_AsymmetricData = null;
+			m_SymmetricData = new SymmetricData();
+			m_SymmetricData.keysCreated.modulusOrKey = ownKey.modulusOrKey.clone();
+			m_SymmetricData.keysCreated.exponentOrIV = ownKey.exponentOrIV.clone();
+			m_SymmetricData.keysReceived.modulusOrKey = otherKey.modulusOrKey.clone();
+			m_SymmetricData.keysReceived.exponentOrIV = otherKey.exponentOrIV.clone();
+			m_InitialStep = 4;
+			return;
+		}
+		PlatformTools.logError(Tools.getMethodName() + ": Error on restore");
+	}
+
+	private static KeyInfo copyKey(final KeyInfo key) {
+		final KeyInfo res = new KeyInfo();
+		res.modulusOrKey = key.modulusOrKey.clone();
+		res.exponentOrIV = key.exponentOrIV.clone();
+		return res;
+	}
+
+	/**
+	 * Encrypt data to store it: random IV, encrypted data and HMAC of them
+	 * @param secret Secret to derive keys from (for example key from platform key store)
+	 * @param plainData Bytes to be encrypted
+	 * @return Sealed bytes or null on error
+	 */
+	public static byte[] sealData(final byte[] secret, final byte[] plainData) {
+		if (secret != null && plainData != null) {
+			try {
+				final byte[] iv = generateRandom(SYMMETRIC_BLOCK_SIZE);
+				final byte[] encrypted = getCypher(hashData(SEAL_KEY_LABEL, secret), iv, Cipher.ENCRYPT_MODE).doFinal(plainData);
+				final byte[] res = new byte[iv.length + encrypted.length + MAC_SIZE];
+				System.arraycopy(iv, 0, res, 0, iv.length);
+				System.arraycopy(encrypted, 0, res, iv.length, encrypted.length);
+				final Mac mac = getMac(secret);
+				mac.update(res, 0, iv.length + encrypted.length);
+				mac.doFinal(res, iv.length + encrypted.length);
+				return res;
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+		PlatformTools.logError(Tools.getMethodName() + ": Error on sealData");
+		return null;
+	}
+
+	/**
+	 * Check and decrypt data sealed by sealData
+	 * @param secret Secret used to seal the data
+	 * @param sealedData Sealed bytes
+	 * @return Plain bytes or null if the data is damaged or the secret is wrong
+	 */
+	public static byte[] openData(final byte[] secret, final byte[] sealedData) {
+		if (secret != null && sealedData != null && sealedData.length >= SYMMETRIC_BLOCK_SIZE * 2 + MAC_SIZE) {
+			try {
+				final int length = sealedData.length - MAC_SIZE;
+				final Mac mac = getMac(secret);
+				mac.update(sealedData, 0, length);
+				if (MessageDigest.isEqual(mac.doFinal(), Arrays.copyOfRange(sealedData, length, sealedData.length))) {
+					final byte[] iv = Arrays.copyOf(sealedData, SYMMETRIC_BLOCK_SIZE);
+					return getCypher(hashData(SEAL_KEY_LABEL, secret), iv, Cipher.DECRYPT_MODE)
+						.doFinal(sealedData, SYMMETRIC_BLOCK_SIZE, length - SYMMETRIC_BLOCK_SIZE);
+				}
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+		PlatformTools.logError(Tools.getMethodName() + ": Error on openData");
+		return null;
+	}
+
+	private static Mac getMac(final byte[] secret) throws NoSuchAlgorithmException, InvalidKeyException {
+		final Mac mac = Mac.getInstance(ALGORITHM_MAC);
+		mac.init(new SecretKeySpec(hashData(SEAL_MAC_LABEL, secret), ALGORITHM_MAC));
+		return mac;
+	}
+
 	/**
 	 * Encrypt data with own symmetric key
 	 * @param plainData Bytes to be encrypted
@@ -294,22 +561,53 @@ public final class CryptoManager {
 	public byte[] encryptData(final byte[] plainData, int index, int count) {
 		if (m_InitialStep == 4 && plainData != null && index >= 0 && index < count && count <= plainData.length - index) {
 			try {
-				final Cipher encryptCipher = getCypher(m_SymmetricData.keysCreated.modulusOrKey, m_SymmetricData.keysCreated.exponentOrIV, Cipher.ENCRYPT_MODE);
-				
-				final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-				final CipherOutputStream cipherOutputStream = new CipherOutputStream(outputStream, encryptCipher);
-				cipherOutputStream.write(plainData, index, count);
-				cipherOutputStream.flush();
-				cipherOutputStream.close();
-				return outputStream.toByteArray();
+				final byte[] res = new byte[getEncryptedSize(count)];
+				final int length;
+				synchronized (m_EncryptLocker) {
+					length = getEncryptCipher().doFinal(plainData, index, count, res, 0);
+				}
+				return length == res.length ? res : Arrays.copyOf(res, length);
 			} catch (Exception e){
 				e.printStackTrace();
+				dropCiphers();
 			}
 		}
 		PlatformTools.logError(Tools.getMethodName() + ": Error on encryptData");
 		return null;
 	}
 
+	/**
+	 * Get maximum size of data after encryption
+	 * @param count Size of plain data
+	 * @return Size of encrypted data
+	 */
+	public static int getEncryptedSize(int count) {
+		// padding always adds from 1 to block size bytes
+		return (count / SYMMETRIC_BLOCK_SIZE + 1) * SYMMETRIC_BLOCK_SIZE;
+	}
+
+	/**
+	 * Encrypt data with own symmetric key in place: encrypted bytes replace plain ones in the same array
+	 * @param buffer Array with data, it must have getEncryptedSize(count) bytes from index
+	 * @param index Index of data in the array
+	 * @param count Count of bytes to proceed
+	 * @return Count of encrypted bytes or -1 on error
+	 */
+	public int encryptDataInPlace(final byte[] buffer, int index, int count) {
+		if (m_InitialStep == 4 && buffer != null && index >= 0 && count > 0 && getEncryptedSize(count) <= buffer.length - index) {
+			try {
+				synchronized (m_EncryptLocker) {
+					return getEncryptCipher().doFinal(buffer, index, count, buffer, index);
+				}
+			} catch (Exception e){
+				e.printStackTrace();
+				dropCiphers();
+			}
+		}
+		PlatformTools.logError(Tools.getMethodName() + ": Error on encryptDataInPlace");
+		return -1;
+	}
+
 	/**
 	 * Decrypt data with symmetric key of other side
 	 * @param encryptedData Byte array of encrypted data
@@ -320,48 +618,244 @@ public final class CryptoManager {
 	public byte[] decryptData(final byte[] encryptedData, int index, int count) {
 		if (m_InitialStep == 4 && encryptedData != null && index >= 0 && index < count && count <= (encryptedData.length - index)) {
 			try {
-				final Cipher decryptCipher = getCypher(m_SymmetricData.keysReceived.modulusOrKey,
-						m_SymmetricData.keysReceived.exponentOrIV,
-						Cipher.DECRYPT_MODE);
-				
-				final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-				final ByteArrayInputStream inStream = new ByteArrayInputStream(encryptedData, index, count);
-				final CipherInputStream cipherInputStream = new CipherInputStream(inStream, decryptCipher);
-				final byte[] buf = new byte[ASYMMETRIC_KEY_SIZE];
-				int bytesRead;
-				while ((bytesRead = cipherInputStream.read(buf)) >= 0) {
-					outputStream.write(buf, 0, bytesRead);
+				// decrypted data is never longer than encrypted one
+				final ByteBuffer buf = BufferPool.getHeap().acquire(count);
+				try {
+					final int len;
+					synchronized (m_DecryptLocker) {
+						len = getDecryptCipher().doFinal(encryptedData, index, count, buf.array(), buf.arrayOffset());
+					}
+					final byte[] res = new byte[len];
+					System.arraycopy(buf.array(), buf.arrayOffset(), res, 0, len);
+					return res;
+				} finally {
+					BufferPool.getHeap().release(buf);
 				}
-				cipherInputStream.close();
-		
-				return outputStream.toByteArray();
 			} catch (Exception e) {
 				e.printStackTrace();
+				dropCiphers();
 			}
 		}
 		PlatformTools.logError(Tools.getMethodName() + ": Error on decryptData");
 		return null;
 	}
 
-	private static Cipher getCypher(final byte[] key, final byte[] iv, int mode) throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException, InvalidAlgorithmParameterException {
+	/**
+	 * Encrypt data with own symmetric key into caller buffer (without allocations)
+	 * @param in Plain data between position and limit, position is moved to limit
+	 * @param out Buffer for encrypted data, it must have getEncryptedSize(in.remaining()) bytes remaining
+	 * @return Count of encrypted bytes or -1 on error
+	 */
+	public int encrypt(final ByteBuffer in, final ByteBuffer out) {
+		if (m_InitialStep == 4 && in != null && out != null && in.hasRemaining() && getEncryptedSize(in.remaining()) <= out.remaining()) {
+			try {
+				synchronized (m_EncryptLocker) {
+					return getEncryptCipher().doFinal(in, out);
+				}
+			} catch (Exception e) {
+				e.printStackTrace();
+				dropCiphers();
+			}
+		}
+		PlatformTools.logError(Tools.getMethodName() + ": Error on encrypt");
+		return -1;
+	}
+
+	/**
+	 * Decrypt data with symmetric key of other side into caller buffer (without allocations)
+	 * @param in Encrypted data between position and limit, position is moved to limit
+	 * @param out Buffer for decrypted data, it must have in.remaining() bytes remaining
+	 * @return Count of decrypted bytes or -1 on error
+	 */
+	public int decrypt(final ByteBuffer in, final ByteBuffer out) {
+		if (m_InitialStep == 4 && in != null && out != null && in.hasRemaining() && in.remaining() <= out.remaining()) {
+			try {
+				synchronized (m_DecryptLocker) {
+					return getDecryptCipher().doFinal(in, out);
+				}
+			} catch (Exception e) {
+				e.printStackTrace();
+				dropCiphers();
+			}
+		}
+		PlatformTools.logError(Tools.getMethodName() + ": Error on decrypt");
+		return -1;
+	}
+
+	/**
+	 * Set salt of connection for sealPacket and openPacket. It must be new for every connection (both sides know it),
+	 * because resumed session has the same keys and packet Ids can repeat
+	 * @param salt Salt of connection
+	 */
+	public void setPacketSalt(final byte[] salt) {
+		synchronized (m_EncryptLocker) {
+			synchronized (m_DecryptLocker) {
+				m_PacketSalt = salt != null ? salt.clone() : null;
+				if (m_SymmetricData != null) {
+					m_SymmetricData.sealKey = null;
+					m_SymmetricData.openKey = null;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Seal packet with key derived from own symmetric key (AES-GCM): message body is encrypted in place and authentication tag is written after it.
+	 * Nonce is salt derived from own IV and salt of connection (see setPacketSalt) and packet Id, so every packet Id must be sealed once
+	 * @param packetId Packet Id
+	 * @param buffer Array with packet fields and message body, it must have AEAD_TAG_SIZE bytes after the body
+	 * @param fieldsIndex Index of packet fields to authenticate (they end at message body)
+	 * @param index Index of message body
+	 * @param count Length of message body
+	 * @return Count of written bytes (count + AEAD_TAG_SIZE) or -1 on error
+	 */
+	public int sealPacket(int packetId, final byte[] buffer, int fieldsIndex, int index, int count) {
+		if (m_InitialStep == 4 && m_PacketSalt != null && buffer != null && fieldsIndex >= 0 && fieldsIndex <= index && count >= 0
+			&& count + AEAD_TAG_SIZE <= buffer.length - index) {
+			try {
+				synchronized (m_EncryptLocker) {
+					final SymmetricData data = m_SymmetricData;
+					if (data.sealKey == null) {
+						data.sealKey = new PacketKey(data.keysCreated, m_PacketSalt);
+					}
+					data.sealKey.init(Cipher.ENCRYPT_MODE, packetId);
+					data.sealKey.cipher.updateAAD(buffer, fieldsIndex, index - fieldsIndex);
+					return data.sealKey.cipher.doFinal(buffer, index, count, buffer, index);
+				}
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+		PlatformTools.logError(Tools.getMethodName() + ": Error on sealPacket");
+		return -1;
+	}
+
+	/**
+	 * Check and decrypt packet sealed by other side with sealPacket
+	 * @param packetId Packet Id
+	 * @param fields Packet fields to authenticate between position and limit
+	 * @param in Encrypted message body and authentication tag between position and limit
+	 * @param out Buffer for plain message body, it can share content with input
+	 * @return Length of plain message body or -1 if the packet is damaged or forged
+	 */
+	public int openPacket(int packetId, final ByteBuffer fields, final ByteBuffer in, final ByteBuffer out) {
+		if (m_InitialStep == 4 && m_PacketSalt != null && fields != null && in != null && out != null && in.remaining() >= AEAD_TAG_SIZE && in.remaining() - AEAD_TAG_SIZE <= out.remaining()) {
+			try {
+				synchronized (m_DecryptLocker) {
+					final SymmetricData data = m_SymmetricData;
+					if (data.openKey == null) {
+						data.openKey = new PacketKey(data.keysReceived, m_PacketSalt);
+					}
+					data.openKey.init(Cipher.DECRYPT_MODE, packetId);
+					data.openKey.cipher.updateAAD(fields);
+					return data.openKey.cipher.doFinal(in, out);
+				}
+			} catch (AEADBadTagException e) {
+				PlatformTools.logWarning(Tools.getMethodName() + ": wrong authentication tag. Id:" + packetId);
+				return -1;
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+		PlatformTools.logError(Tools.getMethodName() + ": Error on openPacket");
+		return -1;
+	}
+
+	/**
+	 * Get cached cipher with own symmetric key. Call it under m_EncryptLocker
+	 */
+	private Cipher getEncryptCipher() throws GeneralSecurityException {
+		final SymmetricData data = m_SymmetricData;
+		if (data.encryptCipher == null) {
+			data.encryptCipher = getCypher(data.keysCreated.modulusOrKey, data.keysCreated.exponentOrIV, Cipher.ENCRYPT_MODE);
+		}
+		return data.encryptCipher;
+	}
+
+	/**
+	 * Get cached cipher with symmetric key of other side. Call it under m_DecryptLocker
+	 */
+	private Cipher getDecryptCipher() throws GeneralSecurityException {
+		final SymmetricData data = m_SymmetricData;
+		if (data.decryptCipher == null) {
+			data.decryptCipher = getCypher(data.keysReceived.modulusOrKey, data.keysReceived.exponentOrIV, Cipher.DECRYPT_MODE);
+		}
+		return data.decryptCipher;
+	}
+
+	/**
+	 * Forget cached ciphers after error (state of cipher is not defined after failed doFinal), they are created again on next use
+	 */
+	private void dropCiphers() {
+		final SymmetricData data = m_SymmetricData;
+		if (data != null) {
+			synchronized (m_EncryptLocker) {
+				data.encryptCipher = null;
+			}
+			synchronized (m_DecryptLocker) {
+				data.decryptCipher = null;
+			}
+		}
+	}
+
+	private static Cipher getCypher(final byte[] key, final byte[] iv, int mode) throws GeneralSecurityException {
 		final SecretKeySpec keySpec = new SecretKeySpec(key, ALGORITHM_SYMMETRIC);
 		final IvParameterSpec ivSpec = new IvParameterSpec(iv);
 		
-		final Cipher cipher = Cipher.getInstance(ALGORITHM_SYMMETRIC_PARAM);
+		final String provider = s_SymmetricProvider;
+		final Cipher cipher = provider != null ? Cipher.getInstance(ALGORITHM_SYMMETRIC_PARAM, provider) : Cipher.getInstance(ALGORITHM_SYMMETRIC_PARAM);
 		cipher.init(mode, keySpec, ivSpec);
 		return cipher;
 	}
+
+	/**
+	 * Measure speed of symmetric cipher of every installed provider and use the fastest one for new sessions.
+	 * It takes some milliseconds, so call it once on application startup if needed
+	 * @return Name of selected provider or null if no provider supports the cipher
+	 */
+	public static String selectFastestProvider() {
+		final byte[] key = generateRandom(SYMMETRIC_KEY_SIZE / 8);
+		final byte[] iv = generateRandom(SYMMETRIC_BLOCK_SIZE);
+		final byte[] data = new byte[PROVIDER_BENCHMARK_SIZE];
+		final byte[] out = new byte[getEncryptedSize(data.length)];
+		String res = null;
+		long bestTime = Long.MAX_VALUE;
+		for (Provider provider : Security.getProviders()) {
+			try {
+				final Cipher cipher = Cipher.getInstance(ALGORITHM_SYMMETRIC_PARAM, provider);
+				cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, ALGORITHM_SYMMETRIC), new IvParameterSpec(iv));
+				// the first rounds warm up the provider
+				long start = 0;
+				for (int i = 0; i < PROVIDER_BENCHMARK_ROUNDS * 2; i++) {
+					if (i == PROVIDER_BENCHMARK_ROUNDS) {
+						start = System.nanoTime();
+					}
+					cipher.doFinal(data, 0, data.length, out, 0);
+				}
+				final long time = System.nanoTime() - start;
+				PlatformTools.logInformation(Tools.getMethodName() + ": " + provider.getName() + " " + time / PROVIDER_BENCHMARK_ROUNDS + " ns");
+				if (time < bestTime) {
+					bestTime = time;
+					res = provider.getName();
+				}
+			} catch (GeneralSecurityException e) {
+				// the provider doesn't support the cipher
+			}
+		}
+		if (res != null) {
+			s_SymmetricProvider = res;
+		}
+		return res;
+	}
 	
 	/**
 	 * Create asymmetric encoder helper
 	 * @return Created helper class to work with Asymmetric algorithm
 	 * @throws java.security.NoSuchAlgorithmException
 	 */
-	private AsymmetricData createAsymmetricData() throws NoSuchAlgorithmException/*, InvalidKeySpecException*/ {
+	private AsymmetricData createAsymmetricData() throws GeneralSecurityException {
 		final AsymmetricData res = new AsymmetricData();
-		final KeyPairGenerator keyGen = KeyPairGenerator.getInstance(ALGORITHM_ASYMMETRIC);
-		keyGen.initialize(ASYMMETRIC_KEY_SIZE);
-		res.keysCreated = keyGen.generateKeyPair();
+		res.keysCreated = getKeyPairPool(m_KeyExchange).take();
 		return res;
 	}
 
@@ -398,7 +892,10 @@ public final class CryptoManager {
 	 * @throws javax.crypto.IllegalBlockSizeException
 	 * @throws java.security.spec.InvalidKeySpecException
 	 */
-	private byte[] encryptWithAsymmetric(final byte[] plainData) throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException, InvalidKeySpecException {
+	private byte[] encryptWithAsymmetric(final byte[] plainData) throws GeneralSecurityException {
+		if (m_KeyExchange == KeyExchange.EcdhP256) {
+			return getWrapCipher(Cipher.ENCRYPT_MODE).doFinal(plainData);
+		}
 		final RSAPublicKeySpec keySpec = new RSAPublicKeySpec(
 				new BigInteger(1, m_AsymmetricData.publicKeyReceived.modulusOrKey),
 				new BigInteger(1, m_AsymmetricData.publicKeyReceived.exponentOrIV));
@@ -420,12 +917,85 @@ public final class CryptoManager {
 	 * @throws javax.crypto.BadPaddingException
 	 * @throws javax.crypto.IllegalBlockSizeException
 	 */
-	private byte[] decryptWithAsymmetric(final byte[] encryptedData) throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
+	private byte[] decryptWithAsymmetric(final byte[] encryptedData) throws GeneralSecurityException {
+		if (m_KeyExchange == KeyExchange.EcdhP256) {
+			return getWrapCipher(Cipher.DECRYPT_MODE).doFinal(encryptedData);
+		}
 		final Cipher cipher = Cipher.getInstance(ALGORITHM_ASYMMETRIC_PARAM);
 		cipher.init(Cipher.DECRYPT_MODE, m_AsymmetricData.keysCreated.getPrivate());
 		return cipher.doFinal(encryptedData);
 	}
 
+	/**
+	 * Get cipher to wrap symmetric keys (they are random and multiple of block size, so there are no padding and chaining).
+	 * Wrapping key is SHA-256 hash of ECDH shared secret
+	 * @param mode Cipher.ENCRYPT_MODE or Cipher.DECRYPT_MODE
+	 * @return Initialized cipher
+	 */
+	private Cipher getWrapCipher(int mode) throws GeneralSecurityException {
+		if (m_AsymmetricData.wrappingKey == null) {
+			final ECPublicKey ownKey = (ECPublicKey)m_AsymmetricData.keysCreated.getPublic();
+			final ECParameterSpec params = ownKey.getParams();
+			final ECPoint point = decodePoint(m_AsymmetricData.publicKeyReceived.modulusOrKey, params);
+			final PublicKey otherKey = KeyFactory.getInstance(ALGORITHM_AGREEMENT_KEY).generatePublic(new ECPublicKeySpec(point, params));
+
+			final KeyAgreement agreement = KeyAgreement.getInstance(ALGORITHM_AGREEMENT);
+			agreement.init(m_AsymmetricData.keysCreated.getPrivate());
+			agreement.doPhase(otherKey, true);
+			final byte[] secret = agreement.generateSecret();
+			try {
+				m_AsymmetricData.wrappingKey = hashData(ECDH_KEY_LABEL, secret);
+			} finally {
+				Arrays.fill(secret, (byte) 0);
+			}
+		}
+		final Cipher cipher = Cipher.getInstance(ALGORITHM_WRAP);
+		cipher.init(mode, new SecretKeySpec(m_AsymmetricData.wrappingKey, ALGORITHM_SYMMETRIC));
+		return cipher;
+	}
+
+	/**
+	 * Encode EC point as uncompressed: 0x04, X, Y
+	 * @param point Point of public key
+	 * @return Encoded point
+	 */
+	private static byte[] encodePoint(final ECPoint point) {
+		final byte[] res = new byte[1 + AGREEMENT_FIELD_SIZE * 2];
+		res[0] = 4;
+		putUnsigned(point.getAffineX(), res, 1);
+		putUnsigned(point.getAffineY(), res, 1 + AGREEMENT_FIELD_SIZE);
+		return res;
+	}
+
+	private static void putUnsigned(final BigInteger value, final byte[] target, int index) {
+		final byte[] bb = value.toByteArray();
+		final int length = Math.min(bb.length, AGREEMENT_FIELD_SIZE);
+		System.arraycopy(bb, bb.length - length, target, index + AGREEMENT_FIELD_SIZE - length, length);
+	}
+
+	/**
+	 * Decode uncompressed EC point and check it is on the curve (to not agree key with point of weak curve)
+	 * @param data Encoded point
+	 * @param params Curve parameters
+	 * @return Point
+	 * @throws InvalidKeySpecException If the point is wrong
+	 */
+	private static ECPoint decodePoint(final byte[] data, final ECParameterSpec params) throws InvalidKeySpecException {
+		if (data.length != 1 + AGREEMENT_FIELD_SIZE * 2 || data[0] != 4) {
+			throw new InvalidKeySpecException("Wrong EC point format");
+		}
+		final BigInteger x = new BigInteger(1, Arrays.copyOfRange(data, 1, 1 + AGREEMENT_FIELD_SIZE));
+		final BigInteger y = new BigInteger(1, Arrays.copyOfRange(data, 1 + AGREEMENT_FIELD_SIZE, data.length));
+		final EllipticCurve curve = params.getCurve();
+		final BigInteger p = ((ECFieldFp)curve.getField()).getP();
+		// y^2 = x^3 + ax + b (mod p)
+		final BigInteger right = x.pow(3).add(curve.getA().multiply(x)).add(curve.getB()).mod(p);
+		if (x.compareTo(p) >= 0 || y.compareTo(p) >= 0 || !y.multiply(y).mod(p).equals(right)) {
+			throw new InvalidKeySpecException("EC point is not on the curve");
+		}
+		return new ECPoint(x, y);
+	}
+
 	/**
 	 * http://stackoverflow.com/questions/8515691/getting-1-byte-extra-in-the-modulus-rsa-key-and-sometimes-for-exponents-also
 	 * @param i Value to convert
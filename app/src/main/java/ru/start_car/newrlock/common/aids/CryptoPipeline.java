@@ -0,0 +1,223 @@
+package ru.start_car.newrlock.common.aids;
+
+import java.util.ArrayDeque;
+
+/**
+ * Stage of crypto work (encryption, decryption, key exchange) separated from channel handler threads.
+ * Fixed count of worker threads serves lanes: tasks of one lane run one by one in order of adding,
+ * tasks of different lanes run in parallel. Every session uses its own lanes, so sessions scale with cores
+ * and a slow operation of one session doesn't stop others
+ */
+public final class CryptoPipeline {
+	/**
+	 * Default count of tasks waiting in one lane. Adding to full lane waits for free space
+	 */
+	public static final int DEFAULT_LANE_CAPACITY = 256;
+	/**
+	 * Count of tasks of one lane run before the worker takes next lane (so busy lane doesn't starve others)
+	 */
+	private static final int BATCH_SIZE = 16;
+
+	private static CryptoPipeline s_Default;
+
+	/**
+	 * Shared pipeline with a worker for every processor
+	 * @return Pipeline instance
+	 */
+	public static synchronized CryptoPipeline getDefault() {
+		if (s_Default == null) {
+			s_Default = new CryptoPipeline(Runtime.getRuntime().availableProcessors());
+		}
+		return s_Default;
+	}
+
+	/**
+	 * Ordered sequence of tasks (for example decryption of one session). Every lane has own locker,
+	 * so sessions don't contend on adding and taking tasks
+	 */
+	public final class Lane {
+		private final Object m_Locker = new Object();
+		private final ArrayDeque<Runnable> m_Tasks = new ArrayDeque<Runnable>();
+		private final int m_Capacity;
+		/**
+		 * Value indicating the lane is in queue of ready lanes or a worker runs its tasks
+		 */
+		private boolean m_IsScheduled;
+
+		private Lane(int capacity) {
+			m_Capacity = capacity;
+		}
+
+		/**
+		 * Add task to run after previous tasks of the lane. If the lane is full, the caller waits for free space
+		 * (except pipeline workers: they add tasks at once to not block each other)
+		 * @param task Task to run
+		 * @throws InterruptedException If waiting is interrupted
+		 */
+		public void execute(Runnable task) throws InterruptedException {
+			boolean isReady;
+			synchronized (m_Locker) {
+				if (!(Thread.currentThread() instanceof Worker)) {
+					while (m_Tasks.size() >= m_Capacity) {
+						m_Locker.wait();
+					}
+				}
+				m_Tasks.add(task);
+				isReady = !m_IsScheduled;
+				m_IsScheduled = true;
+			}
+			if (isReady) {
+				schedule(this);
+			}
+		}
+
+		/**
+		 * Add task to run after previous tasks of the lane without waiting
+		 * @param task Task to run
+		 * @return False if the lane is full and the task is not added
+		 */
+		public boolean tryExecute(Runnable task) {
+			boolean isReady;
+			synchronized (m_Locker) {
+				if (m_Tasks.size() >= m_Capacity) {
+					return false;
+				}
+				m_Tasks.add(task);
+				isReady = !m_IsScheduled;
+				m_IsScheduled = true;
+			}
+			if (isReady) {
+				schedule(this);
+			}
+			return true;
+		}
+
+		/**
+		 * Remove tasks which are not started yet
+		 */
+		public void clear() {
+			synchronized (m_Locker) {
+				m_Tasks.clear();
+				m_Locker.notifyAll();
+			}
+		}
+
+		/**
+		 * Get count of tasks which are not started yet
+		 */
+		public int getCount() {
+			synchronized (m_Locker) {
+				return m_Tasks.size();
+			}
+		}
+
+		/**
+		 * Take next task to run (worker)
+		 * @return Task or null if the lane is empty
+		 */
+		private Runnable poll() {
+			synchronized (m_Locker) {
+				Runnable task = m_Tasks.poll();
+				if (task != null && m_Tasks.size() == m_Capacity - 1) {
+					// callers of the lane may wait for free space
+					m_Locker.notifyAll();
+				}
+				return task;
+			}
+		}
+
+		/**
+		 * Release the lane after worker has run a batch of its tasks
+		 * @return True if the lane has more tasks and must be scheduled again
+		 */
+		private boolean complete() {
+			synchronized (m_Locker) {
+				if (m_Tasks.isEmpty()) {
+					m_IsScheduled = false;
+					return false;
+				}
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Worker thread (to find out the caller is a worker)
+	 */
+	private final class Worker extends Thread {
+		public Worker(int index) {
+			super("CryptoPipeline-" + index);
+		}
+
+		@Override
+		public void run() {
+			work();
+		}
+	}
+
+	/**
+	 * Lanes with tasks which wait for a worker. It is locked only to schedule a lane and to take it
+	 */
+	private final ArrayDeque<Lane> m_ReadyLanes = new ArrayDeque<Lane>();
+
+	/**
+	 * Create pipeline and start its workers
+	 * @param threadCount Count of worker threads
+	 */
+	public CryptoPipeline(int threadCount) {
+		for (int i = 0; i < Math.max(1, threadCount); i++) {
+			Worker worker = new Worker(i);
+			worker.setDaemon(true);
+			worker.start();
+		}
+	}
+
+	/**
+	 * Create lane of tasks
+	 * @param capacity Maximum count of waiting tasks
+	 * @return New lane
+	 */
+	public Lane createLane(int capacity) {
+		return new Lane(Math.max(1, capacity));
+	}
+
+	/**
+	 * Put lane in queue of ready lanes and wake up one worker
+	 * @param lane Lane with tasks
+	 */
+	private void schedule(Lane lane) {
+		synchronized (m_ReadyLanes) {
+			m_ReadyLanes.add(lane);
+			m_ReadyLanes.notify();
+		}
+	}
+
+	private void work() {
+		while (true) {
+			Lane lane;
+			synchronized (m_ReadyLanes) {
+				while ((lane = m_ReadyLanes.poll()) == null) {
+					try {
+						m_ReadyLanes.wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			}
+			for (int i = 0; i < BATCH_SIZE; i++) {
+				Runnable task = lane.poll();
+				if (task == null) {
+					break;
+				}
+				try {
+					task.run();
+				} catch (Exception e) {
+					PlatformTools.logError(Tools.getExceptionInfo(e));
+				}
+			}
+			if (lane.complete()) {
+				schedule(lane);
+			}
+		}
+	}
+}
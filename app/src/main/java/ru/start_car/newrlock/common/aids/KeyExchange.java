@@ -0,0 +1,16 @@
+package ru.start_car.newrlock.common.aids;
+
+/**
+ * Way to exchange symmetric keys in CryptoManager steps 1-4
+ */
+public enum KeyExchange {
+	/**
+	 * Symmetric keys are encrypted with RSA-1024 public keys of other side
+	 */
+	Rsa,
+	/**
+	 * Symmetric keys are wrapped with key agreed by ECDH on P-256 curve (secp256r1).
+	 * Public key is sent as uncompressed point with mode marker instead of exponent
+	 */
+	EcdhP256
+}
@@ -0,0 +1,181 @@
+package ru.start_car.newrlock.common.aids;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.ArrayDeque;
+
+/**
+ * Pool of key pairs generated in background thread of low priority, so connection doesn't wait for key generation.
+ * Every pair is given once. The pool is refilled after every take, the thread stops when the pool is full
+ */
+public final class KeyPairPool {
+	/**
+	 * Default count of ready key pairs
+	 */
+	public static final int DEFAULT_CAPACITY = 2;
+
+	private final String m_Algorithm;
+	private final int m_KeySize;
+	/**
+	 * Parameters of generator (instead of key size) or null
+	 */
+	private final AlgorithmParameterSpec m_Parameters;
+	private final ArrayDeque<KeyPair> m_Pairs = new ArrayDeque<KeyPair>();
+	private final Object m_Locker = new Object();
+	/**
+	 * Background generator thread or null if it is stopped
+	 */
+	private Thread m_Generator;
+	private int m_Capacity;
+	/**
+	 * Count of pairs given from the pool and generated synchronously because the pool was empty
+	 */
+	private long m_TakenCount;
+	private long m_MissedCount;
+
+	/**
+	 * Create pool. Generation starts on first take or prepare call
+	 * @param algorithm Algorithm name for KeyPairGenerator
+	 * @param keySize Key size for KeyPairGenerator
+	 * @param capacity Count of ready key pairs
+	 */
+	public KeyPairPool(String algorithm, int keySize, int capacity) {
+		m_Algorithm = algorithm;
+		m_KeySize = keySize;
+		m_Parameters = null;
+		m_Capacity = capacity;
+	}
+
+	/**
+	 * Create pool. Generation starts on first take or prepare call
+	 * @param algorithm Algorithm name for KeyPairGenerator
+	 * @param parameters Parameters for KeyPairGenerator (for example elliptic curve)
+	 * @param capacity Count of ready key pairs
+	 */
+	public KeyPairPool(String algorithm, AlgorithmParameterSpec parameters, int capacity) {
+		m_Algorithm = algorithm;
+		m_KeySize = 0;
+		m_Parameters = parameters;
+		m_Capacity = capacity;
+	}
+
+	/**
+	 * Set count of ready key pairs
+	 * @param value Count of pairs, 0 to generate every pair on take
+	 */
+	public void setCapacity(int value) {
+		synchronized (m_Locker) {
+			m_Capacity = Math.max(0, value);
+			while (m_Pairs.size() > m_Capacity) {
+				m_Pairs.poll();
+			}
+		}
+	}
+
+	/**
+	 * Start to generate key pairs in background if the pool is not full
+	 */
+	public void prepare() {
+		synchronized (m_Locker) {
+			startGenerator();
+		}
+	}
+
+	/**
+	 * Take ready key pair. If there are no ready pairs, new one is generated in the caller thread
+	 * @return New key pair
+	 */
+	public KeyPair take() throws GeneralSecurityException {
+		KeyPair res;
+		synchronized (m_Locker) {
+			res = m_Pairs.poll();
+			if (res != null) {
+				m_TakenCount++;
+			} else {
+				m_MissedCount++;
+			}
+			startGenerator();
+		}
+		return res != null ? res : generate();
+	}
+
+	/**
+	 * Get count of ready key pairs
+	 */
+	public int getReadyCount() {
+		synchronized (m_Locker) {
+			return m_Pairs.size();
+		}
+	}
+
+	/**
+	 * Get count of key pairs which were ready on take
+	 */
+	public long getTakenCount() {
+		synchronized (m_Locker) {
+			return m_TakenCount;
+		}
+	}
+
+	/**
+	 * Get count of key pairs which were generated on take because the pool was empty
+	 */
+	public long getMissedCount() {
+		synchronized (m_Locker) {
+			return m_MissedCount;
+		}
+	}
+
+	private void startGenerator() {
+		if (m_Generator == null && m_Pairs.size() < m_Capacity) {
+			m_Generator = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					fill();
+				}
+			}, "KeyPairPool");
+			m_Generator.setDaemon(true);
+			m_Generator.setPriority(Thread.MIN_PRIORITY);
+			m_Generator.start();
+		}
+	}
+
+	private void fill() {
+		while (true) {
+			synchronized (m_Locker) {
+				// the thread is marked as stopped under the same lock as the check, so take restarts it if needed
+				if (m_Pairs.size() >= m_Capacity) {
+					m_Generator = null;
+					return;
+				}
+			}
+			KeyPair pair;
+			try {
+				pair = generate();
+			} catch (Exception e) {
+				PlatformTools.logError(Tools.getExceptionInfo(e));
+				synchronized (m_Locker) {
+					m_Generator = null;
+				}
+				return;
+			}
+			synchronized (m_Locker) {
+				if (m_Pairs.size() < m_Capacity) {
+					m_Pairs.add(pair);
+				}
+			}
+		}
+	}
+
+	private KeyPair generate() throws GeneralSecurityException {
+		final KeyPairGenerator keyGen = KeyPairGenerator.getInstance(m_Algorithm);
+		if (m_Parameters != null) {
+			keyGen.initialize(m_Parameters);
+		} else {
+			keyGen.initialize(m_KeySize);
+		}
+		return keyGen.generateKeyPair();
+	}
+}
@@ -0,0 +1,185 @@
+package ru.start_car.newrlock.common.aids;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression of message body with preset dictionary (raw deflate).
+ * Compressed data structure:
+ * 1 byte - dictionary Id
+ * 1..5 bytes - size of uncompressed data (7 bits per byte, bit 7 means next byte follows)
+ * n bytes - deflated data
+ * Both sides must use the same dictionary, so change the dictionary Id when the dictionary is changed
+ */
+public final class PayloadCompressor {
+	/**
+	 * Default minimum size of data to compress
+	 */
+	public static final int DEFAULT_THRESHOLD = 96;
+	/**
+	 * Maximum size of uncompressed data (to not allocate too big buffer for damaged data)
+	 */
+	public static final int MAXIMUM_SIZE = 1024 * 1024;
+	/**
+	 * Size of compressed data fields before deflated data
+	 */
+	private static final int MAXIMUM_HEADER_SIZE = 6;
+
+	private final byte[] m_Dictionary;
+	private final byte m_DictionaryId;
+	/**
+	 * Native compression objects are created on first use, so only one of them is created for one direction
+	 */
+	private final Object m_DeflaterLocker = new Object();
+	private Deflater m_Deflater;
+	private final Object m_InflaterLocker = new Object();
+	private Inflater m_Inflater;
+
+	private volatile int m_Threshold = DEFAULT_THRESHOLD;
+	/**
+	 * Minimum size of data to compress. Smaller data is not compressed because it doesn't give a gain
+	 * @return Size in bytes
+	 */
+	public int getThreshold() {
+		return m_Threshold;
+	}
+	public void setThreshold(int value) {
+		m_Threshold = Math.max(0, value);
+	}
+
+	/**
+	 * Create compressor
+	 * @param dictionary Preset dictionary (it must not be changed later) or null
+	 * @param dictionaryId Id of dictionary from 0 to 255 to check it on decompression
+	 */
+	public PayloadCompressor(byte[] dictionary, int dictionaryId) {
+		m_Dictionary = dictionary;
+		m_DictionaryId = (byte)dictionaryId;
+	}
+
+	/**
+	 * Compress data if it is big enough and compressed data is smaller
+	 * @param source Array with data to compress
+	 * @param index Index of data in the array
+	 * @param count Count of bytes to compress
+	 * @param target Array to write compressed data (it must not overlap with source data)
+	 * @param targetIndex Index to write to
+	 * @param targetCount Maximum size of compressed data, use count to compress only with gain
+	 * @return Size of compressed data or -1 if data is not compressed
+	 */
+	public int compress(final byte[] source, int index, int count, final byte[] target, int targetIndex, int targetCount) {
+		if (count < m_Threshold || count > MAXIMUM_SIZE || targetCount <= MAXIMUM_HEADER_SIZE) {
+			return -1;
+		}
+		int position = targetIndex;
+		target[position++] = m_DictionaryId;
+		int value = count;
+		while (value >= 0x80) {
+			target[position++] = (byte)((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		target[position++] = (byte)value;
+
+		synchronized (m_DeflaterLocker) {
+			if (m_Deflater == null) {
+				m_Deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+			}
+			m_Deflater.reset();
+			if (m_Dictionary != null) {
+				m_Deflater.setDictionary(m_Dictionary);
+			}
+			m_Deflater.setInput(source, index, count);
+			m_Deflater.finish();
+			int end = targetIndex + targetCount;
+			while (!m_Deflater.finished() && position < end) {
+				position += m_Deflater.deflate(target, position, end - position);
+			}
+			if (!m_Deflater.finished()) {
+				// there is no gain
+				return -1;
+			}
+		}
+		return position - targetIndex;
+	}
+
+	/**
+	 * Decompress data created by compress
+	 * @param source Array with compressed data
+	 * @param index Index of data in the array
+	 * @param count Count of bytes to proceed
+	 * @return Uncompressed data or null on error
+	 */
+	public byte[] decompress(final byte[] source, int index, int count) {
+		if (source == null || count < 2 || source[index] != m_DictionaryId) {
+			PlatformTools.logError(Tools.getMethodName() + ": wrong dictionary or data");
+			return null;
+		}
+		int position = index + 1;
+		int end = index + count;
+		int size = 0;
+		int shift = 0;
+		byte b;
+		do {
+			if (position >= end || shift > 28) {
+				PlatformTools.logError(Tools.getMethodName() + ": wrong size");
+				return null;
+			}
+			b = source[position++];
+			size |= (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		if (size < 0 || size > MAXIMUM_SIZE) {
+			PlatformTools.logError(Tools.getMethodName() + ": wrong size");
+			return null;
+		}
+
+		final byte[] res = new byte[size];
+		synchronized (m_InflaterLocker) {
+			if (m_Inflater == null) {
+				m_Inflater = new Inflater(true);
+			}
+			m_Inflater.reset();
+			if (m_Dictionary != null) {
+				m_Inflater.setDictionary(m_Dictionary);
+			}
+			m_Inflater.setInput(source, position, end - position);
+			try {
+				int length = 0;
+				while (length < size && !m_Inflater.finished()) {
+					int n = m_Inflater.inflate(res, length, size - length);
+					if (n == 0 && (m_Inflater.needsInput() || m_Inflater.needsDictionary())) {
+						break;
+					}
+					length += n;
+				}
+				if (length == size) {
+					return res;
+				}
+			} catch (DataFormatException e) {
+				PlatformTools.logError(Tools.getExceptionInfo(e));
+				return null;
+			}
+		}
+		PlatformTools.logError(Tools.getMethodName() + ": data is damaged");
+		return null;
+	}
+
+	/**
+	 * Free native resources. They are created again on next use
+	 */
+	public void close() {
+		synchronized (m_DeflaterLocker) {
+			if (m_Deflater != null) {
+				m_Deflater.end();
+				m_Deflater = null;
+			}
+		}
+		synchronized (m_InflaterLocker) {
+			if (m_Inflater != null) {
+				m_Inflater.end();
+				m_Inflater = null;
+			}
+		}
+	}
+}
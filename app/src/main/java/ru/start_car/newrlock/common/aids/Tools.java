@@ -1,5 +1,6 @@
 package ru.start_car.newrlock.common.aids;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 
 /**
@@ -102,18 +103,90 @@ public final class Tools {
 		return getMethodName(CLIENT_CODE_STACK_INDEX) + ": " + (e != null ? e.getMessage() + " / " + e.toString() : "?");
 	}
 
+	/**
+	 * CRC-CCITT polynomial 0001 0000 0010 0001 (0, 5, 12)
+	 */
+	private static final int CRC16_POLYNOMIAL = 0x1021;
+	/**
+	 * Tables to calculate crc by 8 bytes at once (slicing-by-8).
+	 * Table k (values from k * 256) contains crc register after processing byte i and k zero bytes
+	 */
+	private static final int[] s_Crc16Table = createCrc16Table();
+
+	private static int[] createCrc16Table() {
+		final int[] table = new int[8 * 256];
+		for (int i = 0; i < 256; i++) {
+			int crc = i << 8;
+			for (int j = 0; j < 8; j++) {
+				crc = (crc & 0x8000) != 0 ? (crc << 1) ^ CRC16_POLYNOMIAL : crc << 1;
+			}
+			table[i] = crc & 0xFFFF;
+		}
+		for (int k = 1; k < 8; k++) {
+			for (int i = 0; i < 256; i++) {
+				int crc = table[(k - 1) * 256 + i];
+				table[k * 256 + i] = ((crc << 8) & 0xFFFF) ^ table[crc >>> 8];
+			}
+		}
+		return table;
+	}
+
+	/**
+	 * Calculate CRC-CCITT (polynomial 0x1021, initial value 0xFFFF)
+	 * @param buffer Bytes to calculate crc of
+	 * @param pos Start index in the array
+	 * @param len Count of bytes
+	 * @return Crc value (16 bits)
+	 */
 	public static int Crc16(final byte[] buffer, int pos, int len) {
 		int crc = 0xFFFF;          // initial value
-		if (buffer != null && pos >= 0 && (pos + len) <= buffer.length) {
-			final int polynomial = 0x1021;   // 0001 0000 0010 0001  (0, 5, 12) 
+		if (buffer != null && pos >= 0 && len >= 0 && (pos + len) <= buffer.length) {
+			final int[] t = s_Crc16Table;
+			while (len >= 8) {
+				final int c = crc ^ (((buffer[pos] & 0xFF) << 8) | (buffer[pos + 1] & 0xFF));
+				crc = t[7 * 256 + (c >>> 8)] ^ t[6 * 256 + (c & 0xFF)] ^
+					t[5 * 256 + (buffer[pos + 2] & 0xFF)] ^ t[4 * 256 + (buffer[pos + 3] & 0xFF)] ^
+					t[3 * 256 + (buffer[pos + 4] & 0xFF)] ^ t[2 * 256 + (buffer[pos + 5] & 0xFF)] ^
+					t[256 + (buffer[pos + 6] & 0xFF)] ^ t[buffer[pos + 7] & 0xFF];
+				pos += 8;
+				len -= 8;
+			}
+			while (len-- > 0) {
+				crc = ((crc << 8) & 0xFFFF) ^ t[((crc >>> 8) ^ buffer[pos++]) & 0xFF];
+			}
+		}
+		else {
+			PlatformTools.logError("crc16 error data");
+		}
+		return crc & 0xffff;
+	}
+
+	/**
+	 * Calculate CRC-CCITT (polynomial 0x1021, initial value 0xFFFF). Position of the buffer is not changed
+	 * @param buffer Bytes to calculate crc of (heap or direct buffer)
+	 * @param pos Absolute start index in the buffer
+	 * @param len Count of bytes
+	 * @return Crc value (16 bits)
+	 */
+	public static int Crc16(final ByteBuffer buffer, int pos, int len) {
+		int crc = 0xFFFF;          // initial value
+		// the range is checked against the buffer limit: the backing array can be longer
+		if (buffer != null && pos >= 0 && len >= 0 && (pos + len) <= buffer.limit()) {
+			if (buffer.hasArray()) {
+				return Crc16(buffer.array(), buffer.arrayOffset() + pos, len);
+			}
+			final int[] t = s_Crc16Table;
+			while (len >= 8) {
+				final int c = crc ^ (((buffer.get(pos) & 0xFF) << 8) | (buffer.get(pos + 1) & 0xFF));
+				crc = t[7 * 256 + (c >>> 8)] ^ t[6 * 256 + (c & 0xFF)] ^
+					t[5 * 256 + (buffer.get(pos + 2) & 0xFF)] ^ t[4 * 256 + (buffer.get(pos + 3) & 0xFF)] ^
+					t[3 * 256 + (buffer.get(pos + 4) & 0xFF)] ^ t[2 * 256 + (buffer.get(pos + 5) & 0xFF)] ^
+					t[256 + (buffer.get(pos + 6) & 0xFF)] ^ t[buffer.get(pos + 7) & 0xFF];
+				pos += 8;
+				len -= 8;
+			}
 			while (len-- > 0) {
-				for (int i = 0; i < 8; i++) {
-					boolean bit = ((buffer[pos] >> (7-i) & 1) == 1);
-					boolean c15 = ((crc >> 15 & 1) == 1);
-					crc <<= 1;
-					if (c15 ^ bit) crc ^= polynomial;
-				}
-				pos++;
+				crc = ((crc << 8) & 0xFFFF) ^ t[((crc >>> 8) ^ buffer.get(pos++)) & 0xFF];
 			}
 		}
 		else {
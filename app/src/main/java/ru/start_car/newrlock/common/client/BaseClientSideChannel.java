@@ -1,59 +1,230 @@
 package ru.start_car.newrlock.common.client;
 
-import java.util.PriorityQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 import ru.start_car.newrlock.common.aids.EventHandler;
 import ru.start_car.newrlock.common.aids.PlatformTools;
 import ru.start_car.newrlock.common.aids.Tools;
+import ru.start_car.newrlock.common.network.AcknowledgmentCollector;
 import ru.start_car.newrlock.common.network.ChannelData;
+import ru.start_car.newrlock.common.network.ChannelDataView;
 import ru.start_car.newrlock.common.network.ChannelException;
-import ru.start_car.newrlock.common.network.WaitAcknowledgment;
+import ru.start_car.newrlock.common.network.DeliveryQos;
+import ru.start_car.newrlock.common.network.FragmentReassembler;
+import ru.start_car.newrlock.common.network.MessageCoalescer;
+import ru.start_car.newrlock.common.network.PacketCipher;
+import ru.start_car.newrlock.common.network.PacketIdQueue;
+import ru.start_car.newrlock.common.network.ReorderBuffer;
+import ru.start_car.newrlock.common.network.ReplayWindow;
+import ru.start_car.newrlock.common.network.RetransmissionPolicy;
+import ru.start_car.newrlock.common.network.SelectiveAcknowledgment;
+import ru.start_car.newrlock.common.network.SendPriority;
+import ru.start_car.newrlock.common.network.SendScheduler;
+import ru.start_car.newrlock.common.network.SendWindow;
+import ru.start_car.newrlock.common.network.ServiceMessageType;
+import ru.start_car.newrlock.common.network.SubmissionQueue;
 
 /**
- * Abstract client side actions for exchanging data through channel
+ * Abstract client side actions for exchanging data through channel.
+ * Receiving (executeReceive) and sending (executeSend) can run in separate threads: receiving doesn't use the channel locker,
+ * it passes acknowledged packet Ids to sending through lock-free queue. execute runs both parts in one thread
  */
 public abstract class BaseClientSideChannel {
 	/**
 	 * A reason the connection was closed
 	 */
 	private enum CloseConnectionReason { None, ReconnectNeeded, ClosedByServer }
+
+	/**
+	 * Settings of receiving. Other threads replace the whole object, receiving thread applies it (see applyReceiveSettings)
+	 */
+	private static final class ReceiveSettings {
+		public final boolean isDelayedAcknowledgment;
+		public final int acknowledgmentDelay;
+		public final int replayWindowSize;
+		public final boolean isOrderedDelivery;
+		public final int holdTime;
+
+		public ReceiveSettings(boolean isDelayedAcknowledgment, int acknowledgmentDelay, int replayWindowSize, boolean isOrderedDelivery, int holdTime) {
+			this.isDelayedAcknowledgment = isDelayedAcknowledgment;
+			this.acknowledgmentDelay = acknowledgmentDelay;
+			this.replayWindowSize = replayWindowSize;
+			this.isOrderedDelivery = isOrderedDelivery;
+			this.holdTime = holdTime;
+		}
+	}
 	
 	/**
-	 * Executor to handle callback actions
+	 * Maximum time to wait channel events when there is nothing to do (in milliseconds)
 	 */
-	private static final ExecutorService s_Executor =
-		//Executors.newCachedThreadPool ();
-		Executors.newSingleThreadExecutor ();
+	private static final int MAXIMUM_WAIT_MSEC = 1000;
+	/**
+	 * Maximum count of received packets handled by one execute call, so sending isn't starved by receiving
+	 */
+	private static final int MAXIMUM_RECEIVE_COUNT = 32;
+	/**
+	 * Time to wait before new connection after channel error (in milliseconds)
+	 */
+	private static final int RECONNECT_DELAY_MSEC = 3000;
+	/**
+	 * Count of acknowledged packet Ids which can wait for sending thread
+	 */
+	private static final int ACKNOWLEDGED_QUEUE_SIZE = 4096;
 
 	/**
 	 * Disposed sign
 	 */
-	private boolean m_Disposed;
+	private volatile boolean m_Disposed;
 	/**
-	 * Locker for multithreaded access to channel object
+	 * Locker of sending state and channel creation/closing (receiving doesn't use it)
 	 */
 	private final Object m_Locker = new Object();
+	/**
+	 * Queue to raise events of the channel in order
+	 */
+	private final EventDispatcher m_EventDispatcher = new EventDispatcher(getClass().getSimpleName() + "-events");
 	/**
 	 * Collection of data to send to server
 	 */
-	private final PriorityQueue<ChannelData> m_DataToSend = new PriorityQueue<ChannelData>();
+	private final SendScheduler m_DataToSend = new SendScheduler();
+	/**
+	 * Data submitted by other threads which is not moved to m_DataToSend yet (adding doesn't lock)
+	 */
+	private final SubmissionQueue m_SubmittedData = new SubmissionQueue();
+	/**
+	 * Buffer for replaced and expired data which was not sent (to not allocate it on every execute)
+	 */
+	private final ArrayList<ChannelData> m_DroppedData = new ArrayList<ChannelData>();
+	/**
+	 * Sent ReliableOrdered message waiting acknowledgment (next one is sent after it)
+	 */
+	private ChannelData m_OrderedInFlight;
+
+	/**
+	 * Number of current connection, it is changed on closing the channel
+	 */
+	private volatile int m_ConnectionNumber;
+	/**
+	 * Number of connection which receiving state belongs to (receiving thread only)
+	 */
+	private int m_ReceiveConnectionNumber;
+	/**
+	 * Error of receiving to close the channel in sending thread
+	 */
+	private volatile ChannelException m_ReceiveError;
+	/**
+	 * Time when the channel can be created again after error
+	 */
+	private long m_ReconnectTime;
+	/**
+	 * Id of the last sent packet. Packets get Ids on the first sending (receiving thread takes Ids for service messages)
+	 */
+	private final AtomicInteger m_LastPacketId = new AtomicInteger(Integer.MIN_VALUE);
+	/**
+	 * Ids of acknowledged packets from receiving thread to sending thread
+	 */
+	private final PacketIdQueue m_AcknowledgedIds = new PacketIdQueue(ACKNOWLEDGED_QUEUE_SIZE);
+	/**
+	 * Value indicating sent data packets get data sequence numbers
+	 */
+	private boolean m_IsSequenceNumbering;
+	/**
+	 * Data sequence number of the last sent data packet (sending thread only)
+	 */
+	private int m_LastSequenceNumber;
+	/**
+	 * Thread waiting in waitForSend or null if execute is used
+	 */
+	private volatile Thread m_SendThread;
+	/**
+	 * Thread waiting in waitForReceive
+	 */
+	private volatile Thread m_ReceiveThread;
+	/**
+	 * Value indicating there is new work for sending thread
+	 */
+	private final AtomicBoolean m_IsSendSignaled = new AtomicBoolean();
+
+	/**
+	 * Settings of receiving set by other threads
+	 */
+	private volatile ReceiveSettings m_ReceiveSettings = new ReceiveSettings(false, AcknowledgmentCollector.DEFAULT_DELAY_MSEC,
+		ReplayWindow.DEFAULT_SIZE, false, ReorderBuffer.DEFAULT_HOLD_TIME_MSEC);
+	/**
+	 * Settings which receiving state is set by (receiving thread only)
+	 */
+	private ReceiveSettings m_AppliedSettings = m_ReceiveSettings;
+
+	/**
+	 * Ids of received data packets (to skip handling repeated packets)
+	 */
+	private final ReplayWindow m_ReplayWindow = new ReplayWindow();
+	/**
+	 * Received packets which are held to handle them in order of data sequence numbers (if ordered delivery is used)
+	 */
+	private final ReorderBuffer m_ReorderBuffer = new ReorderBuffer();
+	/**
+	 * Value indicating received packets are handled in order of data sequence numbers (receiving thread only)
+	 */
+	private boolean m_IsOrderedDelivery;
+	/**
+	 * Buffer for received packets which are ready to handle (to not allocate it on every packet)
+	 */
+	private final ArrayList<ChannelData> m_ReadyData = new ArrayList<ChannelData>();
+	/**
+	 * Id of packet to acknowledge in sealed acknowledgments block (receiving thread only, to not allocate it on every packet)
+	 */
+	private final int[] m_AcknowledgedId = new int[1];
 
 	/**
-	 * Last DataChannel received Id (to skip handling repeated packets)
+	 * Sent data waiting acknowledgment to repeat sending on no acknowledgment
+	 */
+	private final SendWindow m_SendWindow = new SendWindow();
+	/**
+	 * Buffer for data to send again (to not allocate it on every execute)
+	 */
+	private final ArrayList<ChannelData> m_DataToResend = new ArrayList<ChannelData>();
+
+	/**
+	 * Received packets to acknowledge with one message (if delayed acknowledgment is used)
+	 */
+	private final AcknowledgmentCollector m_AcknowledgmentCollector = new AcknowledgmentCollector();
+	/**
+	 * Value indicating received packets are acknowledged by SelectiveAcknowledgment blocks after short delay
+	 * or together with next data packet instead of separate acknowledgment for every packet (receiving thread only)
 	 */
-	private int m_LastReceivedPacketId = Integer.MIN_VALUE;
+	private boolean m_IsDelayedAcknowledgment;
 
 	/**
-	 * Wait acknowledgment data. Id of sent data and the data to repeat sending on no acknowledgment
+	 * Small data messages to send in one packet (if coalescing is used)
+	 */
+	private final MessageCoalescer m_MessageCoalescer = new MessageCoalescer();
+	/**
+	 * Value indicating small data messages are held for short delay to be sent together in one packet
+	 */
+	private boolean m_IsMessageCoalescing;
+	/**
+	 * Fragments of big message which are not sent yet
+	 */
+	private final ArrayDeque<ChannelData> m_FragmentsToSend = new ArrayDeque<ChannelData>();
+	/**
+	 * Received fragments of big messages
 	 */
-	private WaitAcknowledgment m_WaitAcknowledgment;
+	private final FragmentReassembler m_FragmentReassembler = new FragmentReassembler();
+	/**
+	 * Buffer for messages of received packet with several messages (to not allocate it on every packet)
+	 */
+	private final ArrayList<ChannelData> m_ReceivedMessages = new ArrayList<ChannelData>();
 
 	/**
 	 * Reason for connection was closed
 	 */
-	private CloseConnectionReason m_CloseConnectionReason;
+	private volatile CloseConnectionReason m_CloseConnectionReason;
 			
 	private EventHandler channelClosed;
 	private EventHandler channelClosedByServer;
@@ -91,12 +262,133 @@ public abstract class BaseClientSideChannel {
 		acknowledgmentError = handler;
 	}
 	
+	/**
+	 * Set size of queue of asynchronous events and action on its overflow
+	 * @param capacity Maximum count of waiting events
+	 * @param policy Action on adding event to full queue
+	 */
+	public final void setEventQueue(int capacity, EventDispatcher.OverflowPolicy policy) {
+		m_EventDispatcher.setCapacity(capacity, policy);
+	}
+
+	/**
+	 * Queue of asynchronous events (to get statistics of dropped events and slow handlers)
+	 */
+	public final EventDispatcher getEventDispatcher() {
+		return m_EventDispatcher;
+	}
+
+	/**
+	 * Set count of data packets which can wait acknowledgment at the same time
+	 * @param size Window size, 1 means to wait acknowledgment for every packet before sending next one
+	 */
+	public final void setSendWindowSize(int size) {
+		synchronized (m_Locker) {
+			m_SendWindow.setSize(size);
+		}
+	}
+
+	/**
+	 * Set rules of resending data which acknowledgment was not received in time
+	 * @param policy Policy to use (AdaptiveRetransmissionPolicy by default)
+	 */
+	public final void setRetransmissionPolicy(RetransmissionPolicy policy) {
+		synchronized (m_Locker) {
+			m_SendWindow.setPolicy(policy);
+		}
+	}
+
+	/**
+	 * Set way to acknowledge received packets. Other side must support SelectiveAcknowledgment blocks
+	 * @param isDelayed True to acknowledge many packets by one block after the delay or together with next data packet,
+	 *                  False to send acknowledgment for every packet immediately
+	 * @param delay Maximum time to hold acknowledgments in milliseconds
+	 */
+	public final void setDelayedAcknowledgment(boolean isDelayed, int delay) {
+		synchronized (m_Locker) {
+			ReceiveSettings settings = m_ReceiveSettings;
+			m_ReceiveSettings = new ReceiveSettings(isDelayed, delay, settings.replayWindowSize, settings.isOrderedDelivery, settings.holdTime);
+		}
+	}
+
+	/**
+	 * Set way to send small data messages. Other side must support packets with several messages
+	 * @param isEnabled True to hold messages for the delay and send them in one packet, False to send every message at once
+	 * @param delay Maximum time to hold messages in milliseconds
+	 */
+	public final void setMessageCoalescing(boolean isEnabled, int delay) {
+		synchronized (m_Locker) {
+			m_IsMessageCoalescing = isEnabled;
+			m_MessageCoalescer.setDelay(delay);
+			m_MessageCoalescer.setMaximumPacketSize(Math.min(getMaximumPacketSize(), MessageCoalescer.DEFAULT_MAXIMUM_PACKET_SIZE));
+		}
+	}
+
+	/**
+	 * Set count of old packet Ids which are remembered to skip repeated packets. Older packets are skipped too
+	 * @param size Count of Ids
+	 */
+	public final void setReplayWindowSize(int size) {
+		synchronized (m_Locker) {
+			ReceiveSettings settings = m_ReceiveSettings;
+			m_ReceiveSettings = new ReceiveSettings(settings.isDelayedAcknowledgment, settings.acknowledgmentDelay, size, settings.isOrderedDelivery, settings.holdTime);
+		}
+	}
+
+	/**
+	 * Set order of handling received data packets. Other side must send data sequence numbers (see setSequenceNumbering),
+	 * packets without them are handled at once
+	 * @param isOrdered True to hold packets which came before packets with smaller data sequence number (no longer than hold time),
+	 *                  False to handle every packet at once
+	 * @param holdTime Maximum time to wait missed packets in milliseconds
+	 */
+	public final void setOrderedDelivery(boolean isOrdered, int holdTime) {
+		synchronized (m_Locker) {
+			ReceiveSettings settings = m_ReceiveSettings;
+			m_ReceiveSettings = new ReceiveSettings(settings.isDelayedAcknowledgment, settings.acknowledgmentDelay, settings.replayWindowSize, isOrdered, holdTime);
+		}
+	}
+
+	/**
+	 * Set numbering of sent data packets. Other side can handle them in order of sending (see setOrderedDelivery)
+	 * @param isEnabled True to send data sequence number in every data packet
+	 */
+	public final void setSequenceNumbering(boolean isEnabled) {
+		synchronized (m_Locker) {
+			m_IsSequenceNumbering = isEnabled;
+		}
+	}
+
+	/**
+	 * Cipher of sealed packets or null if packets are not sealed
+	 */
+	private volatile PacketCipher m_PacketCipher;
+
+	/**
+	 * Set cipher to seal sent packets and open received ones (after keys are exchanged). Unsealed packets are not handled after it
+	 * @param cipher Cipher or null before keys exchange
+	 */
+	protected final void setPacketCipher(PacketCipher cipher) {
+		m_PacketCipher = cipher;
+	}
+
+	/**
+	 * Get cipher of sealed packets
+	 * @return Cipher or null if keys are not exchanged
+	 */
+	protected final PacketCipher getPacketCipher() {
+		return m_PacketCipher;
+	}
+
 	/**
 	 * Check if channel is available
 	 * @return True if channel is available
 	 */
 	protected abstract boolean getIsChannelAvailable();
 
+	/**
+	 * Close the channel. Running receiving and sending threads are woken up, they don't hold the channel locker while waiting
+	 */
 	public void close() {
 		synchronized (m_Locker) {
 			if (!m_Disposed) {
@@ -104,53 +396,104 @@ public abstract class BaseClientSideChannel {
 				m_Disposed = true;
 			}
 		}
+		signalSend();
+		wakeupReceive();
 	}
 	
 	/**
-	 * Send/receive bytes throw Data Channel
+	 * Send/receive bytes throw Data Channel in one thread
+	 * @return Time to wait channel events before next call (in milliseconds)
 	 */
 	public final int execute() {
-		int timeout = 100;
+		int timeout = executeReceive();
+		return Math.min(timeout, executeSend());
+	}
+
+	/**
+	 * Receive and handle available packets. It doesn't wait for the channel locker, so it can run in own thread
+	 * in parallel with executeSend (see waitForReceive)
+	 * @return Time to wait received data before next call (in milliseconds)
+	 */
+	public final int executeReceive() {
+		try {
+			int number = m_ConnectionNumber;
+			if (number != m_ReceiveConnectionNumber) {
+				// the channel was closed: data of old connection is not needed
+				m_ReceiveConnectionNumber = number;
+				resetReceiveState();
+			}
+			ReceiveSettings settings = m_ReceiveSettings;
+			if (settings != m_AppliedSettings) {
+				applyReceiveSettings(settings);
+			}
+			if (m_Disposed || !getIsChannelAvailable() || m_ReceiveError != null) {
+				return MAXIMUM_WAIT_MSEC;
+			}
+			boolean isActive = false;
+			ChannelDataView data;
+			for (int i = 0; i < MAXIMUM_RECEIVE_COUNT && (data = makeReceiveData()) != null; i++) {
+				if (checkIsDataFromCorrectServer(data.getEndPoint()) && checkIsSealed(data)) {
+					handleChannelData(data);
+				}
+				isActive = true;
+			}
+			if (m_AcknowledgmentCollector.getIsDue()) {
+				sendAcknowledgments();
+			}
+			m_FragmentReassembler.removeExpired();
+			m_ReorderBuffer.removeExpired(m_ReadyData);
+			handleReadyData();
+			return isActive ? 0 : getReceiveTimeout();
+		} catch (ChannelException e) {
+			if (m_ConnectionNumber == m_ReceiveConnectionNumber) {
+				PlatformTools.logError(Tools.getExceptionInfo(e));
+				// sending thread closes the channel
+				m_ReceiveError = e;
+				signalSend();
+			}
+			return MAXIMUM_WAIT_MSEC;
+		} catch (Exception e) {
+			PlatformTools.logError(Tools.getExceptionInfo(e));
+			return 500;
+		}
+	}
+
+	/**
+	 * Create the channel if it is needed, handle acknowledgments and send waiting data
+	 * @return Time to wait data to send before next call (in milliseconds)
+	 */
+	public final int executeSend() {
+		int timeout;
 		try {
 			synchronized (m_Locker) {
-				if (!m_Disposed) {
-					if (!getIsChannelAvailable()) {
-						createChannel();
-					}
-					ChannelData data = makeReceiveData();
-					if (data != null && checkIsDataFromCorrectServer(data)) {
-						if (data.getIsService()) {
-							handleServiceMessage(data);
-						} else {
-							if (data.getIsAcknowledgmentRequired()) {
-								makeSendData(ChannelData.createAcknowledgmentFor(data));
-							}
-							
-							int packetId = data.getPacketId();
-							// process only new data. Id is looping counter from (Integer.MIN_VALUE + 1) to (Integer.MAX_VALUE)
-							// so 5000 - to define that the difference between values is big enough
-							if ((packetId > m_LastReceivedPacketId) ||
-								(packetId < 0 && m_LastReceivedPacketId > 0 &&
-								(int)((long)m_LastReceivedPacketId - (long)packetId) > 5000)) {
-								m_LastReceivedPacketId = packetId;
-								handleReceivedData(data);
-							}
-						}
-						timeout = 0;
-					}
-					if (sendAvailableData()) {
-						timeout = 0;
+				if (m_Disposed) {
+					return MAXIMUM_WAIT_MSEC;
+				}
+				ChannelException error = m_ReceiveError;
+				if (error != null) {
+					throw error;
+				}
+				if (!getIsChannelAvailable()) {
+					long delay = m_ReconnectTime - System.currentTimeMillis();
+					if (delay > 0) {
+						return (int)Math.min(delay, RECONNECT_DELAY_MSEC);
 					}
-					afterExecute();
+					createChannel();
+					wakeupReceive();
 				}
+				handleAcknowledgedIds();
+				boolean isActive = sendAvailableData();
+				afterExecute();
+				timeout = isActive ? 0 : getSendTimeout();
 			}
 		} catch (ChannelException e) {
 			//PlatformTools.logError("BaseClientSideChannel.execute(ChannelException): " + e.getMessage() + " --- " + e.toString());
 			PlatformTools.logError(Tools.getExceptionInfo(e));
 			synchronized (m_Locker) {
 				closeChannel();
+				m_ReconnectTime = System.currentTimeMillis() + RECONNECT_DELAY_MSEC;
 			}
-			timeout = 3000;
+			timeout = RECONNECT_DELAY_MSEC;
 		} catch (Exception e) {
 			//PlatformTools.logError("BaseClientChannel.execute(Exception): " + e.getMessage() + " --- " + e.toString());
 			PlatformTools.logError(Tools.getExceptionInfo(e));
@@ -159,14 +502,226 @@ public abstract class BaseClientSideChannel {
 		return timeout;
 	}
 
+	/**
+	 * Wait for channel events (received data, data to send) no longer than given time.
+	 * Implementations without event notification just sleep
+	 * @param timeout Maximum time to wait in milliseconds (returned by execute)
+	 */
+	public void waitForEvents(int timeout) throws InterruptedException {
+		if (timeout > 0) {
+			Thread.sleep(timeout);
+		}
+	}
+
+	/**
+	 * Wait for received data no longer than given time (thread of executeReceive).
+	 * Implementations without event notification wait for wakeup on channel creation or closing
+	 * @param timeout Maximum time to wait in milliseconds (returned by executeReceive)
+	 */
+	public void waitForReceive(int timeout) throws InterruptedException {
+		m_ReceiveThread = Thread.currentThread();
+		if (timeout > 0) {
+			LockSupport.parkNanos(this, timeout * 1000000L);
+		}
+		if (Thread.interrupted()) {
+			throw new InterruptedException();
+		}
+	}
+
+	/**
+	 * Wait for data to send or acknowledgments no longer than given time (thread of executeSend)
+	 * @param timeout Maximum time to wait in milliseconds (returned by executeSend)
+	 */
+	public final void waitForSend(int timeout) throws InterruptedException {
+		m_SendThread = Thread.currentThread();
+		// signal after the flag is reset is not lost: it unparks the thread
+		if (timeout > 0 && !m_IsSendSignaled.getAndSet(false)) {
+			LockSupport.parkNanos(this, timeout * 1000000L);
+		}
+		if (Thread.interrupted()) {
+			throw new InterruptedException();
+		}
+	}
+
+	/**
+	 * Wake up thread waiting in waitForSend
+	 */
+	private void signalSend() {
+		m_IsSendSignaled.set(true);
+		Thread thread = m_SendThread;
+		if (thread != null) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	/**
+	 * Wake up thread waiting in waitForReceive
+	 */
+	protected void wakeupReceive() {
+		Thread thread = m_ReceiveThread;
+		if (thread != null) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	/**
+	 * Maximum size of packet that can be sent via channel
+	 * @return Size in bytes
+	 */
+	protected int getMaximumPacketSize() {
+		return Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Interrupt waitForEvents because there is a new work for the channel
+	 */
+	protected void wakeupChannel() {
+	}
+
+	/**
+	 * Time to wait before sending needs attention again: retransmission deadline or idle period
+	 * @return Time in milliseconds
+	 */
+	private int getSendTimeout() {
+		long timeOff = Math.min(m_SendWindow.getNextTimeOff(), m_MessageCoalescer.getTimeOff());
+		timeOff = Math.min(timeOff, m_DataToSend.getTimeOff());
+		return getTimeout(timeOff);
+	}
+
+	/**
+	 * Time to wait before receiving needs attention again: delayed acknowledgments or missed packets deadline
+	 * @return Time in milliseconds
+	 */
+	private int getReceiveTimeout() {
+		return getTimeout(Math.min(m_AcknowledgmentCollector.getTimeOff(), m_ReorderBuffer.getTimeOff()));
+	}
+
+	/**
+	 * Convert deadline to waiting time
+	 * @param timeOff Deadline in milliseconds or Long.MAX_VALUE
+	 * @return Time in milliseconds
+	 */
+	private static int getTimeout(long timeOff) {
+		if (timeOff != Long.MAX_VALUE) {
+			long delay = timeOff - System.currentTimeMillis() + 1;
+			return (int)Math.max(1, Math.min(delay, MAXIMUM_WAIT_MSEC));
+		}
+		return MAXIMUM_WAIT_MSEC;
+	}
+
+	/**
+	 * Handle packet received from correct server. The packet is copied only if it is passed to handleReceivedData
+	 * @param data View of received packet
+	 */
+	private void handleChannelData(ChannelDataView data) throws ChannelException {
+		if (data.getAcknowledgmentCount() > 0) {
+			handleAcknowledgments(data);
+		}
+		if (data.getIsService()) {
+			handleServiceMessage(data);
+		} else if (data.getIsFragment()) {
+			handleFragment(data);
+		} else {
+			if (data.getIsAcknowledgmentRequired()) {
+				if (m_IsDelayedAcknowledgment) {
+					m_AcknowledgmentCollector.add(data.getPacketId());
+					if (m_AcknowledgmentCollector.getIsDue()) {
+						sendAcknowledgments();
+					}
+				} else {
+					sendAcknowledgment(data.getPacketId(), data.getEndPoint());
+				}
+			}
+
+			// process only new data (repeated packet is acknowledged again because the acknowledgment could be lost)
+			if (m_ReplayWindow.accept(data.getPacketId())) {
+				if (data.getIsMultiMessage()) {
+					if (data.unpackMessages(m_ReceivedMessages)) {
+						for (int i = 0; i < m_ReceivedMessages.size(); i++) {
+							deliverReceivedData(m_ReceivedMessages.get(i));
+						}
+					}
+					m_ReceivedMessages.clear();
+				} else {
+					deliverReceivedData(data.toChannelData());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Check received packet is sealed if keys are exchanged: unsealed packet could be forged to break the session.
+	 * Repeated data packet of keys exchange is acknowledged again because the acknowledgment could be lost
+	 * @param data View of received packet
+	 * @return True if the packet can be handled
+	 */
+	private boolean checkIsSealed(ChannelDataView data) throws ChannelException {
+		if (data.getIsSealed() || m_PacketCipher == null) {
+			return true;
+		}
+		if (!data.getIsService() && data.getIsAcknowledgmentRequired() && m_ReplayWindow.getIsRepeated(data.getPacketId())) {
+			sendAcknowledgment(data.getPacketId(), data.getEndPoint());
+		} else {
+			PlatformTools.logWarning(Tools.getMethodName() + ": unsealed packet is skipped. Id:" + data.getPacketId());
+		}
+		return false;
+	}
+
+	/**
+	 * Pass new received data to handleReceivedData at once or through the reorder buffer
+	 * @param data Received data
+	 */
+	private void deliverReceivedData(ChannelData data) throws ChannelException {
+		if (m_IsOrderedDelivery && data.getHasSequenceNumber()) {
+			m_ReorderBuffer.add(data, m_ReadyData);
+			handleReadyData();
+		} else {
+			handleReceivedData(data);
+		}
+	}
+
+	private void handleReadyData() throws ChannelException {
+		try {
+			for (int i = 0; i < m_ReadyData.size(); i++) {
+				handleReceivedData(m_ReadyData.get(i));
+			}
+		} finally {
+			m_ReadyData.clear();
+		}
+	}
+
+	/**
+	 * Handle fragment of big message. Fragments are acknowledged together if delayed acknowledgment is used
+	 * @param data View of received fragment
+	 */
+	private void handleFragment(ChannelDataView data) throws ChannelException {
+		if (data.getIsAcknowledgmentRequired()) {
+			if (m_IsDelayedAcknowledgment) {
+				m_AcknowledgmentCollector.add(data.getPacketId());
+				if (m_AcknowledgmentCollector.getIsDue() || data.getFragmentIndex() == data.getFragmentCount() - 1) {
+					sendAcknowledgments();
+				}
+			} else {
+				sendAcknowledgment(data.getPacketId(), data.getEndPoint());
+			}
+		}
+		if (!m_ReplayWindow.accept(data.getPacketId())) {
+			return;
+		}
+		ChannelData message = m_FragmentReassembler.add(data);
+		if (message != null) {
+			deliverReceivedData(message);
+		}
+	}
+
 	protected abstract void afterExecute() throws ChannelException;
 
 	/**
 	 * Check received data is came from valid server from expected EndPoint
-	 * @param data Data to check
+	 * @param endPoint Endpoint of received data
 	 * @return True if success
 	 */
-	protected abstract boolean checkIsDataFromCorrectServer(ChannelData data);
+	protected abstract boolean checkIsDataFromCorrectServer(Object endPoint);
 
 	/**
 	 * Create Channel and set it's options
@@ -182,22 +737,83 @@ public abstract class BaseClientSideChannel {
 		if (getIsChannelAvailable()) {
 			raiseEventAsync(m_CloseConnectionReason == CloseConnectionReason.ClosedByServer ? channelClosedByServer : channelClosed, null);
 		}
-		m_WaitAcknowledgment = null;
+		for (ChannelData data : m_SendWindow.clear()) {
+			acknowledgmentFailed(data);
+		}
+		ChannelData fragment;
+		while ((fragment = m_FragmentsToSend.poll()) != null) {
+			acknowledgmentFailed(fragment);
+		}
+		m_AcknowledgmentCollector.clear();
+		while (m_AcknowledgedIds.poll() >= 0) {
+			// acknowledgments of old connection
+		}
+		m_OrderedInFlight = null;
+		m_ReceiveError = null;
 		m_CloseConnectionReason = CloseConnectionReason.None;
-		m_LastReceivedPacketId = Integer.MIN_VALUE;
+		// receiving state is reset by receiving thread
+		m_ConnectionNumber++;
+	}
+
+	/**
+	 * Drop data which is not sent yet because it is prepared for closed connection (for example ciphered with its keys).
+	 * Acknowledgment error is raised for data which requires acknowledgment. It is called while the channel is closed
+	 */
+	protected final void dropDataToSend() {
+		m_SubmittedData.drainTo(m_DataToSend);
+		for (ChannelData data : m_DataToSend.clear()) {
+			dropData(data);
+		}
+		if (!m_MessageCoalescer.getIsEmpty()) {
+			dropData(m_MessageCoalescer.take());
+		}
+	}
+
+	/**
+	 * Remove received data of closed connection (receiving thread)
+	 */
+	private void resetReceiveState() {
+		m_FragmentReassembler.clear();
+		m_ReplayWindow.clear();
+		m_ReorderBuffer.clear();
+		m_ReadyData.clear();
+	}
+
+	/**
+	 * Apply settings set by other threads to receiving state (receiving thread)
+	 * @param settings New settings
+	 */
+	private void applyReceiveSettings(ReceiveSettings settings) throws ChannelException {
+		ReceiveSettings applied = m_AppliedSettings;
+		m_AppliedSettings = settings;
+		m_AcknowledgmentCollector.setDelay(settings.acknowledgmentDelay);
+		m_IsDelayedAcknowledgment = settings.isDelayedAcknowledgment;
+		if (!settings.isDelayedAcknowledgment) {
+			sendAcknowledgments();
+		}
+		if (settings.replayWindowSize != applied.replayWindowSize) {
+			m_ReplayWindow.setSize(settings.replayWindowSize);
+		}
+		m_ReorderBuffer.setHoldTime(settings.holdTime);
+		m_IsOrderedDelivery = settings.isOrderedDelivery;
+		if (!settings.isOrderedDelivery) {
+			// held packets are handled at once
+			m_ReadyData.addAll(m_ReorderBuffer.clear());
+		}
 	}
 
 	/**
 	 * If there are available data in Channel then receive it (physical receiving)
-	 * @return Data that were received and extra information or null if no data
+	 * @return View of received data valid until next call or null if no data
 	 */
-	protected abstract ChannelData makeReceiveData() throws ChannelException;
+	protected abstract ChannelDataView makeReceiveData() throws ChannelException;
 
 	/**
 	 * Need handle sending of data (physical sending)
 	 * @param data Data to send
+	 * @return False if raw bytes of the packet can't be built (for example sealed packet without keys), True if the packet is sent or lost by network
 	 */
-	protected abstract void makeSendData(ChannelData data) throws ChannelException;
+	protected abstract boolean makeSendData(ChannelData data) throws ChannelException;
 
 	/**
 	 * Handle data received via channel
@@ -207,22 +823,182 @@ public abstract class BaseClientSideChannel {
 		raiseEventAsync(dataReceived, data);
 	}
 			
+	/**
+	 * Handle acknowledged packet. Its buffers are released after the event
+	 * @param data Acknowledged packet
+	 */
 	protected void handleAcknowledgmentReceived(ChannelData data) {
-		raiseEventAsync(acknowledgmentReceived, data);
+		completeOrdered(data);
+		raiseEventAndRelease(acknowledgmentReceived, data);
 	}
 
+	/**
+	 * Handle packet which was not acknowledged. Its buffers are released after the event
+	 * @param data Packet without acknowledgment
+	 */
 	protected void handleAcknowledgmentError(ChannelData data) {
-		raiseEventAsync(acknowledgmentError, data);
+		completeOrdered(data);
+		raiseEventAndRelease(acknowledgmentError, data);
+	}
+
+	/**
+	 * Allow to send next ReliableOrdered message if the packet is (or contains) the message which is waited
+	 * @param data Acknowledged or failed packet
+	 */
+	private void completeOrdered(ChannelData data) {
+		if (m_OrderedInFlight != null && (data == m_OrderedInFlight ||
+			(data.getMessages() != null && data.getMessages().contains(m_OrderedInFlight)))) {
+			m_OrderedInFlight = null;
+		}
+	}
+
+	/**
+	 * Get Id for packet which is sent the first time
+	 * @return New packet Id
+	 */
+	private int getNextPacketId() {
+		int packetId = m_LastPacketId.incrementAndGet();
+		if (packetId == Integer.MIN_VALUE) {
+			packetId = m_LastPacketId.incrementAndGet();
+		}
+		return packetId;
+	}
+
+	/**
+	 * Acknowledge received packet at once. Sealed acknowledgment needs own Id (nonce), so the Id is sent in acknowledgments block
+	 * @param packetId Id of received packet
+	 * @param endPoint Endpoint of received packet
+	 */
+	private void sendAcknowledgment(int packetId, Object endPoint) throws ChannelException {
+		if (m_PacketCipher != null) {
+			m_AcknowledgedId[0] = packetId;
+			sendServiceMessage(ChannelData.createSelectiveAcknowledgment(SelectiveAcknowledgment.create(m_AcknowledgedId, 1), endPoint));
+		} else {
+			sendServiceMessage(ChannelData.createAcknowledgmentFor(packetId, endPoint));
+		}
+	}
+
+	/**
+	 * Send packet created by the channel itself and release its buffers. Acknowledgment has Id of acknowledged packet,
+	 * other service messages get new Id. Service messages are sealed if keys are exchanged
+	 * @param data Packet to send
+	 */
+	private void sendServiceMessage(ChannelData data) throws ChannelException {
+		if (data.getServiceMessageType() != ServiceMessageType.Acknowledgment) {
+			data.setPacketId(getNextPacketId());
+		}
+		if (m_PacketCipher != null) {
+			data.setIsSealed(true);
+		}
+		try {
+			makeSendData(data);
+		} finally {
+			data.releaseBuffers();
+		}
+	}
+
+	/**
+	 * Stop waiting acknowledgment for packet
+	 * @param packetId Id of acknowledged packet
+	 */
+	private void acknowledge(int packetId) {
+		ChannelData sent = m_SendWindow.acknowledge(packetId);
+		if (sent != null) {
+			ChannelData message = sent.getParent();
+			if (message != null) {
+				sent.releaseBuffers();
+				if (message.acknowledgeFragment()) {
+					handleAcknowledgmentReceived(message);
+				}
+			} else {
+				handleAcknowledgmentReceived(sent);
+			}
+		}
+	}
+
+	/**
+	 * Report packet which was not acknowledged. Error of big message is reported once for all its fragments
+	 * @param data Packet without acknowledgment
+	 */
+	private void acknowledgmentFailed(ChannelData data) {
+		ChannelData message = data.getParent();
+		if (message != null) {
+			data.releaseBuffers();
+			if (message.failFragment()) {
+				handleAcknowledgmentError(message);
+			}
+		} else {
+			handleAcknowledgmentError(data);
+		}
+	}
+
+	/**
+	 * Drop packet which can't be sent: acknowledgment error is raised if it requires acknowledgment
+	 * @param data Packet to drop
+	 */
+	private void dropData(ChannelData data) {
+		if (data.getIsAcknowledgmentRequired()) {
+			acknowledgmentFailed(data);
+		} else {
+			releasePacket(data);
+		}
+	}
+
+	/**
+	 * Handle acknowledgments block received in service or data packet
+	 * @param data View of received packet with acknowledgments block
+	 */
+	private void handleAcknowledgments(ChannelDataView data) {
+		for (int i = 0; i < data.getAcknowledgmentCount(); i++) {
+			int packetId = data.getAcknowledgmentPacketId(i);
+			addAcknowledgedId(packetId);
+			int bitmap = data.getAcknowledgmentBitmap(i);
+			while (bitmap != 0) {
+				int bit = Integer.numberOfTrailingZeros(bitmap);
+				addAcknowledgedId(packetId - 1 - bit);
+				bitmap &= bitmap - 1;
+			}
+		}
+		signalSend();
+	}
+
+	/**
+	 * Pass acknowledged packet Id to sending thread (receiving thread)
+	 * @param packetId Id of acknowledged packet
+	 */
+	private void addAcknowledgedId(int packetId) {
+		if (!m_AcknowledgedIds.offer(packetId)) {
+			// the packet is sent again and acknowledged again
+			PlatformTools.logWarning(Tools.getMethodName() + ": queue of acknowledgments is full. Id:" + packetId);
+		}
+	}
+
+	/**
+	 * Stop waiting acknowledgment for packets acknowledged in receiving thread
+	 */
+	private void handleAcknowledgedIds() {
+		long packetId;
+		while ((packetId = m_AcknowledgedIds.poll()) >= 0) {
+			acknowledge((int)packetId);
+		}
 	}
 
-	private void handleServiceMessage(ChannelData data) throws ChannelException
+	/**
+	 * Send all collected acknowledgments in one service message
+	 */
+	private void sendAcknowledgments() throws ChannelException {
+		SelectiveAcknowledgment acknowledgments = m_AcknowledgmentCollector.take();
+		if (acknowledgments != null) {
+			sendServiceMessage(ChannelData.createSelectiveAcknowledgment(acknowledgments, null));
+		}
+	}
+
+	private void handleServiceMessage(ChannelDataView data) throws ChannelException
 	{
 		switch(data.getServiceMessageType()) {
 		case Acknowledgment:
-			if (m_WaitAcknowledgment != null && m_WaitAcknowledgment.isIdEqual(data.getPacketId())) {
-				m_WaitAcknowledgment = null;
-				handleAcknowledgmentReceived(data);
-			}
+			addAcknowledgedId(data.getPacketId());
+			signalSend();
 			break;
 			
 		case CloseConnection:
@@ -243,34 +1019,181 @@ public abstract class BaseClientSideChannel {
 	 * @return True - data were sent
 	 */
 	private boolean sendAvailableData() throws ChannelException {
-		if (m_WaitAcknowledgment == null) {
-			ChannelData data;
-			synchronized (m_DataToSend) {
-				data = m_DataToSend.poll();
+		boolean isSent = false;
+		m_SubmittedData.drainTo(m_DataToSend);
+		m_DataToSend.collectDropped(m_DroppedData);
+		for (int i = 0; i < m_DroppedData.size(); i++) {
+			ChannelData data = m_DroppedData.get(i);
+			PlatformTools.logWarning(Tools.getMethodName() + ": data is replaced or expired before sending");
+			if (data.getIsAcknowledgmentRequired()) {
+				handleAcknowledgmentError(data);
+			} else {
+				data.releaseBuffers();
+			}
+		}
+		m_DroppedData.clear();
+		ChannelData lost = m_SendWindow.collectDataToResend(m_DataToResend);
+		if (lost != null) { // connection is bad - no answer
+			m_DataToResend.clear();
+			PlatformTools.logError(Tools.getMethodName() + ": Acknowledgment is not received after sending " + m_SendWindow.getPolicy().getMaximumAttempts() + " data packet. Maybe connection is unavailable. Reset it");
+
+			acknowledgmentFailed(lost);
+			throw new ChannelException("Acknowledgement was not received");
+		}
+		for (int i = 0; i < m_DataToResend.size(); i++) {
+			ChannelData data = m_DataToResend.get(i);
+			PlatformTools.logError(Tools.getMethodName() + ": Acknowledgment is not received. Repeat to send data. Id:" + data.getPacketId());
+
+			if (!makeSendData(data)) {
+				m_SendWindow.remove(data.getPacketId());
+				acknowledgmentFailed(data);
+				continue;
+			}
+			isSent = true;
+		}
+		m_DataToResend.clear();
+
+		while (true) {
+			// messages without acknowledgment are sent even if the window is full
+			boolean isReliableAllowed = !m_SendWindow.getIsFull();
+			// fragments of big message are sent back-to-back before next messages
+			ChannelData data = m_FragmentsToSend.peek();
+			if (data != null && (isReliableAllowed || !data.getIsAcknowledgmentRequired())) {
+				m_FragmentsToSend.poll();
+			} else {
+				data = m_DataToSend.poll(isReliableAllowed && data == null, m_OrderedInFlight == null);
+			}
+			if (data == null) {
+				break;
+			}
+			if (data.getIsSealed() && m_PacketCipher == null) {
+				// message body was left plain to seal it in closed session, it can't be sent without the keys
+				PlatformTools.logWarning(Tools.getMethodName() + ": data of closed session is dropped");
+				dropData(data);
+				continue;
+			}
+			if (data.getDeliveryQos() == DeliveryQos.ReliableOrdered) {
+				m_OrderedInFlight = data;
 			}
-			if (data != null) {
-				makeSendData(data);
-				if (!data.getIsService() && data.getIsAcknowledgmentRequired()) {
-					m_WaitAcknowledgment = new WaitAcknowledgment(data);
+			if (m_PacketCipher != null && !data.getIsService()) {
+				// the size is checked with authentication tag
+				data.setIsSealed(true);
+			}
+			if (!data.getIsService() && data.getParent() == null &&
+				data.getChannelRawSize() + (m_IsSequenceNumbering ? ChannelData.SEQUENCE_NUMBER_SIZE : 0) > getMaximumPacketSize()) {
+				if (getCanSendCollected(isReliableAllowed)) {
+					sendPacket(m_MessageCoalescer.take());
+				}
+				// Id of the message identifies its fragments, they have its sequence number
+				data.setPacketId(getNextPacketId());
+				if (m_IsSequenceNumbering) {
+					data.setSequenceNumber(++m_LastSequenceNumber);
+				}
+				m_FragmentsToSend.addAll(data.createFragments(getMaximumPacketSize()));
+				if (!data.getIsAcknowledgmentRequired()) {
+					// without acknowledgment there are no events for the message
+					data.releaseBuffers();
 				}
-				return true;
+				continue;
 			}
+			if (m_IsMessageCoalescing && m_MessageCoalescer.getIsSuitable(data)) {
+				if (!m_MessageCoalescer.add(data)) {
+					if (getCanSendCollected(isReliableAllowed)) {
+						sendPacket(m_MessageCoalescer.take());
+						m_MessageCoalescer.add(data);
+					} else {
+						// collected messages wait for the window, the message without acknowledgment doesn't
+						sendPacket(data);
+					}
+					isSent = true;
+				}
+				continue;
+			}
+			// collected messages are sent first to keep order
+			if (getCanSendCollected(isReliableAllowed)) {
+				sendPacket(m_MessageCoalescer.take());
+			}
+			sendPacket(data);
+			isSent = true;
+		}
+		if (m_MessageCoalescer.getIsDue() && getCanSendCollected(!m_SendWindow.getIsFull())) {
+			sendPacket(m_MessageCoalescer.take());
+			isSent = true;
+		}
+		return isSent;
+	}
+
+	/**
+	 * Check collected small messages can be sent now
+	 * @param isReliableAllowed False if the send window is full
+	 * @return True if there are collected messages and they don't require acknowledgment or the window is not full
+	 */
+	private boolean getCanSendCollected(boolean isReliableAllowed) {
+		return !m_MessageCoalescer.getIsEmpty() && (isReliableAllowed || !m_MessageCoalescer.getIsAcknowledgmentRequired());
+	}
+
+	/**
+	 * Send packet the first time and wait its acknowledgment if it is required. The packet gets new Id,
+	 * so Ids of data packets grow in order of sending whatever order of adding was. Data packet gets sequence number too
+	 * @param data Packet to send
+	 */
+	private void sendPacket(ChannelData data) throws ChannelException {
+		data.setPacketId(getNextPacketId());
+		if (m_IsSequenceNumbering && !data.getIsService() && data.getParent() == null) {
+			data.setSequenceNumber(++m_LastSequenceNumber);
+		}
+		if (m_PacketCipher != null) {
+			// packets made before keys exchange are sealed too: the other side skips unsealed packets
+			data.setIsSealed(true);
+		}
+		boolean isBuilt;
+		if (!data.getIsService() && !m_AcknowledgmentCollector.getIsEmpty()) {
+			isBuilt = sendWithAcknowledgments(data);
 		} else {
-			if (m_WaitAcknowledgment.getHaveTries()) {
-				if (m_WaitAcknowledgment.checkConditionsToResend()) {
-					PlatformTools.logError(Tools.getMethodName() + ": Acknowledgment is not received. Repeat to send data");
+			isBuilt = makeSendData(data);
+		}
+		if (!isBuilt) {
+			// there is nothing to resend
+			dropData(data);
+		} else if (!data.getIsService() && data.getIsAcknowledgmentRequired()) {
+			m_SendWindow.add(data);
+		} else {
+			releasePacket(data);
+		}
+	}
 
-					makeSendData(m_WaitAcknowledgment.getData());
-					return true;
-				}
-			} else { // connection is bad - no answer
-				PlatformTools.logError(Tools.getMethodName() + ": Acknowledgment is not received after sending 3 data packet. Maybe connection is unavailable. Reset it");
+	/**
+	 * Send data packet with collected acknowledgments in its header if they fit in the packet
+	 * @param data Data packet to send
+	 * @return False if the packet can't be built
+	 */
+	private boolean sendWithAcknowledgments(ChannelData data) throws ChannelException {
+		SelectiveAcknowledgment acknowledgments = m_AcknowledgmentCollector.take();
+		data.setAcknowledgments(acknowledgments);
+		if (data.getChannelRawSize() > getMaximumPacketSize()) {
+			data.setAcknowledgments(null);
+			sendServiceMessage(ChannelData.createSelectiveAcknowledgment(acknowledgments, null));
+		}
+		boolean isBuilt = makeSendData(data);
+		if (!data.getIsSealed()) {
+			// resending of the data must not repeat old acknowledgments (sealed packet keeps them, they are authenticated)
+			data.setAcknowledgments(null);
+		}
+		return isBuilt;
+	}
 
-				handleAcknowledgmentError(m_WaitAcknowledgment.getData());
-				throw new ChannelException("Acknowledgement was not received");
-			}
+	/**
+	 * Report data which is not passed to sendDataAsync because it can't be prepared (it can be called from any thread).
+	 * Acknowledgment error is raised if the data requires acknowledgment
+	 * @param data Rejected data
+	 */
+	protected final void rejectData(ChannelData data) {
+		PlatformTools.logWarning(Tools.getMethodName() + ": data is not sent");
+		if (data.getIsAcknowledgmentRequired()) {
+			raiseEventAndRelease(acknowledgmentError, data);
+		} else {
+			data.releaseBuffers();
 		}
-		return false;
 	}
 
 	/**
@@ -278,31 +1201,80 @@ public abstract class BaseClientSideChannel {
 	 * @param data Store data to send it later
 	 */
 	public final void sendDataAsync(ChannelData data) {
-		PlatformTools.logInformation(Tools.getMethodName());
+		sendDataAsync(data, SendPriority.Normal, 0, null);
+	}
+
+	/**
+	 * Send data to Channel asynchronous
+	 * @param data Store data to send it later
+	 * @param priority Data of higher priority is sent before all data of lower priority
+	 * @param lifetime Time in milliseconds to drop the data if it is not sent (acknowledgment error is raised), 0 - unlimited
+	 * @param key Key to replace not sent data with the same key (for example type of status request) or null
+	 */
+	public final void sendDataAsync(ChannelData data, SendPriority priority, int lifetime, Object key) {
+		if (PlatformTools.isDebug) {
+			PlatformTools.logInformation(Tools.getMethodName());
+		}
 
 		if (data != null) {
-			synchronized (m_DataToSend) {
-				m_DataToSend.offer(data);
+			m_SubmittedData.offer(data, priority, lifetime > 0 ? System.currentTimeMillis() + lifetime : 0, key);
+			if (m_SendThread != null) {
+				signalSend();
+			} else {
+				wakeupChannel();
 			}
 		}
 	}
 
-	protected static void raiseEventAsync(final EventHandler handler, final Object arg) {
-		if (handler != null) {
-			if (PlatformTools.isDebug) {
-				PlatformTools.logInformation(Tools.getMethodName() + ": event is " + handler.getClass().getSimpleName());
+	/**
+	 * Raise event in thread of the channel events after previous events
+	 * @param handler Event handler or null
+	 * @param arg Argument of the event
+	 */
+	protected final void raiseEventAsync(final EventHandler handler, final Object arg) {
+		m_EventDispatcher.post(handler, arg);
+	}
+
+	/**
+	 * Raise event in thread of the channel events before waiting events of lower priority
+	 * @param handler Event handler or null
+	 * @param arg Argument of the event
+	 * @param priority Priority of the event
+	 */
+	protected final void raiseEventAsync(final EventHandler handler, final Object arg, ReceivePriority priority) {
+		m_EventDispatcher.post(handler, arg, priority);
+	}
+
+	/**
+	 * Raise event in thread of the channel events and release buffers of the packet after it
+	 * @param handler Event handler or null
+	 * @param data Packet which is argument of the event
+	 */
+	private void raiseEventAndRelease(final EventHandler handler, final ChannelData data) {
+		List<ChannelData> messages = data.getMessages();
+		if (messages != null) {
+			// events are raised for every packed message
+			data.releaseBuffers();
+			for (int i = 0; i < messages.size(); i++) {
+				raiseEventAndRelease(handler, messages.get(i));
+			}
+			return;
+		}
+		m_EventDispatcher.postAndRelease(handler, data);
+	}
+
+	/**
+	 * Release buffers of sent packet and its packed messages
+	 * @param data Packet which is not needed anymore
+	 */
+	private static void releasePacket(ChannelData data) {
+		List<ChannelData> messages = data.getMessages();
+		if (messages != null) {
+			for (int i = 0; i < messages.size(); i++) {
+				messages.get(i).releaseBuffers();
 			}
-			s_Executor.execute(new Runnable() {
-				@Override
-				public void run () {
-					try {
-						handler.invoke(arg);
-					} catch (Exception e) {
-						PlatformTools.logError(Tools.getExceptionInfo(e));
-					}
-				}
-			});
 		}
+		data.releaseBuffers();
 	}
 
 	public static void raiseEvent(final EventHandler handler, final Object arg) {
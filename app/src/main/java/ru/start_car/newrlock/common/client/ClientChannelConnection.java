@@ -1,17 +1,28 @@
 package ru.start_car.newrlock.common.client;
 
 import java.net.InetAddress;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.EnumMap;
 
+import ru.start_car.newrlock.common.aids.BufferPool;
 import ru.start_car.newrlock.common.aids.CryptoManager;
+import ru.start_car.newrlock.common.aids.CryptoPipeline;
 import ru.start_car.newrlock.common.aids.EventHandler;
+import ru.start_car.newrlock.common.aids.KeyExchange;
+import ru.start_car.newrlock.common.aids.PayloadCompressor;
 import ru.start_car.newrlock.common.aids.PlatformTools;
 import ru.start_car.newrlock.common.aids.Tools;
 import ru.start_car.newrlock.common.messages.Authentication;
+import ru.start_car.newrlock.common.messages.CompressionDictionary;
 import ru.start_car.newrlock.common.messages.SerializableObject;
+import ru.start_car.newrlock.common.messages.SerializableTypes;
+import ru.start_car.newrlock.common.messages.SessionTicket;
 import ru.start_car.newrlock.common.network.ChannelData;
 import ru.start_car.newrlock.common.network.ChannelException;
-import ru.start_car.newrlock.common.network.WaitAcknowledgment;
+import ru.start_car.newrlock.common.network.PacketCipher;
+import ru.start_car.newrlock.common.network.SendPriority;
 
 /**
  * Client side handler for channel
@@ -45,21 +56,159 @@ public final class ClientChannelConnection extends ClientChannelUdp {
 	}
 	private final AuthenticationInfo m_AuthenticationInfo;
 
-	private enum AuthenticationState { initial, waitAuthPacket1, waitAuthPacket2, authenticationCompleted }
 	/**
-	 * Current authentication step
+	 * Maximum time of authentication process in milliseconds
 	 */
-	private AuthenticationState m_AuthenticationState;
+	private static final int AUTHENTICATION_TIMEOUT_MSEC = 20000;
+	/**
+	 * Size of buffer to serialize object to send. It grows if the object doesn't fit
+	 */
+	private static final int INITIAL_PAYLOAD_CAPACITY = 1024;
+	/**
+	 * Time to wait answer on session ticket before full authentication (in milliseconds)
+	 */
+	private static final int RESUMPTION_TIMEOUT_MSEC = 5000;
+
+	private enum AuthenticationState { initial, waitResumption, waitAuthPacket1, waitAuthPacket2, authenticationCompleted }
+	/**
+	 * Current authentication step (it is changed in crypto pipeline under m_AuthenticationLocker)
+	 */
+	private volatile AuthenticationState m_AuthenticationState = AuthenticationState.initial;
+	/**
+	 * Locker of authentication state and keys (channel thread and crypto pipeline use them)
+	 */
+	private final Object m_AuthenticationLocker = new Object();
+	/**
+	 * Number of current connection, tasks of closed connection are skipped
+	 */
+	private volatile int m_ConnectionNumber;
 	
 	/**
 	 * Last time where channel was active (in Milliseconds)
 	 */
-	private long m_LastChannelEvent;
+	private volatile long m_LastChannelEvent;
+
+	/**
+	 * Lane of crypto pipeline for received messages and authentication: decryption runs in order of receiving out of channel thread
+	 */
+	private final CryptoPipeline.Lane m_ReceiveLane = CryptoPipeline.getDefault().createLane(CryptoPipeline.DEFAULT_LANE_CAPACITY);
+	/**
+	 * Lane of crypto pipeline for sent messages: encryption runs in order of sending out of caller thread
+	 */
+	private final CryptoPipeline.Lane m_SendLane = CryptoPipeline.getDefault().createLane(CryptoPipeline.DEFAULT_LANE_CAPACITY);
 
 	/**
 	 * Secret data manager
 	 */
 	private final CryptoManager m_CryptoManager = new CryptoManager();
+	/**
+	 * Compressor of message bodies
+	 */
+	private final PayloadCompressor m_Compressor = new PayloadCompressor(CompressionDictionary.get(), CompressionDictionary.ID);
+	/**
+	 * Value indicating sent messages are compressed
+	 */
+	private volatile boolean m_IsCompression;
+
+	/**
+	 * Set compression of sent messages. Other side must support compressed messages with the same dictionary
+	 * @param isEnabled True to compress messages bigger than threshold
+	 * @param threshold Minimum size of serialized message to compress
+	 */
+	public final void setCompression(boolean isEnabled, int threshold) {
+		m_Compressor.setThreshold(threshold);
+		m_IsCompression = isEnabled;
+	}
+
+	/**
+	 * Value indicating packets are sealed with authenticated encryption after authentication
+	 */
+	private volatile boolean m_IsPacketSealing;
+
+	/**
+	 * Set protection of data packets. Other side must support sealed packets (service messages are sealed too,
+	 * acknowledgments are sent in acknowledgments blocks) and selective acknowledgments. Session ticket is used only with sealed packets
+	 * @param isEnabled True to seal packets (AES-GCM, the tag replaces crc), False to cipher message bodies (AES-CBC) and check crc
+	 */
+	public final void setPacketSealing(boolean isEnabled) {
+		m_IsPacketSealing = isEnabled;
+	}
+
+	/**
+	 * Cipher of sealed packets with keys of the session
+	 */
+	private final PacketCipher m_PacketCipher = new PacketCipher() {
+		@Override
+		public int seal(int packetId, byte[] buffer, int fieldsIndex, int index, int count) {
+			return m_CryptoManager.sealPacket(packetId, buffer, fieldsIndex, index, count);
+		}
+
+		@Override
+		public int open(int packetId, ByteBuffer fields, ByteBuffer in, ByteBuffer out) {
+			return m_CryptoManager.openPacket(packetId, fields, in, out);
+		}
+	};
+
+	/**
+	 * Priorities of received messages by types (Normal for types which are not in the map)
+	 */
+	private final EnumMap<SerializableTypes, ReceivePriority> m_ReceivePriorities = new EnumMap<SerializableTypes, ReceivePriority>(SerializableTypes.class);
+
+	/**
+	 * Set priority of handling received objects of the type
+	 * @param type Type of objects
+	 * @param priority Priority in the events queue (Alarm objects overtake all waiting objects)
+	 */
+	public final void setReceivePriority(SerializableTypes type, ReceivePriority priority) {
+		synchronized (m_ReceivePriorities) {
+			m_ReceivePriorities.put(type, priority);
+		}
+	}
+
+	/**
+	 * Key exchange mode of full authentication
+	 */
+	private volatile KeyExchange m_KeyExchange = KeyExchange.Rsa;
+
+	/**
+	 * Set key exchange mode of full authentication. If server answers in other mode, the authentication is restarted in its mode
+	 * @param value Key exchange mode
+	 */
+	public final void setKeyExchange(KeyExchange value) {
+		m_KeyExchange = value;
+	}
+
+	/**
+	 * Ticket of the last session to resume it on reconnect or null
+	 */
+	private volatile ResumptionTicket m_ResumptionTicket;
+	/**
+	 * Ticket received from server which is not saved yet (it is received in other thread)
+	 */
+	private volatile SessionTicket m_ReceivedTicket;
+
+	/**
+	 * Save session ticket received from server. It is used on next reconnect
+	 * @param ticket Received ticket
+	 */
+	public final void setReceivedSessionTicket(final SessionTicket ticket) {
+		m_ReceivedTicket = ticket;
+	}
+
+	/**
+	 * Ticket to resume the last session
+	 * @return Ticket or null
+	 */
+	final ResumptionTicket getResumptionTicket() {
+		return m_ResumptionTicket;
+	}
+	/**
+	 * Set ticket to resume session on next connection
+	 * @param ticket Ticket or null to use full authentication
+	 */
+	final void setResumptionTicket(final ResumptionTicket ticket) {
+		m_ResumptionTicket = ticket;
+	}
 
 	private EventHandler authenticationCompleted;
 	/**
@@ -69,6 +218,14 @@ public final class ClientChannelConnection extends ClientChannelUdp {
 		authenticationCompleted = handler;
 	}
 
+	private EventHandler objectReceived;
+	/**
+	 * Raise on message is received and decrypted (argument is SerializableObject). Session tickets are handled by the channel
+	 */
+	public final synchronized void setObjectReceivedEventHandler(final EventHandler handler) {
+		objectReceived = handler;
+	}
+
 	public ClientChannelConnection(InetAddress address, int port, String login, char[] password) {
 		super(address, port);
 		m_AuthenticationInfo = new AuthenticationInfo(login, password);
@@ -76,8 +233,31 @@ public final class ClientChannelConnection extends ClientChannelUdp {
 
 	@Override
 	protected void afterExecute() throws ChannelException {
+		SessionTicket received = m_ReceivedTicket;
+		if (received != null) {
+			m_ReceivedTicket = null;
+			synchronized (m_AuthenticationLocker) {
+				saveSessionTicket(received);
+			}
+		}
+		if (m_AuthenticationState == AuthenticationState.waitResumption &&
+		   (System.currentTimeMillis() - m_LastChannelEvent) > RESUMPTION_TIMEOUT_MSEC) {
+			PlatformTools.logWarning(Tools.getMethodName() + ": no answer on session ticket");
+			synchronized (m_AuthenticationLocker) {
+				m_AuthenticationState = AuthenticationState.initial;
+			}
+			m_LastChannelEvent = System.currentTimeMillis();
+			executeCrypto(m_ReceiveLane, new ConnectionTask() {
+				@Override
+				protected void runInConnection() {
+					if (m_AuthenticationState == AuthenticationState.initial) {
+						startAuthentication();
+					}
+				}
+			});
+		}
 		if (m_AuthenticationState != AuthenticationState.authenticationCompleted &&
-		   (System.currentTimeMillis() - m_LastChannelEvent) > (WaitAcknowledgment.WAIT_ACK_MSEC * 4)) {
+		   (System.currentTimeMillis() - m_LastChannelEvent) > AUTHENTICATION_TIMEOUT_MSEC) {
 			throw new ChannelException("Authentication timeout");
 		}
 	}
@@ -86,7 +266,59 @@ public final class ClientChannelConnection extends ClientChannelUdp {
 	protected void createChannel() throws ChannelException {
 		super.createChannel();
 
+		m_LastChannelEvent = System.currentTimeMillis();
+		// key generation or loading of ticket keys runs in crypto pipeline
+		executeCrypto(m_ReceiveLane, new ConnectionTask() {
+			@Override
+			protected void runInConnection() {
+				if (m_AuthenticationState == AuthenticationState.initial) {
+					beginAuthentication();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Send session ticket if it is valid or start full authentication. Resumed session has the keys of previous session,
+	 * so it is allowed only with sealed packets: their nonces are salted by new client Salt and old packets can't be replayed
+	 */
+	private void beginAuthentication() {
 		m_AuthenticationInfo.clientSalt = CryptoManager.generateSalt();
+		ResumptionTicket ticket = m_ResumptionTicket;
+		if (ticket != null && m_IsPacketSealing && ticket.getIsValid(m_AuthenticationInfo.login)) {
+			// Send ticket and client Salt only: missing public key (cryptoKey2) means resumption
+			Authentication info = new Authentication();
+			info.login = m_AuthenticationInfo.login;
+			info.saltOrHash = m_AuthenticationInfo.clientSalt;
+			info.cryptoKey1 = ticket.ticket;
+
+			ChannelData send = new ChannelData();
+			send.setIsAcknowledgmentRequired(true);
+			send.setData(SerializableObject.instanceToBytes(info));
+			sendDataAsync(send, SendPriority.High, 0, null);
+
+			m_AuthenticationState = AuthenticationState.waitResumption;
+			m_LastChannelEvent = System.currentTimeMillis();
+		} else {
+			startAuthentication();
+		}
+	}
+
+	/**
+	 * Start full authentication with key exchange
+	 */
+	private void startAuthentication() {
+		startAuthentication(m_KeyExchange);
+	}
+
+	/**
+	 * Start full authentication with key exchange
+	 * @param mode Key exchange mode
+	 */
+	private void startAuthentication(KeyExchange mode) {
+		m_ResumptionTicket = null;
+		m_CryptoManager.reset();
+		m_CryptoManager.setKeyExchange(mode);
 
 		Authentication info = new Authentication();
 		info.login = m_AuthenticationInfo.login;
@@ -98,7 +330,7 @@ public final class ClientChannelConnection extends ClientChannelUdp {
 		ChannelData send = new ChannelData();
 		send.setIsAcknowledgmentRequired(true);
 		send.setData(SerializableObject.instanceToBytes(info));
-		sendDataAsync(send);
+		sendDataAsync(send, SendPriority.High, 0, null);
 
 		m_AuthenticationState = AuthenticationState.waitAuthPacket1;
 		m_LastChannelEvent = System.currentTimeMillis();
@@ -107,22 +339,111 @@ public final class ClientChannelConnection extends ClientChannelUdp {
 	@Override
 	protected void closeChannel() {
 		super.closeChannel();
-		m_CryptoManager.reset();
-		m_AuthenticationState = AuthenticationState.initial;
+		m_ReceiveLane.clear();
+		// running send task finishes before keys are reset, next tasks of closed connection are skipped
+		synchronized (m_AuthenticationLocker) {
+			m_ConnectionNumber++;
+			setPacketCipher(null);
+			m_CryptoManager.reset();
+			m_Compressor.close();
+			m_AuthenticationState = AuthenticationState.initial;
+		}
+		// queued packets are ciphered with keys of closed session or left plain for its sealing
+		dropDataToSend();
+		m_ReceivedTicket = null;
 	}
 
 	@Override
-	protected void handleReceivedData(ChannelData data) throws ChannelException {
+	protected void handleReceivedData(final ChannelData data) throws ChannelException {
 		m_LastChannelEvent = System.currentTimeMillis();
-		if (m_AuthenticationState == AuthenticationState.authenticationCompleted) {
-			super.handleReceivedData(data);
-		} else {
-			processAuthentication(data);
+		// authentication state is checked in the pipeline: previous packets may change it
+		executeCrypto(m_ReceiveLane, new ConnectionTask() {
+			@Override
+			protected void runInConnection() {
+				if (m_AuthenticationState == AuthenticationState.authenticationCompleted) {
+					deliverObject(data);
+				} else {
+					processAuthentication(data);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Task of crypto pipeline which runs under m_AuthenticationLocker only if the connection is not closed after the task is added
+	 */
+	private abstract class ConnectionTask implements Runnable {
+		private final int m_Number = m_ConnectionNumber;
+
+		@Override
+		public final void run() {
+			synchronized (m_AuthenticationLocker) {
+				if (m_Number == m_ConnectionNumber) {
+					runInConnection();
+					return;
+				}
+			}
+			runSkipped();
+		}
+
+		protected abstract void runInConnection();
+
+		/**
+		 * Called instead of runInConnection if the connection is closed
+		 */
+		protected void runSkipped() {
+		}
+	}
+
+	/**
+	 * Add task to crypto pipeline lane
+	 * @param lane Lane of the task
+	 * @param task Task to run
+	 */
+	private static void executeCrypto(CryptoPipeline.Lane lane, Runnable task) {
+		try {
+			lane.execute(task);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			PlatformTools.logWarning(Tools.getMethodName() + ": interrupted");
+		}
+	}
+
+	/**
+	 * Decrypt and decompress received message and raise event with it
+	 * @param data Received message
+	 */
+	private void deliverObject(final ChannelData data) {
+		byte[] bb = data.getData();
+		if (data.getIsCiphered()) {
+			bb = decryptReceivedData(bb);
+		}
+		if (data.getIsCompressed()) {
+			bb = decompressReceivedData(bb);
+		}
+		SerializableObject obj = SerializableObject.createInstance(bb);
+		if (obj instanceof SessionTicket) {
+			setReceivedSessionTicket((SessionTicket)obj);
+		} else if (obj != null) {
+			ReceivePriority priority;
+			synchronized (m_ReceivePriorities) {
+				priority = m_ReceivePriorities.get(obj.getSerializableType());
+			}
+			raiseEventAsync(objectReceived, obj, priority != null ? priority : ReceivePriority.Normal);
 		}
 	}
 
 	private void processAuthentication(final ChannelData data) /*throws ChannelException*/ {
 		Authentication info = (Authentication)SerializableObject.createInstance(data.getData());
+		if (m_AuthenticationState == AuthenticationState.waitResumption) {
+			if (info != null && resumeSession(info)) {
+				return;
+			}
+			// server doesn't accept the ticket
+			PlatformTools.logWarning(Tools.getMethodName() + ": session is not resumed");
+			startAuthentication();
+			return;
+		}
 		if (info != null) {
 			Authentication infoToSend;
 			ChannelData send;
@@ -151,6 +472,14 @@ public final class ClientChannelConnection extends ClientChannelUdp {
 					CryptoManager.KeyInfo key = new CryptoManager.KeyInfo();
 					key.modulusOrKey = info.cryptoKey1;
 					key.exponentOrIV = info.cryptoKey2;
+
+					KeyExchange mode = CryptoManager.getKeyExchange(key);
+					if (mode != m_CryptoManager.getKeyExchange()) {
+						// server doesn't support the mode
+						PlatformTools.logWarning(Tools.getMethodName() + ": server uses key exchange " + mode);
+						startAuthentication(mode);
+						return;
+					}
 	
 					m_CryptoManager.setOtherPublicKeyFromPlain(key);
 					CryptoManager.KeyInfo keys = m_CryptoManager.createOpenKeyAndGetItEncrypted(); 
@@ -160,7 +489,7 @@ public final class ClientChannelConnection extends ClientChannelUdp {
 					send = new ChannelData();
 					send.setIsAcknowledgmentRequired(true);
 					send.setData(SerializableObject.instanceToBytes(infoToSend));
-					sendDataAsync(send);
+					sendDataAsync(send, SendPriority.High, 0, null);
 	
 					m_AuthenticationState = AuthenticationState.waitAuthPacket2;
 					return;
@@ -190,6 +519,7 @@ public final class ClientChannelConnection extends ClientChannelUdp {
 					// compare server hash and client hash
 					if (Arrays.equals(hash, m_AuthenticationInfo.serverHash)) {
 						m_AuthenticationState = AuthenticationState.authenticationCompleted;
+						startPacketSealing();
 						raiseEventAsync(authenticationCompleted, true);
 
 						PlatformTools.logInformation(Tools.getMethodName() + ": A connection with server is established");
@@ -202,6 +532,166 @@ public final class ClientChannelConnection extends ClientChannelUdp {
 		//throw new ChannelException("On authentication process received bad data");
 	}
 
+	/**
+	 * Check answer of server on session ticket: server proves it has the keys of the session
+	 * by encrypted hash of client Salt and Hash Stored In Server
+	 * @param info Received answer
+	 * @return True if the session is resumed
+	 */
+	private boolean resumeSession(final Authentication info) {
+		ResumptionTicket ticket = m_ResumptionTicket;
+		if (ticket == null || info.cryptoKey1 != null || info.cryptoKey2 != null || info.saltOrHash == null) {
+			return false;
+		}
+		m_CryptoManager.restoreOpenKeys(ticket.ownKey, ticket.otherKey);
+		byte[] hash = m_CryptoManager.decryptData(info.saltOrHash, 0, info.saltOrHash.length);
+		if (!Arrays.equals(hash, CryptoManager.hashData(m_AuthenticationInfo.clientSalt, ticket.serverHash))) {
+			return false;
+		}
+		m_AuthenticationInfo.serverHash = ticket.serverHash;
+		m_AuthenticationState = AuthenticationState.authenticationCompleted;
+		startPacketSealing();
+		raiseEventAsync(authenticationCompleted, true);
+
+		PlatformTools.logInformation(Tools.getMethodName() + ": A session with server is resumed");
+		return true;
+	}
+
+	/**
+	 * Seal data packets with the session keys if it is enabled. Nonces are salted by client Salt of the connection
+	 */
+	private void startPacketSealing() {
+		if (m_IsPacketSealing) {
+			m_CryptoManager.setPacketSalt(m_AuthenticationInfo.clientSalt);
+			setPacketCipher(m_PacketCipher);
+		}
+	}
+
+	/**
+	 * Keep session ticket with keys of current session
+	 * @param received Ticket received from server
+	 */
+	private void saveSessionTicket(final SessionTicket received) {
+		if (m_AuthenticationState != AuthenticationState.authenticationCompleted || received.ticket == null || received.lifetime <= 0) {
+			return;
+		}
+		CryptoManager.KeyInfo ownKey = m_CryptoManager.getOwnOpenKey();
+		CryptoManager.KeyInfo otherKey = m_CryptoManager.getOtherOpenKey();
+		if (ownKey != null && otherKey != null && m_AuthenticationInfo.serverHash != null) {
+			m_ResumptionTicket = new ResumptionTicket(m_AuthenticationInfo.login, received.ticket, m_AuthenticationInfo.serverHash,
+				ownKey, otherKey, System.currentTimeMillis() + received.lifetime * 1000L);
+		}
+	}
+
+	/**
+	 * Serialize object and encrypt it directly in the packet frame buffer: no intermediate arrays are created
+	 * and the frame is reused if the packet is sent again. If packets are sealed, the body stays plain and the channel seals it on sending.
+	 * Keys, cipher and compressor are used under m_AuthenticationLocker, so closing of the connection doesn't change them in the middle
+	 * @param data Packet to set message body to
+	 * @param obj Object to send
+	 * @return True on success
+	 */
+	public final boolean setCipheredPayload(final ChannelData data, final SerializableObject obj) {
+		synchronized (m_AuthenticationLocker) {
+			return setPayload(data, obj);
+		}
+	}
+
+	private boolean setPayload(final ChannelData data, final SerializableObject obj) {
+		int capacity = INITIAL_PAYLOAD_CAPACITY;
+		while (true) {
+			ByteBuffer payload = data.createPayloadBuffer(capacity);
+			int start = payload.position();
+			// leave space for cipher padding
+			payload.limit(payload.limit() - (CryptoManager.getEncryptedSize(0)));
+			try {
+				SerializableObject.instanceToBuffer(obj, payload);
+			} catch (BufferOverflowException e) {
+				capacity *= 2;
+				continue;
+			}
+			int length = payload.position() - start;
+			if (m_IsCompression && length >= m_Compressor.getThreshold()) {
+				length = compressPayload(data, payload.array(), payload.arrayOffset() + start, length);
+			}
+			if (getPacketCipher() != null) {
+				data.setIsCiphered(false);
+				data.setIsSealed(true);
+			} else {
+				length = m_CryptoManager.encryptDataInPlace(payload.array(), payload.arrayOffset() + start, length);
+			}
+			if (length < 0) {
+				return false;
+			}
+			data.setPayloadLength(length);
+			return true;
+		}
+	}
+
+	/**
+	 * Serialize, encrypt and send object in crypto pipeline. Objects are sent in order of calls.
+	 * The caller never waits: if the send lane is full, the object is not sent
+	 * @param data Packet to set message body to
+	 * @param obj Object to send
+	 * @param priority Data of higher priority is sent before all data of lower priority
+	 * @param lifetime Time in milliseconds to drop the data if it is not sent, 0 - unlimited
+	 * @param key Key to replace not sent data with the same key or null
+	 * @return False if the send lane is full: acknowledgment error is raised for reliable data, other data is dropped
+	 */
+	public final boolean sendCipheredAsync(final ChannelData data, final SerializableObject obj, final SendPriority priority, final int lifetime, final Object key) {
+		boolean isAdded = m_SendLane.tryExecute(new ConnectionTask() {
+			@Override
+			protected void runInConnection() {
+				if (setPayload(data, obj)) {
+					sendDataAsync(data, priority, lifetime, key);
+				} else {
+					rejectData(data);
+				}
+			}
+
+			@Override
+			protected void runSkipped() {
+				rejectData(data);
+			}
+		});
+		if (!isAdded) {
+			rejectData(data);
+		}
+		return isAdded;
+	}
+
+	/**
+	 * Compress serialized message in place (before encryption) if it gives a gain
+	 * @param data Packet to mark as compressed
+	 * @param buffer Array with serialized message
+	 * @param index Index of message in the array
+	 * @param count Size of message
+	 * @return New size of message
+	 */
+	private int compressPayload(final ChannelData data, final byte[] buffer, int index, int count) {
+		ByteBuffer compressed = BufferPool.getHeap().acquire(count);
+		try {
+			int length = m_Compressor.compress(buffer, index, count, compressed.array(), compressed.arrayOffset(), count - 1);
+			if (length < 0) {
+				return count;
+			}
+			System.arraycopy(compressed.array(), compressed.arrayOffset(), buffer, index, length);
+			data.setIsCompressed(true);
+			return length;
+		} finally {
+			BufferPool.getHeap().release(compressed);
+		}
+	}
+
+	/**
+	 * Decompress received message (after decryption)
+	 * @param data Compressed message
+	 * @return Message bytes or null on error
+	 */
+	public final byte[] decompressReceivedData(final byte[] data) {
+		return data != null ? m_Compressor.decompress(data, 0, data.length) : null;
+	}
+
 	/**
 	 * Encrypt data before to send to server
 	 * @param data Data to encrypt
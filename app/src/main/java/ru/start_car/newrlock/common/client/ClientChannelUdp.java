@@ -1,15 +1,19 @@
 package ru.start_car.newrlock.common.client;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
-import java.net.SocketException;
-import java.net.SocketTimeoutException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 
 import ru.start_car.newrlock.common.aids.PlatformTools;
 import ru.start_car.newrlock.common.aids.Tools;
 import ru.start_car.newrlock.common.network.ChannelData;
+import ru.start_car.newrlock.common.network.ChannelDataView;
 import ru.start_car.newrlock.common.network.ChannelException;
 import ru.start_car.newrlock.common.network.IPEndPoint;
 
@@ -19,7 +23,10 @@ import java.util.Collections;
 import java.util.Enumeration;*/
 
 /**
- * Channel to manage connections via Udp protocol
+ * Channel to manage connections via Udp protocol.
+ * It is based on non-blocking DatagramChannel and Selector: the handler thread sleeps in the selector and wakes up
+ * immediately on received datagram, on new data to send or on retransmission deadline.
+ * If receiving and sending run in separate threads, only receiving thread waits in the selector
  */
 public abstract class ClientChannelUdp extends BaseClientSideChannel {
 	/**
@@ -27,17 +34,26 @@ public abstract class ClientChannelUdp extends BaseClientSideChannel {
 	 */
 	private static final int s_MaximumBufferSize = 1440;
 	/**
-	 * Socket object
+	 * Socket channel object. It is created and closed by sending thread and read by receiving thread
 	 */
-	private DatagramSocket m_WorkSocket;
+	private volatile DatagramChannel m_WorkChannel;
+	/**
+	 * Selector to wait channel events. Accessed from the handler thread and from threads that wake it up
+	 */
+	private volatile Selector m_Selector;
 	/**
 	 * Listening address or address to send data (server or client)
 	 */
 	private final IPEndPoint m_WorkEndPoint;
 	/**
-	 * Packet to receive data
+	 * Buffer to receive data (direct to avoid copying from socket). It belongs to the channel object and is not returned to a pool:
+	 * receiving thread can use it while sending thread reconnects or the channel is closed
+	 */
+	private final ByteBuffer m_ReceiveBuffer = ByteBuffer.allocateDirect(s_MaximumBufferSize);
+	/**
+	 * Reusable view of received packet
 	 */
-	private final byte[] m_ReceiveBuffer = new byte[s_MaximumBufferSize];
+	private final ChannelDataView m_ReceiveView = new ChannelDataView();
 	/**
 	 * List of addresses data can be received from
 	 */
@@ -45,7 +61,7 @@ public abstract class ClientChannelUdp extends BaseClientSideChannel {
 	
 	@Override
 	protected boolean getIsChannelAvailable() {
-		return m_WorkSocket != null;
+		return m_WorkChannel != null;
 	}
 
 	/*static {
@@ -89,9 +105,8 @@ public abstract class ClientChannelUdp extends BaseClientSideChannel {
 
 	//@SuppressWarnings("unused")
 	@Override
-	protected boolean checkIsDataFromCorrectServer(ChannelData data) {
+	protected boolean checkIsDataFromCorrectServer(Object ep) {
 		// TODO: maybe checkIsInLocalAddresses is not needed
-		Object ep = data.getEndPoint();
 		return m_WorkEndPoint.equals(ep) /*|| (checkIsInLocalAddresses(ep))*/;
 	}
 
@@ -122,13 +137,24 @@ public abstract class ClientChannelUdp extends BaseClientSideChannel {
 		return false;
 	}*/
 	
+	@Override
+	protected int getMaximumPacketSize() {
+		return s_MaximumBufferSize;
+	}
+
 	@Override
 	protected void createChannel() throws ChannelException {
 		try {
-			m_WorkSocket = new DatagramSocket();
-			m_WorkSocket.setSoTimeout(100);
-		} catch (SocketException e) {
+			DatagramChannel channel = DatagramChannel.open();
+			channel.configureBlocking(false);
+			// connected channel receives datagrams only from the server and doesn't need address per packet
+			channel.connect(new InetSocketAddress(m_WorkEndPoint.address, m_WorkEndPoint.port));
+			m_Selector = Selector.open();
+			channel.register(m_Selector, SelectionKey.OP_READ);
+			m_WorkChannel = channel;
+		} catch (IOException e) {
 			PlatformTools.logError(Tools.getExceptionInfo(e));
+			closeWorkChannel();
 			throw new ChannelException("CreateChannel", e);
 		}
 	}
@@ -136,23 +162,98 @@ public abstract class ClientChannelUdp extends BaseClientSideChannel {
 	@Override
 	protected void closeChannel() {
 		super.closeChannel();
-		if (m_WorkSocket != null) {
-			m_WorkSocket.close();
-			m_WorkSocket = null;
+		closeWorkChannel();
+	}
+
+	private void closeWorkChannel() {
+		Selector selector = m_Selector;
+		m_Selector = null;
+		if (selector != null) {
+			try {
+				selector.close();
+			} catch (IOException e) {
+				PlatformTools.logError(Tools.getExceptionInfo(e));
+			}
+		}
+		DatagramChannel channel = m_WorkChannel;
+		m_WorkChannel = null;
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				PlatformTools.logError(Tools.getExceptionInfo(e));
+			}
 		}
 	}
 
 	@Override
-	protected ChannelData makeReceiveData() throws ChannelException {
-		ChannelData data = null;
-		try {
-			DatagramPacket packet = new DatagramPacket(m_ReceiveBuffer, 0, m_ReceiveBuffer.length);
-			m_WorkSocket.receive(packet);
-			IPEndPoint remoteEndPoint = new IPEndPoint(packet.getAddress(), packet.getPort());
-			PlatformTools.logInformation(Tools.getMethodName() + ": received bytes:" + packet.getLength() + " Endpoint:" + remoteEndPoint.toString());
+	public void waitForEvents(int timeout) throws InterruptedException {
+		Selector selector = m_Selector;
+		if (selector == null) {
+			super.waitForEvents(timeout);
+			return;
+		}
+		if (timeout > 0) {
+			try {
+				selector.select(timeout);
+				selector.selectedKeys().clear();
+			} catch (ClosedSelectorException e) {
+				// channel was closed while waiting
+			} catch (IOException e) {
+				PlatformTools.logError(Tools.getExceptionInfo(e));
+				super.waitForEvents(timeout);
+			}
+		}
+		if (Thread.interrupted()) {
+			throw new InterruptedException();
+		}
+	}
+
+	@Override
+	public void waitForReceive(int timeout) throws InterruptedException {
+		Selector selector = m_Selector;
+		if (selector == null) {
+			super.waitForReceive(timeout);
+			return;
+		}
+		waitForEvents(timeout);
+	}
+
+	@Override
+	protected void wakeupReceive() {
+		super.wakeupReceive();
+		wakeupChannel();
+	}
 
-			data = ChannelData.createFromRawData(m_ReceiveBuffer, 0, packet.getLength(), remoteEndPoint);
-		} catch (SocketTimeoutException e) {
+	@Override
+	protected void wakeupChannel() {
+		Selector selector = m_Selector;
+		if (selector != null) {
+			selector.wakeup();
+		}
+	}
+
+	@Override
+	protected ChannelDataView makeReceiveData() throws ChannelException {
+		ChannelDataView data = null;
+		DatagramChannel channel = m_WorkChannel;
+		if (channel == null) {
+			return null;
+		}
+		try {
+			m_ReceiveBuffer.clear();
+			m_ReceiveBuffer.limit(s_MaximumBufferSize);
+			int length = channel.read(m_ReceiveBuffer);
+			if (length > 0) {
+				if (PlatformTools.isDebug) {
+					PlatformTools.logInformation(Tools.getMethodName() + ": received bytes:" + length + " Endpoint:" + m_WorkEndPoint.toString());
+				}
+				if (m_ReceiveView.wrap(m_ReceiveBuffer, 0, length, m_WorkEndPoint, getPacketCipher())) {
+					data = m_ReceiveView;
+				}
+			}
+		} catch (PortUnreachableException e) {
+			// server is not listening now - the same as there is no data, acknowledgment timeout will handle it
 		} catch (IOException e) {
 			PlatformTools.logError(Tools.getExceptionInfo(e));
 			throw new ChannelException("makeReceiveData", e);
@@ -161,20 +262,29 @@ public abstract class ClientChannelUdp extends BaseClientSideChannel {
 	}
 
 	@Override
-	protected void makeSendData(ChannelData data) throws ChannelException {
-		if (data != null) {
+	protected boolean makeSendData(ChannelData data) throws ChannelException {
+		DatagramChannel channel = m_WorkChannel;
+		if (data != null && channel != null) {
 			try {
-				byte[] rawData = data.getChannelRawData();
-				if (rawData != null && rawData.length <= s_MaximumBufferSize) {
-					PlatformTools.logInformation(Tools.getMethodName() + ": sent bytes:"  + rawData.length + " Id:" + data.getPacketId() + " Endpoint:" + (data.getEndPoint() != null ? data.getEndPoint().toString() : "default (" + m_WorkEndPoint.toString() + ")"));
+				ByteBuffer rawData = data.getChannelRawBuffer(getPacketCipher());
+				if (rawData == null || rawData.remaining() > s_MaximumBufferSize) {
+					PlatformTools.logError(Tools.getMethodName() + ": packet can't be built. Id:" + data.getPacketId());
+					return false;
+				}
+				if (PlatformTools.isDebug) {
+					PlatformTools.logInformation(Tools.getMethodName() + ": sent bytes:" + rawData.remaining() + " Id:" + data.getPacketId() + " Endpoint:" + (data.getEndPoint() != null ? data.getEndPoint().toString() : "default (" + m_WorkEndPoint.toString() + ")"));
+				}
 
-					DatagramPacket packet = new DatagramPacket(rawData, 0, rawData.length, m_WorkEndPoint.address, m_WorkEndPoint.port);
-					m_WorkSocket.send(packet);
+				if (channel.write(rawData) == 0) {
+					PlatformTools.logWarning(Tools.getMethodName() + ": socket buffer is full, datagram is dropped. Id:" + data.getPacketId());
 				}
+			} catch (PortUnreachableException e) {
+				PlatformTools.logWarning(Tools.getExceptionInfo(e));
 			} catch (IOException e) {
 				PlatformTools.logError(Tools.getExceptionInfo(e));
 				throw new ChannelException("makeSendData", e);
 			}
 		}
+		return true;
 	}
 }
@@ -1,12 +1,24 @@
 package ru.start_car.newrlock.common.client;
 
 import java.net.InetAddress;
+import java.util.EnumMap;
 
+import ru.start_car.newrlock.common.aids.CryptoManager;
 import ru.start_car.newrlock.common.aids.EventHandler;
+import ru.start_car.newrlock.common.aids.KeyExchange;
+import ru.start_car.newrlock.common.aids.PayloadCompressor;
 import ru.start_car.newrlock.common.aids.PlatformTools;
 import ru.start_car.newrlock.common.aids.Tools;
 import ru.start_car.newrlock.common.messages.SerializableObject;
+import ru.start_car.newrlock.common.messages.SerializableTypes;
+import ru.start_car.newrlock.common.network.AcknowledgmentCollector;
+import ru.start_car.newrlock.common.network.MessageCoalescer;
 import ru.start_car.newrlock.common.network.ChannelData;
+import ru.start_car.newrlock.common.network.DeliveryQos;
+import ru.start_car.newrlock.common.network.ReorderBuffer;
+import ru.start_car.newrlock.common.network.RetransmissionPolicy;
+import ru.start_car.newrlock.common.network.SendPriority;
+import ru.start_car.newrlock.common.network.SendWindow;
 
 /**
  * Client side of data transmitting handler between client and server 
@@ -50,32 +62,28 @@ public class ClientConnectionService {
 	}
 	
 	/**
-	 * Callback if data received event happened
+	 * Callback if object received event happened (the object is decrypted in crypto pipeline)
 	 */
-	private class DataReceivedEvent implements EventHandler {
+	private class ObjectReceivedEvent implements EventHandler {
 		@Override
 		public void invoke(final Object arg) {
-			ChannelData data = (ChannelData)arg;
-			
-			byte[] bb = data.getData();
-			if (data.getIsCiphered()) {
-				bb = m_Channel.decryptReceivedData(bb);
-			}
-			SerializableObject obj = SerializableObject.createInstance(bb);
-			if (obj != null) {
-				BaseClientSideChannel.raiseEvent(objectReceived, obj);
-			}
+			m_Subscriptions.publish((SerializableObject)arg);
+			BaseClientSideChannel.raiseEvent(objectReceived, arg);
 		}
 	}
 	
 	/**
-	 * Channel to handle connection with the server
+	 * Channel to handle connection with the server (it is read without locking on sending)
 	 */
-	private ClientChannelConnection m_Channel;
+	private volatile ClientChannelConnection m_Channel;
 	/**
-	 * Thread to run channel handling
+	 * Thread to run channel handling (sending, reconnecting)
 	 */
 	private Thread m_HandlerRunner;
+	/**
+	 * Thread to receive data, it doesn't wait for sending
+	 */
+	private Thread m_ReceiveRunner;
 	/**
 	 * Event to close the thread
 	 */
@@ -84,6 +92,83 @@ public class ClientConnectionService {
 	 * Value indicating if there is a need to reconnect to server on connection error or connection is dropped
 	 */
 	private boolean m_AutoReconnect;
+	/**
+	 * Count of data packets which can wait acknowledgment at the same time
+	 */
+	private int m_SendWindowSize = SendWindow.DEFAULT_SIZE;
+	/**
+	 * Rules of resending data or null to use channel default
+	 */
+	private RetransmissionPolicy m_RetransmissionPolicy;
+	/**
+	 * Value indicating received packets are acknowledged together after short delay
+	 */
+	private boolean m_IsDelayedAcknowledgment;
+	/**
+	 * Maximum time to hold acknowledgments in milliseconds
+	 */
+	private int m_AcknowledgmentDelay = AcknowledgmentCollector.DEFAULT_DELAY_MSEC;
+	/**
+	 * Value indicating small messages are sent together in one packet
+	 */
+	private boolean m_IsMessageCoalescing;
+	/**
+	 * Maximum time to hold messages in milliseconds
+	 */
+	private int m_CoalescingDelay = MessageCoalescer.DEFAULT_DELAY_MSEC;
+	/**
+	 * Value indicating messages are compressed before encryption
+	 */
+	private boolean m_IsCompression;
+	/**
+	 * Minimum size of serialized message to compress
+	 */
+	private int m_CompressionThreshold = PayloadCompressor.DEFAULT_THRESHOLD;
+	/**
+	 * Value indicating received messages are handled in order of data sequence numbers
+	 */
+	private boolean m_IsOrderedDelivery;
+	/**
+	 * Maximum time to wait missed messages in milliseconds
+	 */
+	private int m_ReorderHoldTime = ReorderBuffer.DEFAULT_HOLD_TIME_MSEC;
+	/**
+	 * Value indicating sent messages have data sequence numbers
+	 */
+	private boolean m_IsSequenceNumbering;
+	/**
+	 * Delivery classes of message types (Reliable for types which are not in the map). The map is replaced on change, so it is read without locking
+	 */
+	private volatile EnumMap<SerializableTypes, DeliveryQos> m_DeliveryQos = new EnumMap<SerializableTypes, DeliveryQos>(SerializableTypes.class);
+	/**
+	 * Priorities of received message types (Normal for types which are not in the map)
+	 */
+	private final EnumMap<SerializableTypes, ReceivePriority> m_ReceivePriorities = new EnumMap<SerializableTypes, ReceivePriority>(SerializableTypes.class);
+	/**
+	 * Ticket to resume session (it is kept between stop and start)
+	 */
+	private ResumptionTicket m_ResumptionTicket;
+	/**
+	 * Key exchange mode of authentication
+	 */
+	private KeyExchange m_KeyExchange = KeyExchange.Rsa;
+	/**
+	 * Value indicating data packets are sealed with authenticated encryption
+	 */
+	private boolean m_IsPacketSealing;
+	/**
+	 * Maximum count of events waiting for handlers
+	 */
+	private int m_EventQueueCapacity = EventDispatcher.DEFAULT_CAPACITY;
+	/**
+	 * Action on overflow of events queue
+	 */
+	private EventDispatcher.OverflowPolicy m_EventOverflowPolicy = EventDispatcher.OverflowPolicy.Block;
+
+	/**
+	 * Subscriptions to received objects by types (they are kept between stop and start)
+	 */
+	private final ObjectSubscriptions m_Subscriptions = new ObjectSubscriptions();
 
 	private EventHandler authenticationCompleted;
 	private EventHandler disconnected;
@@ -116,6 +201,169 @@ public class ClientConnectionService {
 		objectReceived = handler;
 	}
 
+	/**
+	 * Subscribe to received objects of the type. Objects are passed in thread of session events
+	 * or in thread calling ObjectSubscription.request, no more objects than requested
+	 * @param type Type of objects
+	 * @param cls Class of objects of the type
+	 * @param subscriber Receiver of objects
+	 * @param bufferSize Count of received objects waiting for request, older ones are dropped (1 to get the latest object only)
+	 * @return Subscription without demand: call request(ObjectSubscription.UNBOUNDED) to get every object
+	 */
+	public <T extends SerializableObject> ObjectSubscription<T> subscribe(SerializableTypes type, Class<T> cls, ObjectSubscriber<T> subscriber, int bufferSize) {
+		return m_Subscriptions.subscribe(type, cls, subscriber, bufferSize);
+	}
+
+	/**
+	 * Cancel subscription to received objects
+	 * @param subscription Subscription returned by subscribe
+	 */
+	public void unsubscribe(ObjectSubscription<?> subscription) {
+		m_Subscriptions.unsubscribe(subscription);
+	}
+
+	/**
+	 * Set count of data packets which can wait acknowledgment at the same time. Applied on next start
+	 * @param size Window size, 1 means to wait acknowledgment for every packet before sending next one
+	 */
+	public synchronized void setSendWindowSize(int size) {
+		m_SendWindowSize = size;
+	}
+
+	/**
+	 * Set rules of resending data which acknowledgment was not received in time. Applied on next start
+	 * @param policy Policy to use or null for AdaptiveRetransmissionPolicy
+	 */
+	public synchronized void setRetransmissionPolicy(RetransmissionPolicy policy) {
+		m_RetransmissionPolicy = policy;
+	}
+
+	/**
+	 * Set way to acknowledge received packets. Server must support SelectiveAcknowledgment blocks. Applied on next start
+	 * @param isDelayed True to acknowledge many packets at once after the delay or together with next data packet
+	 * @param delay Maximum time to hold acknowledgments in milliseconds
+	 */
+	public synchronized void setDelayedAcknowledgment(boolean isDelayed, int delay) {
+		m_IsDelayedAcknowledgment = isDelayed;
+		m_AcknowledgmentDelay = delay;
+	}
+
+	/**
+	 * Set way to send small messages (it is applied on next start). Server must support packets with several messages
+	 * @param isEnabled True to hold messages for the delay and send them in one packet
+	 * @param delay Maximum time to hold messages in milliseconds
+	 */
+	public synchronized void setMessageCoalescing(boolean isEnabled, int delay) {
+		m_IsMessageCoalescing = isEnabled;
+		m_CoalescingDelay = delay;
+	}
+
+	/**
+	 * Set compression of sent messages (it is applied on next start). Server must support compressed messages
+	 * @param isEnabled True to compress messages before encryption
+	 * @param threshold Minimum size of serialized message to compress
+	 */
+	public synchronized void setCompression(boolean isEnabled, int threshold) {
+		m_IsCompression = isEnabled;
+		m_CompressionThreshold = threshold;
+	}
+
+	/**
+	 * Set order of handling received messages (it is applied on next start). Server must send data sequence numbers
+	 * @param isOrdered True to hold messages which came before messages with smaller data sequence number
+	 * @param holdTime Maximum time to wait missed messages in milliseconds
+	 */
+	public synchronized void setOrderedDelivery(boolean isOrdered, int holdTime) {
+		m_IsOrderedDelivery = isOrdered;
+		m_ReorderHoldTime = holdTime;
+	}
+
+	/**
+	 * Set numbering of sent messages (it is applied on next start). Server must support packets with data sequence numbers
+	 * @param isEnabled True to send data sequence number in every data packet
+	 */
+	public synchronized void setSequenceNumbering(boolean isEnabled) {
+		m_IsSequenceNumbering = isEnabled;
+	}
+
+	/**
+	 * Set delivery class of sent objects of the type
+	 * @param type Type of objects
+	 * @param qos Delivery class (LatestOnly objects replace not sent objects of the same type)
+	 */
+	public synchronized void setDeliveryQos(SerializableTypes type, DeliveryQos qos) {
+		EnumMap<SerializableTypes, DeliveryQos> map = new EnumMap<SerializableTypes, DeliveryQos>(m_DeliveryQos);
+		map.put(type, qos);
+		m_DeliveryQos = map;
+	}
+
+	/**
+	 * Set priority of handling received objects of the type (it is applied on next start)
+	 * @param type Type of objects
+	 * @param priority Priority in the events queue (Alarm objects are handled before all waiting objects of other types)
+	 */
+	public synchronized void setReceivePriority(SerializableTypes type, ReceivePriority priority) {
+		m_ReceivePriorities.put(type, priority);
+	}
+
+	/**
+	 * Queue of events of the session (to get waiting time of priorities and statistics of handlers)
+	 * @return Dispatcher or null if the service is not started
+	 */
+	public synchronized EventDispatcher getEventDispatcher() {
+		return m_Channel != null ? m_Channel.getEventDispatcher() : null;
+	}
+
+	/**
+	 * Set protection of data packets (it is applied on next start). Server must support sealed packets
+	 * @param isEnabled True to seal packets with AES-GCM instead of AES-CBC ciphering and crc
+	 */
+	public synchronized void setPacketSealing(boolean isEnabled) {
+		m_IsPacketSealing = isEnabled;
+	}
+
+	/**
+	 * Set queue of events of the session (it is applied on next start). Every session raises events in own thread in order
+	 * @param capacity Maximum count of events waiting for handlers
+	 * @param policy Action on overflow (Block waits for slow handler, DropOldest and DropNewest lose events)
+	 */
+	public synchronized void setEventQueue(int capacity, EventDispatcher.OverflowPolicy policy) {
+		m_EventQueueCapacity = capacity;
+		m_EventOverflowPolicy = policy;
+	}
+
+	/**
+	 * Set key exchange mode of authentication (it is applied on next start)
+	 * @param mode Key exchange mode (EcdhP256 is faster, client falls back to Rsa if server doesn't support it)
+	 */
+	public synchronized void setKeyExchange(KeyExchange mode) {
+		m_KeyExchange = mode;
+	}
+
+	/**
+	 * Get ticket of the last session to store it and resume the session after restart of application
+	 * @param secret Secret to encrypt the ticket (for example key from platform key store)
+	 * @return Encrypted ticket or null if server didn't issue it
+	 */
+	public synchronized byte[] getSessionTicket(final byte[] secret) {
+		ResumptionTicket ticket = m_Channel != null ? m_Channel.getResumptionTicket() : m_ResumptionTicket;
+		return ticket != null ? ticket.toSealedBytes(secret) : null;
+	}
+
+	/**
+	 * Set stored ticket to resume session on next connection instead of full authentication (only if packets are sealed, see setPacketSealing)
+	 * @param data Encrypted ticket got by getSessionTicket or null to forget the ticket
+	 * @param secret Secret used to encrypt the ticket
+	 * @return True if the ticket is valid
+	 */
+	public synchronized boolean setSessionTicket(final byte[] data, final byte[] secret) {
+		m_ResumptionTicket = data != null ? ResumptionTicket.fromSealedBytes(data, secret) : null;
+		if (m_Channel != null) {
+			m_Channel.setResumptionTicket(m_ResumptionTicket);
+		}
+		return m_ResumptionTicket != null;
+	}
+
 	/**
 	 * Start data transmitting with the server
 	 * @param address Address of channel
@@ -126,21 +374,51 @@ public class ClientConnectionService {
 	 */
 	public synchronized final void start(InetAddress address, int port, String login, char[] password, boolean autoReconnect) {
 		if (m_Channel == null) {
+			// key pair for authentication is generated while the channel is being created
+			CryptoManager.getKeyPairPool(m_KeyExchange).prepare();
 			m_AutoReconnect = autoReconnect;
 			m_Channel = new ClientChannelConnection(address, port, login, password);
+			m_Channel.setSendWindowSize(m_SendWindowSize);
+			m_Channel.setRetransmissionPolicy(m_RetransmissionPolicy);
+			m_Channel.setDelayedAcknowledgment(m_IsDelayedAcknowledgment, m_AcknowledgmentDelay);
+			m_Channel.setMessageCoalescing(m_IsMessageCoalescing, m_CoalescingDelay);
+			m_Channel.setCompression(m_IsCompression, m_CompressionThreshold);
+			m_Channel.setOrderedDelivery(m_IsOrderedDelivery, m_ReorderHoldTime);
+			m_Channel.setSequenceNumbering(m_IsSequenceNumbering);
+			m_Channel.setResumptionTicket(m_ResumptionTicket);
+			m_Channel.setKeyExchange(m_KeyExchange);
+			m_Channel.setPacketSealing(m_IsPacketSealing);
+			m_Channel.setEventQueue(m_EventQueueCapacity, m_EventOverflowPolicy);
+			for (SerializableTypes type : m_ReceivePriorities.keySet()) {
+				m_Channel.setReceivePriority(type, m_ReceivePriorities.get(type));
+			}
 			m_Channel.setAuthenticationCompletedEventHandler(new AuthenticationCompletedEvent());
 			m_Channel.setChannelClosedEventHandler(new ChannelClosedEvent());
 			m_Channel.setChannelClosedByServerEventHandler(new ChannelClosedByServerEvent());
-			m_Channel.setDataReceivedEventHandler(new DataReceivedEvent());
+			m_Channel.setObjectReceivedEventHandler(new ObjectReceivedEvent());
 			
 			m_NeedClose = false;
+			final ClientChannelConnection channel = m_Channel;
+			m_ReceiveRunner = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					do {
+						try {
+							int timeout = channel.executeReceive();
+							channel.waitForReceive(timeout);
+						} catch(InterruptedException e) {
+							return;
+						}
+					} while(!m_NeedClose);
+				}
+			});
 			m_HandlerRunner = new Thread(new Runnable() {
 				@Override
 				public void run() {
 					do {
 						try {
-							int timeout = m_Channel.execute();
-							Thread.sleep(timeout);
+							int timeout = channel.executeSend();
+							channel.waitForSend(timeout);
 						} catch(InterruptedException e) {
 							return;
 						} catch(Exception e) {
@@ -155,6 +433,7 @@ public class ClientConnectionService {
 				}
 			});
 			m_HandlerRunner.start();
+			m_ReceiveRunner.start();
 		}
 	}
 	
@@ -164,17 +443,22 @@ public class ClientConnectionService {
 	public synchronized final void stop() {
 		m_NeedClose = true;
 		if (m_HandlerRunner != null) {
+			// threads don't hold the channel locker while waiting, so they stop at once
 			try {
 				m_HandlerRunner.interrupt();
+				m_ReceiveRunner.interrupt();
 				m_HandlerRunner.join(1000);
+				m_ReceiveRunner.join(1000);
 			} catch(Exception e) { }
 			m_HandlerRunner = null;
+			m_ReceiveRunner = null;
 		}
 		if (m_Channel != null) {
 			m_Channel.setAuthenticationCompletedEventHandler(null);
 			m_Channel.setChannelClosedEventHandler(null);
 			m_Channel.setChannelClosedByServerEventHandler(null);
-			m_Channel.setDataReceivedEventHandler(null);
+			m_Channel.setObjectReceivedEventHandler(null);
+			m_ResumptionTicket = m_Channel.getResumptionTicket();
 			m_Channel.close();
 			m_Channel = null;
 			BaseClientSideChannel.raiseEvent(disconnected, null);
@@ -188,17 +472,36 @@ public class ClientConnectionService {
 	/**
 	 * Send data to the server with encryption
 	 * @param obj Object to send
+	 * @return False if the object is not sent (see SendCipheredData(SerializableObject, SendPriority, int, Object))
 	 */
-	public synchronized final void SendCipheredData(final SerializableObject obj) {
-		if (m_Channel != null) {
-			byte[] bb = SerializableObject.instanceToBytes(obj);
+	public final boolean SendCipheredData(final SerializableObject obj) {
+		return SendCipheredData(obj, SendPriority.Normal, 0, null);
+	}
+
+	/**
+	 * Send data to the server with encryption. The object is encrypted in crypto pipeline, the caller doesn't wait for it
+	 * @param obj Object to send
+	 * @param priority Object of higher priority is sent before all objects of lower priority
+	 * @param lifetime Time in milliseconds to drop the object if it is not sent, 0 - unlimited
+	 * @param key Key to replace not sent object with the same key or null (type of LatestOnly object is used by default)
+	 * @return False if there is no channel or too many objects wait for encryption: reliable object gets acknowledgment error at once,
+	 * unreliable one is dropped
+	 */
+	public final boolean SendCipheredData(final SerializableObject obj, SendPriority priority, int lifetime, Object key) {
+		ClientChannelConnection channel = m_Channel;
+		if (channel != null) {
+			DeliveryQos qos = m_DeliveryQos.get(obj.getSerializableType());
+			if (qos == null) {
+				qos = DeliveryQos.Reliable;
+			} else if (qos == DeliveryQos.LatestOnly && key == null) {
+				key = obj.getSerializableType();
+			}
 			ChannelData data = new ChannelData();
 			data.setIsCiphered(true);
-			data.setIsAcknowledgmentRequired(true);
-			data.setData(m_Channel.encryptDataToSend(bb));
-	
-			m_Channel.sendDataAsync(data);
+			data.setDeliveryQos(qos);
+			return channel.sendCipheredAsync(data, obj, priority, lifetime, key);
 		}
+		return false;
 	}
 }
 
@@ -0,0 +1,397 @@
+package ru.start_car.newrlock.common.client;
+
+import ru.start_car.newrlock.common.aids.EventHandler;
+import ru.start_car.newrlock.common.aids.PlatformTools;
+import ru.start_car.newrlock.common.aids.Tools;
+import ru.start_car.newrlock.common.network.ChannelData;
+
+/**
+ * Ordered queue of events of one channel. Events are kept in preallocated ring buffers (no objects are created per event)
+ * and handlers are invoked one by one in own thread of the dispatcher, so slow handler of one session doesn't delay other sessions.
+ * Every ReceivePriority has own ring: events of higher priority are raised before all waiting events of lower priority,
+ * events of one priority are raised in order of adding. The thread is started on first event and ends after idle time
+ */
+public final class EventDispatcher {
+	/**
+	 * Action on adding event to full queue
+	 */
+	public enum OverflowPolicy {
+		/**
+		 * Caller waits for free space (events are never lost)
+		 */
+		Block,
+		/**
+		 * The oldest waiting event is dropped
+		 */
+		DropOldest,
+		/**
+		 * The new event is dropped
+		 */
+		DropNewest
+	}
+
+	/**
+	 * Default count of events waiting in queue
+	 */
+	public static final int DEFAULT_CAPACITY = 256;
+	/**
+	 * Default time of handler call to report it as slow (in milliseconds)
+	 */
+	public static final int DEFAULT_SLOW_HANDLER_MSEC = 100;
+	/**
+	 * Time to keep the thread without events (in milliseconds)
+	 */
+	private static final int IDLE_MSEC = 10000;
+
+	/**
+	 * Ring buffer of events of one priority with statistics of waiting time
+	 */
+	private static final class Ring {
+		EventHandler[] handlers;
+		Object[] arguments;
+		/**
+		 * Values indicating buffers of argument (ChannelData) are released after the event
+		 */
+		boolean[] isReleased;
+		/**
+		 * Times of adding events (System.nanoTime)
+		 */
+		long[] times;
+		/**
+		 * Index of the oldest event
+		 */
+		int head;
+		/**
+		 * Count of waiting events
+		 */
+		int count;
+
+		long raisedCount;
+		long totalWaitNanos;
+		long maximumWaitNanos;
+
+		Ring(int capacity) {
+			allocate(capacity);
+		}
+
+		int getCapacity() {
+			return handlers.length;
+		}
+
+		/**
+		 * Resize ring buffer keeping order of waiting events
+		 */
+		void allocate(int capacity) {
+			EventHandler[] newHandlers = new EventHandler[capacity];
+			Object[] newArguments = new Object[capacity];
+			boolean[] newIsReleased = new boolean[capacity];
+			long[] newTimes = new long[capacity];
+			for (int i = 0; i < count; i++) {
+				int index = (head + i) % handlers.length;
+				newHandlers[i] = handlers[index];
+				newArguments[i] = arguments[index];
+				newIsReleased[i] = isReleased[index];
+				newTimes[i] = times[index];
+			}
+			handlers = newHandlers;
+			arguments = newArguments;
+			isReleased = newIsReleased;
+			times = newTimes;
+			head = 0;
+		}
+
+		void add(EventHandler handler, Object arg, boolean isArgReleased) {
+			int index = (head + count) % handlers.length;
+			handlers[index] = handler;
+			arguments[index] = arg;
+			isReleased[index] = isArgReleased;
+			times[index] = System.nanoTime();
+			count++;
+		}
+
+		/**
+		 * Remove the oldest event, release its packet if it is not raised
+		 * @param isRaised True if the event is taken to raise (its waiting time is counted)
+		 */
+		void remove(boolean isRaised) {
+			if (isRaised) {
+				long wait = System.nanoTime() - times[head];
+				raisedCount++;
+				totalWaitNanos += wait;
+				maximumWaitNanos = Math.max(maximumWaitNanos, wait);
+			} else if (isReleased[head]) {
+				((ChannelData)arguments[head]).releaseBuffers();
+			}
+			handlers[head] = null;
+			arguments[head] = null;
+			head = (head + 1) % handlers.length;
+			count--;
+		}
+	}
+
+	private final Object m_Locker = new Object();
+	private final String m_Name;
+	private final Ring[] m_Rings = new Ring[ReceivePriority.values().length];
+	/**
+	 * Count of waiting events of all priorities
+	 */
+	private int m_Count;
+
+	private OverflowPolicy m_Policy = OverflowPolicy.Block;
+	private long m_SlowHandlerNanos = DEFAULT_SLOW_HANDLER_MSEC * 1000000L;
+	private Thread m_Thread;
+
+	private long m_DroppedCount;
+	private long m_SlowCount;
+	private long m_MaximumHandlerNanos;
+
+	/**
+	 * Create dispatcher
+	 * @param name Name of the thread
+	 */
+	public EventDispatcher(String name) {
+		m_Name = name;
+		for (int i = 0; i < m_Rings.length; i++) {
+			m_Rings[i] = new Ring(DEFAULT_CAPACITY);
+		}
+	}
+
+	/**
+	 * Set size of queue of every priority and action on its overflow. Waiting events are kept
+	 * @param capacity Maximum count of waiting events of one priority
+	 * @param policy Action on adding event to full queue
+	 */
+	public void setCapacity(int capacity, OverflowPolicy policy) {
+		synchronized (m_Locker) {
+			m_Policy = policy;
+			capacity = Math.max(capacity, 1);
+			for (Ring ring : m_Rings) {
+				while (ring.count > capacity) {
+					dropOldest(ring);
+				}
+				ring.allocate(capacity);
+			}
+			m_Locker.notifyAll();
+		}
+	}
+
+	/**
+	 * Set time of handler call to report the handler as slow
+	 * @param msec Time in milliseconds
+	 */
+	public void setSlowHandlerTime(int msec) {
+		synchronized (m_Locker) {
+			m_SlowHandlerNanos = msec * 1000000L;
+		}
+	}
+
+	/**
+	 * Count of events dropped on overflow
+	 */
+	public long getDroppedCount() {
+		synchronized (m_Locker) {
+			return m_DroppedCount;
+		}
+	}
+
+	/**
+	 * Count of handler calls which are longer than slow handler time
+	 */
+	public long getSlowCount() {
+		synchronized (m_Locker) {
+			return m_SlowCount;
+		}
+	}
+
+	/**
+	 * Maximum time of handler call (in milliseconds)
+	 */
+	public long getMaximumHandlerTime() {
+		synchronized (m_Locker) {
+			return m_MaximumHandlerNanos / 1000000L;
+		}
+	}
+
+	/**
+	 * Count of waiting events
+	 */
+	public int getCount() {
+		synchronized (m_Locker) {
+			return m_Count;
+		}
+	}
+
+	/**
+	 * Count of raised events of the priority
+	 * @param priority Priority of events
+	 */
+	public long getRaisedCount(ReceivePriority priority) {
+		synchronized (m_Locker) {
+			return m_Rings[priority.ordinal()].raisedCount;
+		}
+	}
+
+	/**
+	 * Maximum time from adding event of the priority to raising it (in microseconds)
+	 * @param priority Priority of events
+	 */
+	public long getMaximumWaitTime(ReceivePriority priority) {
+		synchronized (m_Locker) {
+			return m_Rings[priority.ordinal()].maximumWaitNanos / 1000L;
+		}
+	}
+
+	/**
+	 * Average time from adding event of the priority to raising it (in microseconds)
+	 * @param priority Priority of events
+	 */
+	public long getAverageWaitTime(ReceivePriority priority) {
+		synchronized (m_Locker) {
+			Ring ring = m_Rings[priority.ordinal()];
+			return ring.raisedCount > 0 ? ring.totalWaitNanos / ring.raisedCount / 1000L : 0;
+		}
+	}
+
+	/**
+	 * Add event of Normal priority to invoke handler after previous events
+	 * @param handler Event handler or null
+	 * @param arg Argument of the event
+	 */
+	public void post(EventHandler handler, Object arg) {
+		post(handler, arg, ReceivePriority.Normal);
+	}
+
+	/**
+	 * Add event to invoke handler after previous events of the same or higher priority
+	 * @param handler Event handler or null
+	 * @param arg Argument of the event
+	 * @param priority Priority of the event
+	 */
+	public void post(EventHandler handler, Object arg, ReceivePriority priority) {
+		if (handler != null) {
+			add(handler, arg, false, priority);
+		}
+	}
+
+	/**
+	 * Add event and release buffers of the packet after it (or at once if there is no handler or the event is dropped)
+	 * @param handler Event handler or null
+	 * @param data Packet which is argument of the event
+	 */
+	public void postAndRelease(EventHandler handler, ChannelData data) {
+		if (handler == null) {
+			data.releaseBuffers();
+		} else {
+			add(handler, data, true, ReceivePriority.Normal);
+		}
+	}
+
+	private void add(EventHandler handler, Object arg, boolean isReleased, ReceivePriority priority) {
+		if (PlatformTools.isDebug) {
+			PlatformTools.logInformation(Tools.getMethodName() + ": event is " + handler.getClass().getSimpleName());
+		}
+		synchronized (m_Locker) {
+			Ring ring = m_Rings[priority.ordinal()];
+			if (ring.count == ring.getCapacity()) {
+				if (Thread.currentThread() == m_Thread) {
+					// handler raises event: waiting for itself is impossible
+					ring.allocate(ring.getCapacity() * 2);
+				} else if (m_Policy == OverflowPolicy.DropNewest) {
+					m_DroppedCount++;
+					if (isReleased) {
+						((ChannelData)arg).releaseBuffers();
+					}
+					return;
+				} else if (m_Policy == OverflowPolicy.DropOldest) {
+					dropOldest(ring);
+				} else {
+					while (ring.count == ring.getCapacity()) {
+						try {
+							m_Locker.wait();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							ring.allocate(ring.getCapacity() * 2);
+						}
+					}
+				}
+			}
+			ring.add(handler, arg, isReleased);
+			m_Count++;
+			if (m_Thread == null) {
+				m_Thread = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						work();
+					}
+				}, m_Name);
+				m_Thread.setDaemon(true);
+				m_Thread.start();
+			} else if (m_Count == 1) {
+				m_Locker.notifyAll();
+			}
+		}
+	}
+
+	private void dropOldest(Ring ring) {
+		ring.remove(false);
+		m_Count--;
+		m_DroppedCount++;
+	}
+
+	private void work() {
+		while (true) {
+			EventHandler handler;
+			Object arg;
+			boolean isReleased;
+			synchronized (m_Locker) {
+				if (m_Count == 0) {
+					try {
+						m_Locker.wait(IDLE_MSEC);
+					} catch (InterruptedException e) {
+						// the thread ends if there are no events
+					}
+					if (m_Count == 0) {
+						m_Thread = null;
+						return;
+					}
+				}
+				Ring ring = m_Rings[0];
+				for (int i = 0; ring.count == 0; i++) {
+					ring = m_Rings[i + 1];
+				}
+				handler = ring.handlers[ring.head];
+				arg = ring.arguments[ring.head];
+				isReleased = ring.isReleased[ring.head];
+				boolean isFull = ring.count == ring.getCapacity();
+				ring.remove(true);
+				m_Count--;
+				if (isFull) {
+					// callers may wait for free space
+					m_Locker.notifyAll();
+				}
+			}
+			long start = System.nanoTime();
+			try {
+				handler.invoke(arg);
+			} catch (Exception e) {
+				PlatformTools.logError(Tools.getExceptionInfo(e));
+			} finally {
+				if (isReleased) {
+					((ChannelData)arg).releaseBuffers();
+				}
+			}
+			long time = System.nanoTime() - start;
+			boolean isSlow;
+			synchronized (m_Locker) {
+				m_MaximumHandlerNanos = Math.max(m_MaximumHandlerNanos, time);
+				isSlow = time > m_SlowHandlerNanos;
+				if (isSlow) {
+					m_SlowCount++;
+				}
+			}
+			if (isSlow) {
+				PlatformTools.logWarning(Tools.getMethodName() + ": slow handler " + handler.getClass().getName() + " " + time / 1000000L + " ms");
+			}
+		}
+	}
+}
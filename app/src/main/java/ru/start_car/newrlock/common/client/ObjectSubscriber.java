@@ -0,0 +1,15 @@
+package ru.start_car.newrlock.common.client;
+
+import ru.start_car.newrlock.common.messages.SerializableObject;
+
+/**
+ * Receiver of objects of one type (see ClientConnectionService.subscribe)
+ * @param <T> Type of received objects
+ */
+public interface ObjectSubscriber<T extends SerializableObject> {
+	/**
+	 * Handle received object. It is called no more times than requested by ObjectSubscription.request
+	 * @param obj Received object
+	 */
+	void onObject(T obj);
+}
@@ -0,0 +1,137 @@
+package ru.start_car.newrlock.common.client;
+
+import java.util.ArrayDeque;
+
+import ru.start_car.newrlock.common.aids.PlatformTools;
+import ru.start_car.newrlock.common.aids.Tools;
+import ru.start_car.newrlock.common.messages.SerializableObject;
+import ru.start_car.newrlock.common.messages.SerializableTypes;
+
+/**
+ * Subscription to received objects of one type with backpressure: subscriber gets no more objects than it requested.
+ * Objects which are not requested yet wait in small buffer, the oldest ones are dropped on its overflow
+ * (so buffer of one object keeps the latest state only)
+ * @param <T> Type of received objects
+ */
+public final class ObjectSubscription<T extends SerializableObject> {
+	/**
+	 * Demand to get every object without requests
+	 */
+	public static final long UNBOUNDED = Long.MAX_VALUE;
+
+	private final Object m_Locker = new Object();
+	private final SerializableTypes m_Type;
+	private final Class<T> m_Class;
+	private final ObjectSubscriber<T> m_Subscriber;
+	private final ArrayDeque<T> m_Buffer = new ArrayDeque<T>();
+	private final int m_BufferSize;
+	/**
+	 * Count of objects the subscriber is ready to get
+	 */
+	private long m_Demand;
+	/**
+	 * Value indicating some thread passes objects to subscriber now
+	 */
+	private boolean m_IsDraining;
+	private volatile boolean m_IsCancelled;
+	private long m_DroppedCount;
+
+	ObjectSubscription(SerializableTypes type, Class<T> cls, ObjectSubscriber<T> subscriber, int bufferSize) {
+		m_Type = type;
+		m_Class = cls;
+		m_Subscriber = subscriber;
+		m_BufferSize = Math.max(bufferSize, 1);
+	}
+
+	/**
+	 * Type of objects of the subscription
+	 */
+	public SerializableTypes getType() {
+		return m_Type;
+	}
+
+	/**
+	 * Allow to pass more objects to subscriber. Waiting objects are passed at once in the calling thread
+	 * @param count Count of objects or UNBOUNDED
+	 */
+	public void request(long count) {
+		if (count <= 0) {
+			return;
+		}
+		synchronized (m_Locker) {
+			m_Demand = count >= UNBOUNDED - m_Demand ? UNBOUNDED : m_Demand + count;
+		}
+		drain();
+	}
+
+	/**
+	 * Stop passing objects to subscriber
+	 */
+	public void cancel() {
+		m_IsCancelled = true;
+		synchronized (m_Locker) {
+			m_Buffer.clear();
+		}
+	}
+
+	public boolean getIsCancelled() {
+		return m_IsCancelled;
+	}
+
+	/**
+	 * Count of objects dropped because subscriber didn't request them in time
+	 */
+	public long getDroppedCount() {
+		synchronized (m_Locker) {
+			return m_DroppedCount;
+		}
+	}
+
+	/**
+	 * Add received object to pass it when it is requested
+	 * @param obj Object of subscription type
+	 */
+	void offer(SerializableObject obj) {
+		if (m_IsCancelled || !m_Class.isInstance(obj)) {
+			return;
+		}
+		synchronized (m_Locker) {
+			if (m_Buffer.size() >= m_BufferSize) {
+				m_Buffer.poll();
+				m_DroppedCount++;
+			}
+			m_Buffer.add(m_Class.cast(obj));
+		}
+		drain();
+	}
+
+	/**
+	 * Pass waiting objects while there is demand. Requests from the subscriber in onObject continue the loop (no recursion)
+	 */
+	private void drain() {
+		synchronized (m_Locker) {
+			if (m_IsDraining) {
+				return;
+			}
+			m_IsDraining = true;
+		}
+		while (true) {
+			T obj;
+			synchronized (m_Locker) {
+				if (m_IsCancelled || m_Demand == 0 || m_Buffer.isEmpty()) {
+					m_IsDraining = false;
+					return;
+				}
+				obj = m_Buffer.poll();
+				if (m_Demand != UNBOUNDED) {
+					m_Demand--;
+				}
+			}
+			try {
+				m_Subscriber.onObject(obj);
+			} catch (Exception e) {
+				PlatformTools.logError(Tools.getExceptionInfo(e));
+			}
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package ru.start_car.newrlock.common.client;
+
+import java.util.EnumMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import ru.start_car.newrlock.common.messages.SerializableObject;
+import ru.start_car.newrlock.common.messages.SerializableTypes;
+
+/**
+ * Subscriptions to received objects by types. Every type can have many subscribers
+ */
+final class ObjectSubscriptions {
+	private final EnumMap<SerializableTypes, CopyOnWriteArrayList<ObjectSubscription<?>>> m_Subscriptions =
+		new EnumMap<SerializableTypes, CopyOnWriteArrayList<ObjectSubscription<?>>>(SerializableTypes.class);
+
+	/**
+	 * Add subscription
+	 * @param type Type of objects
+	 * @param cls Class of objects of the type
+	 * @param subscriber Receiver of objects
+	 * @param bufferSize Count of objects waiting for request (1 to keep the latest object only)
+	 * @return Subscription without demand (call request to get objects)
+	 */
+	public <T extends SerializableObject> ObjectSubscription<T> subscribe(SerializableTypes type, Class<T> cls, ObjectSubscriber<T> subscriber, int bufferSize) {
+		ObjectSubscription<T> subscription = new ObjectSubscription<T>(type, cls, subscriber, bufferSize);
+		synchronized (m_Subscriptions) {
+			CopyOnWriteArrayList<ObjectSubscription<?>> list = m_Subscriptions.get(type);
+			if (list == null) {
+				list = new CopyOnWriteArrayList<ObjectSubscription<?>>();
+				m_Subscriptions.put(type, list);
+			}
+			list.add(subscription);
+		}
+		return subscription;
+	}
+
+	/**
+	 * Remove subscription and cancel it
+	 * @param subscription Subscription to remove
+	 */
+	public void unsubscribe(ObjectSubscription<?> subscription) {
+		subscription.cancel();
+		synchronized (m_Subscriptions) {
+			CopyOnWriteArrayList<ObjectSubscription<?>> list = m_Subscriptions.get(subscription.getType());
+			if (list != null) {
+				list.remove(subscription);
+			}
+		}
+	}
+
+	/**
+	 * Pass received object to subscriptions of its type
+	 * @param obj Received object
+	 * @return True if the type has subscriptions
+	 */
+	public boolean publish(SerializableObject obj) {
+		CopyOnWriteArrayList<ObjectSubscription<?>> list;
+		synchronized (m_Subscriptions) {
+			list = m_Subscriptions.get(obj.getSerializableType());
+		}
+		if (list == null || list.isEmpty()) {
+			return false;
+		}
+		for (ObjectSubscription<?> subscription : list) {
+			subscription.offer(obj);
+		}
+		return true;
+	}
+}
@@ -0,0 +1,19 @@
+package ru.start_car.newrlock.common.client;
+
+/**
+ * Priority of received message in the events queue. Messages of higher priority are handled before all waiting messages of lower priority
+ */
+public enum ReceivePriority {
+	/**
+	 * Alarms of the car which must overtake other messages
+	 */
+	Alarm,
+	/**
+	 * Default priority (answers on commands, session events)
+	 */
+	Normal,
+	/**
+	 * Telemetry and status updates which can wait
+	 */
+	Low
+}
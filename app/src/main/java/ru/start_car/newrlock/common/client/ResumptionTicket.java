@@ -0,0 +1,124 @@
+package ru.start_car.newrlock.common.client;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import ru.start_car.newrlock.common.aids.CryptoManager;
+import ru.start_car.newrlock.common.aids.PlatformTools;
+import ru.start_car.newrlock.common.aids.Tools;
+
+/**
+ * Session ticket received from server together with symmetric keys and password hash of the session.
+ * It is kept in memory to resume the session on reconnect and can be stored only sealed (see toSealedBytes)
+ */
+final class ResumptionTicket {
+	/**
+	 * Version of serialized ticket
+	 */
+	private static final byte VERSION = 1;
+	private static final Charset UTF8_CHARSET = Charset.forName("UTF-8");
+
+	/**
+	 * Login of the session
+	 */
+	public final String login;
+	/**
+	 * Ticket bytes to present to server
+	 */
+	public final byte[] ticket;
+	/**
+	 * Hash of password stored in server
+	 */
+	public final byte[] serverHash;
+	public final CryptoManager.KeyInfo ownKey;
+	public final CryptoManager.KeyInfo otherKey;
+	/**
+	 * Time when server doesn't accept the ticket any more (in milliseconds)
+	 */
+	public final long expiry;
+
+	public ResumptionTicket(String login, byte[] ticket, byte[] serverHash, CryptoManager.KeyInfo ownKey, CryptoManager.KeyInfo otherKey, long expiry) {
+		this.login = login;
+		this.ticket = ticket;
+		this.serverHash = serverHash;
+		this.ownKey = ownKey;
+		this.otherKey = otherKey;
+		this.expiry = expiry;
+	}
+
+	/**
+	 * Check the ticket can be presented to server
+	 * @param login Login of new session
+	 * @return True if the ticket is for the login and it is not expired
+	 */
+	public boolean getIsValid(String login) {
+		return System.currentTimeMillis() < expiry && this.login != null && this.login.equals(login);
+	}
+
+	/**
+	 * Serialize the ticket and encrypt it
+	 * @param secret Secret to encrypt the ticket (see CryptoManager.sealData)
+	 * @return Sealed bytes or null on error
+	 */
+	public byte[] toSealedBytes(byte[] secret) {
+		byte[] bl = login.getBytes(UTF8_CHARSET);
+		ByteBuffer buffer = ByteBuffer.allocate(1 + 8 + 4 * 7 + bl.length + ticket.length + serverHash.length +
+			ownKey.modulusOrKey.length + ownKey.exponentOrIV.length + otherKey.modulusOrKey.length + otherKey.exponentOrIV.length);
+		buffer.put(VERSION);
+		buffer.putLong(expiry);
+		putBytes(buffer, bl);
+		putBytes(buffer, ticket);
+		putBytes(buffer, serverHash);
+		putBytes(buffer, ownKey.modulusOrKey);
+		putBytes(buffer, ownKey.exponentOrIV);
+		putBytes(buffer, otherKey.modulusOrKey);
+		putBytes(buffer, otherKey.exponentOrIV);
+		return CryptoManager.sealData(secret, buffer.array());
+	}
+
+	/**
+	 * Decrypt and deserialize the ticket
+	 * @param data Bytes created by toSealedBytes
+	 * @param secret Secret used to encrypt the ticket
+	 * @return Ticket or null if the data is damaged or the secret is wrong
+	 */
+	public static ResumptionTicket fromSealedBytes(byte[] data, byte[] secret) {
+		byte[] plain = CryptoManager.openData(secret, data);
+		if (plain == null) {
+			return null;
+		}
+		try {
+			ByteBuffer buffer = ByteBuffer.wrap(plain);
+			if (buffer.get() != VERSION) {
+				PlatformTools.logWarning(Tools.getMethodName() + ": unknown version");
+				return null;
+			}
+			long expiry = buffer.getLong();
+			String login = new String(getBytes(buffer), UTF8_CHARSET);
+			byte[] ticket = getBytes(buffer);
+			byte[] serverHash = getBytes(buffer);
+			CryptoManager.KeyInfo ownKey = new CryptoManager.KeyInfo();
+			ownKey.modulusOrKey = getBytes(buffer);
+			ownKey.exponentOrIV = getBytes(buffer);
+			CryptoManager.KeyInfo otherKey = new CryptoManager.KeyInfo();
+			otherKey.modulusOrKey = getBytes(buffer);
+			otherKey.exponentOrIV = getBytes(buffer);
+			return new ResumptionTicket(login, ticket, serverHash, ownKey, otherKey, expiry);
+		} catch (RuntimeException e) {
+			// BufferUnderflowException or wrong array size
+			PlatformTools.logError(Tools.getExceptionInfo(e));
+			return null;
+		}
+	}
+
+	private static void putBytes(ByteBuffer buffer, byte[] value) {
+		buffer.putInt(value.length);
+		buffer.put(value);
+	}
+
+	private static byte[] getBytes(ByteBuffer buffer) {
+		byte[] res = new byte[buffer.getInt()];
+		buffer.get(res);
+		return res;
+	}
+}
@@ -51,6 +51,14 @@ public final class Authentication extends SerializableObject {
 		return res.array();
 	}
 
+	@Override
+	protected void writeByteList(ByteBuffer buffer) {
+		putString(buffer, login);
+		putBytes(buffer, saltOrHash);
+		putBytes(buffer, cryptoKey1);
+		putBytes(buffer, cryptoKey2);
+	}
+
 	public SerializableTypes getSerializableType() {
 		return SerializableTypes.Authentication;
 	}
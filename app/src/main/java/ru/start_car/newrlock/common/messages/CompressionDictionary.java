@@ -0,0 +1,69 @@
+package ru.start_car.newrlock.common.messages;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+/**
+ * Preset dictionary for PayloadCompressor made of typical serialized messages.
+ * The dictionary is part of the protocol: the server must use the same bytes, so any change of samples
+ * below (or of their serialization) requires new ID
+ */
+public final class CompressionDictionary {
+	/**
+	 * Id of the dictionary written to compressed data
+	 */
+	public static final int ID = 1;
+
+	private static final byte[] s_Dictionary = createDictionary();
+
+	/**
+	 * Get the dictionary
+	 * @return Dictionary bytes (don't modify them)
+	 */
+	public static byte[] get() {
+		return s_Dictionary;
+	}
+
+	private CompressionDictionary() { }
+
+	/**
+	 * Serialize samples of messages. Deflate finds near matches cheaper, so the most typical samples are the last
+	 * @return Dictionary bytes
+	 */
+	private static byte[] createDictionary() {
+		final ByteArrayOutputStream res = new ByteArrayOutputStream();
+
+		final Authentication authentication = new Authentication();
+		authentication.login = "user@start-car.ru";
+		append(res, authentication);
+
+		final String[] texts = { "", "Ok", "Error", "Device is not connected", "Engine is started", "Engine is stopped",
+			"Doors are locked", "Doors are unlocked", "Alarm is on", "Alarm is off" };
+		for (int i = 0; i < texts.length; i++) {
+			final TempObject obj = new TempObject();
+			obj.intVal = i * 100;
+			obj.dateVal = createDate(2016, i % 12, 1 + i, i, i * 5, i * 6, i * 100);
+			obj.textVal = texts[i];
+			append(res, obj);
+		}
+		for (int year = 2016; year <= 2020; year++) {
+			append(res, createDate(year, Calendar.JANUARY, 1, 0, 0, 0, 0));
+		}
+		return res.toByteArray();
+	}
+
+	private static DateTimeUtc createDate(int year, int month, int day, int hour, int minute, int second, int millisecond) {
+		final Calendar calendar = new GregorianCalendar(TimeZone.getTimeZone("GMT"));
+		calendar.clear();
+		calendar.set(year, month, day, hour, minute, second);
+		calendar.set(Calendar.MILLISECOND, millisecond);
+		return new DateTimeUtc(calendar.getTime());
+	}
+
+	private static void append(ByteArrayOutputStream stream, SerializableObject obj) {
+		final byte[] bb = SerializableObject.instanceToBytes(obj);
+		stream.write(bb, 0, bb.length);
+	}
+}
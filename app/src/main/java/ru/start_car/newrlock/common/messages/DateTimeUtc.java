@@ -69,6 +69,17 @@ public final class DateTimeUtc extends SerializableObject {
 		return res.array();
 	}
 	
+	@Override
+	protected void writeByteList(ByteBuffer buffer) {
+		putSIntVar(buffer, calendar.get(Calendar.YEAR));
+		putSIntVar(buffer, calendar.get(Calendar.MONTH));
+		putSIntVar(buffer, calendar.get(Calendar.DATE));
+		putSIntVar(buffer, calendar.get(Calendar.HOUR_OF_DAY));
+		putSIntVar(buffer, calendar.get(Calendar.MINUTE));
+		putSIntVar(buffer, calendar.get(Calendar.SECOND));
+		putSIntVar(buffer, calendar.get(Calendar.MILLISECOND));
+	}
+
 	@Override
 	public SerializableTypes getSerializableType() {
 		return SerializableTypes.DateTimeUtc;
@@ -1,8 +1,10 @@
 package ru.start_car.newrlock.common.messages;
 
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 
+import ru.start_car.newrlock.common.aids.BufferPool;
 import ru.start_car.newrlock.common.aids.IntPtr;
 import ru.start_car.newrlock.common.aids.PlatformTools;
 import ru.start_car.newrlock.common.aids.Tools;
@@ -23,6 +25,11 @@ public abstract class SerializableObject {
 	 */
 	private static final Charset UTF8_CHARSET = Charset.forName("UTF-8");
 
+	/**
+	 * Size of buffer to serialize object. It grows if the object doesn't fit
+	 */
+	private static final int INITIAL_BUFFER_SIZE = 256;
+
 	protected SerializableObject() { }
 
 	/**
@@ -38,6 +45,15 @@ public abstract class SerializableObject {
 	 */
 	protected abstract byte[] getByteList();
 
+	/**
+	 * Write object data to buffer. Children can override it to write without intermediate arrays
+	 * @param buffer Buffer to write to
+	 * @throws java.nio.BufferOverflowException If there is no enough space in the buffer
+	 */
+	protected void writeByteList(ByteBuffer buffer) {
+		buffer.put(getByteList());
+	}
+
 	/**
 	 * Return associated type from SerializableTypes
 	 * @return Type of the object
@@ -61,6 +77,8 @@ public abstract class SerializableObject {
 				switch (ser){
 					case Authentication:
 						return new Authentication(data, offset);
+					case SessionTicket:
+						return new SessionTicket(data, offset);
 					case DateTimeUtc:
 						return new DateTimeUtc(data, offset);
 					case TempObject:
@@ -85,17 +103,97 @@ public abstract class SerializableObject {
 	 */
 	public static byte[] instanceToBytes(SerializableObject obj) {
 		if (obj != null) {
-			int i = obj.getSerializableType().getValue();
-			byte[] bt = toSIntVar(i);
-			byte[] bo = obj.getByteList();
-			ByteBuffer res = ByteBuffer.allocate(bt.length + bo.length);
-			res.put(bt);
-			res.put(bo);
-			return res.array();
+			int capacity = INITIAL_BUFFER_SIZE;
+			while (true) {
+				// serialize to pooled buffer to avoid intermediate arrays of every field
+				ByteBuffer buffer = BufferPool.getHeap().acquire(capacity);
+				try {
+					instanceToBuffer(obj, buffer);
+					byte[] res = new byte[buffer.position()];
+					System.arraycopy(buffer.array(), buffer.arrayOffset(), res, 0, res.length);
+					return res;
+				} catch (BufferOverflowException e) {
+					capacity *= 2;
+				} finally {
+					BufferPool.getHeap().release(buffer);
+				}
+			}
 		}
 		return toSIntVar(SerializableTypes.Unknown.getValue());
 	}
 
+	/**
+	 * Write object to buffer from its position (the same bytes as instanceToBytes gives)
+	 * @param obj Object to write
+	 * @param buffer Buffer to write to
+	 * @throws java.nio.BufferOverflowException If there is no enough space in the buffer
+	 */
+	public static void instanceToBuffer(SerializableObject obj, ByteBuffer buffer) {
+		if (obj != null) {
+			putSIntVar(buffer, obj.getSerializableType().getValue());
+			obj.writeByteList(buffer);
+		} else {
+			putSIntVar(buffer, SerializableTypes.Unknown.getValue());
+		}
+	}
+
+	/**
+	 * Write Signed Integer to buffer as SIntVar (see toSIntVar)
+	 * @param buffer Buffer to write to
+	 * @param value Value to write
+	 */
+	public static void putSIntVar(ByteBuffer buffer, int value) {
+		byte b = 0;
+		if (value < 0) {
+			b = 0x40;
+			value *= -1;
+		}
+		b |= (byte)(value & 0x3F); // first byte into 7 position put sign
+		value >>>= 6;
+		do {
+			if (value != 0) {
+				b |= 0x80;  // every 8 bit is mean to be continue
+			}
+			buffer.put(b);
+
+			b = (byte)(value & 0x7F);
+			value >>= 7;
+		} while (value != 0 || b != 0);
+	}
+
+	/**
+	 * Write string to buffer in serialized form (see getStringAsSerializedBytes)
+	 * @param buffer Buffer to write to
+	 * @param value String value to serialize
+	 */
+	public static void putString(ByteBuffer buffer, String value) {
+		if (value == null) {
+			putSIntVar(buffer, NULL_LENGTH);
+		} else if (value.isEmpty()) {
+			putSIntVar(buffer, EMPTY_LENGTH);
+		} else {
+			byte[] bb = value.getBytes(UTF8_CHARSET);
+			putSIntVar(buffer, bb.length);
+			buffer.put(bb);
+		}
+	}
+
+	/**
+	 * Write byte array to buffer in serialized form (see getBytesAsSerializedBytes)
+	 * @param buffer Buffer to write to
+	 * @param value Bytes to serialize
+	 */
+	public static void putBytes(ByteBuffer buffer, byte[] value) {
+		if (value == null) {
+			putSIntVar(buffer, NULL_LENGTH);
+		} else if (value.length == 0) {
+			putSIntVar(buffer, EMPTY_LENGTH);
+		} else {
+			putSIntVar(buffer, value.length);
+			buffer.put(value);
+		}
+	}
+
 	/**
 	 * Convert Signed Integer to serialized byte array of SIntVar.
 	 * @param value Value to convert
@@ -13,6 +13,11 @@ public enum SerializableTypes
 	 */
 	Authentication(20),
 
+	/**
+	 * Ticket to resume authenticated session without key exchange
+	 */
+	SessionTicket(21),
+
 
 	/**
 	 * DateTime message
@@ -0,0 +1,51 @@
+package ru.start_car.newrlock.common.messages;
+
+import java.nio.ByteBuffer;
+
+import ru.start_car.newrlock.common.aids.IntPtr;
+
+/**
+ * Ticket sent by server after authentication. Client presents it on reconnect to restore symmetric keys of the session
+ * in one round trip (see ClientChannelConnection) instead of full key exchange
+ */
+public final class SessionTicket extends SerializableObject {
+	/**
+	 * Session state encrypted by server (client doesn't read it)
+	 */
+	public byte[] ticket;
+
+	/**
+	 * Time in seconds while server accepts the ticket
+	 */
+	public int lifetime;
+
+	public SessionTicket() { }
+
+	public SessionTicket(byte[] data, IntPtr offset) {
+		ticket = getBytes(data, offset);
+		IntPtr i = new IntPtr(0);
+		if (getSIntVar(i, data, offset)) {
+			lifetime = i.value;
+		}
+	}
+
+	protected byte[] getByteList() {
+		byte[] bt = getBytesAsSerializedBytes(ticket);
+		byte[] bl = toSIntVar(lifetime);
+
+		ByteBuffer res = ByteBuffer.allocate(bt.length + bl.length);
+		res.put(bt);
+		res.put(bl);
+		return res.array();
+	}
+
+	@Override
+	protected void writeByteList(ByteBuffer buffer) {
+		putBytes(buffer, ticket);
+		putSIntVar(buffer, lifetime);
+	}
+
+	public SerializableTypes getSerializableType() {
+		return SerializableTypes.SessionTicket;
+	}
+}
@@ -37,6 +37,13 @@ public class TempObject extends SerializableObject {
 		return res.array();
 	}
 
+	@Override
+	protected void writeByteList(ByteBuffer buffer) {
+		putSIntVar(buffer, intVal);
+		SerializableObject.instanceToBuffer(dateVal, buffer);
+		putString(buffer, textVal);
+	}
+
 	public SerializableTypes getSerializableType() {
 		return SerializableTypes.TempObject;
 	}
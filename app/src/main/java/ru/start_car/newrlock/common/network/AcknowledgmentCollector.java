@@ -0,0 +1,92 @@
+package ru.start_car.newrlock.common.network;
+
+/**
+ * Collects Ids of received packets to acknowledge them later by one SelectiveAcknowledgment block:
+ * after short delay, when there are too many of them or together with next sent data packet.
+ * Methods are synchronized: receiving thread adds Ids and sending thread takes them for data packets
+ */
+public final class AcknowledgmentCollector {
+	/**
+	 * Default time to hold acknowledgments in milliseconds
+	 */
+	public static final int DEFAULT_DELAY_MSEC = 20;
+	/**
+	 * Count of collected Ids to send acknowledgments without waiting delay
+	 */
+	private static final int MAXIMUM_PENDING = 32;
+
+	private final int[] m_PacketIds = new int[MAXIMUM_PENDING];
+	private int m_Count;
+	/**
+	 * Time when collected acknowledgments must be sent
+	 */
+	private long m_TimeOff;
+
+	private int m_Delay = DEFAULT_DELAY_MSEC;
+	/**
+	 * Set time to hold acknowledgments
+	 * @param value Time in milliseconds
+	 */
+	public synchronized void setDelay(int value) {
+		m_Delay = Math.max(0, value);
+	}
+
+	/**
+	 * Get value indicating there are no acknowledgments to send
+	 * @return True if empty
+	 */
+	public synchronized boolean getIsEmpty() {
+		return m_Count == 0;
+	}
+
+	/**
+	 * Get value indicating acknowledgments must be sent now
+	 * @return True if delay is over or there are too many acknowledgments
+	 */
+	public synchronized boolean getIsDue() {
+		return m_Count > 0 && (m_Count >= MAXIMUM_PENDING || System.currentTimeMillis() >= m_TimeOff);
+	}
+
+	/**
+	 * Get time when collected acknowledgments must be sent
+	 * @return Time in milliseconds or Long.MAX_VALUE if there are no acknowledgments
+	 */
+	public synchronized long getTimeOff() {
+		return m_Count > 0 ? m_TimeOff : Long.MAX_VALUE;
+	}
+
+	/**
+	 * Add packet to acknowledge
+	 * @param packetId Id of received packet
+	 */
+	public synchronized void add(int packetId) {
+		for (int i = 0; i < m_Count; i++) {
+			if (m_PacketIds[i] == packetId) {
+				return;
+			}
+		}
+		if (m_Count == 0) {
+			m_TimeOff = System.currentTimeMillis() + m_Delay;
+		}
+		if (m_Count < MAXIMUM_PENDING) {
+			m_PacketIds[m_Count++] = packetId;
+		}
+	}
+
+	/**
+	 * Get block of all collected acknowledgments and clear the collection
+	 * @return Block to send or null if there are no acknowledgments
+	 */
+	public synchronized SelectiveAcknowledgment take() {
+		SelectiveAcknowledgment res = SelectiveAcknowledgment.create(m_PacketIds, m_Count);
+		m_Count = 0;
+		return res;
+	}
+
+	/**
+	 * Remove all collected acknowledgments
+	 */
+	public synchronized void clear() {
+		m_Count = 0;
+	}
+}
@@ -0,0 +1,128 @@
+package ru.start_car.newrlock.common.network;
+
+import java.util.Random;
+
+/**
+ * Retransmission timeout based on smoothed round trip time and its variance (Jacobson/Karels, RFC 6298).
+ * Every next attempt doubles the timeout (exponential backoff) with random jitter to not resend in bursts
+ */
+public final class AdaptiveRetransmissionPolicy implements RetransmissionPolicy {
+	/**
+	 * Timeout used until the first round trip time is measured (in milliseconds)
+	 */
+	public static final int INITIAL_TIMEOUT_MSEC = 1000;
+	/**
+	 * Default lower bound of timeout (in milliseconds)
+	 */
+	public static final int MINIMUM_TIMEOUT_MSEC = 200;
+	/**
+	 * Default upper bound of timeout including backoff (in milliseconds)
+	 */
+	public static final int MAXIMUM_TIMEOUT_MSEC = 10000;
+	/**
+	 * Default count of sending the same data before connection is considered to be lost
+	 */
+	public static final int MAXIMUM_ATTEMPTS = 6;
+	/**
+	 * Default part of timeout that is randomly added or subtracted
+	 */
+	public static final float JITTER = 0.1f;
+
+	/**
+	 * Gain of smoothed round trip time (1/8)
+	 */
+	private static final int ALPHA_SHIFT = 3;
+	/**
+	 * Gain of round trip time variance (1/4)
+	 */
+	private static final int BETA_SHIFT = 2;
+
+	private final int m_MinimumTimeout;
+	private final int m_MaximumTimeout;
+	private final int m_MaximumAttempts;
+	private final float m_Jitter;
+	private final Random m_Random = new Random();
+
+	/**
+	 * Smoothed round trip time in milliseconds (0 - not measured yet)
+	 */
+	private long m_SmoothedRtt;
+	/**
+	 * Round trip time variance in milliseconds
+	 */
+	private long m_RttVariance;
+	/**
+	 * Current timeout for the first attempt in milliseconds
+	 */
+	private int m_Timeout = INITIAL_TIMEOUT_MSEC;
+
+	public AdaptiveRetransmissionPolicy() {
+		this(MINIMUM_TIMEOUT_MSEC, MAXIMUM_TIMEOUT_MSEC, MAXIMUM_ATTEMPTS, JITTER);
+	}
+
+	/**
+	 * Create instance with given parameters
+	 * @param minimumTimeout Lower bound of timeout in milliseconds
+	 * @param maximumTimeout Upper bound of timeout in milliseconds
+	 * @param maximumAttempts Count of sending the same data
+	 * @param jitter Part of timeout that is randomly added or subtracted (0 - no jitter)
+	 */
+	public AdaptiveRetransmissionPolicy(int minimumTimeout, int maximumTimeout, int maximumAttempts, float jitter) {
+		m_MinimumTimeout = Math.max(1, minimumTimeout);
+		m_MaximumTimeout = Math.max(m_MinimumTimeout, maximumTimeout);
+		m_MaximumAttempts = Math.max(1, maximumAttempts);
+		m_Jitter = Math.max(0f, Math.min(jitter, 0.5f));
+		m_Timeout = clamp(INITIAL_TIMEOUT_MSEC);
+	}
+
+	/**
+	 * Get smoothed round trip time
+	 * @return Time in milliseconds or 0 if it's not measured yet
+	 */
+	public synchronized long getSmoothedRtt() {
+		return m_SmoothedRtt;
+	}
+
+	/**
+	 * Get round trip time variance
+	 * @return Time in milliseconds
+	 */
+	public synchronized long getRttVariance() {
+		return m_RttVariance;
+	}
+
+	@Override
+	public synchronized int getRetransmissionTimeout(int attempt) {
+		long timeout = (long)m_Timeout << Math.min(attempt, 16);
+		if (m_Jitter > 0) {
+			timeout += (long)(timeout * m_Jitter * (m_Random.nextFloat() * 2 - 1));
+		}
+		return clamp(timeout);
+	}
+
+	@Override
+	public int getMaximumAttempts() {
+		return m_MaximumAttempts;
+	}
+
+	@Override
+	public synchronized void onAcknowledgment(long roundTripTime, boolean isRetransmitted) {
+		// Karn's algorithm: time of retransmitted data can belong to any of the attempts
+		if (isRetransmitted || roundTripTime < 0) {
+			return;
+		}
+		if (m_SmoothedRtt == 0) {
+			m_SmoothedRtt = Math.max(1, roundTripTime);
+			m_RttVariance = roundTripTime / 2;
+		} else {
+			long delta = roundTripTime - m_SmoothedRtt;
+			m_SmoothedRtt = Math.max(1, m_SmoothedRtt + (delta >> ALPHA_SHIFT));
+			m_RttVariance += (Math.abs(delta) - m_RttVariance) >> BETA_SHIFT;
+		}
+		m_Timeout = clamp(m_SmoothedRtt + Math.max(1, m_RttVariance << 2));
+	}
+
+	private int clamp(long timeout) {
+		return (int)Math.max(m_MinimumTimeout, Math.min(timeout, m_MaximumTimeout));
+	}
+}
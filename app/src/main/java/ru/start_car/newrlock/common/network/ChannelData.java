@@ -1,7 +1,10 @@
 package ru.start_car.newrlock.common.network;
 
-import java.util.concurrent.atomic.AtomicInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 
+import ru.start_car.newrlock.common.aids.BufferPool;
 import ru.start_car.newrlock.common.aids.PlatformTools;
 import ru.start_car.newrlock.common.aids.Tools;
 
@@ -14,45 +17,107 @@ import ru.start_car.newrlock.common.aids.Tools;
  * 2..  1 - packet version (0..3 - version, 4..7 - header)
  * 3..  1 - header
  * 4..  4 - packet Id (to skip old packets)
- * 8..  n - message body (size from 0 to n bytes)
- * 8+n..2 - crc of all above data not including size bytes
+ * 8..  s - data sequence number if header bit 7 is set (4 bytes, little endian)
+ * 8+s..a - acknowledgments block if header bit 2 is set (see SelectiveAcknowledgment)
+ * 8+s+a..n - message body (size from 0 to n bytes)
+ * 8+s+a+n..2 - crc of all above data not including size bytes
+ *            (or 16 bytes of authentication tag if header bit 6 is set, see PacketCipher)
  * 
  * header bits:
  * 0 - message body is ciphered (if set to 1)
  * 1 - require acknowledgment for data message (if set to 1)
- * 2 - 
- * 3..7 - reserved
+ * 2 - packet contains acknowledgments block (if set to 1)
+ * 3 - message body contains several messages (if set to 1): every message is 2 bytes of size (little endian) and message bytes
+ * 4 - message body is a fragment of big message (if set to 1): 4 bytes of message Id, 2 bytes of fragment index,
+ *     2 bytes of fragment count (all little endian) and fragment bytes
+ * 5 - message body is compressed before encryption (if set to 1, see PayloadCompressor)
+ * 6 - message body is sealed with authenticated encryption instead of ciphering and crc (if set to 1, see PacketCipher).
+ *     All packet fields after size are authenticated, so sealed packet is sent again with the same fields
+ * 7 - packet has data sequence number (if set to 1): sender numbers data packets without gaps (fragments of one message
+ *     have the same number), so receiver can handle them in order of sending (see ReorderBuffer)
  */
 public final class ChannelData {
 	/**
 	 * Minimum size of the packet (if it has no message body)
 	 */
-	private static final int MINIMUM_PACKET_SIZE = 10;
+	static final int MINIMUM_PACKET_SIZE = 10;
 	/**
 	 * size to message body starts plus crc size
 	 */
-	private static final int SIZE_LENGTH_IN_BYTES = 2;
+	static final int SIZE_LENGTH_IN_BYTES = 2;
 	/**
 	 * Length of size field in packet in bytes
 	 */
-	private static final int CRC_LENGTH_IN_BYTES = 2;
+	static final int CRC_LENGTH_IN_BYTES = 2;
+	/**
+	 * Size of packet fields before acknowledgments block and message body
+	 */
+	static final int HEADER_SIZE = MINIMUM_PACKET_SIZE - CRC_LENGTH_IN_BYTES;
+	/**
+	 * Size of data sequence number field
+	 */
+	public static final int SEQUENCE_NUMBER_SIZE = 4;
+	/**
+	 * Space reserved in front of message body of frame buffer for acknowledgments block added on sending
+	 */
+	private static final int FRAME_ACKNOWLEDGMENTS_SIZE = 1 + 4 * 8;
+	/**
+	 * Space reserved after message body of frame buffer for crc or authentication tag
+	 */
+	private static final int FRAME_TRAILER_SIZE = Math.max(CRC_LENGTH_IN_BYTES, PacketCipher.TAG_SIZE);
+	/**
+	 * Position of message body in buffer returned by createPayloadBuffer
+	 */
+	public static final int FRAME_PAYLOAD_OFFSET = HEADER_SIZE + SEQUENCE_NUMBER_SIZE + FRAME_ACKNOWLEDGMENTS_SIZE;
 	/**
 	 * Mask for ciphered messages
 	 */
-	private static final int MASK_CIPHERED = 0x01;
+	static final int MASK_CIPHERED = 0x01;
 	/**
 	 * Mask for require acknowledgment (set to 1) or without it (set to 0)
 	 */
-	private static final int MASK_ACKNOWLEDGMENT_REQUIRED = 0x02;
+	static final int MASK_ACKNOWLEDGMENT_REQUIRED = 0x02;
+	/**
+	 * Mask for packets with acknowledgments block
+	 */
+	static final int MASK_ACKNOWLEDGMENTS = 0x04;
+	/**
+	 * Mask for packets with several messages in message body
+	 */
+	static final int MASK_MULTI_MESSAGE = 0x08;
+	/**
+	 * Size of message length field in packet with several messages
+	 */
+	static final int MESSAGE_LENGTH_SIZE = 2;
+	/**
+	 * Mask for packets with fragment of big message
+	 */
+	static final int MASK_FRAGMENT = 0x10;
+	/**
+	 * Size of fragment fields before fragment bytes
+	 */
+	static final int FRAGMENT_HEADER_SIZE = 8;
+	/**
+	 * Maximum count of fragments of one message
+	 */
+	static final int MAXIMUM_FRAGMENT_COUNT = 0xFFFF;
+	/**
+	 * Mask for compressed message body
+	 */
+	static final int MASK_COMPRESSED = 0x20;
+	/**
+	 * Mask for message body sealed with authenticated encryption
+	 */
+	static final int MASK_SEALED = 0x40;
+	/**
+	 * Mask for packets with data sequence number
+	 */
+	static final int MASK_SEQUENCE = 0x80;
 
 	/**
 	 * Minimum (initial) value for packet id. Before sending must be incremented by 1 (Don't send with min value)
 	 */
 	//public static final int intMinValue = 0x80000000;
-	/**
-	 * Global unique identifier of every Channel Data object
-	 */
-	private static final AtomicInteger s_Counter = new AtomicInteger(Integer.MIN_VALUE);
 
 	private int m_PacketId;
 	/**
@@ -62,6 +127,37 @@ public final class ChannelData {
 	public int getPacketId() {
 		return m_PacketId;
 	}
+	/**
+	 * Set Id of the packet. The channel sets it on the first sending from own counter, so Ids of sent packets grow in order of sending
+	 * @param value Packet Id
+	 */
+	public void setPacketId(int value) {
+		m_PacketId = value;
+	}
+
+	private int m_SequenceNumber;
+	/**
+	 * Get value indicating the packet has data sequence number
+	 * @return True if getSequenceNumber is sent
+	 */
+	public boolean getHasSequenceNumber() {
+		return (m_Header & MASK_SEQUENCE) != 0;
+	}
+	/**
+	 * Data sequence number of the packet (fragments have the number of their message)
+	 * @return Sequence number
+	 */
+	public int getSequenceNumber() {
+		return m_SequenceNumber;
+	}
+	/**
+	 * Set data sequence number. The channel sets it on the first sending if sequence numbering is on
+	 * @param value Sequence number
+	 */
+	public void setSequenceNumber(int value) {
+		m_SequenceNumber = value;
+		m_Header |= MASK_SEQUENCE;
+	}
 
 	/**
 	 * Protocol version
@@ -72,7 +168,7 @@ public final class ChannelData {
 	
 	
 	public ServiceMessageType getServiceMessageType() {
-		return ServiceMessageType.fromInt(m_Header);
+		return ServiceMessageType.fromInt(m_Header & ~MASK_SEALED);
 	}
 	public void setServiceMessageType(ServiceMessageType t) {
 		m_Header = (short)(t.getValue() & 0x0FFF);
@@ -90,8 +186,65 @@ public final class ChannelData {
 		}
 	}
 
+	public boolean getIsCompressed() {
+		return (m_Header & MASK_COMPRESSED) != 0;
+	}
+	public void setIsCompressed(boolean value) {
+		if (value) {
+			m_Header |= MASK_COMPRESSED;
+		} else {
+			int v = m_Header & ~MASK_COMPRESSED;
+			m_Header = (short)(v & 0x0FFF);
+		}
+	}
+
+	/**
+	 * Get value indicating message body is sealed by the channel on sending (see PacketCipher)
+	 * @return True for sealed packet
+	 */
+	public boolean getIsSealed() {
+		return (m_Header & MASK_SEALED) != 0;
+	}
+	/**
+	 * Set value indicating the channel seals message body on sending. Ciphered message body is sealed as is
+	 * and deciphered after opening. Service message type must be set before
+	 * @param value True to seal message body
+	 */
+	public void setIsSealed(boolean value) {
+		if (value) {
+			m_Header |= MASK_SEALED;
+		} else {
+			int v = m_Header & ~MASK_SEALED;
+			m_Header = (short)(v & 0x0FFF);
+		}
+	}
+
+	/**
+	 * Size of crc or authentication tag after message body
+	 * @return Count of bytes
+	 */
+	int getTrailerSize() {
+		return (m_Header & MASK_SEALED) != 0 ? PacketCipher.TAG_SIZE : CRC_LENGTH_IN_BYTES;
+	}
+
 	public boolean getIsService() {
-		return m_Data == null || m_Data.length == 0;
+		return getPayloadLength() == 0;
+	}
+
+	/**
+	 * Get value indicating the packet contains several messages (see getMessages)
+	 * @return True for packet with several messages
+	 */
+	public boolean getIsMultiMessage() {
+		return (m_Header & MASK_MULTI_MESSAGE) != 0;
+	}
+
+	/**
+	 * Get value indicating the packet is a fragment of big message (see getParent)
+	 * @return True for fragment
+	 */
+	public boolean getIsFragment() {
+		return (m_Header & MASK_FRAGMENT) != 0;
 	}
 
 	public boolean getIsAcknowledgmentRequired() {
@@ -106,6 +259,94 @@ public final class ChannelData {
 		}
 	}
 
+	private DeliveryQos m_DeliveryQos;
+	/**
+	 * Delivery class of the message (it is not sent, it defines the way of sending)
+	 * @return Class set by setDeliveryQos or Reliable/FireAndForget by acknowledgment required flag
+	 */
+	public DeliveryQos getDeliveryQos() {
+		if (m_DeliveryQos != null) {
+			return m_DeliveryQos;
+		}
+		return getIsAcknowledgmentRequired() ? DeliveryQos.Reliable : DeliveryQos.FireAndForget;
+	}
+	/**
+	 * Set delivery class of the message. Acknowledgment required flag is set by the class
+	 * @param value Delivery class
+	 */
+	public void setDeliveryQos(DeliveryQos value) {
+		m_DeliveryQos = value;
+		setIsAcknowledgmentRequired(value.getIsReliable());
+	}
+
+	private SelectiveAcknowledgment m_Acknowledgments;
+	/**
+	 * Acknowledgments for other side packets sent together with this packet
+	 * @return Acknowledgments block or null
+	 */
+	public SelectiveAcknowledgment getAcknowledgments() {
+		return m_Acknowledgments;
+	}
+	/**
+	 * Set acknowledgments for other side packets to send together with this packet
+	 * @param value Acknowledgments block or null
+	 */
+	public void setAcknowledgments(SelectiveAcknowledgment value) {
+		m_Acknowledgments = value;
+		if (value != null) {
+			m_Header |= MASK_ACKNOWLEDGMENTS;
+		} else {
+			int v = m_Header & ~MASK_ACKNOWLEDGMENTS;
+			m_Header = (short)(v & 0x0FFF);
+		}
+	}
+
+	private ArrayList<ChannelData> m_Messages;
+	/**
+	 * Messages sent in this packet (only for sent packet with several messages)
+	 * @return List of messages or null
+	 */
+	public List<ChannelData> getMessages() {
+		return m_Messages;
+	}
+
+	private ChannelData m_Parent;
+	/**
+	 * Message which is sent by this fragment
+	 * @return Big message or null if the packet is not a fragment
+	 */
+	public ChannelData getParent() {
+		return m_Parent;
+	}
+
+	/**
+	 * Count of fragments of big message which are not acknowledged yet
+	 */
+	private int m_PendingFragmentCount;
+	/**
+	 * Value indicating error of one of fragments was already reported
+	 */
+	private boolean m_IsFragmentFailed;
+
+	/**
+	 * Count acknowledged fragment of this big message
+	 * @return True if all fragments are acknowledged
+	 */
+	public boolean acknowledgeFragment() {
+		return --m_PendingFragmentCount == 0 && !m_IsFragmentFailed;
+	}
+
+	/**
+	 * Mark this big message as failed because of its fragment
+	 * @return True only on the first call (to report error once)
+	 */
+	public boolean failFragment() {
+		if (m_IsFragmentFailed) {
+			return false;
+		}
+		m_IsFragmentFailed = true;
+		return true;
+	}
 
 	private Object m_EndPoint;
 	/**
@@ -118,10 +359,15 @@ public final class ChannelData {
 
 	private byte[] m_Data;
 	/**
-	 * Binary data received from channel
+	 * Binary data received from channel. If message body was written to frame buffer it is copied on every call
 	 * @return Data bytes
 	 */
 	public byte[] getData() {
+		if (m_Frame != null && m_PayloadLength > 0) {
+			byte[] data = new byte[m_PayloadLength];
+			System.arraycopy(m_Frame.array(), m_Frame.arrayOffset() + m_PayloadOffset, data, 0, m_PayloadLength);
+			return data;
+		}
 		return m_Data;
 	}
 	/**
@@ -129,21 +375,83 @@ public final class ChannelData {
 	 * @param value Data bytes
 	 */
 	public void setData(byte[] value) {
+		releaseBuffers();
 		m_Data = value;
 	}
 
 	/**
-	 * Create instance for Data message, Not ciphered, Set new Id
+	 * Buffer with the whole packet: message body with space for packet fields before and after it.
+	 * It is kept to send packet again without copying. It is taken from BufferPool.getHeap()
 	 */
-	public ChannelData() {
-		m_PacketId = s_Counter.incrementAndGet();
-		if (m_PacketId == Integer.MIN_VALUE) {
-			m_PacketId = s_Counter.incrementAndGet();
+	private ByteBuffer m_Frame;
+	/**
+	 * Position of message body in frame buffer
+	 */
+	private int m_PayloadOffset;
+	/**
+	 * Length of message body in frame buffer
+	 */
+	private int m_PayloadLength;
+	/**
+	 * Value indicating message body in frame buffer is already sealed (authentication tag follows it)
+	 */
+	private boolean m_IsSealedInFrame;
+
+	/**
+	 * Length of message body
+	 * @return Count of bytes
+	 */
+	public int getPayloadLength() {
+		return m_Frame != null ? m_PayloadLength : (m_Data != null ? m_Data.length : 0);
+	}
+
+	/**
+	 * Create buffer to write message body directly into packet frame (instead of setData)
+	 * @param capacity Maximum size of message body
+	 * @return Heap buffer with position at FRAME_PAYLOAD_OFFSET and limit after capacity bytes. Call setPayloadLength after writing
+	 */
+	public ByteBuffer createPayloadBuffer(int capacity) {
+		releaseBuffers();
+		m_Frame = BufferPool.getHeap().acquire(FRAME_PAYLOAD_OFFSET + capacity + FRAME_TRAILER_SIZE);
+		m_PayloadOffset = FRAME_PAYLOAD_OFFSET;
+		m_PayloadLength = 0;
+		m_Frame.limit(FRAME_PAYLOAD_OFFSET + capacity);
+		m_Frame.position(FRAME_PAYLOAD_OFFSET);
+		return m_Frame;
+	}
+
+	/**
+	 * Set length of message body written to buffer returned by createPayloadBuffer
+	 * @param length Count of bytes from FRAME_PAYLOAD_OFFSET
+	 */
+	public void setPayloadLength(int length) {
+		if (m_Frame == null || length < 0 || m_PayloadOffset + length + FRAME_TRAILER_SIZE > m_Frame.capacity()) {
+			throw new IllegalArgumentException("Payload length is out of buffer");
 		}
+		m_PayloadLength = length;
+	}
+
+	/**
+	 * Return frame buffer to the pool. The channel calls it when the packet is sent and not needed anymore
+	 * (after acknowledgment and its events). Message body is lost after this call
+	 */
+	public void releaseBuffers() {
+		ByteBuffer frame = m_Frame;
+		m_Frame = null;
+		m_Data = null;
+		m_PayloadLength = 0;
+		m_IsSealedInFrame = false;
+		BufferPool.getHeap().release(frame);
+	}
+
+	/**
+	 * Create instance for Data message, Not ciphered. Id is set by the channel on sending
+	 */
+	public ChannelData() {
 	}
 
 	/**
-	 * Create instance for Data message, Not ciphered, Set new Id and set key
+	 * Create instance for Data message, Not ciphered and set key. Id is set by the channel on sending
 	 * @param endPoint server end point
 	 */
 	public ChannelData(Object endPoint) {
@@ -163,23 +471,121 @@ public final class ChannelData {
 
 	public static ChannelData createAcknowledgmentFor(ChannelData data) {
 		if (data != null) {
-			ChannelData cd = new ChannelData(data.getPacketId(), data.getEndPoint());
-			cd.setServiceMessageType(ServiceMessageType.Acknowledgment);
-			return cd;
+			return createAcknowledgmentFor(data.getPacketId(), data.getEndPoint());
 		}
 		return null;
 	}
 
+	/**
+	 * Create acknowledgment message for received packet
+	 * @param packetId Id of received packet
+	 * @param endPoint Endpoint for packet
+	 * @return Acknowledgment message
+	 */
+	public static ChannelData createAcknowledgmentFor(int packetId, Object endPoint) {
+		ChannelData cd = new ChannelData(packetId, endPoint);
+		cd.setServiceMessageType(ServiceMessageType.Acknowledgment);
+		return cd;
+	}
+
 	public static ChannelData createServiceMessage(ServiceMessageType msg, Object endPoint) {
 		ChannelData cd = new ChannelData(endPoint);
 		cd.setServiceMessageType(msg);
 		return  cd;
 	}
+
+	/**
+	 * Create service message to acknowledge many packets at once
+	 * @param acknowledgments Acknowledgments block
+	 * @param endPoint Endpoint for packet
+	 * @return Created message
+	 */
+	public static ChannelData createSelectiveAcknowledgment(SelectiveAcknowledgment acknowledgments, Object endPoint) {
+		ChannelData cd = createServiceMessage(ServiceMessageType.SelectiveAcknowledgment, endPoint);
+		cd.setAcknowledgments(acknowledgments);
+		return cd;
+	}
 	
-	private ChannelData(int packetId, Object endPoint, short header, byte[] data, byte version) {
+	/**
+	 * Create packet with several messages in its message body. The messages must have the same header
+	 * @param messages Messages to pack. The packet gets own Id on sending
+	 * @param payloadSize Size of message body (sum of message sizes plus MESSAGE_LENGTH_SIZE for every message)
+	 * @return Created packet
+	 */
+	static ChannelData createMultiMessage(List<ChannelData> messages, int payloadSize) {
+		ChannelData first = messages.get(0);
+		ChannelData cd = new ChannelData(first.getEndPoint());
+		cd.m_Header = (short)(first.m_Header | MASK_MULTI_MESSAGE);
+		cd.m_Messages = new ArrayList<ChannelData>(messages);
+		ByteBuffer payload = cd.createPayloadBuffer(payloadSize);
+		byte[] array = payload.array();
+		int index = payload.arrayOffset() + payload.position();
+		for (int i = 0; i < messages.size(); i++) {
+			ChannelData message = messages.get(i);
+			int length = message.getPayloadLength();
+			array[index++] = (byte)(length & 0xFF);
+			array[index++] = (byte)((length >> 8) & 0xFF);
+			if (message.m_Frame != null) {
+				System.arraycopy(message.m_Frame.array(), message.m_Frame.arrayOffset() + message.m_PayloadOffset, array, index, length);
+			} else {
+				System.arraycopy(message.m_Data, 0, array, index, length);
+			}
+			index += length;
+		}
+		cd.setPayloadLength(payloadSize);
+		return cd;
+	}
+
+	/**
+	 * Split big message to fragments which fit in packets of given size. Id of the message must be set before,
+	 * it is written to every fragment (fragments get own Ids on sending). Fragments have sequence number of the message
+	 * @param maximumPacketSize Maximum size of fragment packet
+	 * @return Fragments to send instead of this message
+	 * @throws ChannelException If the message is too big even for maximum count of fragments
+	 */
+	public List<ChannelData> createFragments(int maximumPacketSize) throws ChannelException {
+		int length = getPayloadLength();
+		int chunk = maximumPacketSize - HEADER_SIZE - (getHasSequenceNumber() ? SEQUENCE_NUMBER_SIZE : 0) - getTrailerSize() - FRAGMENT_HEADER_SIZE;
+		int count = chunk > 0 ? (length + chunk - 1) / chunk : 0;
+		if (count == 0 || count > MAXIMUM_FRAGMENT_COUNT) {
+			throw new ChannelException("Message is too big to send: " + length + " bytes");
+		}
+		byte[] source = m_Frame != null ? m_Frame.array() : m_Data;
+		int sourceIndex = m_Frame != null ? m_Frame.arrayOffset() + m_PayloadOffset : 0;
+		short header = (short)((m_Header & (MASK_CIPHERED | MASK_ACKNOWLEDGMENT_REQUIRED | MASK_COMPRESSED | MASK_SEALED | MASK_SEQUENCE)) | MASK_FRAGMENT);
+
+		ArrayList<ChannelData> fragments = new ArrayList<ChannelData>(count);
+		for (int i = 0; i < count; i++) {
+			int size = Math.min(chunk, length - i * chunk);
+			ChannelData fragment = new ChannelData(m_EndPoint);
+			fragment.m_Header = header;
+			fragment.m_SequenceNumber = m_SequenceNumber;
+			fragment.m_Parent = this;
+			ByteBuffer payload = fragment.createPayloadBuffer(FRAGMENT_HEADER_SIZE + size);
+			byte[] array = payload.array();
+			int index = payload.arrayOffset() + payload.position();
+			array[index++] = (byte)(m_PacketId & 0xFF);
+			array[index++] = (byte)((m_PacketId >> 8) & 0xFF);
+			array[index++] = (byte)((m_PacketId >> 16) & 0xFF);
+			array[index++] = (byte)((m_PacketId >> 24) & 0xFF);
+			array[index++] = (byte)(i & 0xFF);
+			array[index++] = (byte)((i >> 8) & 0xFF);
+			array[index++] = (byte)(count & 0xFF);
+			array[index++] = (byte)((count >> 8) & 0xFF);
+			System.arraycopy(source, sourceIndex + i * chunk, array, index, size);
+			fragment.setPayloadLength(FRAGMENT_HEADER_SIZE + size);
+			fragments.add(fragment);
+		}
+		m_PendingFragmentCount = count;
+		m_IsFragmentFailed = false;
+		return fragments;
+	}
+
+	ChannelData(int packetId, Object endPoint, short header, int sequenceNumber, byte[] data, byte version) {
 		m_PacketId = packetId;
 		m_EndPoint = endPoint;
 		m_Header = header;
+		m_SequenceNumber = sequenceNumber;
 		m_Data = data;
 		m_Version = version;
 	}
@@ -193,35 +599,12 @@ public final class ChannelData {
 	 * @return ChannelData created from received bytes
 	 */
 	public static ChannelData createFromRawData(byte[] rawData, int index, int count, Object endPoint) {
-		if (rawData != null && rawData.length >= MINIMUM_PACKET_SIZE && index >= 0 && (index + count) <= rawData.length) {
-			int size = (rawData[index++] & 0xFF) | (rawData[index++] & 0xFF) << 8;
-			if (size >= (MINIMUM_PACKET_SIZE - SIZE_LENGTH_IN_BYTES) && size <= (count - SIZE_LENGTH_IN_BYTES)) {
-				int crcPos = (SIZE_LENGTH_IN_BYTES - CRC_LENGTH_IN_BYTES) + size;
-
-				int crcCalculated = Tools.Crc16(rawData, SIZE_LENGTH_IN_BYTES, crcPos - SIZE_LENGTH_IN_BYTES);
-				int crcReceived = (rawData[crcPos] & 0xFF) | (rawData[crcPos + 1] & 0xFF) << 8;
-				if (crcCalculated == crcReceived) {
-					byte b = rawData[index++];
-					byte version = (byte)(b & 0x0F);
-					short header = (short)(rawData[index++] | ((b & 0xF0) << 4));
-					int packetId = (rawData[index++] & 0xFF) | ((rawData[index++] & 0xFF) << 8) | ((rawData[index++] & 0xFF) << 16) | ((rawData[index++] & 0xFF) << 24);
-					int dataLen = crcPos - index;
-					byte[] data = null;
-					if (dataLen > 0) {
-						if (version >= 1) {
-							data = new byte[dataLen];
-							System.arraycopy(rawData, index, data, 0, dataLen);
-						}
-					}
-					ChannelData res =new ChannelData(packetId, endPoint, header, data, version);
-					PlatformTools.logInformation(Tools.getMethodName() + ": is Ok. Id=" + res.getPacketId());
-					return res;
-				} else {
-					PlatformTools.logInformation(Tools.getMethodName() + ": crc error");
-				}
-				return null;
-			} else {
-				PlatformTools.logInformation(Tools.getMethodName() + ": data size error");
+		if (rawData != null && index >= 0 && (index + count) <= rawData.length) {
+			ChannelDataView view = new ChannelDataView();
+			if (view.wrap(ByteBuffer.wrap(rawData), index, count, endPoint)) {
+				ChannelData res = view.toChannelData();
+				PlatformTools.logInformation(Tools.getMethodName() + ": is Ok. Id=" + res.getPacketId());
+				return res;
 			}
 		} else {
 			PlatformTools.logInformation(Tools.getMethodName() + ": raw data error");
@@ -230,16 +613,94 @@ public final class ChannelData {
 	}
 
 
+	/**
+	 * Size of binary data with channel protocol additional bytes
+	 * @return Size of array returned by getChannelRawData
+	 */
+	public int getChannelRawSize() {
+		return getPayloadLength() + getFieldsSize() + getTrailerSize();
+	}
+
+	/**
+	 * Size of packet fields before message body
+	 * @return Count of bytes
+	 */
+	private int getFieldsSize() {
+		return HEADER_SIZE + (getHasSequenceNumber() ? SEQUENCE_NUMBER_SIZE : 0) + (m_Acknowledgments != null ? m_Acknowledgments.getSize() : 0);
+	}
+
 	/**
 	 * Binary Data with channel protocol additional bytes
-	 * @return Byte array from this object
+	 * @return Byte array from this object or null if the packet must be sealed (see getChannelRawBuffer(PacketCipher))
 	 */
 	public byte[] getChannelRawData() {
-		int dataLen = m_Data != null ? m_Data.length : 0;
-		byte[] rawData = new byte[dataLen + MINIMUM_PACKET_SIZE];
+		if (m_Frame != null || getIsSealed()) {
+			ByteBuffer frame = getChannelRawBuffer();
+			if (frame == null) {
+				return null;
+			}
+			byte[] rawData = new byte[frame.remaining()];
+			frame.get(rawData);
+			return rawData;
+		}
+		// packet without frame buffer is written directly to the result
+		byte[] rawData = new byte[getChannelRawSize()];
+		int length = getPayloadLength();
+		if (length > 0) {
+			System.arraycopy(m_Data, 0, rawData, rawData.length - length - CRC_LENGTH_IN_BYTES, length);
+		}
+		writePacketFields(rawData, 0, rawData.length);
+		return rawData;
+	}
+
+	/**
+	 * Write packet fields around message body in the frame buffer. Message body is not copied, so sending again is cheap
+	 * @return Frame buffer with position at packet start and limit at its end (null for sealed packet). It is valid until next call
+	 */
+	public ByteBuffer getChannelRawBuffer() {
+		return getChannelRawBuffer(null);
+	}
 
-		int len = rawData.length - SIZE_LENGTH_IN_BYTES;
-		int index = 0;
+	/**
+	 * Write packet fields around message body in the frame buffer. Message body is not copied, so sending again is cheap.
+	 * Sealed packet is encrypted once on the first call, so the same bytes are sent again (its fields must not change after it)
+	 * @param cipher Cipher to seal message body or null
+	 * @return Frame buffer with position at packet start and limit at its end or null if the packet can't be sealed.
+	 *         It is valid until next call
+	 */
+	public ByteBuffer getChannelRawBuffer(PacketCipher cipher) {
+		int fieldsSize = getFieldsSize();
+		if (m_Frame == null || m_PayloadOffset < fieldsSize) {
+			moveBodyToFrame(fieldsSize);
+		}
+		int start = m_PayloadOffset - fieldsSize;
+		int end = m_PayloadOffset + m_PayloadLength + getTrailerSize();
+		writePacketFields(m_Frame.array(), m_Frame.arrayOffset() + start, m_Frame.arrayOffset() + end);
+		if (getIsSealed() && !m_IsSealedInFrame) {
+			// written fields are authenticated
+			if (cipher == null || cipher.seal(m_PacketId, m_Frame.array(), m_Frame.arrayOffset() + start + SIZE_LENGTH_IN_BYTES,
+				m_Frame.arrayOffset() + m_PayloadOffset, m_PayloadLength) != m_PayloadLength + PacketCipher.TAG_SIZE) {
+				PlatformTools.logError(Tools.getMethodName() + ": packet is not sealed. Id:" + m_PacketId);
+				return null;
+			}
+			m_IsSealedInFrame = true;
+		}
+
+		m_Frame.clear();
+		m_Frame.limit(end);
+		m_Frame.position(start);
+		return m_Frame;
+	}
+
+	/**
+	 * Write packet fields before message body and crc after it (sealed packet has authentication tag instead)
+	 * @param rawData Array with message body in place
+	 * @param start Index of packet start
+	 * @param end Index after packet end
+	 */
+	private void writePacketFields(byte[] rawData, int start, int end) {
+		int len = end - start - SIZE_LENGTH_IN_BYTES;
+		int index = start;
 		rawData[index++] = (byte)(len & 0xFF);
 		rawData[index++] = (byte)((len >> 8) & 0xFF);
 		rawData[index++] = (byte)(((m_Version & 0x0F) | ((m_Header & 0x0F00) >> 4)) & 0xFF);
@@ -250,14 +711,44 @@ public final class ChannelData {
 		rawData[index++] = (byte)((m_PacketId >> 16) & 0xFF);
 		rawData[index++] = (byte)((m_PacketId >> 24) & 0xFF);
 
-		if (dataLen > 0) {
-			System.arraycopy(m_Data, 0, rawData, index, dataLen);
+		if (getHasSequenceNumber()) {
+			rawData[index++] = (byte)(m_SequenceNumber & 0xFF);
+			rawData[index++] = (byte)((m_SequenceNumber >> 8) & 0xFF);
+			rawData[index++] = (byte)((m_SequenceNumber >> 16) & 0xFF);
+			rawData[index++] = (byte)((m_SequenceNumber >> 24) & 0xFF);
+		}
+		if (m_Acknowledgments != null) {
+			m_Acknowledgments.write(rawData, index);
 		}
-		int crcCalculated = Tools.Crc16(rawData, SIZE_LENGTH_IN_BYTES, rawData.length - (SIZE_LENGTH_IN_BYTES + CRC_LENGTH_IN_BYTES));
-		index = rawData.length - CRC_LENGTH_IN_BYTES;
+		if (getIsSealed()) {
+			return;
+		}
+		int crcCalculated = Tools.Crc16(rawData, start + SIZE_LENGTH_IN_BYTES, end - start - (SIZE_LENGTH_IN_BYTES + CRC_LENGTH_IN_BYTES));
+		index = end - CRC_LENGTH_IN_BYTES;
 		rawData[index] = (byte)(crcCalculated & 0xFF);
 		rawData[index + 1] = (byte)((crcCalculated >> 8) & 0xFF);
+	}
 
-		return rawData;
+	/**
+	 * Copy message body to new frame buffer with enough space for packet fields
+	 * @param fieldsSize Size of packet fields to send before message body
+	 */
+	private void moveBodyToFrame(int fieldsSize) {
+		int offset = Math.max(fieldsSize, FRAME_PAYLOAD_OFFSET);
+		int length = getPayloadLength();
+		boolean isSealed = m_IsSealedInFrame;
+		ByteBuffer frame = BufferPool.getHeap().acquire(offset + length + FRAME_TRAILER_SIZE);
+		if (m_Frame != null) {
+			// authentication tag of sealed body is moved too
+			System.arraycopy(m_Frame.array(), m_Frame.arrayOffset() + m_PayloadOffset, frame.array(), frame.arrayOffset() + offset,
+				length + (isSealed ? PacketCipher.TAG_SIZE : 0));
+		} else if (length > 0) {
+			System.arraycopy(m_Data, 0, frame.array(), frame.arrayOffset() + offset, length);
+		}
+		releaseBuffers();
+		m_Frame = frame;
+		m_PayloadOffset = offset;
+		m_PayloadLength = length;
+		m_IsSealedInFrame = isSealed;
 	}
 }
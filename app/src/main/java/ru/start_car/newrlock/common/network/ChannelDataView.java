@@ -0,0 +1,351 @@
+package ru.start_car.newrlock.common.network;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import ru.start_car.newrlock.common.aids.PlatformTools;
+import ru.start_car.newrlock.common.aids.Tools;
+
+/**
+ * Reusable read-only view of a packet in receive buffer (see ChannelData for packet structure).
+ * Header fields and message body are read directly from the buffer without copying.
+ * The view is valid until the buffer is reused, call toChannelData to keep the packet
+ */
+public final class ChannelDataView {
+	/**
+	 * Size of acknowledgments block item
+	 */
+	private static final int ACKNOWLEDGMENT_ITEM_SIZE = 8;
+
+	private ByteBuffer m_Buffer;
+	/**
+	 * View of message body (reused while buffer is the same)
+	 */
+	private ByteBuffer m_Payload;
+	/**
+	 * View to write opened message body of sealed packet (reused while buffer is the same)
+	 */
+	private ByteBuffer m_Output;
+	/**
+	 * View of packet fields which are authenticated in sealed packet
+	 */
+	private ByteBuffer m_Fields;
+	private Object m_EndPoint;
+	private byte m_Version;
+	private short m_Header;
+	private int m_PacketId;
+	private int m_SequenceNumber;
+	/**
+	 * Position of acknowledgments block items in buffer
+	 */
+	private int m_AcknowledgmentsOffset;
+	private int m_AcknowledgmentCount;
+	private int m_PayloadOffset;
+	private int m_PayloadLength;
+
+	/**
+	 * Check packet in the buffer and set the view to it
+	 * @param buffer Buffer with received packet
+	 * @param offset Absolute position of packet in buffer
+	 * @param count Count of received bytes
+	 * @param endPoint Endpoint of remote channel
+	 * @return True if packet is correct, False if the view can't be used
+	 */
+	public boolean wrap(ByteBuffer buffer, int offset, int count, Object endPoint) {
+		return wrap(buffer, offset, count, endPoint, null);
+	}
+
+	/**
+	 * Check packet in the buffer and set the view to it. Message body of sealed packet is opened in place
+	 * @param buffer Buffer with received packet
+	 * @param offset Absolute position of packet in buffer
+	 * @param count Count of received bytes
+	 * @param endPoint Endpoint of remote channel
+	 * @param cipher Cipher to open sealed packets or null if the keys are not known yet
+	 * @return True if packet is correct, False if the view can't be used
+	 */
+	public boolean wrap(ByteBuffer buffer, int offset, int count, Object endPoint, PacketCipher cipher) {
+		if (buffer == null || offset < 0 || count < ChannelData.MINIMUM_PACKET_SIZE || (offset + count) > buffer.capacity()) {
+			PlatformTools.logInformation(Tools.getMethodName() + ": raw data error");
+			return false;
+		}
+		int index = offset;
+		int size = (buffer.get(index++) & 0xFF) | (buffer.get(index++) & 0xFF) << 8;
+		if (size < (ChannelData.MINIMUM_PACKET_SIZE - ChannelData.SIZE_LENGTH_IN_BYTES) || size > (count - ChannelData.SIZE_LENGTH_IN_BYTES)) {
+			PlatformTools.logInformation(Tools.getMethodName() + ": data size error");
+			return false;
+		}
+		byte b = buffer.get(index++);
+		m_Version = (byte)(b & 0x0F);
+		m_Header = (short)((buffer.get(index++) & 0xFF) | ((b & 0xF0) << 4));
+		boolean isSealed = (m_Header & ChannelData.MASK_SEALED) != 0;
+		// position of crc or authentication tag
+		int crcPos;
+		if (isSealed) {
+			crcPos = offset + ChannelData.SIZE_LENGTH_IN_BYTES + size - PacketCipher.TAG_SIZE;
+			if (crcPos < offset + ChannelData.HEADER_SIZE) {
+				PlatformTools.logInformation(Tools.getMethodName() + ": data size error");
+				return false;
+			}
+		} else {
+			crcPos = offset + size;
+			int crcCalculated = Tools.Crc16(buffer, offset + ChannelData.SIZE_LENGTH_IN_BYTES, crcPos - offset - ChannelData.SIZE_LENGTH_IN_BYTES);
+			int crcReceived = (buffer.get(crcPos) & 0xFF) | (buffer.get(crcPos + 1) & 0xFF) << 8;
+			if (crcCalculated != crcReceived) {
+				PlatformTools.logInformation(Tools.getMethodName() + ": crc error");
+				return false;
+			}
+		}
+		m_PacketId = (buffer.get(index++) & 0xFF) | ((buffer.get(index++) & 0xFF) << 8) | ((buffer.get(index++) & 0xFF) << 16) | ((buffer.get(index++) & 0xFF) << 24);
+		m_SequenceNumber = 0;
+		if ((m_Header & ChannelData.MASK_SEQUENCE) != 0) {
+			if (index + ChannelData.SEQUENCE_NUMBER_SIZE > crcPos) {
+				PlatformTools.logInformation(Tools.getMethodName() + ": sequence number error");
+				return false;
+			}
+			m_SequenceNumber = (buffer.get(index++) & 0xFF) | ((buffer.get(index++) & 0xFF) << 8) | ((buffer.get(index++) & 0xFF) << 16) | ((buffer.get(index++) & 0xFF) << 24);
+		}
+		m_AcknowledgmentCount = 0;
+		// service message without body keeps its type in header (CloseConnection has the same bit), only data packets
+		// and SelectiveAcknowledgment have acknowledgments block
+		if ((m_Header & ChannelData.MASK_ACKNOWLEDGMENTS) != 0 && (index < crcPos || getServiceMessageType() == ServiceMessageType.SelectiveAcknowledgment)) {
+			m_AcknowledgmentCount = index < crcPos ? buffer.get(index) & 0xFF : 0;
+			m_AcknowledgmentsOffset = index + 1;
+			index += 1 + m_AcknowledgmentCount * ACKNOWLEDGMENT_ITEM_SIZE;
+			if (m_AcknowledgmentCount == 0 || index > crcPos) {
+				PlatformTools.logInformation(Tools.getMethodName() + ": acknowledgments error");
+				return false;
+			}
+		}
+		m_PayloadOffset = index;
+		m_PayloadLength = m_Version >= 1 ? crcPos - index : 0;
+		if (m_Buffer != buffer || m_Payload == null) {
+			m_Payload = buffer.duplicate();
+			m_Output = buffer.duplicate();
+			m_Fields = buffer.duplicate();
+		}
+		m_Buffer = buffer;
+		m_EndPoint = endPoint;
+		return !isSealed || open(cipher, offset + ChannelData.SIZE_LENGTH_IN_BYTES);
+	}
+
+	/**
+	 * Decrypt message body of sealed packet in place
+	 * @param cipher Cipher of the session or null
+	 * @param fieldsOffset Position of packet fields after size
+	 * @return True if the packet is authentic
+	 */
+	private boolean open(PacketCipher cipher, int fieldsOffset) {
+		if (cipher == null) {
+			PlatformTools.logInformation(Tools.getMethodName() + ": sealed packet before keys exchange");
+			return false;
+		}
+		m_Payload.limit(m_PayloadOffset + m_PayloadLength + PacketCipher.TAG_SIZE);
+		m_Payload.position(m_PayloadOffset);
+		m_Output.clear();
+		m_Output.position(m_PayloadOffset);
+		m_Fields.clear();
+		m_Fields.position(fieldsOffset);
+		m_Fields.limit(m_PayloadOffset);
+		if (cipher.open(m_PacketId, m_Fields, m_Payload, m_Output) != m_PayloadLength) {
+			PlatformTools.logInformation(Tools.getMethodName() + ": sealed packet is damaged. Id:" + m_PacketId);
+			return false;
+		}
+		return true;
+	}
+
+	public int getPacketId() {
+		return m_PacketId;
+	}
+
+	public boolean getHasSequenceNumber() {
+		return (m_Header & ChannelData.MASK_SEQUENCE) != 0;
+	}
+
+	public int getSequenceNumber() {
+		return m_SequenceNumber;
+	}
+
+	public Object getEndPoint() {
+		return m_EndPoint;
+	}
+
+	public ServiceMessageType getServiceMessageType() {
+		return ServiceMessageType.fromInt(m_Header & ~ChannelData.MASK_SEALED);
+	}
+
+	public boolean getIsCiphered() {
+		return (m_Header & ChannelData.MASK_CIPHERED) != 0;
+	}
+
+	public boolean getIsService() {
+		return m_PayloadLength == 0;
+	}
+
+	public boolean getIsAcknowledgmentRequired() {
+		return (m_Header & ChannelData.MASK_ACKNOWLEDGMENT_REQUIRED) != 0;
+	}
+
+	public boolean getIsSealed() {
+		return (m_Header & ChannelData.MASK_SEALED) != 0;
+	}
+
+	public boolean getIsCompressed() {
+		return (m_Header & ChannelData.MASK_COMPRESSED) != 0;
+	}
+
+	public boolean getIsMultiMessage() {
+		return (m_Header & ChannelData.MASK_MULTI_MESSAGE) != 0;
+	}
+
+	/**
+	 * Get value indicating the packet is a fragment of big message with correct fragment fields
+	 * @return True for fragment
+	 */
+	public boolean getIsFragment() {
+		return (m_Header & ChannelData.MASK_FRAGMENT) != 0 && m_PayloadLength > ChannelData.FRAGMENT_HEADER_SIZE;
+	}
+
+	/**
+	 * Id of big message of the fragment
+	 * @return Message Id
+	 */
+	public int getFragmentMessageId() {
+		return getInt(m_PayloadOffset);
+	}
+
+	/**
+	 * Index of the fragment in big message
+	 * @return Index from 0
+	 */
+	public int getFragmentIndex() {
+		return (m_Buffer.get(m_PayloadOffset + 4) & 0xFF) | (m_Buffer.get(m_PayloadOffset + 5) & 0xFF) << 8;
+	}
+
+	/**
+	 * Count of fragments of big message
+	 * @return Count of fragments
+	 */
+	public int getFragmentCount() {
+		return (m_Buffer.get(m_PayloadOffset + 6) & 0xFF) | (m_Buffer.get(m_PayloadOffset + 7) & 0xFF) << 8;
+	}
+
+	/**
+	 * Header of big message of the fragment
+	 * @return Header without packet specific bits
+	 */
+	short getFragmentMessageHeader() {
+		return (short)(m_Header & ~(ChannelData.MASK_FRAGMENT | ChannelData.MASK_ACKNOWLEDGMENTS));
+	}
+
+	byte getVersion() {
+		return m_Version;
+	}
+
+	/**
+	 * Count of items in acknowledgments block
+	 * @return Count of items or 0 if packet has no acknowledgments
+	 */
+	public int getAcknowledgmentCount() {
+		return m_AcknowledgmentCount;
+	}
+
+	/**
+	 * Newest acknowledged packet Id of acknowledgments block item
+	 * @param index Index of item
+	 * @return Packet Id
+	 */
+	public int getAcknowledgmentPacketId(int index) {
+		return getInt(m_AcknowledgmentsOffset + index * ACKNOWLEDGMENT_ITEM_SIZE);
+	}
+
+	/**
+	 * Bitmap of acknowledgments block item (see SelectiveAcknowledgment)
+	 * @param index Index of item
+	 * @return Bitmap
+	 */
+	public int getAcknowledgmentBitmap(int index) {
+		return getInt(m_AcknowledgmentsOffset + index * ACKNOWLEDGMENT_ITEM_SIZE + 4);
+	}
+
+	/**
+	 * Length of message body
+	 * @return Count of bytes
+	 */
+	public int getPayloadLength() {
+		return m_PayloadLength;
+	}
+
+	/**
+	 * Message body without copying. The returned buffer is reused by the view
+	 * @return Buffer with position at message body start and limit at its end
+	 */
+	public ByteBuffer getPayload() {
+		m_Payload.limit(m_PayloadOffset + m_PayloadLength);
+		m_Payload.position(m_PayloadOffset);
+		return m_Payload;
+	}
+
+	/**
+	 * Copy every message of packet with several messages. Messages get Id and header of the packet
+	 * @param messages List to add messages to
+	 * @return True on success, False if message body is damaged (nothing is added)
+	 */
+	public boolean unpackMessages(List<ChannelData> messages) {
+		short header = (short)(m_Header & ~(ChannelData.MASK_MULTI_MESSAGE | ChannelData.MASK_ACKNOWLEDGMENTS));
+		int start = messages.size();
+		int index = m_PayloadOffset;
+		int end = m_PayloadOffset + m_PayloadLength;
+		while (index < end) {
+			if (end - index < ChannelData.MESSAGE_LENGTH_SIZE) {
+				break;
+			}
+			int length = (m_Buffer.get(index) & 0xFF) | (m_Buffer.get(index + 1) & 0xFF) << 8;
+			index += ChannelData.MESSAGE_LENGTH_SIZE;
+			if (length == 0 || length > end - index) {
+				break;
+			}
+			byte[] data = new byte[length];
+			ByteBuffer payload = getPayload();
+			payload.position(index);
+			payload.get(data);
+			messages.add(new ChannelData(m_PacketId, m_EndPoint, header, m_SequenceNumber, data, m_Version));
+			index += length;
+		}
+		if (index != end) {
+			PlatformTools.logInformation(Tools.getMethodName() + ": message body error");
+			while (messages.size() > start) {
+				messages.remove(messages.size() - 1);
+			}
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Copy the packet to keep it after the buffer is reused
+	 * @return Independent packet object
+	 */
+	public ChannelData toChannelData() {
+		byte[] data = null;
+		if (m_PayloadLength > 0) {
+			data = new byte[m_PayloadLength];
+			getPayload().get(data);
+		}
+		ChannelData res = new ChannelData(m_PacketId, m_EndPoint, m_Header, m_SequenceNumber, data, m_Version);
+		if (m_AcknowledgmentCount > 0) {
+			int[] packetIds = new int[m_AcknowledgmentCount];
+			int[] bitmaps = new int[m_AcknowledgmentCount];
+			for (int i = 0; i < m_AcknowledgmentCount; i++) {
+				packetIds[i] = getAcknowledgmentPacketId(i);
+				bitmaps[i] = getAcknowledgmentBitmap(i);
+			}
+			res.setAcknowledgments(new SelectiveAcknowledgment(packetIds, bitmaps, m_AcknowledgmentCount));
+		}
+		return res;
+	}
+
+	private int getInt(int index) {
+		return (m_Buffer.get(index) & 0xFF) | ((m_Buffer.get(index + 1) & 0xFF) << 8) | ((m_Buffer.get(index + 2) & 0xFF) << 16) | ((m_Buffer.get(index + 3) & 0xFF) << 24);
+	}
+}
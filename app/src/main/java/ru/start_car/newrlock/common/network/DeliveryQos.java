@@ -0,0 +1,33 @@
+package ru.start_car.newrlock.common.network;
+
+/**
+ * Delivery class of data message. Messages without acknowledgment are not held by the send window,
+ * so they are sent even when the window is full of messages waiting acknowledgment
+ */
+public enum DeliveryQos {
+	/**
+	 * Sent once without acknowledgment (telemetry)
+	 */
+	FireAndForget(false),
+	/**
+	 * Acknowledged and sent again if acknowledgment is not received. Can be received out of order
+	 */
+	Reliable(true),
+	/**
+	 * Acknowledged and sent again if acknowledgment is not received. The next message of this class is sent
+	 * only after acknowledgment of the previous one, so the other side receives them in order (commands)
+	 */
+	ReliableOrdered(true),
+	/**
+	 * Sent once without acknowledgment. Not sent message is replaced by newer one with the same key (status)
+	 */
+	LatestOnly(false);
+
+	private final boolean m_IsReliable;
+	DeliveryQos(boolean isReliable) { m_IsReliable = isReliable; }
+	/**
+	 * Get value indicating messages of the class require acknowledgment
+	 * @return True for reliable classes
+	 */
+	public boolean getIsReliable() { return m_IsReliable; }
+}
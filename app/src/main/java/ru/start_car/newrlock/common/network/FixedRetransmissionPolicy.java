@@ -0,0 +1,46 @@
+package ru.start_car.newrlock.common.network;
+
+/**
+ * Constant timeout and count of attempts, doesn't depend on connection quality
+ */
+public final class FixedRetransmissionPolicy implements RetransmissionPolicy {
+	/**
+	 * Default time to wait acknowledgment in milliseconds
+	 */
+	public static final int WAIT_ACK_MSEC = 5000;
+	/**
+	 * Default count of sending (after first sending there are yet two attempts)
+	 */
+	public static final int MAXIMUM_ATTEMPTS = 3;
+
+	private final int m_Timeout;
+	private final int m_MaximumAttempts;
+
+	public FixedRetransmissionPolicy() {
+		this(WAIT_ACK_MSEC, MAXIMUM_ATTEMPTS);
+	}
+
+	/**
+	 * Create instance with given parameters
+	 * @param timeout Time to wait acknowledgment in milliseconds
+	 * @param maximumAttempts Count of sending the same data
+	 */
+	public FixedRetransmissionPolicy(int timeout, int maximumAttempts) {
+		m_Timeout = Math.max(1, timeout);
+		m_MaximumAttempts = Math.max(1, maximumAttempts);
+	}
+
+	@Override
+	public int getRetransmissionTimeout(int attempt) {
+		return m_Timeout;
+	}
+
+	@Override
+	public int getMaximumAttempts() {
+		return m_MaximumAttempts;
+	}
+
+	@Override
+	public void onAcknowledgment(long roundTripTime, boolean isRetransmitted) {
+	}
+}
@@ -0,0 +1,186 @@
+package ru.start_car.newrlock.common.network;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import ru.start_car.newrlock.common.aids.PlatformTools;
+import ru.start_car.newrlock.common.aids.Tools;
+
+/**
+ * Collects received fragments of big messages (see ChannelData header bit 4) and builds messages from them.
+ * Count and size of incomplete messages are limited, incomplete messages are dropped after timeout
+ */
+public final class FragmentReassembler {
+	/**
+	 * Default time to wait all fragments of message in milliseconds
+	 */
+	public static final int DEFAULT_TIMEOUT_MSEC = 10000;
+	/**
+	 * Default count of messages which can be assembled at the same time
+	 */
+	public static final int DEFAULT_MAXIMUM_MESSAGES = 8;
+	/**
+	 * Default maximum size of assembled message
+	 */
+	public static final int DEFAULT_MAXIMUM_MESSAGE_SIZE = 1024 * 1024;
+	/**
+	 * Count of Ids of assembled messages to skip their repeated fragments
+	 */
+	private static final int COMPLETED_HISTORY_SIZE = 16;
+
+	/**
+	 * Message which fragments are being received
+	 */
+	private static final class Message {
+		public int id;
+		public Object endPoint;
+		public short header;
+		public int sequenceNumber;
+		public byte version;
+		public byte[][] fragments;
+		public int receivedCount;
+		public int size;
+		public long timeOff;
+	}
+
+	private final ArrayList<Message> m_Messages = new ArrayList<Message>();
+	private final int[] m_Completed = new int[COMPLETED_HISTORY_SIZE];
+	private int m_CompletedCount;
+	private int m_CompletedIndex;
+
+	private int m_Timeout = DEFAULT_TIMEOUT_MSEC;
+	/**
+	 * Set time to wait all fragments of message
+	 * @param value Time in milliseconds
+	 */
+	public void setTimeout(int value) {
+		m_Timeout = Math.max(0, value);
+	}
+
+	private int m_MaximumMessages = DEFAULT_MAXIMUM_MESSAGES;
+	/**
+	 * Set count of messages which can be assembled at the same time. The oldest one is dropped to start new one
+	 * @param value Count of messages
+	 */
+	public void setMaximumMessages(int value) {
+		m_MaximumMessages = Math.max(1, value);
+	}
+
+	private int m_MaximumMessageSize = DEFAULT_MAXIMUM_MESSAGE_SIZE;
+	/**
+	 * Set maximum size of message. Fragments of bigger messages are skipped
+	 * @param value Size in bytes
+	 */
+	public void setMaximumMessageSize(int value) {
+		m_MaximumMessageSize = value;
+	}
+
+	/**
+	 * Add received fragment
+	 * @param data View of received fragment (see ChannelDataView.getIsFragment)
+	 * @return Assembled message if it was the last fragment, otherwise null
+	 */
+	public ChannelData add(ChannelDataView data) {
+		int id = data.getFragmentMessageId();
+		int index = data.getFragmentIndex();
+		int count = data.getFragmentCount();
+		int length = data.getPayloadLength() - ChannelData.FRAGMENT_HEADER_SIZE;
+		if (index >= count || getIsCompleted(id)) {
+			return null;
+		}
+		Message message = find(id, data.getEndPoint());
+		if (message == null) {
+			// the first fragment gives size of the others
+			if ((long)count * length > m_MaximumMessageSize) {
+				PlatformTools.logWarning(Tools.getMethodName() + ": message is too big. Id:" + id + " fragments:" + count);
+				return null;
+			}
+			if (m_Messages.size() >= m_MaximumMessages) {
+				Message oldest = m_Messages.remove(0);
+				PlatformTools.logWarning(Tools.getMethodName() + ": incomplete message is dropped. Id:" + oldest.id);
+			}
+			message = new Message();
+			message.id = id;
+			message.endPoint = data.getEndPoint();
+			message.header = data.getFragmentMessageHeader();
+			message.version = data.getVersion();
+			message.sequenceNumber = data.getSequenceNumber();
+			message.fragments = new byte[count][];
+			message.timeOff = System.currentTimeMillis() + m_Timeout;
+			m_Messages.add(message);
+		} else if (message.fragments.length != count || message.size + length > m_MaximumMessageSize) {
+			PlatformTools.logWarning(Tools.getMethodName() + ": wrong fragment. Id:" + id + " index:" + index);
+			return null;
+		}
+		if (message.fragments[index] != null) {
+			return null;
+		}
+		byte[] fragment = new byte[length];
+		ByteBuffer payload = data.getPayload();
+		payload.position(payload.position() + ChannelData.FRAGMENT_HEADER_SIZE);
+		payload.get(fragment);
+		message.fragments[index] = fragment;
+		message.size += length;
+		if (++message.receivedCount < count) {
+			return null;
+		}
+
+		m_Messages.remove(message);
+		m_Completed[m_CompletedIndex] = id;
+		m_CompletedIndex = (m_CompletedIndex + 1) % COMPLETED_HISTORY_SIZE;
+		m_CompletedCount = Math.min(m_CompletedCount + 1, COMPLETED_HISTORY_SIZE);
+
+		byte[] body = new byte[message.size];
+		int position = 0;
+		for (byte[] bb : message.fragments) {
+			System.arraycopy(bb, 0, body, position, bb.length);
+			position += bb.length;
+		}
+		return new ChannelData(id, message.endPoint, message.header, message.sequenceNumber, body, message.version);
+	}
+
+	/**
+	 * Drop incomplete messages which fragments were not received in time
+	 */
+	public void removeExpired() {
+		if (m_Messages.isEmpty()) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		for (int i = m_Messages.size() - 1; i >= 0; i--) {
+			Message message = m_Messages.get(i);
+			if (now >= message.timeOff) {
+				m_Messages.remove(i);
+				PlatformTools.logWarning(Tools.getMethodName() + ": incomplete message is expired. Id:" + message.id +
+					" received " + message.receivedCount + " of " + message.fragments.length);
+			}
+		}
+	}
+
+	/**
+	 * Remove all incomplete messages
+	 */
+	public void clear() {
+		m_Messages.clear();
+		m_CompletedCount = 0;
+	}
+
+	private Message find(int id, Object endPoint) {
+		for (int i = 0; i < m_Messages.size(); i++) {
+			Message message = m_Messages.get(i);
+			if (message.id == id && (message.endPoint == null ? endPoint == null : message.endPoint.equals(endPoint))) {
+				return message;
+			}
+		}
+		return null;
+	}
+
+	private boolean getIsCompleted(int id) {
+		for (int i = 0; i < m_CompletedCount; i++) {
+			if (m_Completed[i] == id) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
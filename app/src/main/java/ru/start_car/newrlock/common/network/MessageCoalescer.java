@@ -0,0 +1,137 @@
+package ru.start_car.newrlock.common.network;
+
+import java.util.ArrayList;
+
+/**
+ * Collects small data messages to send them in one packet (see ChannelData header bit 3):
+ * after short delay or when the packet is full. Messages can be packed together only if they have the same header
+ */
+public final class MessageCoalescer {
+	/**
+	 * Default time to hold messages in milliseconds
+	 */
+	public static final int DEFAULT_DELAY_MSEC = 5;
+	/**
+	 * Default maximum size of packet with several messages (fits in one datagram)
+	 */
+	public static final int DEFAULT_MAXIMUM_PACKET_SIZE = 1440;
+
+	private final ArrayList<ChannelData> m_Messages = new ArrayList<ChannelData>();
+	/**
+	 * Size of message body of packet with collected messages
+	 */
+	private int m_PayloadSize;
+	/**
+	 * Time when collected messages must be sent
+	 */
+	private long m_TimeOff;
+
+	private int m_Delay = DEFAULT_DELAY_MSEC;
+	/**
+	 * Set time to hold messages
+	 * @param value Time in milliseconds
+	 */
+	public void setDelay(int value) {
+		m_Delay = Math.max(0, value);
+	}
+
+	private int m_MaximumPacketSize = DEFAULT_MAXIMUM_PACKET_SIZE;
+	/**
+	 * Set maximum size of packet with several messages
+	 * @param value Size in bytes including packet fields
+	 */
+	public void setMaximumPacketSize(int value) {
+		m_MaximumPacketSize = value;
+	}
+
+	/**
+	 * Get value indicating there are no messages to send
+	 * @return True if empty
+	 */
+	public boolean getIsEmpty() {
+		return m_Messages.isEmpty();
+	}
+
+	/**
+	 * Get value indicating collected messages require acknowledgment (they wait while the send window is full)
+	 * @return True if there are messages which require acknowledgment
+	 */
+	public boolean getIsAcknowledgmentRequired() {
+		return !m_Messages.isEmpty() && m_Messages.get(0).getIsAcknowledgmentRequired();
+	}
+
+	/**
+	 * Get value indicating collected messages must be sent now
+	 * @return True if delay is over or there is no space for one more message
+	 */
+	public boolean getIsDue() {
+		return !m_Messages.isEmpty() && (getPacketSize(m_Messages.get(0), m_PayloadSize + ChannelData.MESSAGE_LENGTH_SIZE + 1) > m_MaximumPacketSize ||
+			System.currentTimeMillis() >= m_TimeOff);
+	}
+
+	/**
+	 * Get time when collected messages must be sent
+	 * @return Time in milliseconds or Long.MAX_VALUE if there are no messages
+	 */
+	public long getTimeOff() {
+		return !m_Messages.isEmpty() ? m_TimeOff : Long.MAX_VALUE;
+	}
+
+	/**
+	 * Check the packet can be packed with other messages
+	 * @param data Packet to send
+	 * @return True if the packet is data message (not fragment) without acknowledgments block and it is small enough
+	 */
+	public boolean getIsSuitable(ChannelData data) {
+		return !data.getIsService() && !data.getIsMultiMessage() && !data.getIsFragment() && data.getAcknowledgments() == null &&
+			getPacketSize(data, ChannelData.MESSAGE_LENGTH_SIZE + data.getPayloadLength()) <= m_MaximumPacketSize;
+	}
+
+	/**
+	 * Add message to send it later
+	 * @param data Suitable message (see getIsSuitable)
+	 * @return True if the message is added, False if it doesn't fit or its header differs from collected messages (take them first)
+	 */
+	public boolean add(ChannelData data) {
+		int payloadSize = m_PayloadSize + ChannelData.MESSAGE_LENGTH_SIZE + data.getPayloadLength();
+		if (!m_Messages.isEmpty()) {
+			ChannelData first = m_Messages.get(0);
+			if (getPacketSize(first, payloadSize) > m_MaximumPacketSize || first.getIsCiphered() != data.getIsCiphered() || first.getIsCompressed() != data.getIsCompressed() ||
+				first.getIsSealed() != data.getIsSealed() ||
+				first.getIsAcknowledgmentRequired() != data.getIsAcknowledgmentRequired() || first.getEndPoint() != data.getEndPoint()) {
+				return false;
+			}
+		} else {
+			m_TimeOff = System.currentTimeMillis() + m_Delay;
+		}
+		m_Messages.add(data);
+		m_PayloadSize = payloadSize;
+		return true;
+	}
+
+	/**
+	 * Get packet with all collected messages and clear the collection
+	 * @return Packet to send (the message itself if it is only one) or null if there are no messages
+	 */
+	public ChannelData take() {
+		ChannelData res = null;
+		if (m_Messages.size() == 1) {
+			res = m_Messages.get(0);
+		} else if (m_Messages.size() > 1) {
+			res = ChannelData.createMultiMessage(m_Messages, m_PayloadSize);
+		}
+		m_Messages.clear();
+		m_PayloadSize = 0;
+		return res;
+	}
+
+	/**
+	 * Get size of packet with several messages (including data sequence number the channel can add on sending)
+	 * @param first Message which defines header of the packet
+	 * @param payloadSize Size of message body
+	 * @return Size in bytes
+	 */
+	private static int getPacketSize(ChannelData first, int payloadSize) {
+		return ChannelData.HEADER_SIZE + ChannelData.SEQUENCE_NUMBER_SIZE + first.getTrailerSize() + payloadSize;
+	}
+}
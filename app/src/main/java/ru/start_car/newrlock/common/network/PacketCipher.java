@@ -0,0 +1,36 @@
+package ru.start_car.newrlock.common.network;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Authenticated encryption of sealed packets (see ChannelData header bit 6). Message body is encrypted with nonce made of packet Id,
+ * all packet fields before message body (version, header, packet Id, sequence number and acknowledgments block) are authenticated
+ * as associated data, authentication tag replaces crc. Implementation is called from channel handler thread
+ */
+public interface PacketCipher {
+	/**
+	 * Size of authentication tag after message body
+	 */
+	int TAG_SIZE = 16;
+
+	/**
+	 * Encrypt message body in place and write authentication tag after it
+	 * @param packetId Packet Id (nonce)
+	 * @param buffer Array with packet fields and message body, it must have TAG_SIZE bytes after the body
+	 * @param fieldsIndex Index of packet fields to authenticate (they end at message body)
+	 * @param index Index of message body
+	 * @param count Length of message body
+	 * @return Count of written bytes (count + TAG_SIZE) or -1 on error
+	 */
+	int seal(int packetId, byte[] buffer, int fieldsIndex, int index, int count);
+
+	/**
+	 * Check authentication tag and decrypt message body
+	 * @param packetId Packet Id (nonce)
+	 * @param fields Packet fields to authenticate between position and limit
+	 * @param in Encrypted message body and tag between position and limit
+	 * @param out Buffer for plain message body (it can share content with input at the same position)
+	 * @return Length of plain message body or -1 if the packet is damaged or forged
+	 */
+	int open(int packetId, ByteBuffer fields, ByteBuffer in, ByteBuffer out);
+}
@@ -0,0 +1,67 @@
+package ru.start_car.newrlock.common.network;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded lock-free queue of packet Ids from one producer thread to one consumer thread
+ * (for example acknowledged Ids from receiving thread to sending thread). Nothing is allocated per Id
+ */
+public final class PacketIdQueue {
+	private final int[] m_Ids;
+	private final int m_Mask;
+	/**
+	 * Count of taken Ids (written by consumer)
+	 */
+	private final AtomicLong m_Head = new AtomicLong();
+	/**
+	 * Count of added Ids (written by producer)
+	 */
+	private final AtomicLong m_Tail = new AtomicLong();
+
+	/**
+	 * Create queue
+	 * @param capacity Maximum count of Ids, it is rounded up to power of 2
+	 */
+	public PacketIdQueue(int capacity) {
+		int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+		m_Ids = new int[size];
+		m_Mask = size - 1;
+	}
+
+	/**
+	 * Add Id (producer thread only)
+	 * @param packetId Packet Id
+	 * @return False if the queue is full
+	 */
+	public boolean offer(int packetId) {
+		long tail = m_Tail.get();
+		if (tail - m_Head.get() == m_Ids.length) {
+			return false;
+		}
+		m_Ids[(int)tail & m_Mask] = packetId;
+		// the Id is visible to consumer before the new tail
+		m_Tail.lazySet(tail + 1);
+		return true;
+	}
+
+	/**
+	 * Take the oldest Id (consumer thread only)
+	 * @return Packet Id or -1 if the queue is empty
+	 */
+	public long poll() {
+		long head = m_Head.get();
+		if (head == m_Tail.get()) {
+			return -1;
+		}
+		int packetId = m_Ids[(int)head & m_Mask];
+		m_Head.lazySet(head + 1);
+		return packetId & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * Get value indicating there are no Ids
+	 */
+	public boolean getIsEmpty() {
+		return m_Head.get() == m_Tail.get();
+	}
+}
@@ -0,0 +1,149 @@
+package ru.start_car.newrlock.common.network;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Holds received packets which came before packets with smaller data sequence number to deliver them in order of sending.
+ * Sender numbers data packets without gaps (see ChannelData header bit 7), so only lost or late packets are waited.
+ * A missed number is waited only for short time: packets are delivered after hold time or when the buffer is full
+ */
+public final class ReorderBuffer {
+	/**
+	 * Default time to wait missed packets in milliseconds
+	 */
+	public static final int DEFAULT_HOLD_TIME_MSEC = 50;
+	/**
+	 * Default count of packets which can be held
+	 */
+	public static final int DEFAULT_CAPACITY = 64;
+
+	/**
+	 * Held packet
+	 */
+	private static final class Entry {
+		public final ChannelData data;
+		public final long timeOff;
+
+		public Entry(ChannelData data, long timeOff) {
+			this.data = data;
+			this.timeOff = timeOff;
+		}
+	}
+
+	/**
+	 * Held packets sorted by sequence number
+	 */
+	private final ArrayList<Entry> m_Entries = new ArrayList<Entry>();
+	/**
+	 * Sequence number of the next packet to deliver
+	 */
+	private int m_NextSequenceNumber;
+	private boolean m_IsStarted;
+
+	private int m_HoldTime = DEFAULT_HOLD_TIME_MSEC;
+	/**
+	 * Set time to wait missed packets
+	 * @param value Time in milliseconds
+	 */
+	public void setHoldTime(int value) {
+		m_HoldTime = Math.max(0, value);
+	}
+
+	private int m_Capacity = DEFAULT_CAPACITY;
+	/**
+	 * Set count of packets which can be held. The oldest one is delivered to hold new one
+	 * @param value Count of packets
+	 */
+	public void setCapacity(int value) {
+		m_Capacity = Math.max(1, value);
+	}
+
+	/**
+	 * Add received packet (it must be checked for repeating before)
+	 * @param data Received packet with sequence number
+	 * @param ready List to add packets which can be delivered now in order
+	 */
+	public void add(ChannelData data, List<ChannelData> ready) {
+		int number = data.getSequenceNumber();
+		if (!m_IsStarted) {
+			m_IsStarted = true;
+			m_NextSequenceNumber = number;
+		}
+		if (m_Entries.isEmpty() && number - m_NextSequenceNumber <= 0) {
+			// expected packet, another message of the same packet or packet which came after its hold time
+			deliver(data, ready);
+			return;
+		}
+		int index = m_Entries.size();
+		while (index > 0 && m_Entries.get(index - 1).data.getSequenceNumber() - number > 0) {
+			index--;
+		}
+		m_Entries.add(index, new Entry(data, System.currentTimeMillis() + m_HoldTime));
+		if (m_Entries.size() > m_Capacity) {
+			deliver(m_Entries.remove(0).data, ready);
+		}
+		drain(ready);
+	}
+
+	/**
+	 * Deliver packets which hold time is over (and packets after them if there are no gaps)
+	 * @param ready List to add packets which can be delivered now in order
+	 */
+	public void removeExpired(List<ChannelData> ready) {
+		if (m_Entries.isEmpty()) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		// the time is checked for all packets: the first one could come later than the next ones
+		for (int i = m_Entries.size() - 1; i >= 0; i--) {
+			if (now >= m_Entries.get(i).timeOff) {
+				while (i-- >= 0) {
+					deliver(m_Entries.remove(0).data, ready);
+				}
+				drain(ready);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Get time when the first held packet must be delivered
+	 * @return Time in milliseconds or Long.MAX_VALUE if there are no packets
+	 */
+	public long getTimeOff() {
+		long res = Long.MAX_VALUE;
+		for (int i = 0; i < m_Entries.size(); i++) {
+			res = Math.min(res, m_Entries.get(i).timeOff);
+		}
+		return res;
+	}
+
+	/**
+	 * Remove all held packets and start from any sequence number
+	 * @return Removed packets
+	 */
+	public List<ChannelData> clear() {
+		List<ChannelData> res = new ArrayList<ChannelData>(m_Entries.size());
+		for (int i = 0; i < m_Entries.size(); i++) {
+			res.add(m_Entries.get(i).data);
+		}
+		m_Entries.clear();
+		m_IsStarted = false;
+		return res;
+	}
+
+	private void drain(List<ChannelData> ready) {
+		while (!m_Entries.isEmpty() && m_Entries.get(0).data.getSequenceNumber() - m_NextSequenceNumber <= 0) {
+			deliver(m_Entries.remove(0).data, ready);
+		}
+	}
+
+	private void deliver(ChannelData data, List<ChannelData> ready) {
+		int number = data.getSequenceNumber();
+		if (number - m_NextSequenceNumber >= 0) {
+			m_NextSequenceNumber = number + 1;
+		}
+		ready.add(data);
+	}
+}
@@ -0,0 +1,120 @@
+package ru.start_car.newrlock.common.network;
+
+/**
+ * Sliding window of received packet Ids to skip repeated packets (like IPsec anti-replay window, RFC 6479).
+ * Packets can be received out of order: a packet is accepted if its Id is new and not older than window size
+ * from the newest received Id. Bits of the window are kept in ring of words, so every check takes constant time.
+ * Ids are looping counter, so they are compared by difference
+ */
+public final class ReplayWindow {
+	/**
+	 * Default count of old Ids which are checked
+	 */
+	public static final int DEFAULT_SIZE = 256;
+
+	private static final int WORD_SHIFT = 6;
+	private static final int WORD_BITS = 1 << WORD_SHIFT;
+	/**
+	 * Mask of word number (Id without bit index in the word)
+	 */
+	private static final int WORD_NUMBER_MASK = -1 >>> WORD_SHIFT;
+	private static final int MAXIMUM_WORDS = 1 << 16;
+
+	private long[] m_Bitmap;
+	/**
+	 * Count of checked Ids (one word of the ring is used for new Ids)
+	 */
+	private int m_Size;
+	private int m_NewestPacketId;
+	private boolean m_IsEmpty = true;
+
+	public ReplayWindow() {
+		setSize(DEFAULT_SIZE);
+	}
+
+	public int getSize() {
+		return m_Size;
+	}
+
+	/**
+	 * Set count of old Ids which are checked. Packets with older Ids are skipped. The window is cleared
+	 * @param size Count of Ids (it is rounded up, ring size must be power of 2)
+	 */
+	public void setSize(int size) {
+		int words = 2;
+		while ((words - 1) * WORD_BITS < size && words < MAXIMUM_WORDS) {
+			words <<= 1;
+		}
+		m_Bitmap = new long[words];
+		m_Size = (words - 1) * WORD_BITS;
+		m_IsEmpty = true;
+	}
+
+	/**
+	 * Check received packet Id and remember it
+	 * @param packetId Id of received packet
+	 * @return True if the packet is new, False if it is repeated or too old
+	 */
+	public boolean accept(int packetId) {
+		if (m_IsEmpty) {
+			m_IsEmpty = false;
+			m_NewestPacketId = packetId;
+			for (int i = 0; i < m_Bitmap.length; i++) {
+				m_Bitmap[i] = 0;
+			}
+			setBit(packetId);
+			return true;
+		}
+		int diff = packetId - m_NewestPacketId;
+		if (diff > 0) {
+			// move the window: clear words between the newest Id and the new one
+			int words = ((packetId >>> WORD_SHIFT) - (m_NewestPacketId >>> WORD_SHIFT)) & WORD_NUMBER_MASK;
+			int count = Math.min(words, m_Bitmap.length);
+			int index = m_NewestPacketId >>> WORD_SHIFT;
+			for (int i = 0; i < count; i++) {
+				index++;
+				m_Bitmap[index & (m_Bitmap.length - 1)] = 0;
+			}
+			m_NewestPacketId = packetId;
+			setBit(packetId);
+			return true;
+		}
+		if (-diff >= m_Size) {
+			return false;
+		}
+		int word = (packetId >>> WORD_SHIFT) & (m_Bitmap.length - 1);
+		long bit = 1L << (packetId & (WORD_BITS - 1));
+		if ((m_Bitmap[word] & bit) != 0) {
+			return false;
+		}
+		m_Bitmap[word] |= bit;
+		return true;
+	}
+
+	/**
+	 * Check received packet Id without remembering it
+	 * @param packetId Id of received packet
+	 * @return True if the Id was already accepted, False if it is new or too old to know
+	 */
+	public boolean getIsRepeated(int packetId) {
+		if (m_IsEmpty) {
+			return false;
+		}
+		int diff = packetId - m_NewestPacketId;
+		if (diff > 0 || -diff >= m_Size) {
+			return false;
+		}
+		return (m_Bitmap[(packetId >>> WORD_SHIFT) & (m_Bitmap.length - 1)] & (1L << (packetId & (WORD_BITS - 1)))) != 0;
+	}
+
+	/**
+	 * Forget all received Ids (the next packet is accepted with any Id)
+	 */
+	public void clear() {
+		m_IsEmpty = true;
+	}
+
+	private void setBit(int packetId) {
+		m_Bitmap[(packetId >>> WORD_SHIFT) & (m_Bitmap.length - 1)] |= 1L << (packetId & (WORD_BITS - 1));
+	}
+}
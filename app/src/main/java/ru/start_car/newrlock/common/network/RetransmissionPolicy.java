@@ -0,0 +1,27 @@
+package ru.start_car.newrlock.common.network;
+
+/**
+ * Rules to resend data which acknowledgment was not received in time.
+ * Implementation is used by one channel only and called from its handler thread
+ */
+public interface RetransmissionPolicy {
+	/**
+	 * Get time to wait acknowledgment after data was sent
+	 * @param attempt Count of previous sending of the same data (0 - data is sent first time)
+	 * @return Time in milliseconds
+	 */
+	int getRetransmissionTimeout(int attempt);
+
+	/**
+	 * Get maximum count of sending the same data (including the first one) before connection is considered to be lost
+	 * @return Count of attempts
+	 */
+	int getMaximumAttempts();
+
+	/**
+	 * Handle acknowledgment timing to adapt timeouts
+	 * @param roundTripTime Time between sending of data and receiving of its acknowledgment in milliseconds
+	 * @param isRetransmitted True if data was sent more than once, so the time is ambiguous
+	 */
+	void onAcknowledgment(long roundTripTime, boolean isRetransmitted);
+}
@@ -0,0 +1,134 @@
+package ru.start_car.newrlock.common.network;
+
+/**
+ * Block of acknowledgments for many packets at once.
+ * Block structure:
+ * byte count
+ * 0..  1 - count of items (1..255)
+ * 1..  8 * count - items
+ *
+ * item structure:
+ * 0..  4 - packet Id
+ * 4..  4 - bitmap: bit i is set if packet with Id (packet Id - 1 - i) is received too
+ */
+public final class SelectiveAcknowledgment {
+	/**
+	 * Maximum count of items in block
+	 */
+	public static final int MAXIMUM_ITEMS = 255;
+	/**
+	 * Count of packets that can be acknowledged by the bitmap of an item
+	 */
+	private static final int BITMAP_LENGTH = 32;
+	private static final int ITEM_SIZE = 8;
+
+	private final int[] m_PacketIds;
+	private final int[] m_Bitmaps;
+	private final int m_Count;
+
+	SelectiveAcknowledgment(int[] packetIds, int[] bitmaps, int count) {
+		m_PacketIds = packetIds;
+		m_Bitmaps = bitmaps;
+		m_Count = count;
+	}
+
+	/**
+	 * Get count of items
+	 * @return Count of items
+	 */
+	public int getCount() {
+		return m_Count;
+	}
+
+	/**
+	 * Get newest acknowledged packet Id of an item
+	 * @param index Index of item
+	 * @return Packet Id
+	 */
+	public int getPacketId(int index) {
+		return m_PacketIds[index];
+	}
+
+	/**
+	 * Get bitmap of an item: bit i is set if packet with Id (getPacketId(index) - 1 - i) is acknowledged too
+	 * @param index Index of item
+	 * @return Bitmap
+	 */
+	public int getBitmap(int index) {
+		return m_Bitmaps[index];
+	}
+
+	/**
+	 * Get size of block in the packet
+	 * @return Size in bytes
+	 */
+	public int getSize() {
+		return 1 + m_Count * ITEM_SIZE;
+	}
+
+	/**
+	 * Create block to acknowledge given packets
+	 * @param packetIds Packet Ids to acknowledge (the array is reordered)
+	 * @param count Count of Ids in the array
+	 * @return Created block or null if there are no Ids
+	 */
+	public static SelectiveAcknowledgment create(int[] packetIds, int count) {
+		if (count <= 0) {
+			return null;
+		}
+		int[] ids = new int[Math.min(count, MAXIMUM_ITEMS)];
+		int[] bitmaps = new int[ids.length];
+		int items = 0;
+		int rest = count;
+		while (rest > 0 && items < ids.length) {
+			// the newest of rest Ids (Id is looping counter so compare the difference)
+			int newest = 0;
+			for (int i = 1; i < rest; i++) {
+				if (packetIds[i] - packetIds[newest] > 0) {
+					newest = i;
+				}
+			}
+			int base = packetIds[newest];
+			packetIds[newest] = packetIds[--rest];
+			int bitmap = 0;
+			for (int i = 0; i < rest; ) {
+				int distance = base - packetIds[i];
+				if (distance >= 0 && distance <= BITMAP_LENGTH) {
+					if (distance > 0) {
+						bitmap |= 1 << (distance - 1);
+					}
+					packetIds[i] = packetIds[--rest];
+				} else {
+					i++;
+				}
+			}
+			ids[items] = base;
+			bitmaps[items] = bitmap;
+			items++;
+		}
+		return new SelectiveAcknowledgment(ids, bitmaps, items);
+	}
+
+	/**
+	 * Write block to the packet
+	 * @param buffer Packet bytes
+	 * @param index Position to write from
+	 * @return Position after the block
+	 */
+	public int write(byte[] buffer, int index) {
+		buffer[index++] = (byte)m_Count;
+		for (int i = 0; i < m_Count; i++) {
+			index = writeInt(buffer, index, m_PacketIds[i]);
+			index = writeInt(buffer, index, m_Bitmaps[i]);
+		}
+		return index;
+	}
+
+	private static int writeInt(byte[] buffer, int index, int value) {
+		buffer[index++] = (byte)(value & 0xFF);
+		buffer[index++] = (byte)((value >> 8) & 0xFF);
+		buffer[index++] = (byte)((value >> 16) & 0xFF);
+		buffer[index++] = (byte)((value >> 24) & 0xFF);
+		return index;
+	}
+}
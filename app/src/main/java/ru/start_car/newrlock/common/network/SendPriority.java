@@ -0,0 +1,19 @@
+package ru.start_car.newrlock.common.network;
+
+/**
+ * Priority of data message in the send queue. Messages of higher priority are sent before all messages of lower priority
+ */
+public enum SendPriority {
+	/**
+	 * Commands which must overtake other data
+	 */
+	High,
+	/**
+	 * Default priority
+	 */
+	Normal,
+	/**
+	 * Telemetry and other data which can wait
+	 */
+	Low
+}
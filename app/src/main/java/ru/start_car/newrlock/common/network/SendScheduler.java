@@ -0,0 +1,251 @@
+package ru.start_car.newrlock.common.network;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Queue of data messages to send with priority lanes (see SendPriority). Every priority lane is divided by delivery class
+ * (see DeliveryQos): messages without acknowledgment, reliable and reliable ordered messages. Messages of one class
+ * are sent in order, a class can be blocked (by full send window) without blocking the others.
+ * A message can have deadline: it is dropped if it was not sent before. A message can have key: a newer message
+ * with the same key replaces the older one if it is not sent yet (latest value wins).
+ * Methods are thread safe: messages are added by any thread and taken by the channel thread
+ */
+public final class SendScheduler {
+	/**
+	 * Message waiting to be sent
+	 */
+	private static final class Entry {
+		public final ChannelData data;
+		public final long deadline;
+		public final Object key;
+		/**
+		 * Number of the message to keep order between delivery classes
+		 */
+		public final long number;
+		/**
+		 * Value indicating the message is replaced or expired and it is only skipped in the lane
+		 */
+		public boolean isDropped;
+
+		public Entry(ChannelData data, long deadline, Object key, long number) {
+			this.data = data;
+			this.deadline = deadline;
+			this.key = key;
+			this.number = number;
+		}
+	}
+
+	private static final int CLASS_UNRELIABLE = 0;
+	private static final int CLASS_RELIABLE = 1;
+	private static final int CLASS_ORDERED = 2;
+	private static final int CLASS_COUNT = 3;
+
+	private final ArrayList<ArrayDeque<Entry>> m_Lanes;
+	/**
+	 * Not sent messages with keys
+	 */
+	private final HashMap<Object, Entry> m_Keys = new HashMap<Object, Entry>();
+	/**
+	 * Replaced and expired messages which are not collected yet
+	 */
+	private final ArrayList<ChannelData> m_Dropped = new ArrayList<ChannelData>();
+	/**
+	 * Count of messages to send
+	 */
+	private int m_Count;
+	/**
+	 * The nearest deadline of messages or Long.MAX_VALUE
+	 */
+	private long m_NextDeadline = Long.MAX_VALUE;
+	private long m_NextNumber;
+
+	public SendScheduler() {
+		int count = SendPriority.values().length * CLASS_COUNT;
+		m_Lanes = new ArrayList<ArrayDeque<Entry>>(count);
+		for (int i = 0; i < count; i++) {
+			m_Lanes.add(new ArrayDeque<Entry>());
+		}
+	}
+
+	/**
+	 * Add message to send
+	 * @param data Message to send
+	 * @param priority Priority of the message
+	 * @param deadline Time (in milliseconds) when the message is dropped if it is not sent, 0 - no deadline
+	 * @param key Key of the message to replace not sent message with the same key or null
+	 */
+	public synchronized void add(ChannelData data, SendPriority priority, long deadline, Object key) {
+		Entry entry = new Entry(data, deadline > 0 ? deadline : Long.MAX_VALUE, key, m_NextNumber++);
+		if (key != null) {
+			Entry old = m_Keys.put(key, entry);
+			if (old != null) {
+				drop(old);
+			}
+		}
+		m_Lanes.get(priority.ordinal() * CLASS_COUNT + getClassIndex(data.getDeliveryQos())).addLast(entry);
+		m_Count++;
+		m_NextDeadline = Math.min(m_NextDeadline, entry.deadline);
+	}
+
+	/**
+	 * Take the next message to send
+	 * @return Message or null if there are no messages
+	 */
+	public ChannelData poll() {
+		return poll(true, true);
+	}
+
+	/**
+	 * Take the next message to send: the oldest one of allowed delivery classes in the highest priority lane
+	 * @param isReliableAllowed False to take only messages without acknowledgment (send window is full)
+	 * @param isOrderedAllowed False to skip ReliableOrdered messages (previous one is not acknowledged yet)
+	 * @return Message or null if there are no messages of allowed classes
+	 */
+	public synchronized ChannelData poll(boolean isReliableAllowed, boolean isOrderedAllowed) {
+		if (m_Count == 0) {
+			return null;
+		}
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < m_Lanes.size(); i += CLASS_COUNT) {
+			ArrayDeque<Entry> lane = peek(m_Lanes.get(i + CLASS_UNRELIABLE), now);
+			if (isReliableAllowed) {
+				lane = getOlder(lane, peek(m_Lanes.get(i + CLASS_RELIABLE), now));
+				if (isOrderedAllowed) {
+					lane = getOlder(lane, peek(m_Lanes.get(i + CLASS_ORDERED), now));
+				}
+			}
+			if (lane != null) {
+				Entry entry = lane.poll();
+				if (entry.key != null && m_Keys.get(entry.key) == entry) {
+					m_Keys.remove(entry.key);
+				}
+				m_Count--;
+				return entry.data;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Take replaced and expired messages to report they are not sent
+	 * @param dropped List to add the messages
+	 */
+	public synchronized void collectDropped(List<ChannelData> dropped) {
+		if (System.currentTimeMillis() >= m_NextDeadline) {
+			removeExpired();
+		}
+		if (!m_Dropped.isEmpty()) {
+			dropped.addAll(m_Dropped);
+			m_Dropped.clear();
+		}
+	}
+
+	/**
+	 * Get time when the nearest deadline is over
+	 * @return Time in milliseconds or Long.MAX_VALUE if there are no deadlines
+	 */
+	public synchronized long getTimeOff() {
+		return m_Count > 0 ? m_NextDeadline : Long.MAX_VALUE;
+	}
+
+	/**
+	 * Get count of messages to send
+	 * @return Count of messages
+	 */
+	public synchronized int getCount() {
+		return m_Count;
+	}
+
+	/**
+	 * Remove all messages
+	 * @return Removed messages including replaced and expired ones which are not collected
+	 */
+	public synchronized List<ChannelData> clear() {
+		ArrayList<ChannelData> res = new ArrayList<ChannelData>(m_Dropped);
+		for (int i = 0; i < m_Lanes.size(); i++) {
+			for (Entry entry : m_Lanes.get(i)) {
+				if (!entry.isDropped) {
+					res.add(entry.data);
+				}
+			}
+			m_Lanes.get(i).clear();
+		}
+		m_Keys.clear();
+		m_Dropped.clear();
+		m_Count = 0;
+		m_NextDeadline = Long.MAX_VALUE;
+		return res;
+	}
+
+	/**
+	 * Remove dropped and expired messages from the head of the lane
+	 * @return The lane if it has a message to send, otherwise null
+	 */
+	private ArrayDeque<Entry> peek(ArrayDeque<Entry> lane, long now) {
+		Entry entry;
+		while ((entry = lane.peek()) != null) {
+			if (!entry.isDropped) {
+				if (now < entry.deadline) {
+					return lane;
+				}
+				if (entry.key != null && m_Keys.get(entry.key) == entry) {
+					m_Keys.remove(entry.key);
+				}
+				drop(entry);
+			}
+			lane.poll();
+		}
+		return null;
+	}
+
+	private static ArrayDeque<Entry> getOlder(ArrayDeque<Entry> lane1, ArrayDeque<Entry> lane2) {
+		if (lane1 == null) {
+			return lane2;
+		}
+		if (lane2 == null) {
+			return lane1;
+		}
+		return lane1.peek().number < lane2.peek().number ? lane1 : lane2;
+	}
+
+	private static int getClassIndex(DeliveryQos qos) {
+		switch (qos) {
+		case Reliable:
+			return CLASS_RELIABLE;
+		case ReliableOrdered:
+			return CLASS_ORDERED;
+		default:
+			return CLASS_UNRELIABLE;
+		}
+	}
+
+	private void drop(Entry entry) {
+		entry.isDropped = true;
+		m_Count--;
+		m_Dropped.add(entry.data);
+	}
+
+	private void removeExpired() {
+		long now = System.currentTimeMillis();
+		long next = Long.MAX_VALUE;
+		for (int i = 0; i < m_Lanes.size(); i++) {
+			for (Entry entry : m_Lanes.get(i)) {
+				if (entry.isDropped) {
+					continue;
+				}
+				if (now >= entry.deadline) {
+					if (entry.key != null && m_Keys.get(entry.key) == entry) {
+						m_Keys.remove(entry.key);
+					}
+					drop(entry);
+				} else {
+					next = Math.min(next, entry.deadline);
+				}
+			}
+		}
+		m_NextDeadline = next;
+	}
+}
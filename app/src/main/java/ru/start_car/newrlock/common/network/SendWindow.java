@@ -0,0 +1,150 @@
+package ru.start_car.newrlock.common.network;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Selective repeat window of sent data waiting for acknowledgment.
+ * Many packets can be in flight at once, every packet is acknowledged and resent independently
+ */
+public final class SendWindow {
+	/**
+	 * Default count of packets that can wait acknowledgment at the same time
+	 */
+	public static final int DEFAULT_SIZE = 8;
+
+	/**
+	 * Waiting packets by Id in order of sending
+	 */
+	private final LinkedHashMap<Integer, WaitAcknowledgment> m_Waits = new LinkedHashMap<Integer, WaitAcknowledgment>();
+
+	/**
+	 * Rules of resending data
+	 */
+	private RetransmissionPolicy m_Policy = new AdaptiveRetransmissionPolicy();
+	/**
+	 * Get rules of resending data
+	 * @return Current policy
+	 */
+	public RetransmissionPolicy getPolicy() {
+		return m_Policy;
+	}
+	/**
+	 * Set rules of resending data. Already sent data keeps using the previous policy
+	 * @param value Policy to use
+	 */
+	public void setPolicy(RetransmissionPolicy value) {
+		if (value != null) {
+			m_Policy = value;
+		}
+	}
+
+	private int m_Size = DEFAULT_SIZE;
+	/**
+	 * Maximum count of packets waiting acknowledgment
+	 * @return Window size
+	 */
+	public int getSize() {
+		return m_Size;
+	}
+	/**
+	 * Set maximum count of packets waiting acknowledgment. 1 means stop-and-wait
+	 * @param value Window size (at least 1)
+	 */
+	public void setSize(int value) {
+		m_Size = Math.max(1, value);
+	}
+
+	/**
+	 * Get value indicating no more data can be sent before some acknowledgment is received
+	 * @return True if window is full
+	 */
+	public boolean getIsFull() {
+		return m_Waits.size() >= m_Size;
+	}
+
+	/**
+	 * Get value indicating there is no data waiting acknowledgment
+	 * @return True if window is empty
+	 */
+	public boolean getIsEmpty() {
+		return m_Waits.isEmpty();
+	}
+
+	/**
+	 * Start waiting acknowledgment for sent data
+	 * @param data Data was sent to channel
+	 */
+	public void add(ChannelData data) {
+		m_Waits.put(data.getPacketId(), new WaitAcknowledgment(data, m_Policy));
+	}
+
+	/**
+	 * Stop waiting acknowledgment for packet
+	 * @param packetId Id from acknowledgment message
+	 * @return Acknowledged data or null if packet with the id isn't waited
+	 */
+	public ChannelData acknowledge(int packetId) {
+		WaitAcknowledgment wait = m_Waits.remove(packetId);
+		if (wait != null) {
+			wait.acknowledged();
+			return wait.getData();
+		}
+		return null;
+	}
+
+	/**
+	 * Stop waiting packet which can't be sent again (round trip time is not measured)
+	 * @param packetId Id of the packet
+	 * @return Removed data or null if packet with the id isn't waited
+	 */
+	public ChannelData remove(int packetId) {
+		WaitAcknowledgment wait = m_Waits.remove(packetId);
+		return wait != null ? wait.getData() : null;
+	}
+
+	/**
+	 * Find data which must be sent again because waiting time is off
+	 * @param dataToResend List to add data to resend
+	 * @return Data that has no more tries (it is removed from window) or null if all is fine
+	 */
+	public ChannelData collectDataToResend(List<ChannelData> dataToResend) {
+		for (Iterator<WaitAcknowledgment> it = m_Waits.values().iterator(); it.hasNext(); ) {
+			WaitAcknowledgment wait = it.next();
+			if (wait.checkConditionsToResend()) {
+				dataToResend.add(wait.getData());
+			} else if (wait.getIsExpired()) {
+				it.remove();
+				return wait.getData();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Get nearest time when some packet must be sent again
+	 * @return Time in milliseconds or Long.MAX_VALUE if nothing is waited
+	 */
+	public long getNextTimeOff() {
+		long res = Long.MAX_VALUE;
+		for (WaitAcknowledgment wait : m_Waits.values()) {
+			res = Math.min(res, wait.getTimeOff());
+		}
+		return res;
+	}
+
+	/**
+	 * Stop waiting all packets
+	 * @return Data that were not acknowledged
+	 */
+	public List<ChannelData> clear() {
+		List<ChannelData> res = new ArrayList<ChannelData>(m_Waits.size());
+		for (WaitAcknowledgment wait : m_Waits.values()) {
+			res.add(wait.getData());
+		}
+		m_Waits.clear();
+		return res;
+	}
+}
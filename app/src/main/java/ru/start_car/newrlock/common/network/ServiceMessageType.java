@@ -6,7 +6,11 @@ public enum ServiceMessageType {
 	Acknowledgment(1),
 	Ping(2),
 	ReconnectNeeded(3),
-	CloseConnection(4);
+	CloseConnection(4),
+	/**
+	 * Packet carries only SelectiveAcknowledgment block (value includes acknowledgments header bit)
+	 */
+	SelectiveAcknowledgment(5);
 	
 	
 	private final int id;
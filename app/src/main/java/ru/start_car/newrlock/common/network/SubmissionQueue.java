@@ -0,0 +1,79 @@
+package ru.start_car.newrlock.common.network;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Lock-free queue of messages submitted to send by many threads and taken by the channel thread only.
+ * Adding is wait-free (one atomic exchange), the channel thread moves messages to SendScheduler without contention.
+ * Messages of one thread are taken in order of adding
+ */
+public final class SubmissionQueue {
+	/**
+	 * Submitted message with its sending parameters
+	 */
+	private static final class Node {
+		ChannelData data;
+		SendPriority priority;
+		long deadline;
+		Object key;
+		volatile Node next;
+	}
+
+	/**
+	 * The last added node (producers)
+	 */
+	private final AtomicReference<Node> m_Tail;
+	/**
+	 * Node before the oldest message (consumer only)
+	 */
+	private Node m_Head;
+
+	public SubmissionQueue() {
+		Node stub = new Node();
+		m_Head = stub;
+		m_Tail = new AtomicReference<Node>(stub);
+	}
+
+	/**
+	 * Add message (any thread)
+	 * @param data Message to send
+	 * @param priority Priority of the message
+	 * @param deadline Time (in milliseconds) when the message is dropped if it is not sent, 0 - no deadline
+	 * @param key Key of the message to replace not sent message with the same key or null
+	 */
+	public void offer(ChannelData data, SendPriority priority, long deadline, Object key) {
+		Node node = new Node();
+		node.data = data;
+		node.priority = priority;
+		node.deadline = deadline;
+		node.key = key;
+		Node previous = m_Tail.getAndSet(node);
+		// consumer sees the node after it is linked (a moment later than the exchange)
+		previous.next = node;
+	}
+
+	/**
+	 * Move all linked messages to scheduler (consumer thread only)
+	 * @param scheduler Scheduler of sent messages
+	 * @return Count of moved messages
+	 */
+	public int drainTo(SendScheduler scheduler) {
+		int count = 0;
+		Node next;
+		while ((next = m_Head.next) != null) {
+			scheduler.add(next.data, next.priority, next.deadline, next.key);
+			next.data = null;
+			next.key = null;
+			m_Head = next;
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Get value indicating there are no submitted messages (consumer thread only)
+	 */
+	public boolean getIsEmpty() {
+		return m_Head == m_Tail.get();
+	}
+}
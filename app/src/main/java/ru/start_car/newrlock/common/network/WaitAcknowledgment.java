@@ -2,13 +2,17 @@ package ru.start_car.newrlock.common.network;
 
 public class WaitAcknowledgment {
 	/**
-	 * Maximum time to wait acknowledgment in milliseconds
+	 * Rules of resending
 	 */
-	public static final int WAIT_ACK_MSEC = 5000;
+	private final RetransmissionPolicy m_Policy;
 	/**
-	 * Rest count to repeat sending data
+	 * Count of data sending
 	 */
-	private int m_RepeatCount;
+	private int m_SendCount;
+	/**
+	 * Time when data was sent last time
+	 */
+	private long m_SentTime;
 	/**
 	 * Time when waiting is out
 	 */
@@ -26,17 +30,36 @@ public class WaitAcknowledgment {
 	 * @return True if there are some tries
 	 */
 	public boolean getHaveTries() {
-		return m_RepeatCount > 0;
+		return m_SendCount < m_Policy.getMaximumAttempts();
+	}
+
+	/**
+	 * Get time when waiting is out and the data must be sent again
+	 * @return Time in milliseconds
+	 */
+	public long getTimeOff() {
+		return m_TimeOff;
+	}
+
+	/**
+	 * Get count of data sending
+	 * @return Count including the first sending
+	 */
+	public int getSendCount() {
+		return m_SendCount;
 	}
 
 	/**
 	 * Create instance of class for given ChannelData object
 	 * @param data Last sent data to channel
+	 * @param policy Rules of resending
 	 */
-	public WaitAcknowledgment(ChannelData data) {
+	public WaitAcknowledgment(ChannelData data, RetransmissionPolicy policy) {
 		m_Data = data;
-		m_TimeOff = System.currentTimeMillis() + WAIT_ACK_MSEC;
-		m_RepeatCount = 2; // after first sending there are yet two attempts
+		m_Policy = policy;
+		m_SendCount = 1;
+		m_SentTime = System.currentTimeMillis();
+		m_TimeOff = m_SentTime + policy.getRetransmissionTimeout(0);
 	}
 
 	/**
@@ -48,15 +71,31 @@ public class WaitAcknowledgment {
 		return m_Data.getPacketId() == packetId;
 	}
 
+	/**
+	 * Handle acknowledgment of the data: pass round trip time to the policy
+	 */
+	public void acknowledged() {
+		m_Policy.onAcknowledgment(System.currentTimeMillis() - m_SentTime, m_SendCount > 1);
+	}
+
+	/**
+	 * Check if waiting time is off and there are no tries to send data again
+	 * @return True if data is considered to be lost
+	 */
+	public boolean getIsExpired() {
+		return !getHaveTries() && System.currentTimeMillis() > m_TimeOff;
+	}
+
 	/**
 	 * Check if waiting time is off and there are some tries to send data is available
 	 * @return True if can resend
 	 */
 	public boolean checkConditionsToResend() {
 		long dt = System.currentTimeMillis();
-		if (m_RepeatCount > 0 && dt > m_TimeOff) {
-			m_TimeOff = dt + WAIT_ACK_MSEC;
-			m_RepeatCount--;
+		if (getHaveTries() && dt > m_TimeOff) {
+			m_SentTime = dt;
+			m_TimeOff = dt + m_Policy.getRetransmissionTimeout(m_SendCount);
+			m_SendCount++;
 			return true;
 		}
 		return false;
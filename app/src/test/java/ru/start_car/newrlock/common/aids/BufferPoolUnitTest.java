@@ -0,0 +1,57 @@
+package ru.start_car.newrlock.common.aids;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class BufferPoolUnitTest {
+    @Test
+    public void buffersAreReusedBySizeClass() {
+        BufferPool pool = new BufferPool(false, 4);
+        ByteBuffer b1 = pool.acquire(100);
+        assertEquals(128, b1.capacity());
+        assertEquals(100, b1.limit());
+        assertEquals(0, b1.position());
+        pool.release(b1);
+
+        ByteBuffer b2 = pool.acquire(120);
+        assertSame(b1, b2);
+        assertEquals(120, b2.limit());
+        assertNotSame(b2, pool.acquire(65));
+
+        assertEquals(3, pool.getAcquiredCount());
+        assertEquals(2, pool.getAllocatedCount());
+        assertEquals(1, pool.getReusedCount());
+        assertEquals(2, pool.getOutstandingCount());
+    }
+
+    @Test
+    public void bigAndForeignBuffersAreNotKept() {
+        BufferPool pool = new BufferPool(true, 1);
+        ByteBuffer big = pool.acquire(BufferPool.MAXIMUM_BUFFER_SIZE + 1);
+        assertTrue(big.isDirect());
+        assertEquals(BufferPool.MAXIMUM_BUFFER_SIZE + 1, big.capacity());
+        pool.release(big);
+        pool.release(ByteBuffer.allocate(64));
+        pool.release(pool.acquire(64));
+        pool.release(pool.acquire(64));
+        pool.release(ByteBuffer.allocateDirect(64));
+        assertEquals(1, pool.getFreeCount());
+        assertEquals(3, pool.getDroppedCount());
+    }
+
+    @Test
+    public void notReleasedBufferIsDetected() throws InterruptedException {
+        BufferPool pool = new BufferPool(false, 4);
+        pool.setLeakDetection(true);
+        pool.release(pool.acquire(10));
+        pool.acquire(10);
+        for (int i = 0; i < 50 && pool.getLeakedCount() == 0; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertEquals(1, pool.getLeakedCount());
+    }
+}
@@ -0,0 +1,32 @@
+package ru.start_car.newrlock.common.aids;
+
+import java.util.Random;
+
+/**
+ * Throughput of table driven crc against bit by bit calculation.
+ * Not a unit test, run main() by hand on the test classpath.
+ */
+public class Crc16Benchmark {
+    private static final int COUNT = 20000;
+
+    public static void main(String[] args) throws Exception {
+        byte[] bb = new byte[1440];
+        new Random(3).nextBytes(bb);
+        int sum = 0;
+        for (int i = 0; i < COUNT / 10; i++) { // warm up
+            sum += Crc16UnitTest.crc16Bitwise(bb, 2, bb.length - 4) + Tools.Crc16(bb, 2, bb.length - 4);
+        }
+        long t0 = System.nanoTime();
+        for (int i = 0; i < COUNT; i++) {
+            sum += Crc16UnitTest.crc16Bitwise(bb, 2, bb.length - 4);
+        }
+        long t1 = System.nanoTime();
+        for (int i = 0; i < COUNT; i++) {
+            sum += Tools.Crc16(bb, 2, bb.length - 4);
+        }
+        long t2 = System.nanoTime();
+        double mb = (double)COUNT * (bb.length - 4) / (1024 * 1024);
+        System.out.println(String.format("Crc16 of %d packets by %d bytes: bitwise %.1f MB/s, slicing-by-8 %.1f MB/s (%d)",
+                COUNT, bb.length, mb / ((t1 - t0) / 1e9), mb / ((t2 - t1) / 1e9), sum & 1));
+    }
+}
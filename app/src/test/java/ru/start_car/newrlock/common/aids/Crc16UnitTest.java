@@ -0,0 +1,92 @@
+package ru.start_car.newrlock.common.aids;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Table driven crc must give the same values as bit by bit calculation
+ */
+public class Crc16UnitTest {
+    /**
+     * Previous bit by bit implementation of Tools.Crc16
+     */
+    static int crc16Bitwise(final byte[] buffer, int pos, int len) {
+        int crc = 0xFFFF;
+        final int polynomial = 0x1021;
+        while (len-- > 0) {
+            for (int i = 0; i < 8; i++) {
+                boolean bit = ((buffer[pos] >> (7-i) & 1) == 1);
+                boolean c15 = ((crc >> 15 & 1) == 1);
+                crc <<= 1;
+                if (c15 ^ bit) crc ^= polynomial;
+            }
+            pos++;
+        }
+        return crc & 0xffff;
+    }
+
+    @Test
+    public void knownValue_isCorrect() throws Exception {
+        byte[] bb = "123456789".getBytes("US-ASCII");
+        // CRC-16/CCITT-FALSE check value
+        assertEquals(0x29B1, Tools.Crc16(bb, 0, bb.length));
+    }
+
+    @Test
+    public void tableCrc_isEqualToBitwise() throws Exception {
+        Random random = new Random(1);
+        byte[] bb = new byte[1500];
+        random.nextBytes(bb);
+        for (int pos = 0; pos < 17; pos++) {
+            for (int len = 0; len <= 100; len++) {
+                assertEquals(crc16Bitwise(bb, pos, len), Tools.Crc16(bb, pos, len));
+            }
+        }
+        assertEquals(crc16Bitwise(bb, 2, 1438), Tools.Crc16(bb, 2, 1438));
+    }
+
+    @Test
+    public void byteBufferCrc_isEqualToArray() throws Exception {
+        Random random = new Random(2);
+        byte[] bb = new byte[300];
+        random.nextBytes(bb);
+        ByteBuffer heap = ByteBuffer.wrap(bb);
+        ByteBuffer direct = ByteBuffer.allocateDirect(bb.length);
+        direct.put(bb);
+        direct.clear();
+        for (int len = 0; len < 290; len += 7) {
+            int expected = crc16Bitwise(bb, 5, len);
+            assertEquals(expected, Tools.Crc16(heap, 5, len));
+            assertEquals(expected, Tools.Crc16(direct, 5, len));
+        }
+        assertEquals(0, direct.position());
+    }
+
+    @Test
+    public void byteBufferRangeIsCheckedAgainstLimit() throws Exception {
+        byte[] bb = new byte[100];
+        new Random(3).nextBytes(bb);
+        ByteBuffer heap = ByteBuffer.wrap(bb);
+        heap.limit(50);
+        ByteBuffer direct = ByteBuffer.allocateDirect(bb.length);
+        direct.put(bb);
+        direct.clear();
+        direct.limit(50);
+        // data after the limit isn't used even if the array has it, the initial value is returned
+        for (ByteBuffer buffer : new ByteBuffer[] { heap, direct }) {
+            assertEquals(crc16Bitwise(bb, 10, 40), Tools.Crc16(buffer, 10, 40));
+            assertEquals(0xFFFF, Tools.Crc16(buffer, 10, 41));
+            assertEquals(0xFFFF, Tools.Crc16(buffer, -1, 10));
+            assertEquals(0xFFFF, Tools.Crc16(buffer, 10, -1));
+        }
+        // position is relative to the slice, not to the backing array
+        heap.position(20);
+        ByteBuffer slice = heap.slice();
+        assertEquals(crc16Bitwise(bb, 25, 25), Tools.Crc16(slice, 5, 25));
+        assertEquals(0xFFFF, Tools.Crc16(slice, 5, 26));
+    }
+}
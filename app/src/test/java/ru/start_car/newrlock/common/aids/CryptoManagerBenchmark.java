@@ -0,0 +1,33 @@
+package ru.start_car.newrlock.common.aids;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * CPU time and bytes of keys of one handshake in every key exchange mode.
+ * Not a unit test, run main() by hand on the test classpath.
+ */
+public class CryptoManagerBenchmark {
+    private static final int HANDSHAKES = 20;
+
+    public static void main(String[] args) {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        CryptoManager client = new CryptoManager();
+        CryptoManager server = new CryptoManager();
+        for (KeyExchange mode : KeyExchange.values()) {
+            // key generation is a part of handshake here
+            KeyPairPool pool = CryptoManager.getKeyPairPool(mode);
+            pool.setCapacity(0);
+            CryptoManagerUnitTest.handshake(client, server, mode); // warm up
+            int bytes = 0;
+            long start = bean.getCurrentThreadCpuTime();
+            for (int i = 0; i < HANDSHAKES; i++) {
+                bytes = CryptoManagerUnitTest.handshake(client, server, mode);
+            }
+            long time = (bean.getCurrentThreadCpuTime() - start) / HANDSHAKES;
+            CryptoManagerUnitTest.checkExchange(client, server);
+            pool.setCapacity(mode == KeyExchange.Rsa ? KeyPairPool.DEFAULT_CAPACITY : 1);
+            System.out.println("Handshake " + mode + ": " + time / 1000 + " us of CPU, " + bytes + " bytes of keys");
+        }
+    }
+}
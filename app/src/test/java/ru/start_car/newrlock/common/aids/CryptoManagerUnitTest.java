@@ -0,0 +1,125 @@
+package ru.start_car.newrlock.common.aids;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class CryptoManagerUnitTest {
+    /**
+     * Run steps 1-4 between client and server, return count of bytes of keys on the wire
+     */
+    static int handshake(CryptoManager client, CryptoManager server, KeyExchange mode) {
+        client.reset();
+        server.reset();
+        client.setKeyExchange(mode);
+
+        CryptoManager.KeyInfo clientPublic = client.createPublicKeyAndGetItPlain();
+        server.setKeyExchange(CryptoManager.getKeyExchange(clientPublic));
+        CryptoManager.KeyInfo serverPublic = server.createPublicKeyAndGetItPlain();
+        server.setOtherPublicKeyFromPlain(clientPublic);
+        client.setOtherPublicKeyFromPlain(serverPublic);
+
+        CryptoManager.KeyInfo clientOpen = client.createOpenKeyAndGetItEncrypted();
+        CryptoManager.KeyInfo serverOpen = server.createOpenKeyAndGetItEncrypted();
+        server.setOtherOpenKeyFromEncrypted(clientOpen);
+        client.setOtherOpenKeyFromEncrypted(serverOpen);
+
+        return size(clientPublic) + size(serverPublic) + size(clientOpen) + size(serverOpen);
+    }
+
+    private static int size(CryptoManager.KeyInfo key) {
+        return key.modulusOrKey.length + key.exponentOrIV.length;
+    }
+
+    static void checkExchange(CryptoManager client, CryptoManager server) {
+        byte[] data = "Engine start".getBytes();
+        assertArrayEquals(data, server.decryptData(client.encryptData(data, 0, data.length), 0, CryptoManager.getEncryptedSize(data.length)));
+        assertArrayEquals(data, client.decryptData(server.encryptData(data, 0, data.length), 0, CryptoManager.getEncryptedSize(data.length)));
+    }
+
+    @Test
+    public void rsaHandshake() {
+        CryptoManager client = new CryptoManager();
+        CryptoManager server = new CryptoManager();
+        handshake(client, server, KeyExchange.Rsa);
+        assertEquals(KeyExchange.Rsa, server.getKeyExchange());
+        checkExchange(client, server);
+    }
+
+    @Test
+    public void ecdhHandshake() {
+        CryptoManager client = new CryptoManager();
+        CryptoManager server = new CryptoManager();
+        handshake(client, server, KeyExchange.EcdhP256);
+        assertEquals(KeyExchange.EcdhP256, server.getKeyExchange());
+        checkExchange(client, server);
+    }
+
+    @Test
+    public void ciphersAreReusedWithCallerBuffers() {
+        CryptoManager client = new CryptoManager();
+        CryptoManager server = new CryptoManager();
+        handshake(client, server, KeyExchange.EcdhP256);
+        ByteBuffer plain = ByteBuffer.allocate(100);
+        ByteBuffer encrypted = ByteBuffer.allocate(CryptoManager.getEncryptedSize(plain.capacity()));
+        ByteBuffer decrypted = ByteBuffer.allocate(encrypted.capacity());
+        for (int i = 0; i < 10; i++) {
+            plain.clear();
+            plain.put(0, (byte) i);
+            encrypted.clear();
+            assertEquals(encrypted.capacity(), client.encrypt(plain, encrypted));
+            encrypted.flip();
+            decrypted.clear();
+            assertEquals(plain.capacity(), server.decrypt(encrypted, decrypted));
+            assertEquals(i, decrypted.get(0));
+        }
+        // damaged data doesn't break next messages
+        byte[] data = new byte[] { 1, 2, 3 };
+        byte[] bad = client.encryptData(data, 0, data.length);
+        bad[bad.length - 1] ^= 0x55;
+        server.decryptData(bad, 0, bad.length);
+        checkExchange(client, server);
+    }
+
+    @Test
+    public void fastestProviderIsSelected() {
+        String provider = CryptoManager.selectFastestProvider();
+        assertNotNull(provider);
+        CryptoManager client = new CryptoManager();
+        CryptoManager server = new CryptoManager();
+        handshake(client, server, KeyExchange.Rsa);
+        checkExchange(client, server);
+    }
+
+    @Test
+    public void pointOutOfCurveIsRejected() {
+        CryptoManager client = new CryptoManager();
+        CryptoManager server = new CryptoManager();
+        client.setKeyExchange(KeyExchange.EcdhP256);
+        server.setKeyExchange(KeyExchange.EcdhP256);
+        CryptoManager.KeyInfo clientPublic = client.createPublicKeyAndGetItPlain();
+        server.createPublicKeyAndGetItPlain();
+        clientPublic.modulusOrKey[clientPublic.modulusOrKey.length - 1] ^= 1;
+        server.setOtherPublicKeyFromPlain(clientPublic);
+        assertNull(server.createOpenKeyAndGetItEncrypted());
+    }
+
+    @Test
+    public void everyKeyExchangeCompletesHandshake() {
+        CryptoManager client = new CryptoManager();
+        CryptoManager server = new CryptoManager();
+        int rsaBytes = 0;
+        for (KeyExchange mode : KeyExchange.values()) {
+            int bytes = handshake(client, server, mode);
+            checkExchange(client, server);
+            if (mode == KeyExchange.Rsa) {
+                rsaBytes = bytes;
+            } else {
+                // ECDH keys are much smaller on the wire
+                assertTrue(bytes < rsaBytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package ru.start_car.newrlock.common.aids;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CryptoPipelineUnitTest {
+    @Test
+    public void tasksOfLaneRunInOrder() throws Exception {
+        CryptoPipeline pipeline = new CryptoPipeline(4);
+        CryptoPipeline.Lane lane = pipeline.createLane(8);
+        final List<Integer> done = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch finished = new CountDownLatch(1);
+        for (int i = 0; i < 100; i++) {
+            final int number = i;
+            // the lane is smaller than count of tasks: adding waits for free space
+            lane.execute(new Runnable() {
+                @Override
+                public void run() {
+                    done.add(number);
+                }
+            });
+        }
+        lane.execute(new Runnable() {
+            @Override
+            public void run() {
+                finished.countDown();
+            }
+        });
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertEquals(100, done.size());
+        for (int i = 0; i < done.size(); i++) {
+            assertEquals(i, (int) done.get(i));
+        }
+        assertEquals(0, lane.getCount());
+    }
+
+    @Test
+    public void lanesRunInParallel() throws Exception {
+        CryptoPipeline pipeline = new CryptoPipeline(2);
+        final CountDownLatch started = new CountDownLatch(2);
+        final CountDownLatch finished = new CountDownLatch(2);
+        for (int i = 0; i < 2; i++) {
+            // every task waits for the task of other lane
+            pipeline.createLane(CryptoPipeline.DEFAULT_LANE_CAPACITY).execute(new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    try {
+                        if (started.await(5, TimeUnit.SECONDS)) {
+                            finished.countDown();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void lanesOfManyThreadsKeepOrder() throws Exception {
+        final CryptoPipeline pipeline = new CryptoPipeline(4);
+        final int laneCount = 16;
+        final int taskCount = 500;
+        final CountDownLatch finished = new CountDownLatch(laneCount * taskCount);
+        final List<List<Integer>> results = new ArrayList<List<Integer>>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < laneCount; i++) {
+            final List<Integer> done = Collections.synchronizedList(new ArrayList<Integer>());
+            results.add(done);
+            final CryptoPipeline.Lane lane = pipeline.createLane(4);
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int k = 0; k < taskCount; k++) {
+                            final int number = k;
+                            lane.execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    done.add(number);
+                                    finished.countDown();
+                                }
+                            });
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        assertTrue(finished.await(10, TimeUnit.SECONDS));
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (List<Integer> done : results) {
+            assertEquals(taskCount, done.size());
+            for (int k = 0; k < taskCount; k++) {
+                assertEquals(k, (int) done.get(k));
+            }
+        }
+    }
+
+    @Test
+    public void fullLaneRejectsTaskWithoutWaiting() throws Exception {
+        CryptoPipeline pipeline = new CryptoPipeline(1);
+        CryptoPipeline.Lane lane = pipeline.createLane(2);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch finished = new CountDownLatch(3);
+        Runnable counted = new Runnable() {
+            @Override
+            public void run() {
+                finished.countDown();
+            }
+        };
+        assertTrue(lane.tryExecute(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                finished.countDown();
+            }
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertTrue(lane.tryExecute(counted));
+        assertTrue(lane.tryExecute(counted));
+        assertFalse(lane.tryExecute(counted));
+        assertEquals(2, lane.getCount());
+        release.countDown();
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertTrue(lane.tryExecute(counted));
+    }
+}
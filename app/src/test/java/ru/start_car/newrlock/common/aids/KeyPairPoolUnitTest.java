@@ -0,0 +1,28 @@
+package ru.start_car.newrlock.common.aids;
+
+import org.junit.Test;
+
+import java.security.KeyPair;
+
+import static org.junit.Assert.*;
+
+public class KeyPairPoolUnitTest {
+    @Test
+    public void pairsAreGeneratedInBackground() throws Exception {
+        KeyPairPool pool = new KeyPairPool("RSA", 1024, 2);
+        KeyPair first = pool.take();
+        assertNotNull(first);
+        assertEquals(1, pool.getMissedCount());
+
+        long timeOff = System.currentTimeMillis() + 20000;
+        while (pool.getReadyCount() < 2 && System.currentTimeMillis() < timeOff) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, pool.getReadyCount());
+
+        KeyPair second = pool.take();
+        assertNotSame(first, second);
+        assertEquals(1, pool.getTakenCount());
+        assertEquals(1, pool.getMissedCount());
+    }
+}
@@ -0,0 +1,55 @@
+package ru.start_car.newrlock.common.aids;
+
+import java.util.Random;
+
+import ru.start_car.newrlock.common.messages.CompressionDictionary;
+
+/**
+ * Bytes saved and CPU cost per message with and without preset dictionary.
+ * Not a unit test, run main() by hand on the test classpath.
+ */
+public class PayloadCompressorBenchmark {
+    private static final int COUNT = 20000;
+
+    public static void main(String[] args) {
+        Random random = new Random(4);
+        byte[][] messages = new byte[COUNT][];
+        long original = 0;
+        for (int i = 0; i < COUNT; i++) {
+            messages[i] = PayloadCompressorUnitTest.createStatus(random);
+            original += messages[i].length;
+        }
+        PayloadCompressor plain = new PayloadCompressor(null, 0);
+        PayloadCompressor preset = new PayloadCompressor(CompressionDictionary.get(), CompressionDictionary.ID);
+        plain.setThreshold(0);
+        preset.setThreshold(0);
+        byte[] target = new byte[4096];
+        for (int i = 0; i < 2000; i++) { // warm up
+            PayloadCompressorUnitTest.compress(preset, messages[i], target);
+            PayloadCompressorUnitTest.compress(plain, messages[i], target);
+        }
+        for (PayloadCompressor compressor : new PayloadCompressor[] { plain, preset }) {
+            long compressed = 0;
+            long compressTime = 0;
+            long decompressTime = 0;
+            for (byte[] data : messages) {
+                long t0 = System.nanoTime();
+                int length = PayloadCompressorUnitTest.compress(compressor, data, target);
+                long t1 = System.nanoTime();
+                if (length > 0) {
+                    if (compressor.decompress(target, 0, length) == null) {
+                        throw new IllegalStateException("Message is not restored");
+                    }
+                    decompressTime += System.nanoTime() - t1;
+                } else {
+                    length = data.length;
+                }
+                compressTime += t1 - t0;
+                compressed += length;
+            }
+            System.out.println(String.format("%s dictionary: %d messages, %d -> %d bytes (saved %.1f%%), compress %.1f us, decompress %.1f us per message",
+                    compressor == plain ? "Without" : "With", COUNT, original, compressed, 100.0 * (original - compressed) / original,
+                    compressTime / 1000.0 / COUNT, decompressTime / 1000.0 / COUNT));
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package ru.start_car.newrlock.common.aids;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Random;
+
+import ru.start_car.newrlock.common.messages.CompressionDictionary;
+import ru.start_car.newrlock.common.messages.DateTimeUtc;
+import ru.start_car.newrlock.common.messages.SerializableObject;
+import ru.start_car.newrlock.common.messages.TempObject;
+
+import static org.junit.Assert.*;
+
+public class PayloadCompressorUnitTest {
+    private static final String[] STATUS = { "Engine is started", "Doors are locked", "Alarm is on", "Ok" };
+
+    /**
+     * Typical status message: a few small objects in one body
+     */
+    static byte[] createStatus(Random random) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 4; i++) {
+            sb.append(STATUS[random.nextInt(STATUS.length)]).append("; ");
+        }
+        TempObject obj = new TempObject();
+        obj.intVal = random.nextInt(1000);
+        obj.dateVal = new DateTimeUtc(new Date(1480000000000L + random.nextInt(1000000000)));
+        obj.textVal = sb.toString();
+        return SerializableObject.instanceToBytes(obj);
+    }
+
+    static int compress(PayloadCompressor compressor, byte[] data, byte[] target) {
+        return compressor.compress(data, 0, data.length, target, 0, data.length - 1);
+    }
+
+    @Test
+    public void compressedData_isRestored() {
+        PayloadCompressor compressor = new PayloadCompressor(CompressionDictionary.get(), CompressionDictionary.ID);
+        compressor.setThreshold(0);
+        Random random = new Random(1);
+        byte[] target = new byte[4096];
+        for (int i = 0; i < 100; i++) {
+            byte[] data = createStatus(random);
+            int length = compress(compressor, data, target);
+            assertTrue(length > 0 && length < data.length);
+            assertArrayEquals(data, compressor.decompress(target, 0, length));
+        }
+    }
+
+    @Test
+    public void dataWithoutGain_isNotCompressed() {
+        PayloadCompressor compressor = new PayloadCompressor(CompressionDictionary.get(), CompressionDictionary.ID);
+        byte[] data = new byte[500];
+        new Random(2).nextBytes(data);
+        assertEquals(-1, compress(compressor, data, new byte[1000]));
+        assertEquals(-1, compress(compressor, Arrays.copyOf(data, PayloadCompressor.DEFAULT_THRESHOLD - 1), new byte[1000]));
+    }
+
+    @Test
+    public void wrongData_isNotDecompressed() {
+        PayloadCompressor compressor = new PayloadCompressor(CompressionDictionary.get(), CompressionDictionary.ID);
+        compressor.setThreshold(0);
+        byte[] data = createStatus(new Random(3));
+        byte[] target = new byte[1000];
+        int length = compress(compressor, data, target);
+
+        PayloadCompressor other = new PayloadCompressor(null, CompressionDictionary.ID + 1);
+        assertNull(other.decompress(target, 0, length));
+        assertNull(compressor.decompress(target, 0, length - 3));
+        target[1] = (byte)0xFF;
+        target[2] = (byte)0xFF;
+        target[3] = (byte)0x7F;
+        assertNull(compressor.decompress(target, 0, length));
+    }
+
+    @Test
+    public void presetDictionary_savesMoreBytes() {
+        PayloadCompressor plain = new PayloadCompressor(null, 0);
+        PayloadCompressor preset = new PayloadCompressor(CompressionDictionary.get(), CompressionDictionary.ID);
+        plain.setThreshold(0);
+        preset.setThreshold(0);
+        Random random = new Random(4);
+        byte[] target = new byte[4096];
+        long original = 0;
+        long plainSize = 0;
+        long presetSize = 0;
+        for (int i = 0; i < 200; i++) {
+            byte[] data = createStatus(random);
+            original += data.length;
+            int length = compress(plain, data, target);
+            plainSize += length > 0 ? length : data.length;
+            length = compress(preset, data, target);
+            assertTrue(length > 0);
+            assertArrayEquals(data, preset.decompress(target, 0, length));
+            presetSize += length;
+        }
+        assertTrue(presetSize < plainSize);
+        assertTrue(plainSize <= original);
+    }
+}
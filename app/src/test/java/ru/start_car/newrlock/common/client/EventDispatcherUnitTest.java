@@ -0,0 +1,127 @@
+package ru.start_car.newrlock.common.client;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import ru.start_car.newrlock.common.aids.EventHandler;
+
+import static org.junit.Assert.*;
+
+public class EventDispatcherUnitTest {
+    /**
+     * Handler which waits for the gate before the first event
+     */
+    private static class GatedHandler implements EventHandler {
+        final CountDownLatch gate = new CountDownLatch(1);
+        final List<Object> received = Collections.synchronizedList(new ArrayList<Object>());
+
+        @Override
+        public void invoke(Object arg) {
+            try {
+                gate.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            received.add(arg);
+        }
+    }
+
+    private static void waitEmpty(EventDispatcher dispatcher) throws InterruptedException {
+        for (int i = 0; i < 500 && dispatcher.getCount() > 0; i++) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+    }
+
+    @Test
+    public void eventsAreRaisedInOrder() throws Exception {
+        EventDispatcher dispatcher = new EventDispatcher("test");
+        dispatcher.setCapacity(4, EventDispatcher.OverflowPolicy.Block);
+        GatedHandler handler = new GatedHandler();
+        handler.gate.countDown();
+        for (int i = 0; i < 100; i++) {
+            dispatcher.post(handler, i);
+        }
+        waitEmpty(dispatcher);
+        assertEquals(100, handler.received.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, handler.received.get(i));
+        }
+        assertEquals(0, dispatcher.getDroppedCount());
+    }
+
+    @Test
+    public void overflowDropsEvents() throws Exception {
+        EventDispatcher dispatcher = new EventDispatcher("test");
+        dispatcher.setCapacity(3, EventDispatcher.OverflowPolicy.DropOldest);
+        GatedHandler handler = new GatedHandler();
+        dispatcher.post(handler, -1);
+        Thread.sleep(50); // the first event is taken by the handler
+        for (int i = 0; i < 10; i++) {
+            dispatcher.post(handler, i);
+        }
+        handler.gate.countDown();
+        waitEmpty(dispatcher);
+        assertEquals(7, dispatcher.getDroppedCount());
+        assertEquals(new ArrayList<Object>(Arrays.<Object>asList(-1, 7, 8, 9)), handler.received);
+
+        dispatcher = new EventDispatcher("test");
+        dispatcher.setCapacity(3, EventDispatcher.OverflowPolicy.DropNewest);
+        handler = new GatedHandler();
+        dispatcher.post(handler, -1);
+        Thread.sleep(50);
+        for (int i = 0; i < 10; i++) {
+            dispatcher.post(handler, i);
+        }
+        handler.gate.countDown();
+        waitEmpty(dispatcher);
+        assertEquals(new ArrayList<Object>(Arrays.<Object>asList(-1, 0, 1, 2)), handler.received);
+    }
+
+    @Test
+    public void slowHandlerIsDetected() throws Exception {
+        EventDispatcher dispatcher = new EventDispatcher("test");
+        dispatcher.setSlowHandlerTime(20);
+        dispatcher.post(new EventHandler() {
+            @Override
+            public void invoke(Object arg) {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, null);
+        waitEmpty(dispatcher);
+        assertEquals(1, dispatcher.getSlowCount());
+        assertTrue(dispatcher.getMaximumHandlerTime() >= 50);
+    }
+
+    @Test
+    public void alarmOvertakesBacklog() throws Exception {
+        EventDispatcher dispatcher = new EventDispatcher("test");
+        GatedHandler handler = new GatedHandler();
+        dispatcher.post(handler, "first", ReceivePriority.Low);
+        Thread.sleep(50);
+        for (int i = 0; i < 100; i++) {
+            dispatcher.post(handler, i, ReceivePriority.Low);
+        }
+        dispatcher.post(handler, "status", ReceivePriority.Normal);
+        dispatcher.post(handler, "alarm", ReceivePriority.Alarm);
+        handler.gate.countDown();
+        waitEmpty(dispatcher);
+        assertEquals(103, handler.received.size());
+        assertEquals("alarm", handler.received.get(1));
+        assertEquals("status", handler.received.get(2));
+        assertEquals(0, handler.received.get(3));
+        assertEquals(1, dispatcher.getRaisedCount(ReceivePriority.Alarm));
+        assertEquals(101, dispatcher.getRaisedCount(ReceivePriority.Low));
+        assertTrue(dispatcher.getMaximumWaitTime(ReceivePriority.Alarm) <= dispatcher.getMaximumWaitTime(ReceivePriority.Low));
+    }
+}
@@ -0,0 +1,96 @@
+package ru.start_car.newrlock.common.client;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import ru.start_car.newrlock.common.messages.DateTimeUtc;
+import ru.start_car.newrlock.common.messages.SerializableTypes;
+import ru.start_car.newrlock.common.messages.TempObject;
+
+import static org.junit.Assert.*;
+
+public class ObjectSubscriptionUnitTest {
+    private static class Collector implements ObjectSubscriber<TempObject> {
+        final List<Integer> received = new ArrayList<Integer>();
+
+        @Override
+        public void onObject(TempObject obj) {
+            received.add(obj.intVal);
+        }
+    }
+
+    private static TempObject create(int value) {
+        TempObject obj = new TempObject();
+        obj.intVal = value;
+        return obj;
+    }
+
+    @Test
+    public void subscribersGetObjectsOfTheirType() {
+        ObjectSubscriptions subscriptions = new ObjectSubscriptions();
+        Collector first = new Collector();
+        Collector second = new Collector();
+        subscriptions.subscribe(SerializableTypes.TempObject, TempObject.class, first, 16).request(ObjectSubscription.UNBOUNDED);
+        ObjectSubscription<TempObject> subscription = subscriptions.subscribe(SerializableTypes.TempObject, TempObject.class, second, 16);
+        subscription.request(ObjectSubscription.UNBOUNDED);
+
+        assertTrue(subscriptions.publish(create(1)));
+        assertFalse(subscriptions.publish(new DateTimeUtc(new Date())));
+        subscriptions.unsubscribe(subscription);
+        subscriptions.publish(create(2));
+
+        assertEquals(2, first.received.size());
+        assertEquals(1, second.received.size());
+    }
+
+    @Test
+    public void latestObjectIsKeptUntilRequest() {
+        ObjectSubscriptions subscriptions = new ObjectSubscriptions();
+        Collector collector = new Collector();
+        ObjectSubscription<TempObject> subscription = subscriptions.subscribe(SerializableTypes.TempObject, TempObject.class, collector, 1);
+        for (int i = 0; i < 10; i++) {
+            subscriptions.publish(create(i));
+        }
+        assertTrue(collector.received.isEmpty());
+        subscription.request(1);
+        assertEquals(1, collector.received.size());
+        assertEquals(9, (int) collector.received.get(0));
+        assertEquals(9, subscription.getDroppedCount());
+
+        // no demand after the request is used
+        subscriptions.publish(create(10));
+        assertEquals(1, collector.received.size());
+        subscription.request(5);
+        subscriptions.publish(create(11));
+        assertEquals(3, collector.received.size());
+        assertEquals(11, (int) collector.received.get(2));
+    }
+
+    @Test
+    public void requestFromHandlerDoesNotRecurse() {
+        ObjectSubscriptions subscriptions = new ObjectSubscriptions();
+        final List<Integer> received = new ArrayList<Integer>();
+        final List<ObjectSubscription<TempObject>> holder = new ArrayList<ObjectSubscription<TempObject>>();
+        final int[] depth = new int[2]; // current and maximum
+        ObjectSubscription<TempObject> subscription = subscriptions.subscribe(SerializableTypes.TempObject, TempObject.class,
+            new ObjectSubscriber<TempObject>() {
+                @Override
+                public void onObject(TempObject obj) {
+                    depth[1] = Math.max(depth[1], ++depth[0]);
+                    received.add(obj.intVal);
+                    holder.get(0).request(1);
+                    depth[0]--;
+                }
+            }, 100);
+        holder.add(subscription);
+        for (int i = 0; i < 100; i++) {
+            subscriptions.publish(create(i));
+        }
+        subscription.request(1);
+        assertEquals(100, received.size());
+        assertEquals(1, depth[1]);
+    }
+}
@@ -0,0 +1,84 @@
+package ru.start_car.newrlock.common.client;
+
+import org.junit.Test;
+
+import ru.start_car.newrlock.common.aids.CryptoManager;
+
+import static org.junit.Assert.*;
+
+public class ResumptionTicketUnitTest {
+    private static final byte[] SECRET = { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16 };
+
+    private static CryptoManager.KeyInfo createKey(int seed) {
+        CryptoManager.KeyInfo key = new CryptoManager.KeyInfo();
+        key.modulusOrKey = new byte[32];
+        key.exponentOrIV = new byte[16];
+        for (int i = 0; i < key.modulusOrKey.length; i++) {
+            key.modulusOrKey[i] = (byte)(seed + i);
+        }
+        for (int i = 0; i < key.exponentOrIV.length; i++) {
+            key.exponentOrIV[i] = (byte)(seed - i);
+        }
+        return key;
+    }
+
+    private static ResumptionTicket createTicket(String login, long expiry) {
+        return new ResumptionTicket(login, new byte[] { 9, 8, 7, 6, 5 }, new byte[] { 42, 43 }, createKey(10), createKey(100), expiry);
+    }
+
+    @Test
+    public void ticketIsValidForLoginUntilExpiry() throws Exception {
+        ResumptionTicket ticket = createTicket("user", System.currentTimeMillis() + 20);
+        assertTrue(ticket.getIsValid("user"));
+        assertFalse(ticket.getIsValid("User"));
+        assertFalse(ticket.getIsValid("other"));
+        assertFalse(ticket.getIsValid(null));
+        Thread.sleep(30);
+        assertFalse(ticket.getIsValid("user"));
+
+        assertFalse(createTicket(null, Long.MAX_VALUE).getIsValid(null));
+    }
+
+    @Test
+    public void sealedTicketIsRestored() {
+        long expiry = System.currentTimeMillis() + 60000;
+        ResumptionTicket ticket = createTicket("логин", expiry);
+        byte[] sealed = ticket.toSealedBytes(SECRET);
+        assertNotNull(sealed);
+
+        ResumptionTicket restored = ResumptionTicket.fromSealedBytes(sealed, SECRET);
+        assertNotNull(restored);
+        assertEquals("логин", restored.login);
+        assertEquals(expiry, restored.expiry);
+        assertArrayEquals(ticket.ticket, restored.ticket);
+        assertArrayEquals(ticket.serverHash, restored.serverHash);
+        assertArrayEquals(ticket.ownKey.modulusOrKey, restored.ownKey.modulusOrKey);
+        assertArrayEquals(ticket.ownKey.exponentOrIV, restored.ownKey.exponentOrIV);
+        assertArrayEquals(ticket.otherKey.modulusOrKey, restored.otherKey.modulusOrKey);
+        assertArrayEquals(ticket.otherKey.exponentOrIV, restored.otherKey.exponentOrIV);
+        assertTrue(restored.getIsValid("логин"));
+        assertFalse(restored.getIsValid("login"));
+    }
+
+    @Test
+    public void expiredTicketIsRestoredAsExpired() {
+        ResumptionTicket ticket = createTicket("user", System.currentTimeMillis() - 1);
+        ResumptionTicket restored = ResumptionTicket.fromSealedBytes(ticket.toSealedBytes(SECRET), SECRET);
+        assertNotNull(restored);
+        assertFalse(restored.getIsValid("user"));
+    }
+
+    @Test
+    public void damagedTicketIsNotRestored() {
+        byte[] sealed = createTicket("user", Long.MAX_VALUE).toSealedBytes(SECRET);
+        byte[] otherSecret = SECRET.clone();
+        otherSecret[0] ^= 1;
+        assertNull(ResumptionTicket.fromSealedBytes(sealed, otherSecret));
+
+        byte[] damaged = sealed.clone();
+        damaged[damaged.length / 2] ^= 0x10;
+        assertNull(ResumptionTicket.fromSealedBytes(damaged, SECRET));
+        assertNull(ResumptionTicket.fromSealedBytes(new byte[10], SECRET));
+        assertNull(ResumptionTicket.fromSealedBytes(null, SECRET));
+    }
+}
@@ -0,0 +1,59 @@
+package ru.start_car.newrlock.common.network;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AcknowledgmentCollectorUnitTest {
+    @Test
+    public void acknowledgmentsAreDueAfterDelay() throws Exception {
+        AcknowledgmentCollector collector = new AcknowledgmentCollector();
+        collector.setDelay(30);
+        assertTrue(collector.getIsEmpty());
+        assertFalse(collector.getIsDue());
+        assertEquals(Long.MAX_VALUE, collector.getTimeOff());
+        assertNull(collector.take());
+
+        long time = System.currentTimeMillis();
+        collector.add(5);
+        collector.add(7);
+        collector.add(5);
+        assertFalse(collector.getIsEmpty());
+        assertFalse(collector.getIsDue());
+        assertTrue(collector.getTimeOff() >= time + 30);
+        Thread.sleep(40);
+        assertTrue(collector.getIsDue());
+
+        SelectiveAcknowledgment acknowledgments = collector.take();
+        assertEquals(1, acknowledgments.getCount());
+        assertEquals(7, acknowledgments.getPacketId(0));
+        // 5 is acknowledged by bit 1 once
+        assertEquals(0x02, acknowledgments.getBitmap(0));
+        assertTrue(collector.getIsEmpty());
+        assertFalse(collector.getIsDue());
+    }
+
+    @Test
+    public void manyAcknowledgmentsAreDueAtOnce() {
+        AcknowledgmentCollector collector = new AcknowledgmentCollector();
+        collector.setDelay(60000);
+        for (int i = 0; i < 31; i++) {
+            collector.add(i * 100);
+        }
+        assertFalse(collector.getIsDue());
+        collector.add(10000);
+        assertTrue(collector.getIsDue());
+        assertEquals(32, collector.take().getCount());
+    }
+
+    @Test
+    public void clearRemovesAcknowledgments() {
+        AcknowledgmentCollector collector = new AcknowledgmentCollector();
+        collector.setDelay(0);
+        collector.add(1);
+        assertTrue(collector.getIsDue());
+        collector.clear();
+        assertTrue(collector.getIsEmpty());
+        assertNull(collector.take());
+    }
+}
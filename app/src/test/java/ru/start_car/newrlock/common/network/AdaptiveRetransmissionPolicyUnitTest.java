@@ -0,0 +1,79 @@
+package ru.start_car.newrlock.common.network;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveRetransmissionPolicyUnitTest {
+    private static AdaptiveRetransmissionPolicy createWithoutJitter() {
+        return new AdaptiveRetransmissionPolicy(200, 10000, 6, 0f);
+    }
+
+    @Test
+    public void timeoutIsDoubledAndClamped() {
+        AdaptiveRetransmissionPolicy policy = createWithoutJitter();
+        assertEquals(AdaptiveRetransmissionPolicy.INITIAL_TIMEOUT_MSEC, policy.getRetransmissionTimeout(0));
+        assertEquals(2000, policy.getRetransmissionTimeout(1));
+        assertEquals(4000, policy.getRetransmissionTimeout(2));
+        assertEquals(8000, policy.getRetransmissionTimeout(3));
+        assertEquals(10000, policy.getRetransmissionTimeout(4));
+        assertEquals(10000, policy.getRetransmissionTimeout(100));
+    }
+
+    @Test
+    public void timeoutFollowsRoundTripTime() {
+        AdaptiveRetransmissionPolicy policy = createWithoutJitter();
+        policy.onAcknowledgment(100, false);
+        assertEquals(100, policy.getSmoothedRtt());
+        assertEquals(50, policy.getRttVariance());
+        // smoothed time plus 4 variances
+        assertEquals(300, policy.getRetransmissionTimeout(0));
+        assertEquals(600, policy.getRetransmissionTimeout(1));
+
+        // stable time lowers the variance, the timeout stops at minimum
+        for (int i = 0; i < 50; i++) {
+            policy.onAcknowledgment(100, false);
+        }
+        assertEquals(100, policy.getSmoothedRtt());
+        assertEquals(200, policy.getRetransmissionTimeout(0));
+
+        // slow link is limited by maximum
+        for (int i = 0; i < 100; i++) {
+            policy.onAcknowledgment(30000, false);
+        }
+        assertEquals(10000, policy.getRetransmissionTimeout(0));
+    }
+
+    @Test
+    public void retransmittedDataIsNotMeasured() {
+        AdaptiveRetransmissionPolicy policy = createWithoutJitter();
+        policy.onAcknowledgment(5000, true);
+        policy.onAcknowledgment(-1, false);
+        assertEquals(0, policy.getSmoothedRtt());
+        assertEquals(AdaptiveRetransmissionPolicy.INITIAL_TIMEOUT_MSEC, policy.getRetransmissionTimeout(0));
+    }
+
+    @Test
+    public void jitterStaysInBounds() {
+        AdaptiveRetransmissionPolicy policy = new AdaptiveRetransmissionPolicy(1, 100000, 6, 0.1f);
+        int minimum = Integer.MAX_VALUE;
+        int maximum = 0;
+        for (int i = 0; i < 200; i++) {
+            int timeout = policy.getRetransmissionTimeout(1);
+            minimum = Math.min(minimum, timeout);
+            maximum = Math.max(maximum, timeout);
+        }
+        assertTrue(minimum >= 1800);
+        assertTrue(maximum <= 2200);
+        assertTrue(minimum < maximum);
+    }
+
+    @Test
+    public void parametersAreCorrected() {
+        AdaptiveRetransmissionPolicy policy = new AdaptiveRetransmissionPolicy(500, 100, 0, 0f);
+        assertEquals(1, policy.getMaximumAttempts());
+        // maximum is not less than minimum
+        assertEquals(500, policy.getRetransmissionTimeout(0));
+        assertEquals(500, policy.getRetransmissionTimeout(3));
+    }
+}
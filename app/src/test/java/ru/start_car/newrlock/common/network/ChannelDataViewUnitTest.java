@@ -0,0 +1,193 @@
+package ru.start_car.newrlock.common.network;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import ru.start_car.newrlock.common.aids.Tools;
+
+import static org.junit.Assert.*;
+
+public class ChannelDataViewUnitTest {
+    private static byte[] createRaw(byte[] body, SelectiveAcknowledgment acknowledgments) {
+        ChannelData data = new ChannelData();
+        data.setPacketId(0x12345678);
+        data.setIsAcknowledgmentRequired(true);
+        data.setData(body);
+        data.setAcknowledgments(acknowledgments);
+        return data.getChannelRawData();
+    }
+
+    /**
+     * Write crc of changed packet, so only the change is checked
+     */
+    private static void updateCrc(byte[] raw) {
+        int crc = Tools.Crc16(raw, ChannelData.SIZE_LENGTH_IN_BYTES, raw.length - ChannelData.SIZE_LENGTH_IN_BYTES - ChannelData.CRC_LENGTH_IN_BYTES);
+        raw[raw.length - 2] = (byte)(crc & 0xFF);
+        raw[raw.length - 1] = (byte)((crc >> 8) & 0xFF);
+    }
+
+    private static boolean wrap(ChannelDataView view, byte[] raw) {
+        return view.wrap(ByteBuffer.wrap(raw), 0, raw.length, null);
+    }
+
+    @Test
+    public void packetInBufferIsParsed() {
+        byte[] body = { 1, 2, 3, 4, 5 };
+        byte[] raw = createRaw(body, SelectiveAcknowledgment.create(new int[] { 40, 39 }, 2));
+        // packet is not at buffer start, like packets read to direct buffer
+        ByteBuffer buffer = ByteBuffer.allocateDirect(raw.length + 20);
+        buffer.position(7);
+        buffer.put(raw);
+        Object endPoint = new Object();
+
+        ChannelDataView view = new ChannelDataView();
+        assertTrue(view.wrap(buffer, 7, raw.length, endPoint));
+        assertEquals(0x12345678, view.getPacketId());
+        assertSame(endPoint, view.getEndPoint());
+        assertTrue(view.getIsAcknowledgmentRequired());
+        assertFalse(view.getIsService());
+        assertFalse(view.getIsMultiMessage());
+        assertFalse(view.getIsFragment());
+        assertEquals(1, view.getAcknowledgmentCount());
+        assertEquals(40, view.getAcknowledgmentPacketId(0));
+        assertEquals(1, view.getAcknowledgmentBitmap(0));
+        assertEquals(body.length, view.getPayloadLength());
+        byte[] payload = new byte[body.length];
+        view.getPayload().get(payload);
+        assertArrayEquals(body, payload);
+
+        ChannelData data = view.toChannelData();
+        assertEquals(0x12345678, data.getPacketId());
+        assertArrayEquals(body, data.getData());
+        assertEquals(40, data.getAcknowledgments().getPacketId(0));
+        // the copy is sent with the same bytes
+        assertArrayEquals(raw, data.getChannelRawData());
+    }
+
+    @Test
+    public void shortDataIsRejected() {
+        byte[] raw = createRaw(new byte[] { 1, 2, 3 }, null);
+        ChannelDataView view = new ChannelDataView();
+        assertFalse(view.wrap(null, 0, raw.length, null));
+        assertFalse(view.wrap(ByteBuffer.wrap(raw), 0, ChannelData.MINIMUM_PACKET_SIZE - 1, null));
+        assertFalse(view.wrap(ByteBuffer.wrap(raw), -1, raw.length, null));
+        assertFalse(view.wrap(ByteBuffer.wrap(raw), 1, raw.length, null));
+        // received less than the size field says
+        assertFalse(view.wrap(ByteBuffer.wrap(raw), 0, raw.length - 1, null));
+        assertTrue(view.wrap(ByteBuffer.wrap(raw), 0, raw.length, null));
+
+        byte[] small = Arrays.copyOf(raw, raw.length);
+        small[0] = (byte)(ChannelData.MINIMUM_PACKET_SIZE - ChannelData.SIZE_LENGTH_IN_BYTES - 1);
+        small[1] = 0;
+        assertFalse(wrap(view, small));
+    }
+
+    @Test
+    public void damagedPacketIsRejectedByCrc() {
+        byte[] raw = createRaw(new byte[] { 10, 20, 30, 40 }, SelectiveAcknowledgment.create(new int[] { 3 }, 1));
+        ChannelDataView view = new ChannelDataView();
+        assertTrue(wrap(view, raw));
+        for (int i = ChannelData.SIZE_LENGTH_IN_BYTES; i < raw.length; i++) {
+            for (int bit = 0; bit < 8; bit++) {
+                byte[] damaged = Arrays.copyOf(raw, raw.length);
+                damaged[i] ^= 1 << bit;
+                assertFalse("byte " + i + " bit " + bit, wrap(view, damaged));
+            }
+        }
+    }
+
+    @Test
+    public void malformedFieldsAreRejected() {
+        byte[] raw = createRaw(new byte[] { 1, 2 }, SelectiveAcknowledgment.create(new int[] { 3 }, 1));
+        int countIndex = ChannelData.HEADER_SIZE;
+        ChannelDataView view = new ChannelDataView();
+
+        // acknowledgments block without items
+        byte[] empty = Arrays.copyOf(raw, raw.length);
+        empty[countIndex] = 0;
+        updateCrc(empty);
+        assertFalse(wrap(view, empty));
+
+        // acknowledgments block is longer than the packet
+        byte[] longer = Arrays.copyOf(raw, raw.length);
+        longer[countIndex] = 2;
+        updateCrc(longer);
+        assertFalse(wrap(view, longer));
+
+        // sequence number bit without space for the number
+        byte[] service = createRaw(null, null);
+        service[3] |= (byte)ChannelData.MASK_SEQUENCE;
+        updateCrc(service);
+        assertFalse(wrap(view, service));
+
+        // fragment bit without fragment fields is not a fragment
+        byte[] fragment = createRaw(new byte[] { 1, 2, 3 }, null);
+        fragment[3] |= ChannelData.MASK_FRAGMENT;
+        updateCrc(fragment);
+        assertTrue(wrap(view, fragment));
+        assertFalse(view.getIsFragment());
+    }
+
+    @Test
+    public void everyServiceMessageIsParsed() {
+        ChannelDataView view = new ChannelDataView();
+        for (ServiceMessageType type : ServiceMessageType.values()) {
+            ChannelData data = type == ServiceMessageType.SelectiveAcknowledgment ?
+                ChannelData.createSelectiveAcknowledgment(SelectiveAcknowledgment.create(new int[] { 42 }, 1), null) :
+                ChannelData.createServiceMessage(type, null);
+            data.setPacketId(7);
+            byte[] raw = data.getChannelRawData();
+            assertTrue(type.name(), wrap(view, raw));
+            assertTrue(view.getIsService());
+            assertEquals(type, view.getServiceMessageType());
+            assertEquals(7, view.getPacketId());
+            assertEquals(type == ServiceMessageType.SelectiveAcknowledgment ? 1 : 0, view.getAcknowledgmentCount());
+
+            ChannelData copy = ChannelData.createFromRawData(raw, 0, raw.length, null);
+            assertNotNull(type.name(), copy);
+            assertEquals(type, copy.getServiceMessageType());
+            assertArrayEquals(raw, copy.getChannelRawData());
+        }
+
+        // SelectiveAcknowledgment without its block is damaged
+        byte[] raw = ChannelData.createServiceMessage(ServiceMessageType.SelectiveAcknowledgment, null).getChannelRawData();
+        assertFalse(wrap(view, raw));
+    }
+
+    @Test
+    public void damagedMessagesAreNotUnpacked() {
+        ChannelData first = new ChannelData();
+        first.setData(new byte[] { 1, 2, 3 });
+        ChannelData second = new ChannelData();
+        second.setData(new byte[] { 4, 5 });
+        List<ChannelData> messages = new ArrayList<ChannelData>();
+        messages.add(first);
+        messages.add(second);
+        ChannelData multi = ChannelData.createMultiMessage(messages, 2 * ChannelData.MESSAGE_LENGTH_SIZE + 5);
+        multi.setPacketId(9);
+        byte[] raw = multi.getChannelRawData();
+        ChannelDataView view = new ChannelDataView();
+        assertTrue(wrap(view, raw));
+        assertTrue(view.getIsMultiMessage());
+        List<ChannelData> unpacked = new ArrayList<ChannelData>();
+        unpacked.add(first);
+        assertTrue(view.unpackMessages(unpacked));
+        assertEquals(3, unpacked.size());
+        assertArrayEquals(new byte[] { 4, 5 }, unpacked.get(2).getData());
+        assertEquals(9, unpacked.get(2).getPacketId());
+
+        // length of the second message is out of the body
+        int lengthIndex = raw.length - ChannelData.CRC_LENGTH_IN_BYTES - 2 - ChannelData.MESSAGE_LENGTH_SIZE;
+        raw[lengthIndex] = 3;
+        updateCrc(raw);
+        assertTrue(wrap(view, raw));
+        unpacked.clear();
+        unpacked.add(first);
+        assertFalse(view.unpackMessages(unpacked));
+        assertEquals(1, unpacked.size());
+    }
+}
@@ -0,0 +1,139 @@
+package ru.start_car.newrlock.common.network;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FragmentReassemblerUnitTest {
+    private static final int MAXIMUM_PACKET_SIZE = 100;
+
+    private static byte[] createBody(int length) {
+        byte[] body = new byte[length];
+        for (int i = 0; i < length; i++) {
+            body[i] = (byte)(i * 7);
+        }
+        return body;
+    }
+
+    /**
+     * Split message to fragments and get their received bytes
+     */
+    private static List<byte[]> createFragments(int messageId, byte[] body) throws ChannelException {
+        ChannelData message = new ChannelData();
+        message.setPacketId(messageId);
+        message.setIsAcknowledgmentRequired(true);
+        message.setSequenceNumber(42);
+        message.setData(body);
+        List<byte[]> res = new ArrayList<byte[]>();
+        int packetId = messageId;
+        for (ChannelData fragment : message.createFragments(MAXIMUM_PACKET_SIZE)) {
+            fragment.setPacketId(packetId++);
+            byte[] raw = fragment.getChannelRawData();
+            assertTrue(raw.length <= MAXIMUM_PACKET_SIZE);
+            res.add(raw);
+        }
+        return res;
+    }
+
+    private static ChannelData add(FragmentReassembler reassembler, byte[] raw) {
+        ChannelDataView view = new ChannelDataView();
+        assertTrue(view.wrap(ByteBuffer.wrap(raw), 0, raw.length, null));
+        assertTrue(view.getIsFragment());
+        return reassembler.add(view);
+    }
+
+    private static void assertMessage(int messageId, byte[] body, ChannelData message) {
+        assertNotNull(message);
+        assertEquals(messageId, message.getPacketId());
+        assertEquals(42, message.getSequenceNumber());
+        assertTrue(message.getIsAcknowledgmentRequired());
+        assertFalse(message.getIsFragment());
+        assertArrayEquals(body, message.getData());
+    }
+
+    @Test
+    public void fragmentsOutOfOrderAreAssembled() throws Exception {
+        byte[] body = createBody(1000);
+        List<byte[]> fragments = createFragments(10, body);
+        assertTrue(fragments.size() > 10);
+        Collections.reverse(fragments);
+        Collections.swap(fragments, 3, 7);
+        FragmentReassembler reassembler = new FragmentReassembler();
+        for (int i = 0; i < fragments.size() - 1; i++) {
+            assertNull(add(reassembler, fragments.get(i)));
+        }
+        assertMessage(10, body, add(reassembler, fragments.get(fragments.size() - 1)));
+    }
+
+    @Test
+    public void repeatedFragmentsAreSkipped() throws Exception {
+        byte[] body = createBody(300);
+        List<byte[]> fragments = createFragments(20, body);
+        FragmentReassembler reassembler = new FragmentReassembler();
+        assertNull(add(reassembler, fragments.get(0)));
+        assertNull(add(reassembler, fragments.get(0)));
+        for (int i = 1; i < fragments.size() - 1; i++) {
+            assertNull(add(reassembler, fragments.get(i)));
+            assertNull(add(reassembler, fragments.get(i)));
+        }
+        assertMessage(20, body, add(reassembler, fragments.get(fragments.size() - 1)));
+        // fragments resent after the message is assembled don't start it again
+        for (byte[] fragment : fragments) {
+            assertNull(add(reassembler, fragment));
+        }
+    }
+
+    @Test
+    public void expiredMessageIsDropped() throws Exception {
+        byte[] body = createBody(300);
+        List<byte[]> fragments = createFragments(30, body);
+        FragmentReassembler reassembler = new FragmentReassembler();
+        reassembler.setTimeout(10);
+        assertNull(add(reassembler, fragments.get(0)));
+        assertNull(add(reassembler, fragments.get(1)));
+        Thread.sleep(20);
+        reassembler.removeExpired();
+
+        // the message is assembled from the beginning
+        reassembler.setTimeout(60000);
+        for (int i = 2; i < fragments.size(); i++) {
+            assertNull(add(reassembler, fragments.get(i)));
+        }
+        assertNull(add(reassembler, fragments.get(0)));
+        reassembler.removeExpired();
+        assertMessage(30, body, add(reassembler, fragments.get(1)));
+    }
+
+    @Test
+    public void oldestMessageIsDroppedForNewOne() throws Exception {
+        byte[] body = createBody(200);
+        List<byte[]> first = createFragments(100, body);
+        List<byte[]> second = createFragments(200, body);
+        FragmentReassembler reassembler = new FragmentReassembler();
+        reassembler.setMaximumMessages(1);
+        assertNull(add(reassembler, first.get(0)));
+        for (int i = 0; i < second.size() - 1; i++) {
+            assertNull(add(reassembler, second.get(i)));
+        }
+        assertMessage(200, body, add(reassembler, second.get(second.size() - 1)));
+        // the first fragment of dropped message is lost
+        for (int i = 1; i < first.size(); i++) {
+            assertNull(add(reassembler, first.get(i)));
+        }
+    }
+
+    @Test
+    public void bigMessageIsSkipped() throws Exception {
+        List<byte[]> fragments = createFragments(40, createBody(300));
+        FragmentReassembler reassembler = new FragmentReassembler();
+        reassembler.setMaximumMessageSize(299);
+        for (byte[] fragment : fragments) {
+            assertNull(add(reassembler, fragment));
+        }
+    }
+}
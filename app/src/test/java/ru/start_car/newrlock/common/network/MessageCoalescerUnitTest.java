@@ -0,0 +1,114 @@
+package ru.start_car.newrlock.common.network;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MessageCoalescerUnitTest {
+    private static ChannelData createMessage(int length, boolean isAcknowledgmentRequired) {
+        byte[] body = new byte[length];
+        for (int i = 0; i < length; i++) {
+            body[i] = (byte)(length + i);
+        }
+        ChannelData data = new ChannelData();
+        data.setIsAcknowledgmentRequired(isAcknowledgmentRequired);
+        data.setData(body);
+        return data;
+    }
+
+    @Test
+    public void coalescedMessagesAreUnpacked() {
+        MessageCoalescer coalescer = new MessageCoalescer();
+        coalescer.setDelay(60000);
+        List<ChannelData> messages = new ArrayList<ChannelData>();
+        for (int length = 1; length <= 20; length += 3) {
+            ChannelData data = createMessage(length, true);
+            assertTrue(coalescer.getIsSuitable(data));
+            assertTrue(coalescer.add(data));
+            messages.add(data);
+        }
+        assertTrue(coalescer.getIsAcknowledgmentRequired());
+        assertFalse(coalescer.getIsDue());
+
+        ChannelData multi = coalescer.take();
+        assertTrue(coalescer.getIsEmpty());
+        assertTrue(multi.getIsMultiMessage());
+        assertTrue(multi.getIsAcknowledgmentRequired());
+        multi.setPacketId(77);
+        byte[] raw = multi.getChannelRawData();
+
+        ChannelDataView view = new ChannelDataView();
+        assertTrue(view.wrap(ByteBuffer.wrap(raw), 0, raw.length, null));
+        assertTrue(view.getIsMultiMessage());
+        List<ChannelData> unpacked = new ArrayList<ChannelData>();
+        assertTrue(view.unpackMessages(unpacked));
+        assertEquals(messages.size(), unpacked.size());
+        for (int i = 0; i < messages.size(); i++) {
+            assertArrayEquals(messages.get(i).getData(), unpacked.get(i).getData());
+            assertEquals(77, unpacked.get(i).getPacketId());
+            assertFalse(unpacked.get(i).getIsMultiMessage());
+        }
+    }
+
+    @Test
+    public void singleMessageIsSentAsIs() {
+        MessageCoalescer coalescer = new MessageCoalescer();
+        assertNull(coalescer.take());
+        ChannelData data = createMessage(5, false);
+        assertTrue(coalescer.add(data));
+        assertSame(data, coalescer.take());
+        assertNull(coalescer.take());
+    }
+
+    @Test
+    public void messagesWithOtherHeaderAreNotAdded() {
+        MessageCoalescer coalescer = new MessageCoalescer();
+        assertTrue(coalescer.add(createMessage(5, true)));
+        assertFalse(coalescer.add(createMessage(5, false)));
+        assertTrue(coalescer.add(createMessage(6, true)));
+        assertTrue(coalescer.take().getIsMultiMessage());
+        assertFalse(coalescer.getIsAcknowledgmentRequired());
+
+        ChannelData acknowledged = createMessage(5, false);
+        acknowledged.setAcknowledgments(SelectiveAcknowledgment.create(new int[] { 1 }, 1));
+        assertFalse(coalescer.getIsSuitable(acknowledged));
+        assertFalse(coalescer.getIsSuitable(ChannelData.createSelectiveAcknowledgment(SelectiveAcknowledgment.create(new int[] { 1 }, 1), null)));
+    }
+
+    @Test
+    public void fullPacketIsDue() {
+        MessageCoalescer coalescer = new MessageCoalescer();
+        coalescer.setDelay(60000);
+        // room for two messages of 10 bytes with their lengths
+        int maximumPacketSize = ChannelData.HEADER_SIZE + ChannelData.SEQUENCE_NUMBER_SIZE + ChannelData.CRC_LENGTH_IN_BYTES +
+            2 * (ChannelData.MESSAGE_LENGTH_SIZE + 10);
+        coalescer.setMaximumPacketSize(maximumPacketSize);
+        assertFalse(coalescer.getIsSuitable(createMessage(maximumPacketSize, false)));
+        assertTrue(coalescer.add(createMessage(10, false)));
+        assertFalse(coalescer.getIsDue());
+        assertTrue(coalescer.add(createMessage(10, false)));
+        assertTrue(coalescer.getIsDue());
+        assertFalse(coalescer.add(createMessage(1, false)));
+
+        ChannelData multi = coalescer.take();
+        multi.setPacketId(1);
+        multi.setSequenceNumber(1);
+        assertEquals(maximumPacketSize, multi.getChannelRawSize());
+    }
+
+    @Test
+    public void messagesAreDueAfterDelay() throws Exception {
+        MessageCoalescer coalescer = new MessageCoalescer();
+        coalescer.setDelay(20);
+        assertEquals(Long.MAX_VALUE, coalescer.getTimeOff());
+        long time = System.currentTimeMillis();
+        coalescer.add(createMessage(3, false));
+        assertTrue(coalescer.getTimeOff() >= time + 20);
+        Thread.sleep(30);
+        assertTrue(coalescer.getIsDue());
+    }
+}
@@ -0,0 +1,47 @@
+package ru.start_car.newrlock.common.network;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PacketIdQueueUnitTest {
+    @Test
+    public void boundedQueueKeepsOrder() {
+        PacketIdQueue queue = new PacketIdQueue(3);
+        assertTrue(queue.getIsEmpty());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.offer(-i));
+        }
+        assertFalse(queue.offer(100));
+        for (int i = 0; i < 4; i++) {
+            assertEquals(-i, (int) queue.poll());
+        }
+        assertEquals(-1, queue.poll());
+    }
+
+    @Test
+    public void idsArePassedBetweenThreads() throws Exception {
+        final PacketIdQueue queue = new PacketIdQueue(64);
+        final int count = 1000000;
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0; i < count; i++) {
+                    while (!queue.offer(i)) {
+                        Thread.yield();
+                    }
+                }
+            }
+        };
+        producer.start();
+        for (int i = 0; i < count; i++) {
+            long id;
+            while ((id = queue.poll()) < 0) {
+                Thread.yield();
+            }
+            assertEquals(i, id);
+        }
+        producer.join();
+        assertTrue(queue.getIsEmpty());
+    }
+}
@@ -0,0 +1,131 @@
+package ru.start_car.newrlock.common.network;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ReorderBufferUnitTest {
+    private static ChannelData createPacket(int sequenceNumber) {
+        ChannelData data = new ChannelData();
+        data.setSequenceNumber(sequenceNumber);
+        return data;
+    }
+
+    /**
+     * Add packets and return sequence numbers of delivered ones
+     */
+    private static List<Integer> add(ReorderBuffer buffer, int... sequenceNumbers) {
+        List<ChannelData> ready = new ArrayList<ChannelData>();
+        for (int number : sequenceNumbers) {
+            buffer.add(createPacket(number), ready);
+        }
+        return numbers(ready);
+    }
+
+    private static List<Integer> numbers(List<ChannelData> ready) {
+        List<Integer> res = new ArrayList<Integer>();
+        for (ChannelData data : ready) {
+            res.add(data.getSequenceNumber());
+        }
+        return res;
+    }
+
+    private static List<Integer> list(Integer... numbers) {
+        List<Integer> res = new ArrayList<Integer>();
+        for (Integer number : numbers) {
+            res.add(number);
+        }
+        return res;
+    }
+
+    @Test
+    public void firstPacketStartsSequence() {
+        ReorderBuffer buffer = new ReorderBuffer();
+        buffer.setHoldTime(60000);
+        assertEquals(list(100), add(buffer, 100));
+        assertEquals(list(), add(buffer, 102, 103));
+        assertEquals(list(101, 102, 103), add(buffer, 101));
+
+        // the sequence starts from the first received packet, so a packet sent before it isn't waited
+        buffer.clear();
+        assertEquals(list(11), add(buffer, 11));
+        assertEquals(list(10), add(buffer, 10));
+        assertEquals(list(12), add(buffer, 12));
+    }
+
+    @Test
+    public void packetsAreDeliveredAfterHoldTime() throws Exception {
+        ReorderBuffer buffer = new ReorderBuffer();
+        buffer.setHoldTime(20);
+        assertEquals(Long.MAX_VALUE, buffer.getTimeOff());
+        assertEquals(list(1), add(buffer, 1));
+        long time = System.currentTimeMillis();
+        assertEquals(list(), add(buffer, 4, 3));
+        assertTrue(buffer.getTimeOff() >= time + 20);
+
+        List<ChannelData> ready = new ArrayList<ChannelData>();
+        buffer.removeExpired(ready);
+        assertTrue(ready.isEmpty());
+        Thread.sleep(30);
+        buffer.removeExpired(ready);
+        assertEquals(list(3, 4), numbers(ready));
+        assertEquals(Long.MAX_VALUE, buffer.getTimeOff());
+
+        // the missed packet came too late, it is delivered at once
+        assertEquals(list(2), add(buffer, 2));
+        assertEquals(list(5), add(buffer, 5));
+    }
+
+    @Test
+    public void oldestPacketIsDeliveredWhenBufferIsFull() {
+        ReorderBuffer buffer = new ReorderBuffer();
+        buffer.setHoldTime(60000);
+        buffer.setCapacity(3);
+        assertEquals(list(1), add(buffer, 1));
+        assertEquals(list(), add(buffer, 3, 5, 6));
+        // 3 is delivered to hold 7, packets after the gap at 4 are held
+        assertEquals(list(3), add(buffer, 7));
+        assertEquals(list(4, 5, 6, 7), add(buffer, 4));
+        assertEquals(Long.MAX_VALUE, buffer.getTimeOff());
+    }
+
+    @Test
+    public void messagesOfOnePacketShareSequenceNumber() {
+        ReorderBuffer buffer = new ReorderBuffer();
+        buffer.setHoldTime(60000);
+        List<ChannelData> ready = new ArrayList<ChannelData>();
+        ChannelData first = createPacket(1);
+        buffer.add(first, ready);
+        ChannelData firstOther = createPacket(1);
+        buffer.add(firstOther, ready);
+        ChannelData third = createPacket(3);
+        ChannelData thirdOther = createPacket(3);
+        buffer.add(third, ready);
+        buffer.add(thirdOther, ready);
+        assertEquals(2, ready.size());
+        assertSame(first, ready.get(0));
+        assertSame(firstOther, ready.get(1));
+
+        // held messages of one packet keep order of receiving
+        ChannelData second = createPacket(2);
+        buffer.add(second, ready);
+        assertEquals(5, ready.size());
+        assertSame(second, ready.get(2));
+        assertSame(third, ready.get(3));
+        assertSame(thirdOther, ready.get(4));
+    }
+
+    @Test
+    public void clearReturnsHeldPackets() {
+        ReorderBuffer buffer = new ReorderBuffer();
+        buffer.setHoldTime(60000);
+        assertEquals(list(1), add(buffer, 1));
+        assertEquals(list(), add(buffer, 3, 4));
+        assertEquals(list(3, 4), numbers(buffer.clear()));
+        assertEquals(Long.MAX_VALUE, buffer.getTimeOff());
+        assertEquals(list(50), add(buffer, 50));
+    }
+}
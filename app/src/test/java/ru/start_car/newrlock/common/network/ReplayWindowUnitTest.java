@@ -0,0 +1,66 @@
+package ru.start_car.newrlock.common.network;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ReplayWindowUnitTest {
+    @Test
+    public void outOfOrderPacketsAreAcceptedOnce() {
+        ReplayWindow window = new ReplayWindow();
+        assertTrue(window.accept(10));
+        assertTrue(window.accept(12));
+        assertTrue(window.accept(11));
+        assertFalse(window.accept(11));
+        assertFalse(window.accept(12));
+        assertTrue(window.accept(5));
+        assertFalse(window.accept(5));
+        assertTrue(window.accept(10 + window.getSize()));
+        assertFalse(window.accept(10));
+        assertTrue(window.accept(11 + window.getSize()));
+    }
+
+    @Test
+    public void windowMovesOverIdWrap() {
+        ReplayWindow window = new ReplayWindow();
+        window.setSize(128);
+        assertEquals(192, window.getSize());
+        for (int id = Integer.MAX_VALUE - 300; id != Integer.MIN_VALUE + 300; id++) {
+            if (id % 3 != 0) {
+                assertTrue(window.accept(id));
+            }
+        }
+        for (int id = Integer.MIN_VALUE + 299; id != Integer.MIN_VALUE + 299 - window.getSize(); id--) {
+            assertEquals(id % 3 == 0, window.accept(id));
+        }
+        assertFalse(window.accept(Integer.MIN_VALUE + 299 - window.getSize()));
+        assertFalse(window.accept(Integer.MAX_VALUE - 100));
+    }
+
+    @Test
+    public void bigJumpClearsWindow() {
+        ReplayWindow window = new ReplayWindow();
+        assertTrue(window.accept(1));
+        assertTrue(window.accept(3));
+        assertTrue(window.accept(1000000));
+        assertTrue(window.accept(1000000 - 2));
+        assertFalse(window.accept(3));
+        window.clear();
+        assertTrue(window.accept(3));
+    }
+
+    @Test
+    public void repeatedIdIsCheckedWithoutRemembering() {
+        ReplayWindow window = new ReplayWindow();
+        assertFalse(window.getIsRepeated(10));
+        assertTrue(window.accept(10));
+        assertTrue(window.accept(12));
+        assertTrue(window.getIsRepeated(10));
+        assertTrue(window.getIsRepeated(12));
+        assertFalse(window.getIsRepeated(11));
+        assertFalse(window.getIsRepeated(13));
+        assertTrue(window.accept(11));
+        assertTrue(window.accept(12 + window.getSize()));
+        assertFalse(window.getIsRepeated(10));
+    }
+}
@@ -0,0 +1,207 @@
+package ru.start_car.newrlock.common.network;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import ru.start_car.newrlock.common.aids.CryptoManager;
+
+import static org.junit.Assert.*;
+
+public class SealedPacketUnitTest {
+    /**
+     * Id of the last sent packet (the channel sets Ids on sending)
+     */
+    private int m_LastPacketId;
+
+    private static PacketCipher toCipher(final CryptoManager manager) {
+        return new PacketCipher() {
+            @Override
+            public int seal(int packetId, byte[] buffer, int fieldsIndex, int index, int count) {
+                return manager.sealPacket(packetId, buffer, fieldsIndex, index, count);
+            }
+
+            @Override
+            public int open(int packetId, ByteBuffer fields, ByteBuffer in, ByteBuffer out) {
+                return manager.openPacket(packetId, fields, in, out);
+            }
+        };
+    }
+
+    /**
+     * Ciphers of client (index 0) and server (index 1) with exchanged keys
+     */
+    private static PacketCipher[] createCiphers() {
+        CryptoManager client = new CryptoManager();
+        CryptoManager server = new CryptoManager();
+        CryptoManager.KeyInfo clientPublic = client.createPublicKeyAndGetItPlain();
+        CryptoManager.KeyInfo serverPublic = server.createPublicKeyAndGetItPlain();
+        server.setOtherPublicKeyFromPlain(clientPublic);
+        client.setOtherPublicKeyFromPlain(serverPublic);
+        CryptoManager.KeyInfo clientOpen = client.createOpenKeyAndGetItEncrypted();
+        CryptoManager.KeyInfo serverOpen = server.createOpenKeyAndGetItEncrypted();
+        server.setOtherOpenKeyFromEncrypted(clientOpen);
+        client.setOtherOpenKeyFromEncrypted(serverOpen);
+        byte[] salt = CryptoManager.generateSalt();
+        client.setPacketSalt(salt);
+        server.setPacketSalt(salt);
+        return new PacketCipher[] { toCipher(client), toCipher(server) };
+    }
+
+    private ChannelData createSealed(byte[] body) {
+        ChannelData data = new ChannelData();
+        data.setPacketId(++m_LastPacketId);
+        data.setIsAcknowledgmentRequired(true);
+        data.setIsSealed(true);
+        ByteBuffer payload = data.createPayloadBuffer(body.length);
+        payload.put(body);
+        data.setPayloadLength(body.length);
+        return data;
+    }
+
+    private static ByteBuffer toDirect(ByteBuffer raw) {
+        ByteBuffer res = ByteBuffer.allocateDirect(raw.remaining());
+        res.put(raw.duplicate());
+        return res;
+    }
+
+    @Test
+    public void sealedPacketIsOpenedInPlace() {
+        PacketCipher[] ciphers = createCiphers();
+        byte[] body = "Open the trunk".getBytes();
+        ChannelData data = createSealed(body);
+        ByteBuffer raw = data.getChannelRawBuffer(ciphers[0]);
+        assertEquals(data.getChannelRawSize(), raw.remaining());
+        ByteBuffer received = toDirect(raw);
+
+        ChannelDataView view = new ChannelDataView();
+        assertFalse(view.wrap(toDirect(raw), 0, received.capacity(), null));
+        assertTrue(view.wrap(received, 0, received.capacity(), null, ciphers[1]));
+        assertTrue(view.getIsSealed());
+        assertEquals(data.getPacketId(), view.getPacketId());
+        byte[] opened = new byte[view.getPayloadLength()];
+        view.getPayload().get(opened);
+        assertArrayEquals(body, opened);
+        data.releaseBuffers();
+    }
+
+    @Test
+    public void resendIsTheSamePacketAndForgeryIsRejected() {
+        PacketCipher[] ciphers = createCiphers();
+        ChannelData data = createSealed(new byte[] { 1, 2, 3, 4, 5 });
+        data.setSequenceNumber(3);
+        // acknowledgments block is larger than reserved space, the body is moved before sealing
+        int[] ids = new int[20];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = 7 + 40 * i;
+        }
+        data.setAcknowledgments(SelectiveAcknowledgment.create(ids, ids.length));
+        byte[] first = new byte[data.getChannelRawSize()];
+        data.getChannelRawBuffer(ciphers[0]).get(first);
+        ChannelDataView view = new ChannelDataView();
+        // the view opens the body in place
+        assertTrue(view.wrap(ByteBuffer.wrap(first.clone()), 0, first.length, null, ciphers[1]));
+        assertEquals(20, view.getAcknowledgmentCount());
+        assertEquals(3, view.getSequenceNumber());
+
+        // the sealed packet is sent again with the same fields
+        byte[] second = new byte[data.getChannelRawSize()];
+        data.getChannelRawBuffer(ciphers[0]).get(second);
+        assertArrayEquals(first, second);
+
+        // every byte after size is authenticated: version, header, Id, sequence number, acknowledgments, body and tag
+        for (int i = 2; i < first.length; i++) {
+            byte[] forged = Arrays.copyOf(first, first.length);
+            forged[i] ^= 0x01;
+            assertFalse("byte " + i, view.wrap(ByteBuffer.wrap(forged), 0, forged.length, null, ciphers[1]));
+        }
+        // packet of other direction is not opened with the same cipher
+        assertFalse(view.wrap(ByteBuffer.wrap(first), 0, first.length, null, ciphers[0]));
+        data.releaseBuffers();
+    }
+
+    @Test
+    public void coalescedAndFragmentedPacketsAreSealed() throws Exception {
+        PacketCipher[] ciphers = createCiphers();
+        List<ChannelData> messages = new ArrayList<ChannelData>();
+        messages.add(createSealed(new byte[] { 1, 2 }));
+        messages.add(createSealed(new byte[] { 3, 4, 5 }));
+        ChannelData multi = ChannelData.createMultiMessage(messages, 2 * ChannelData.MESSAGE_LENGTH_SIZE + 5);
+        multi.setPacketId(++m_LastPacketId);
+        ByteBuffer raw = multi.getChannelRawBuffer(ciphers[0]);
+        ChannelDataView view = new ChannelDataView();
+        assertTrue(view.wrap(toDirect(raw), 0, raw.remaining(), null, ciphers[1]));
+        List<ChannelData> unpacked = new ArrayList<ChannelData>();
+        assertTrue(view.unpackMessages(unpacked));
+        assertEquals(2, unpacked.size());
+        assertArrayEquals(new byte[] { 3, 4, 5 }, unpacked.get(1).getData());
+
+        byte[] body = new byte[300];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (byte) i;
+        }
+        ChannelData big = createSealed(body);
+        big.setSequenceNumber(9);
+        int maximumPacketSize = 100;
+        List<ChannelData> fragments = big.createFragments(maximumPacketSize);
+        FragmentReassembler reassembler = new FragmentReassembler();
+        ChannelData message = null;
+        for (ChannelData fragment : fragments) {
+            fragment.setPacketId(++m_LastPacketId);
+            ByteBuffer fragmentRaw = fragment.getChannelRawBuffer(ciphers[0]);
+            assertTrue(fragmentRaw.remaining() <= maximumPacketSize);
+            assertTrue(view.wrap(toDirect(fragmentRaw), 0, fragmentRaw.remaining(), null, ciphers[1]));
+            assertTrue(view.getIsFragment());
+            message = reassembler.add(view);
+        }
+        assertNotNull(message);
+        assertArrayEquals(body, message.getData());
+        assertEquals(9, message.getSequenceNumber());
+    }
+
+    @Test
+    public void serviceMessageIsSealed() {
+        PacketCipher[] ciphers = createCiphers();
+        ChannelData data = ChannelData.createSelectiveAcknowledgment(SelectiveAcknowledgment.create(new int[] { 42 }, 1), null);
+        data.setPacketId(++m_LastPacketId);
+        data.setIsSealed(true);
+        assertNull(data.getChannelRawData());
+        byte[] raw = new byte[data.getChannelRawSize()];
+        data.getChannelRawBuffer(ciphers[0]).get(raw);
+
+        ChannelDataView view = new ChannelDataView();
+        assertFalse(view.wrap(ByteBuffer.wrap(raw), 0, raw.length, null));
+        assertTrue(view.wrap(ByteBuffer.wrap(raw), 0, raw.length, null, ciphers[1]));
+        assertTrue(view.getIsService());
+        assertEquals(ServiceMessageType.SelectiveAcknowledgment, view.getServiceMessageType());
+        assertEquals(42, view.getAcknowledgmentPacketId(0));
+
+        // the acknowledged Id can't be changed
+        raw[ChannelData.HEADER_SIZE + 1] ^= 0x01;
+        assertFalse(view.wrap(ByteBuffer.wrap(raw), 0, raw.length, null, ciphers[1]));
+        data.releaseBuffers();
+    }
+
+    @Test
+    public void everyServiceMessageIsOpened() {
+        PacketCipher[] ciphers = createCiphers();
+        ChannelDataView view = new ChannelDataView();
+        for (ServiceMessageType type : ServiceMessageType.values()) {
+            ChannelData data = type == ServiceMessageType.SelectiveAcknowledgment ?
+                ChannelData.createSelectiveAcknowledgment(SelectiveAcknowledgment.create(new int[] { 42 }, 1), null) :
+                ChannelData.createServiceMessage(type, null);
+            data.setPacketId(++m_LastPacketId);
+            data.setIsSealed(true);
+            byte[] raw = new byte[data.getChannelRawSize()];
+            data.getChannelRawBuffer(ciphers[0]).get(raw);
+            assertTrue(type.name(), view.wrap(ByteBuffer.wrap(raw), 0, raw.length, null, ciphers[1]));
+            assertTrue(view.getIsService());
+            assertTrue(view.getIsSealed());
+            assertEquals(type, view.getServiceMessageType());
+            data.releaseBuffers();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package ru.start_car.newrlock.common.network;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+public class SelectiveAcknowledgmentUnitTest {
+    /**
+     * Send block in service message and get acknowledged Ids from received packet
+     */
+    private static TreeSet<Integer> roundTrip(SelectiveAcknowledgment acknowledgments) {
+        ChannelData data = ChannelData.createSelectiveAcknowledgment(acknowledgments, null);
+        data.setPacketId(1);
+        byte[] raw = data.getChannelRawData();
+        assertEquals(data.getChannelRawSize(), raw.length);
+
+        ChannelDataView view = new ChannelDataView();
+        assertTrue(view.wrap(ByteBuffer.wrap(raw), 0, raw.length, null));
+        assertTrue(view.getIsService());
+        assertEquals(ServiceMessageType.SelectiveAcknowledgment, view.getServiceMessageType());
+        assertEquals(acknowledgments.getCount(), view.getAcknowledgmentCount());
+        TreeSet<Integer> res = new TreeSet<Integer>();
+        for (int i = 0; i < view.getAcknowledgmentCount(); i++) {
+            int packetId = view.getAcknowledgmentPacketId(i);
+            int bitmap = view.getAcknowledgmentBitmap(i);
+            assertEquals(acknowledgments.getPacketId(i), packetId);
+            assertEquals(acknowledgments.getBitmap(i), bitmap);
+            res.add(packetId);
+            for (int bit = 0; bit < 32; bit++) {
+                if ((bitmap & (1 << bit)) != 0) {
+                    res.add(packetId - 1 - bit);
+                }
+            }
+        }
+        return res;
+    }
+
+    @Test
+    public void bitmapRestoresAllIds() {
+        int[] ids = { 100, 99, 97, 60, 200, 168, 167 };
+        TreeSet<Integer> expected = new TreeSet<Integer>();
+        for (int id : ids) {
+            expected.add(id);
+        }
+        SelectiveAcknowledgment acknowledgments = SelectiveAcknowledgment.create(ids.clone(), ids.length);
+        // 200 covers 168, 167 is too far from it, 100 covers 99 and 97
+        assertEquals(4, acknowledgments.getCount());
+        assertEquals(200, acknowledgments.getPacketId(0));
+        assertEquals(1 << 31, acknowledgments.getBitmap(0));
+        assertEquals(expected, roundTrip(acknowledgments));
+    }
+
+    @Test
+    public void idsOverWrapAreCovered() {
+        int[] ids = { Integer.MIN_VALUE + 1, Integer.MAX_VALUE, Integer.MAX_VALUE - 3 };
+        SelectiveAcknowledgment acknowledgments = SelectiveAcknowledgment.create(ids.clone(), ids.length);
+        assertEquals(1, acknowledgments.getCount());
+        assertEquals(Integer.MIN_VALUE + 1, acknowledgments.getPacketId(0));
+        TreeSet<Integer> received = roundTrip(acknowledgments);
+        assertEquals(3, received.size());
+        for (int id : ids) {
+            assertTrue(received.contains(id));
+        }
+    }
+
+    @Test
+    public void countIsLimited() {
+        assertNull(SelectiveAcknowledgment.create(new int[0], 0));
+        int[] ids = new int[300];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i * 100;
+        }
+        SelectiveAcknowledgment acknowledgments = SelectiveAcknowledgment.create(ids, ids.length);
+        assertEquals(SelectiveAcknowledgment.MAXIMUM_ITEMS, acknowledgments.getCount());
+        assertEquals(1 + SelectiveAcknowledgment.MAXIMUM_ITEMS * 8, acknowledgments.getSize());
+        // the newest Ids are acknowledged first
+        assertEquals(29900, acknowledgments.getPacketId(0));
+        assertEquals(SelectiveAcknowledgment.MAXIMUM_ITEMS, roundTrip(acknowledgments).size());
+    }
+}
@@ -0,0 +1,96 @@
+package ru.start_car.newrlock.common.network;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SendSchedulerUnitTest {
+    @Test
+    public void higherPriorityOvertakesQueue() {
+        SendScheduler scheduler = new SendScheduler();
+        ChannelData low1 = new ChannelData();
+        ChannelData low2 = new ChannelData();
+        ChannelData normal = new ChannelData();
+        ChannelData high = new ChannelData();
+        scheduler.add(low1, SendPriority.Low, 0, null);
+        scheduler.add(normal, SendPriority.Normal, 0, null);
+        scheduler.add(low2, SendPriority.Low, 0, null);
+        scheduler.add(high, SendPriority.High, 0, null);
+        assertEquals(4, scheduler.getCount());
+        assertSame(high, scheduler.poll());
+        assertSame(normal, scheduler.poll());
+        assertSame(low1, scheduler.poll());
+        assertSame(low2, scheduler.poll());
+        assertNull(scheduler.poll());
+    }
+
+    @Test
+    public void blockedClassDoesNotBlockOthers() {
+        SendScheduler scheduler = new SendScheduler();
+        ChannelData reliable = new ChannelData();
+        reliable.setDeliveryQos(DeliveryQos.Reliable);
+        ChannelData ordered1 = new ChannelData();
+        ordered1.setDeliveryQos(DeliveryQos.ReliableOrdered);
+        ChannelData ordered2 = new ChannelData();
+        ordered2.setDeliveryQos(DeliveryQos.ReliableOrdered);
+        ChannelData telemetry = new ChannelData();
+        telemetry.setDeliveryQos(DeliveryQos.FireAndForget);
+        scheduler.add(ordered1, SendPriority.Normal, 0, null);
+        scheduler.add(ordered2, SendPriority.Normal, 0, null);
+        scheduler.add(reliable, SendPriority.Normal, 0, null);
+        scheduler.add(telemetry, SendPriority.Normal, 0, null);
+
+        assertSame(telemetry, scheduler.poll(false, false));
+        assertNull(scheduler.poll(false, true));
+        assertSame(reliable, scheduler.poll(true, false));
+        assertSame(ordered1, scheduler.poll(true, true));
+        assertNull(scheduler.poll(true, false));
+        assertSame(ordered2, scheduler.poll(true, true));
+    }
+
+    @Test
+    public void newerDataReplacesNotSentOne() {
+        SendScheduler scheduler = new SendScheduler();
+        ChannelData status1 = new ChannelData();
+        ChannelData other = new ChannelData();
+        ChannelData status2 = new ChannelData();
+        scheduler.add(status1, SendPriority.Normal, 0, "status");
+        scheduler.add(other, SendPriority.Normal, 0, null);
+        scheduler.add(status2, SendPriority.Normal, 0, "status");
+        assertEquals(2, scheduler.getCount());
+
+        List<ChannelData> dropped = new ArrayList<ChannelData>();
+        scheduler.collectDropped(dropped);
+        assertEquals(1, dropped.size());
+        assertSame(status1, dropped.get(0));
+        assertSame(other, scheduler.poll());
+        assertSame(status2, scheduler.poll());
+
+        ChannelData status3 = new ChannelData();
+        scheduler.add(status3, SendPriority.Normal, 0, "status");
+        assertSame(status3, scheduler.poll());
+    }
+
+    @Test
+    public void expiredDataIsDropped() {
+        SendScheduler scheduler = new SendScheduler();
+        ChannelData expired = new ChannelData();
+        ChannelData alive = new ChannelData();
+        long now = System.currentTimeMillis();
+        scheduler.add(expired, SendPriority.Normal, now - 1, null);
+        scheduler.add(alive, SendPriority.Normal, now + 60000, null);
+        assertEquals(now - 1, scheduler.getTimeOff());
+
+        List<ChannelData> dropped = new ArrayList<ChannelData>();
+        scheduler.collectDropped(dropped);
+        assertEquals(1, dropped.size());
+        assertSame(expired, dropped.get(0));
+        assertEquals(now + 60000, scheduler.getTimeOff());
+        assertSame(alive, scheduler.poll());
+        assertNull(scheduler.poll());
+        assertEquals(Long.MAX_VALUE, scheduler.getTimeOff());
+    }
+}
@@ -0,0 +1,125 @@
+package ru.start_car.newrlock.common.network;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SendWindowUnitTest {
+    /**
+     * Policy which resends at once and counts acknowledgments
+     */
+    private static final class ImmediatePolicy implements RetransmissionPolicy {
+        public int acknowledgedCount;
+        public int retransmittedCount;
+
+        @Override
+        public int getRetransmissionTimeout(int attempt) {
+            return 0;
+        }
+
+        @Override
+        public int getMaximumAttempts() {
+            return 2;
+        }
+
+        @Override
+        public void onAcknowledgment(long roundTripTime, boolean isRetransmitted) {
+            acknowledgedCount++;
+            if (isRetransmitted) {
+                retransmittedCount++;
+            }
+        }
+    }
+
+    private static ChannelData createSent(int packetId) {
+        ChannelData data = new ChannelData();
+        data.setPacketId(packetId);
+        data.setIsAcknowledgmentRequired(true);
+        return data;
+    }
+
+    @Test
+    public void windowIsFullUntilAcknowledgment() {
+        SendWindow window = new SendWindow();
+        window.setSize(3);
+        assertTrue(window.getIsEmpty());
+        ChannelData first = createSent(1);
+        ChannelData second = createSent(2);
+        window.add(first);
+        window.add(second);
+        assertFalse(window.getIsFull());
+        window.add(createSent(3));
+        assertTrue(window.getIsFull());
+
+        // any packet can be acknowledged, the window slides by one
+        assertSame(second, window.acknowledge(2));
+        assertNull(window.acknowledge(2));
+        assertNull(window.acknowledge(7));
+        assertFalse(window.getIsFull());
+        window.add(createSent(4));
+        assertTrue(window.getIsFull());
+
+        List<ChannelData> rest = window.clear();
+        assertEquals(3, rest.size());
+        assertSame(first, rest.get(0));
+        assertEquals(3, rest.get(1).getPacketId());
+        assertEquals(4, rest.get(2).getPacketId());
+        assertTrue(window.getIsEmpty());
+    }
+
+    @Test
+    public void sizeIsAtLeastOne() {
+        SendWindow window = new SendWindow();
+        window.setSize(0);
+        assertEquals(1, window.getSize());
+        window.add(createSent(1));
+        assertTrue(window.getIsFull());
+    }
+
+    @Test
+    public void lostPacketIsResentThenExpired() throws Exception {
+        SendWindow window = new SendWindow();
+        window.setPolicy(new ImmediatePolicy());
+        ChannelData data = createSent(5);
+        window.add(data);
+        List<ChannelData> resend = new ArrayList<ChannelData>();
+        assertNull(window.collectDataToResend(resend));
+        assertTrue(resend.isEmpty());
+
+        Thread.sleep(5);
+        assertNull(window.collectDataToResend(resend));
+        assertEquals(1, resend.size());
+        assertSame(data, resend.get(0));
+
+        // no more attempts: the packet is lost and removed
+        Thread.sleep(5);
+        resend.clear();
+        assertSame(data, window.collectDataToResend(resend));
+        assertTrue(resend.isEmpty());
+        assertTrue(window.getIsEmpty());
+        assertEquals(Long.MAX_VALUE, window.getNextTimeOff());
+    }
+
+    @Test
+    public void acknowledgmentIsPassedToPolicyOfSending() throws Exception {
+        SendWindow window = new SendWindow();
+        ImmediatePolicy policy = new ImmediatePolicy();
+        window.setPolicy(policy);
+        window.add(createSent(1));
+        window.add(createSent(2));
+        // new policy is used for next packets only
+        window.setPolicy(new ImmediatePolicy());
+        Thread.sleep(5);
+        List<ChannelData> resend = new ArrayList<ChannelData>();
+        window.collectDataToResend(resend);
+        assertEquals(2, resend.size());
+
+        assertNotNull(window.acknowledge(1));
+        assertNotNull(window.acknowledge(2));
+        assertEquals(2, policy.acknowledgedCount);
+        assertEquals(2, policy.retransmittedCount);
+    }
+}
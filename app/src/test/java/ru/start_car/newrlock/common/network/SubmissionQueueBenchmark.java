@@ -0,0 +1,26 @@
+package ru.start_car.newrlock.common.network;
+
+import java.util.ArrayList;
+
+/**
+ * Submission from many threads: synchronized scheduler against lock-free queue.
+ * Not a unit test, run main() by hand on the test classpath.
+ */
+public class SubmissionQueueBenchmark {
+    private static final int MESSAGES = 100000;
+
+    public static void main(String[] args) throws Exception {
+        int producers = SubmissionQueueUnitTest.PRODUCERS;
+        for (int round = 0; round < 2; round++) {
+            // the first round warms up
+            long locked = SubmissionQueueUnitTest.run(null, new SendScheduler(),
+                SubmissionQueueUnitTest.createMessages(producers, MESSAGES), new ArrayList<ChannelData>());
+            long lockFree = SubmissionQueueUnitTest.run(new SubmissionQueue(), new SendScheduler(),
+                SubmissionQueueUnitTest.createMessages(producers, MESSAGES), new ArrayList<ChannelData>());
+            if (round == 1) {
+                System.out.println("Submission of " + producers + " x " + MESSAGES + " messages on " + Runtime.getRuntime().availableProcessors()
+                    + " processors: synchronized scheduler " + locked + " ms, lock-free queue " + lockFree + " ms");
+            }
+        }
+    }
+}
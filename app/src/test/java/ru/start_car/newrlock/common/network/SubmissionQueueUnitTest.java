@@ -0,0 +1,114 @@
+package ru.start_car.newrlock.common.network;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class SubmissionQueueUnitTest {
+    static final int PRODUCERS = 8;
+
+    /**
+     * Add messages from many threads while the consumer takes them (to the sent list).
+     * Without the queue messages are added to the synchronized scheduler directly
+     * @return Time in milliseconds
+     */
+    static long run(final SubmissionQueue queue, final SendScheduler scheduler, final ChannelData[][] messages, final List<ChannelData> sent) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicBoolean isDone = new AtomicBoolean();
+        Thread[] producers = new Thread[messages.length];
+        for (int p = 0; p < producers.length; p++) {
+            final ChannelData[] own = messages[p];
+            producers[p] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (ChannelData data : own) {
+                        if (queue != null) {
+                            queue.offer(data, SendPriority.Normal, 0, null);
+                        } else {
+                            scheduler.add(data, SendPriority.Normal, 0, null);
+                        }
+                    }
+                }
+            };
+            producers[p].start();
+        }
+        Thread consumer = new Thread() {
+            @Override
+            public void run() {
+                // the channel thread takes messages while they are added
+                while (!isDone.get()) {
+                    take(queue, scheduler, sent);
+                    Thread.yield();
+                }
+                take(queue, scheduler, sent);
+            }
+        };
+        consumer.start();
+        long time = System.nanoTime();
+        start.countDown();
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        time = System.nanoTime() - time;
+        isDone.set(true);
+        consumer.join();
+        return time / 1000000L;
+    }
+
+    private static void take(SubmissionQueue queue, SendScheduler scheduler, List<ChannelData> sent) {
+        if (queue != null) {
+            queue.drainTo(scheduler);
+        }
+        ChannelData data;
+        while ((data = scheduler.poll()) != null) {
+            sent.add(data);
+        }
+    }
+
+    static ChannelData[][] createMessages(int producers, int count) {
+        ChannelData[][] messages = new ChannelData[producers][count];
+        for (int p = 0; p < producers; p++) {
+            for (int i = 0; i < count; i++) {
+                messages[p][i] = new ChannelData();
+            }
+        }
+        return messages;
+    }
+
+    @Test
+    public void messagesOfEveryThreadKeepOrder() throws Exception {
+        ChannelData[][] messages = createMessages(PRODUCERS, 10000);
+        IdentityHashMap<ChannelData, int[]> positions = new IdentityHashMap<ChannelData, int[]>();
+        for (int p = 0; p < PRODUCERS; p++) {
+            for (int i = 0; i < messages[p].length; i++) {
+                positions.put(messages[p][i], new int[] { p, i });
+            }
+        }
+        SubmissionQueue queue = new SubmissionQueue();
+        SendScheduler scheduler = new SendScheduler();
+        List<ChannelData> sent = new ArrayList<ChannelData>();
+        run(queue, scheduler, messages, sent);
+        assertTrue(queue.getIsEmpty());
+        assertEquals(PRODUCERS * 10000, sent.size());
+
+        int[] next = new int[PRODUCERS];
+        for (ChannelData data : sent) {
+            int[] position = positions.get(data);
+            assertEquals(next[position[0]]++, position[1]);
+        }
+        for (int p = 0; p < PRODUCERS; p++) {
+            assertEquals(10000, next[p]);
+        }
+    }
+}